@@ -0,0 +1,42 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * allocateNewPage：每次分配都会写位图页并fsync
+ * 位图只有一页，所以每轮在新文件上分配固定数量的页
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, batchSize = AllocateBenchmark.ALLOCATIONS)
+@Measurement(iterations = 5, batchSize = AllocateBenchmark.ALLOCATIONS)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocateBenchmark {
+    static final int ALLOCATIONS = 1000;
+
+    private Path path;
+    private DBFile dbFile;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        path = BenchFiles.newTempFile("alloc-bench");
+        dbFile = new DBFile(path.toString());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        dbFile.close();
+        BenchFiles.delete(path);
+    }
+
+    @Benchmark
+    public int allocateNewPage() throws IOException {
+        return dbFile.allocateNewPage();
+    }
+}
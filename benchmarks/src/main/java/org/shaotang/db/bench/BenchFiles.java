@@ -0,0 +1,42 @@
+package org.shaotang.db.bench;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 基准测试用的临时数据库文件
+ */
+final class BenchFiles {
+    private BenchFiles() {
+    }
+
+    static Path newTempFile(String prefix) throws IOException {
+        Path path = Files.createTempFile(prefix, ".db");
+        // DBFile按文件长度为0判断是否新建
+        Files.delete(path);
+        return path;
+    }
+
+    /**
+     * 创建包含pageCount个已分配用户页的文件
+     */
+    static DBFile createFilled(Path path, int pageCount) throws IOException {
+        DBFile dbFile = new DBFile(path.toString());
+        int first = dbFile.allocateContiguousPages(pageCount);
+        byte[] data = new byte[DBFile.PAGE_SIZE];
+        for (int i = 0; i < pageCount; i++) {
+            data[0] = (byte) i;
+            dbFile.writePage(first + i, data, false);
+        }
+        dbFile.sync();
+        dbFile.flushBitmap();
+        return dbFile;
+    }
+
+    static void delete(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
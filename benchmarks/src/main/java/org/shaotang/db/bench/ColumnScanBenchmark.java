@@ -0,0 +1,68 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.shaotang.db.storage.ColumnScan;
+import org.shaotang.db.storage.ColumnarPage;
+import org.shaotang.db.storage.Page;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整页过滤+聚合：行式页逐个getInt 对比 列式页向量化内核
+ * 两种页存放同样的 (键int, 值int) 数据
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ColumnScanBenchmark {
+    private static final int LOW = 250;
+    private static final int HIGH = 750;
+
+    private Page rowPage;
+    private int rows;
+    private ColumnarPage columnarPage;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        columnarPage = ColumnarPage.format(new Page(), ColumnarPage.ColumnType.INT, ColumnarPage.ColumnType.INT);
+        rowPage = new Page();
+        rows = 0;
+        while (true) {
+            int key = random.nextInt(1000);
+            int value = random.nextInt(1_000_000);
+            if (columnarPage.appendRow(key, value) < 0) {
+                break;
+            }
+            rowPage.setInt(rows * 8, key);
+            rowPage.setInt(rows * 8 + 4, value);
+            rows++;
+        }
+    }
+
+    @Benchmark
+    public long rowPageGetInt() {
+        long sum = 0;
+        for (int row = 0; row < rows; row++) {
+            int key = rowPage.getInt(row * 8);
+            if (key >= LOW && key <= HIGH) {
+                sum += rowPage.getInt(row * 8 + 4);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long columnarVectorized() {
+        return ColumnScan.sumWhere(columnarPage, 0, LOW, HIGH, 1);
+    }
+
+    @Benchmark
+    public int columnarCount() {
+        return ColumnScan.countInRange(columnarPage, 0, LOW, HIGH);
+    }
+}
@@ -0,0 +1,79 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBFile单页读写：顺序/随机访问，写入时分别测试带fsync和不带fsync
+ *
+ * 读和写用不同的状态类，fsync参数只作用于写，读不会按fsync重复出结果。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class DBFileBenchmark {
+    // 16MB数据，超出L2/L3缓存，但仍在页缓存中
+    private static final int PAGE_COUNT = 4096;
+
+    /**
+     * 读写共用的文件和访问模式
+     */
+    @State(Scope.Thread)
+    public abstract static class FileState {
+        @Param({"sequential", "random"})
+        public String pattern;
+
+        private Path path;
+        DBFile dbFile;
+        private int cursor;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = BenchFiles.newTempFile("dbfile-bench");
+            dbFile = BenchFiles.createFilled(path, PAGE_COUNT);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            dbFile.close();
+            BenchFiles.delete(path);
+        }
+
+        int nextPageId() {
+            if ("random".equals(pattern)) {
+                return ThreadLocalRandom.current().nextInt(PAGE_COUNT);
+            }
+            cursor = (cursor + 1) % PAGE_COUNT;
+            return cursor;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReadState extends FileState {
+    }
+
+    @State(Scope.Thread)
+    public static class WriteState extends FileState {
+        @Param({"true", "false"})
+        public boolean fsync;
+
+        byte[] data = new byte[DBFile.PAGE_SIZE];
+    }
+
+    @Benchmark
+    public byte[] readPage(ReadState state) throws IOException {
+        return state.dbFile.readPage(state.nextPageId());
+    }
+
+    @Benchmark
+    public void writePage(WriteState state) throws IOException {
+        state.dbFile.writePage(state.nextPageId(), state.data, state.fsync);
+    }
+}
@@ -0,0 +1,130 @@
+package org.shaotang.db.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * YCSB的键分布：每个线程一个实例，键的范围是[0, keyCount)，keyCount随插入增长
+ *
+ * uniform：均匀分布
+ * zipfian：Zipf分布（theta=0.99），在固定的一百亿个位置上生成，FNV哈希后对当前键数取模，
+ *          热点打散到整个键空间，新插入的键也会被读到和更新
+ * latest：Zipf分布，但越新插入的键越热
+ *
+ * Zipf生成算法来自Gray等人的 "Quickly Generating Billion-Record Synthetic Databases"，与YCSB相同。
+ */
+abstract class KeyChooser {
+    static final double ZIPFIAN_CONSTANT = 0.99;
+    // 打散时Zipf分布所在的固定位置数及其zeta值（theta=0.99），与YCSB的ScrambledZipfianGenerator相同
+    static final long SCRAMBLED_ITEM_COUNT = 10_000_000_000L;
+    static final double SCRAMBLED_ZETAN = 26.46902820178302;
+
+    protected final AtomicInteger keyCount;
+
+    KeyChooser(AtomicInteger keyCount) {
+        this.keyCount = keyCount;
+    }
+
+    abstract int nextKey();
+
+    static KeyChooser create(String distribution, AtomicInteger keyCount) {
+        return switch (distribution) {
+            case "uniform" -> new Uniform(keyCount);
+            case "zipfian" -> new Zipfian(keyCount, true);
+            case "latest" -> new Zipfian(keyCount, false);
+            default -> throw new IllegalArgumentException("未知的键分布: " + distribution);
+        };
+    }
+
+    static final class Uniform extends KeyChooser {
+        Uniform(AtomicInteger keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        int nextKey() {
+            return ThreadLocalRandom.current().nextInt(keyCount.get());
+        }
+    }
+
+    /**
+     * scrambled为true时是zipfian，为false时是latest
+     */
+    static final class Zipfian extends KeyChooser {
+        private final boolean scrambled;
+        private final double theta = ZIPFIAN_CONSTANT;
+        private final double alpha = 1.0 / (1.0 - theta);
+        private final double zeta2 = zeta(0, 2, 0);
+
+        // zeta(n)随键数增长增量计算；打散时固定为SCRAMBLED_ITEM_COUNT
+        private long zetaCount = 0;
+        private double zetaN = 0;
+        private double eta;
+
+        Zipfian(AtomicInteger keyCount, boolean scrambled) {
+            super(keyCount);
+            this.scrambled = scrambled;
+            if (scrambled) {
+                zetaCount = SCRAMBLED_ITEM_COUNT;
+                zetaN = SCRAMBLED_ZETAN;
+                updateEta();
+            } else {
+                grow(keyCount.get());
+            }
+        }
+
+        private void grow(int n) {
+            zetaN = zeta((int) zetaCount, n, zetaN);
+            zetaCount = n;
+            updateEta();
+        }
+
+        private void updateEta() {
+            eta = (1 - Math.pow(2.0 / zetaCount, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        // 在zeta(from)的基础上累加到zeta(to)
+        private double zeta(int from, int to, double initial) {
+            double sum = initial;
+            for (int i = from; i < to; i++) {
+                sum += 1 / Math.pow(i + 1, theta);
+            }
+            return sum;
+        }
+
+        // 返回[0, zetaCount)，0最热
+        private long nextRank() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return Math.min(zetaCount - 1, (long) (zetaCount * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        @Override
+        int nextKey() {
+            if (scrambled) {
+                return (int) Long.remainderUnsigned(fnvHash(nextRank()), keyCount.get());
+            }
+            int n = keyCount.get();
+            if (n != zetaCount) {
+                grow(n);
+            }
+            return (int) (n - 1 - nextRank());
+        }
+
+        private static long fnvHash(long value) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < 8; i++) {
+                hash ^= value & 0xFF;
+                hash *= 0x100000001B3L;
+                value >>>= 8;
+            }
+            return hash;
+        }
+    }
+}
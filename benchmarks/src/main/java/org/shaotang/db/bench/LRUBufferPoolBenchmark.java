@@ -0,0 +1,80 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+import org.shaotang.db.storage.Page;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRUBufferPool.getPage的命中和未命中路径，覆盖不同缓存容量和线程数
+ * 命中：只访问缓存容量以内的页；未命中：随机访问远大于缓存的页集合
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LRUBufferPoolBenchmark {
+    private static final int PAGE_COUNT = 4096;
+
+    @Param({"16", "256"})
+    public int cacheSize;
+
+    private Path path;
+    private LRUBufferPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = BenchFiles.newTempFile("lru-bench");
+        DBFile dbFile = BenchFiles.createFilled(path, PAGE_COUNT);
+        pool = new LRUBufferPool(dbFile, cacheSize);
+        // 预热命中路径用到的页
+        for (int pageId = 0; pageId < cacheSize; pageId++) {
+            pool.getPage(pageId);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.close();
+        BenchFiles.delete(path);
+    }
+
+    private Page hit() throws IOException {
+        return pool.getPage(ThreadLocalRandom.current().nextInt(cacheSize));
+    }
+
+    private Page miss() throws IOException {
+        return pool.getPage(cacheSize + ThreadLocalRandom.current().nextInt(PAGE_COUNT - cacheSize));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Page getPageHit1Thread() throws IOException {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Page getPageHit4Threads() throws IOException {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Page getPageMiss1Thread() throws IOException {
+        return miss();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Page getPageMiss4Threads() throws IOException {
+        return miss();
+    }
+}
@@ -0,0 +1,83 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shaotang.db.storage.Page;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page基本读写原语：每次调用遍历整页
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageBenchmark {
+    private Page page;
+    private final int[] ints = new int[Page.PAGE_SIZE / Integer.BYTES];
+    private final long[] longs = new long[Page.PAGE_SIZE / Long.BYTES];
+
+    @Setup
+    public void setUp() {
+        page = new Page();
+        for (int offset = 0; offset < Page.PAGE_SIZE; offset += Integer.BYTES) {
+            page.setInt(offset, offset);
+        }
+    }
+
+    @Benchmark
+    public void setIntFullPage() {
+        for (int offset = 0; offset < Page.PAGE_SIZE; offset += Integer.BYTES) {
+            page.setInt(offset, offset);
+        }
+    }
+
+    @Benchmark
+    public long getIntFullPage() {
+        long sum = 0;
+        for (int offset = 0; offset < Page.PAGE_SIZE; offset += Integer.BYTES) {
+            sum += page.getInt(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void setLongFullPage() {
+        for (int offset = 0; offset < Page.PAGE_SIZE; offset += Long.BYTES) {
+            page.setLong(offset, offset);
+        }
+    }
+
+    @Benchmark
+    public long getLongFullPage() {
+        long sum = 0;
+        for (int offset = 0; offset < Page.PAGE_SIZE; offset += Long.BYTES) {
+            sum += page.getLong(offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void getBytesFullPage(Blackhole bh) {
+        bh.consume(page.getBytes(0, Page.PAGE_SIZE));
+    }
+
+    @Benchmark
+    public int[] getIntsFullPage() {
+        page.getInts(0, ints, 0, ints.length);
+        return ints;
+    }
+
+    @Benchmark
+    public void setLongsFullPage() {
+        page.setLongs(0, longs, 0, longs.length);
+    }
+
+    @Benchmark
+    public void clearFullPage() {
+        page.clear();
+    }
+}
@@ -0,0 +1,69 @@
+package org.shaotang.db.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.PrefetchDBFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 顺序扫描：普通readPage对比PrefetchDBFile的预读
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrefetchScanBenchmark {
+    private static final int PAGE_COUNT = 1024;
+
+    @Param({"4", "16"})
+    public int prefetchCount;
+
+    private Path path;
+    private PrefetchDBFile prefetchFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = BenchFiles.newTempFile("prefetch-bench");
+        BenchFiles.createFilled(path, PAGE_COUNT).close();
+        prefetchFile = new PrefetchDBFile(path.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        prefetchFile.close();
+        BenchFiles.delete(path);
+    }
+
+    @Benchmark
+    public void scanPlain(Blackhole bh) throws IOException {
+        for (int pageId = 0; pageId < PAGE_COUNT; pageId++) {
+            bh.consume(prefetchFile.readPage(pageId));
+        }
+    }
+
+    @Benchmark
+    public void scanWithPrefetch(Blackhole bh) throws IOException, ExecutionException, InterruptedException {
+        int pageId = 0;
+        while (pageId < PAGE_COUNT) {
+            bh.consume(prefetchFile.readPageWithPrefetch(pageId, prefetchCount).get());
+            pageId++;
+            // 预读命中的页直接从预读缓存取
+            while (pageId < PAGE_COUNT) {
+                Optional<byte[]> cached = prefetchFile.getFromPrefetchCache(pageId);
+                if (cached.isEmpty()) {
+                    break;
+                }
+                bh.consume(cached.get());
+                pageId++;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.shaotang.db.bench;
+
+import org.HdrHistogram.Histogram;
+import org.shaotang.db.storage.BufferRing;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+import org.shaotang.db.storage.Page;
+import org.shaotang.db.storage.StorageMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * YCSB风格的多线程负载：在DBFile + LRUBufferPool上跑读/更新/插入/扫描的混合操作
+ *
+ * 每条记录占一页，键就是页号。数据集通常远大于缓冲池，测的是缓存未命中时的真实I/O路径。
+ *   read   读一页（共享页锁存）
+ *   update 读一页并修改、标脏（独占页锁存），淘汰时写回
+ *   insert 分配新页并写入，新键对后续操作可见
+ *   scan   从随机键开始通过BufferRing顺序读若干页，不冲掉缓冲池
+ *
+ * 参数都是key=value形式，例如：
+ *   java --add-modules=jdk.incubator.vector -cp benchmarks/target/benchmarks.jar \
+ *       org.shaotang.db.bench.YcsbDriver workload=b records=100000 operations=1000000 threads=8 cache=2048
+ *
+ * 预设负载（与YCSB一致）：
+ *   a 50%读 50%更新，zipfian     b 95%读 5%更新，zipfian     c 100%读，zipfian
+ *   d 95%读 5%插入，latest       e 95%扫描 5%插入，zipfian
+ * 单独给出的比例和分布会覆盖预设。
+ */
+public class YcsbDriver {
+    private static final String[] OPERATIONS = {"READ", "UPDATE", "INSERT", "SCAN"};
+    private static final int READ = 0;
+    private static final int UPDATE = 1;
+    private static final int INSERT = 2;
+    private static final int SCAN = 3;
+
+    // 页内布局：[键int][版本long]
+    private static final int KEY_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+
+    // 延迟直方图最大记录1分钟，3位有效数字
+    private static final long MAX_LATENCY_NANOS = 60_000_000_000L;
+
+    private final Map<String, String> config;
+    private final int recordCount;
+    private final long operationCount;
+    private final int threads;
+    private final int cacheSize;
+    private final int maxScanLength;
+    private final int ringSize;
+    private final String distribution;
+    // 各操作的累计比例，用来按随机数选择操作
+    private final double[] cumulative = new double[OPERATIONS.length];
+
+    private final AtomicInteger keyCount = new AtomicInteger();
+
+    YcsbDriver(Map<String, String> config) {
+        this.config = config;
+        Map<String, String> preset = preset(config.getOrDefault("workload", "a"));
+        this.recordCount = Integer.parseInt(config.getOrDefault("records", "20000"));
+        this.operationCount = Long.parseLong(config.getOrDefault("operations", "200000"));
+        this.threads = Integer.parseInt(config.getOrDefault("threads", "4"));
+        this.cacheSize = Integer.parseInt(config.getOrDefault("cache", "512"));
+        this.maxScanLength = Integer.parseInt(config.getOrDefault("maxscan", "100"));
+        this.ringSize = Integer.parseInt(config.getOrDefault("ring", "16"));
+        this.distribution = config.getOrDefault("distribution", preset.get("distribution"));
+
+        String[] keys = {"read", "update", "insert", "scan"};
+        double total = 0;
+        for (int op = 0; op < keys.length; op++) {
+            total += Double.parseDouble(config.getOrDefault(keys[op], preset.getOrDefault(keys[op], "0")));
+            cumulative[op] = total;
+        }
+        if (total <= 0 || recordCount <= 0 || operationCount <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("记录数、操作数、线程数和操作比例之和必须大于0");
+        }
+        for (int op = 0; op < cumulative.length; op++) {
+            cumulative[op] /= total;
+        }
+    }
+
+    private static Map<String, String> preset(String workload) {
+        return switch (workload) {
+            case "a" -> Map.of("read", "0.5", "update", "0.5", "distribution", "zipfian");
+            case "b" -> Map.of("read", "0.95", "update", "0.05", "distribution", "zipfian");
+            case "c" -> Map.of("read", "1", "distribution", "zipfian");
+            case "d" -> Map.of("read", "0.95", "insert", "0.05", "distribution", "latest");
+            case "e" -> Map.of("scan", "0.95", "insert", "0.05", "distribution", "zipfian");
+            default -> throw new IllegalArgumentException("未知的预设负载: " + workload);
+        };
+    }
+
+    // ===== 装载 =====
+
+    /**
+     * 新建文件并写入recordCount条记录，已有的文件直接使用
+     */
+    private DBFile load(Path path) throws IOException {
+        boolean exists = Files.exists(path) && Files.size(path) > 0;
+        DBFile dbFile = new DBFile(path.toString());
+        if (exists) {
+            keyCount.set(dbFile.getLastAllocatedPage() + 1);
+            System.out.printf("使用已有数据文件 %s，%d条记录%n", path, keyCount.get());
+            return dbFile;
+        }
+
+        long start = System.nanoTime();
+        int pageSize = dbFile.getPageSize();
+        int first = dbFile.allocateContiguousPages(recordCount);
+        int batchPages = 256;
+        ByteBuffer batch = ByteBuffer.allocate(batchPages * pageSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (int key = 0; key < recordCount; key += batchPages) {
+            int count = Math.min(batchPages, recordCount - key);
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                batch.putInt(i * pageSize + KEY_OFFSET, key + i);
+            }
+            batch.limit(count * pageSize);
+            dbFile.writePages(first + key, batch, false);
+        }
+        dbFile.sync();
+        dbFile.flushBitmap();
+        keyCount.set(first + recordCount);
+        System.out.printf("装载%d条记录用时%.1f秒%n", recordCount, (System.nanoTime() - start) / 1e9);
+        return dbFile;
+    }
+
+    // ===== 运行 =====
+
+    private class Worker implements Runnable {
+        private final LRUBufferPool pool;
+        private final long operations;
+        private final KeyChooser keys = KeyChooser.create(distribution, keyCount);
+        final Histogram[] histograms = new Histogram[OPERATIONS.length];
+        Throwable failure;
+
+        Worker(LRUBufferPool pool, long operations) {
+            this.pool = pool;
+            this.operations = operations;
+            for (int op = 0; op < histograms.length; op++) {
+                histograms[op] = new Histogram(MAX_LATENCY_NANOS, 3);
+            }
+        }
+
+        @Override
+        public void run() {
+            try (BufferRing ring = pool.newRing(ringSize)) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (long i = 0; i < operations; i++) {
+                    int op = chooseOperation(random.nextDouble());
+                    long start = System.nanoTime();
+                    switch (op) {
+                        case READ -> read(keys.nextKey());
+                        case UPDATE -> update(keys.nextKey());
+                        case INSERT -> insert();
+                        default -> scan(ring, keys.nextKey(), 1 + random.nextInt(maxScanLength));
+                    }
+                    histograms[op].recordValue(Math.min(System.nanoTime() - start, MAX_LATENCY_NANOS));
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        private long read(int key) throws IOException {
+            Page page = pool.getPage(key);
+            long stamp = page.latchShared();
+            try {
+                return page.getLong(VERSION_OFFSET);
+            } finally {
+                page.unlatchShared(stamp);
+            }
+        }
+
+        private void update(int key) throws IOException {
+            Page page = pool.getPage(key);
+            long stamp = page.latchExclusive();
+            try {
+                page.setLong(VERSION_OFFSET, page.getLong(VERSION_OFFSET) + 1);
+                // 在闩内标脏：释放闩之后页可能马上被淘汰，再标脏就晚了
+                page.setDirty(true);
+            } finally {
+                page.unlatchExclusive(stamp);
+            }
+        }
+
+        private void insert() throws IOException {
+            int key = pool.getDBFile().allocateNewPage();
+            Page page = pool.getPage(key);
+            long stamp = page.latchExclusive();
+            try {
+                page.setInt(KEY_OFFSET, key);
+                page.setLong(VERSION_OFFSET, 0);
+                page.setDirty(true);
+            } finally {
+                page.unlatchExclusive(stamp);
+            }
+            keyCount.accumulateAndGet(key + 1, Math::max);
+        }
+
+        private void scan(BufferRing ring, int startKey, int length) throws IOException {
+            int end = Math.min(keyCount.get(), startKey + length);
+            for (int key = startKey; key < end; key++) {
+                Page page = ring.getPage(key);
+                long stamp = page.latchShared();
+                try {
+                    page.getLong(VERSION_OFFSET);
+                } finally {
+                    page.unlatchShared(stamp);
+                }
+            }
+        }
+    }
+
+    private int chooseOperation(double value) {
+        for (int op = 0; op < cumulative.length; op++) {
+            if (value < cumulative[op]) {
+                return op;
+            }
+        }
+        return cumulative.length - 1;
+    }
+
+    void run() throws Exception {
+        Path path = config.containsKey("file") ? Path.of(config.get("file")) : BenchFiles.newTempFile("ycsb");
+        DBFile dbFile = load(path);
+        LRUBufferPool pool = new LRUBufferPool(dbFile, cacheSize);
+        StorageMetrics metrics = pool.getMetrics();
+        metrics.reset();
+
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> running = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long share = operationCount / threads + (t < operationCount % threads ? 1 : 0);
+            Worker worker = new Worker(pool, share);
+            workers.add(worker);
+            running.add(Thread.ofPlatform().name("ycsb-" + t).start(worker));
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        pool.close();
+        if (!config.containsKey("file")) {
+            BenchFiles.delete(path);
+        }
+
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw new IllegalStateException("工作线程失败", worker.failure);
+            }
+        }
+        report(workers, elapsedNanos, metrics);
+    }
+
+    private void report(List<Worker> workers, long elapsedNanos, StorageMetrics metrics) {
+        System.out.printf("[OVERALL], RunTime(ms), %d%n", elapsedNanos / 1_000_000);
+        System.out.printf("[OVERALL], Throughput(ops/sec), %.1f%n", operationCount * 1e9 / elapsedNanos);
+        System.out.printf("[OVERALL], Threads, %d%n", threads);
+        System.out.printf("[OVERALL], Distribution, %s%n", distribution);
+        System.out.printf("[POOL], CacheSize(pages), %d%n", cacheSize);
+        System.out.printf("[POOL], HitRatio, %.4f%n", metrics.getHitRatio());
+        System.out.printf("[POOL], PageReads, %d%n", metrics.getPageReads());
+        System.out.printf("[POOL], PageWrites, %d%n", metrics.getPageWrites());
+
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Histogram merged = new Histogram(MAX_LATENCY_NANOS, 3);
+            for (Worker worker : workers) {
+                merged.add(worker.histograms[op]);
+            }
+            if (merged.getTotalCount() == 0) {
+                continue;
+            }
+            String name = "[" + OPERATIONS[op] + "]";
+            System.out.printf("%s, Operations, %d%n", name, merged.getTotalCount());
+            System.out.printf("%s, AverageLatency(us), %.2f%n", name, merged.getMean() / 1000);
+            System.out.printf("%s, MinLatency(us), %.2f%n", name, merged.getMinValue() / 1000.0);
+            System.out.printf("%s, MaxLatency(us), %.2f%n", name, merged.getMaxValue() / 1000.0);
+            for (double percentile : new double[]{50, 95, 99, 99.9}) {
+                System.out.printf("%s, %sthPercentileLatency(us), %.2f%n", name, formatPercentile(percentile),
+                        merged.getValueAtPercentile(percentile) / 1000.0);
+            }
+        }
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> config = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("参数格式为key=value: " + arg);
+                System.exit(1);
+            }
+            config.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new YcsbDriver(config).run();
+    }
+}
@@ -0,0 +1,81 @@
+package org.shaotang.db.backup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 备份文件格式（大端）
+ *
+ * [魔数int][类型byte][页大小int][备份序号long][基准序号long][创建时间ms long]
+ * [数据文件头long][文件页数int][备份页数int]
+ * 之后按页号升序：[物理页号int][页内容]
+ * 最后再写一次魔数，恢复前用它确认备份文件是完整的。
+ *
+ * 物理页号从0开始，包括位图页和元数据页；全量备份的基准序号为0，增量备份的基准序号是上一次备份的序号。
+ */
+final class BackupFormat {
+    static final int MAGIC = 0x424B5031;  // "BKP1"
+
+    static final byte FULL = 1;
+    static final byte INCREMENTAL = 2;
+
+    // 头部长度
+    static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 8 + 8 + 8 + 4 + 4;
+    static final int TRAILER_SIZE = 4;
+
+    private BackupFormat() {
+    }
+
+    static final class Header {
+        final byte type;
+        final int pageSize;
+        final long sequence;
+        final long baseSequence;
+        final long createdAt;
+        final long fileVersion;
+        final int filePageCount;
+        final int pageCount;
+
+        Header(byte type, int pageSize, long sequence, long baseSequence, long createdAt,
+               long fileVersion, int filePageCount, int pageCount) {
+            this.type = type;
+            this.pageSize = pageSize;
+            this.sequence = sequence;
+            this.baseSequence = baseSequence;
+            this.createdAt = createdAt;
+            this.fileVersion = fileVersion;
+            this.filePageCount = filePageCount;
+            this.pageCount = pageCount;
+        }
+
+        // 包括头部和尾部魔数在内的备份文件长度
+        long fileLength() {
+            return HEADER_SIZE + (long) pageCount * (4 + pageSize) + TRAILER_SIZE;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeByte(type);
+            out.writeInt(pageSize);
+            out.writeLong(sequence);
+            out.writeLong(baseSequence);
+            out.writeLong(createdAt);
+            out.writeLong(fileVersion);
+            out.writeInt(filePageCount);
+            out.writeInt(pageCount);
+        }
+
+        static Header readFrom(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是备份文件");
+            }
+            byte type = in.readByte();
+            if (type != FULL && type != INCREMENTAL) {
+                throw new IOException("未知的备份类型: " + type);
+            }
+            return new Header(type, in.readInt(), in.readLong(), in.readLong(), in.readLong(),
+                    in.readLong(), in.readInt(), in.readInt());
+        }
+    }
+}
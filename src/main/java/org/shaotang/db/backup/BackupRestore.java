@@ -0,0 +1,111 @@
+package org.shaotang.db.backup;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 从一次全量备份和之后的若干增量备份恢复数据文件
+ *
+ * 先检查所有备份：第一个必须是全量备份，之后每个增量备份的基准序号等于前一个的序号，页大小一致，尾部魔数完整；
+ * 检查通过后依次把各备份中的页写到目标文件的对应位置，文件长度和文件头取最后一个备份的。
+ * 恢复出的文件与最后一个备份开始时刻的数据文件相同，可以直接用DBFile打开。
+ */
+public final class BackupRestore {
+    private BackupRestore() {
+    }
+
+    /**
+     * @param backups 按备份顺序排列：全量备份在前，增量备份在后
+     * @param target  恢复出的数据文件，不能已经存在
+     */
+    public static void restore(List<Path> backups, Path target) throws IOException {
+        if (backups.isEmpty()) {
+            throw new IllegalArgumentException("没有备份文件");
+        }
+        if (Files.exists(target)) {
+            throw new IllegalArgumentException("目标文件已存在: " + target);
+        }
+        List<BackupFormat.Header> headers = new ArrayList<>();
+        for (Path backup : backups) {
+            headers.add(check(backup, headers.isEmpty() ? null : headers.get(headers.size() - 1)));
+        }
+
+        BackupFormat.Header latest = headers.get(headers.size() - 1);
+        int pageSize = latest.pageSize;
+        try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer version = ByteBuffer.allocate(DBFile.HEADER_SIZE);
+            version.putLong(latest.fileVersion).flip();
+            channel.write(version, 0);
+
+            for (Path backup : backups) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(backup), 1 << 20))) {
+                    BackupFormat.Header header = BackupFormat.Header.readFrom(in);
+                    byte[] page = new byte[pageSize];
+                    for (int i = 0; i < header.pageCount; i++) {
+                        int pageId = in.readInt();
+                        in.readFully(page);
+                        // 之后的备份文件更短时，多出的页最后会被截掉
+                        ByteBuffer buffer = ByteBuffer.wrap(page);
+                        long position = DBFile.HEADER_SIZE + (long) pageId * pageSize;
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer, position + buffer.position());
+                        }
+                    }
+                }
+            }
+            raf.setLength(DBFile.HEADER_SIZE + (long) latest.filePageCount * pageSize);
+            channel.force(true);
+        }
+    }
+
+    // 检查备份完整并且接在上一个备份之后
+    private static BackupFormat.Header check(Path backup, BackupFormat.Header previous) throws IOException {
+        BackupFormat.Header header;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(backup)))) {
+            header = BackupFormat.Header.readFrom(in);
+        }
+        if (previous == null) {
+            if (header.type != BackupFormat.FULL) {
+                throw new IllegalArgumentException("第一个备份必须是全量备份: " + backup);
+            }
+        } else {
+            if (header.type != BackupFormat.INCREMENTAL || header.baseSequence != previous.sequence) {
+                throw new IllegalArgumentException(String.format("备份%s不是接在备份#%d之后的增量备份",
+                        backup, previous.sequence));
+            }
+            if (header.pageSize != previous.pageSize) {
+                throw new IllegalArgumentException("备份的页大小不一致: " + backup);
+            }
+        }
+
+        long length = Files.size(backup);
+        if (length != header.fileLength()) {
+            throw new IOException(String.format("备份文件%s长度为%d字节，应为%d字节", backup, length, header.fileLength()));
+        }
+        try (FileChannel channel = FileChannel.open(backup)) {
+            ByteBuffer trailer = ByteBuffer.allocate(BackupFormat.TRAILER_SIZE);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, length - BackupFormat.TRAILER_SIZE + trailer.position()) == -1) {
+                    break;
+                }
+            }
+            trailer.flip();
+            if (trailer.remaining() != BackupFormat.TRAILER_SIZE || trailer.getInt() != BackupFormat.MAGIC) {
+                throw new IOException("备份文件不完整: " + backup);
+            }
+        }
+        return header;
+    }
+}
@@ -0,0 +1,112 @@
+package org.shaotang.db.backup;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一次进行中的备份：要复制的页集合，以及备份期间被覆盖的页的前像
+ *
+ * 页号都是物理页号（逻辑页号减去 {@link DBFile#FIRST_SYSTEM_PAGE_ID}）。
+ * 备份起点之后第一次覆盖一个还没复制的页时，先把旧内容追加到临时文件；
+ * 复制时有前像就用前像，否则用读到的内容。两者都在本对象的锁下判断，
+ * 没有前像说明读取之前这个页没有被写过，读到的就是起点时的内容。
+ */
+final class BackupSession implements Closeable {
+    final byte type;
+    final long sequence;
+    final long baseSequence;
+    final long fileVersion;
+    final int filePageCount;
+    final BitSet pages;
+
+    private final DBFile dbFile;
+    private final BitSet copied = new BitSet();
+    private final Path preImagePath;
+    private final FileChannel preImageFile;
+    private final Map<Integer, Long> preImages = new HashMap<>();
+    private long preImageEnd = 0;
+    private int preImageCount = 0;
+    private IOException failure;
+
+    BackupSession(DBFile dbFile, byte type, long sequence, long baseSequence, long fileVersion,
+                  int filePageCount, BitSet pages, Path preImagePath) throws IOException {
+        this.dbFile = dbFile;
+        this.type = type;
+        this.sequence = sequence;
+        this.baseSequence = baseSequence;
+        this.fileVersion = fileVersion;
+        this.filePageCount = filePageCount;
+        this.pages = pages;
+        this.preImagePath = preImagePath;
+        this.preImageFile = FileChannel.open(preImagePath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 页即将被覆盖，在DBFile的writeLock内调用；出错时记下来让备份失败，不影响写入
+     */
+    synchronized void beforePageWrite(int physicalPageId) {
+        if (failure != null || !pages.get(physicalPageId) || copied.get(physicalPageId)
+                || preImages.containsKey(physicalPageId)) {
+            return;
+        }
+        try {
+            byte[] old = dbFile.readPage(physicalPageId + DBFile.FIRST_SYSTEM_PAGE_ID);
+            ByteBuffer buffer = ByteBuffer.wrap(old);
+            long position = preImageEnd;
+            while (buffer.hasRemaining()) {
+                preImageFile.write(buffer, position + buffer.position());
+            }
+            preImages.put(physicalPageId, position);
+            preImageEnd += old.length;
+            preImageCount++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * 确定一个页在备份中的内容并标记为已复制
+     * @param read 本次从数据文件读到的内容
+     */
+    synchronized byte[] resolve(int physicalPageId, byte[] read) throws IOException {
+        if (failure != null) {
+            throw new IOException("保存页前像失败", failure);
+        }
+        copied.set(physicalPageId);
+        Long position = preImages.remove(physicalPageId);
+        if (position == null) {
+            return read;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(read.length);
+        while (buffer.hasRemaining()) {
+            if (preImageFile.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("前像文件被截断: " + preImagePath);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 备份期间保存过的前像页数
+     */
+    synchronized int getPreImageCount() {
+        return preImageCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        preImageFile.close();
+        Files.deleteIfExists(preImagePath);
+    }
+}
@@ -0,0 +1,304 @@
+package org.shaotang.db.backup;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * 变更页跟踪：记录上次备份以来写过的页，供增量备份只复制这些页
+ *
+ * 注册为DBFile的写入监听器，每次页写入在位图中置一位（按物理页号，包括系统页）。
+ * 位图保存在单独的文件中：[魔数int][需要全量备份byte][上次备份序号long][long个数int][位图long...]。
+ * 页写入文件之前（beforePageWrite，在DBFile的writeLock内）它的位必须已经保存：不论写入有没有fsync，
+ * 进程崩溃或掉电后落到磁盘上的页都在记录里。为了不每页保存一次，一次保存覆盖该页所在的
+ * {@value #COVER_PAGES}页一组，同组的页之后第一次写入不用再保存；崩溃后读回的记录可能多出同组没写过的页，
+ * 只是增量备份多复制几页。正常关闭时保存准确的记录。
+ * 进行中的备份要复制的页一并保存，备份没完成就崩溃时下次仍会复制它们。
+ * 保存失败时删除跟踪文件（写入不能被阻止），崩溃后下一次必须做全量备份；下次保存成功时重新写出完整记录。
+ * 跟踪文件不存在时写过哪些页无法确定，下一次必须做全量备份。
+ *
+ * 创建后调用 {@link #start()} 开始跟踪，必须在打开DBFile之后、写入任何页之前；
+ * 关闭时要先把缓冲池刷盘，再关闭跟踪器，最后关闭文件。
+ */
+public class ChangedPageTracker implements DBFile.WriteListener, Closeable {
+    private static final int MAGIC = 0x43505432;  // "CPT2"
+    // 旧格式在崩溃后不可信，读到时要求全量备份
+    private static final int OLD_MAGIC = 0x43505431;  // "CPT1"
+    private static final int PHYSICAL_OFFSET = -DBFile.FIRST_SYSTEM_PAGE_ID;
+    // 一次保存覆盖的页数（位图的一个long）
+    private static final int COVER_PAGES = Long.SIZE;
+    private static final System.Logger LOG = System.getLogger(ChangedPageTracker.class.getName());
+
+    private final DBFile dbFile;
+    private final Path path;
+    // 保证依次写跟踪文件，后取的位图不会被先取的覆盖；写文件时不持有this，写入监听不会被fsync挡住
+    private final Object persistLock = new Object();
+
+    // 上次备份开始以来写过的页，准确
+    private BitSet changed = new BitSet();
+    // 跟踪文件中已经记下、可以直接写入的页（按组），是changed的超集
+    private BitSet covered = new BitSet();
+    private long lastSequence = 0;
+    private boolean fullBackupRequired;
+    private BackupSession session;
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * 读取跟踪文件，调用 {@link #start()} 之后才开始记录写入
+     */
+    public ChangedPageTracker(DBFile dbFile, Path path) throws IOException {
+        this.dbFile = dbFile;
+        this.path = path;
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                int magic = in.readInt();
+                if (magic == OLD_MAGIC) {
+                    fullBackupRequired = true;
+                } else if (magic != MAGIC) {
+                    throw new IOException("不是变更页跟踪文件: " + path);
+                } else {
+                    fullBackupRequired = in.readBoolean();
+                    lastSequence = in.readLong();
+                    long[] words = new long[in.readInt()];
+                    for (int i = 0; i < words.length; i++) {
+                        words[i] = in.readLong();
+                    }
+                    changed = BitSet.valueOf(words);
+                    covered = (BitSet) changed.clone();
+                }
+            }
+        } else {
+            fullBackupRequired = true;
+            persist(false);
+        }
+    }
+
+    /**
+     * 注册为DBFile的写入监听器，开始记录写入
+     */
+    public synchronized void start() {
+        if (closed) {
+            throw new IllegalStateException("变更页跟踪器已关闭");
+        }
+        if (started) {
+            throw new IllegalStateException("变更页跟踪器已启动");
+        }
+        started = true;
+        dbFile.addWriteListener(this);
+    }
+
+    // ===== 写入监听 =====
+
+    /**
+     * 页还没有记在跟踪文件里时先保存（连同同组的页），保存之后才写入数据文件
+     */
+    @Override
+    public void beforePageWrite(int logicalPageId) {
+        int physicalPageId = logicalPageId + PHYSICAL_OFFSET;
+        BackupSession current;
+        boolean mustPersist;
+        synchronized (this) {
+            current = session;
+            mustPersist = !closed && !covered.get(physicalPageId);
+        }
+        if (mustPersist) {
+            persistCovering(physicalPageId);
+        }
+        if (current != null) {
+            current.beforePageWrite(physicalPageId);
+        }
+    }
+
+    @Override
+    public synchronized void pageWritten(int logicalPageId, ByteBuffer page) {
+        changed.set(logicalPageId + PHYSICAL_OFFSET);
+    }
+
+    // 把页所在的一组记为已覆盖并保存；失败时删除跟踪文件，崩溃后只能做全量备份
+    private void persistCovering(int physicalPageId) {
+        int first = physicalPageId / COVER_PAGES * COVER_PAGES;
+        synchronized (this) {
+            covered.set(first, first + COVER_PAGES);
+        }
+        try {
+            persist(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                covered.clear(first, first + COVER_PAGES);
+            }
+            LOG.log(System.Logger.Level.WARNING, "保存变更页记录失败，删除跟踪文件，下一次必须全量备份: " + path, e);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException suppressed) {
+                LOG.log(System.Logger.Level.ERROR, "删除跟踪文件失败: " + path, suppressed);
+            }
+        }
+    }
+
+    // ===== 状态 =====
+
+    /**
+     * 上次备份以来写过的页数
+     */
+    public synchronized int getChangedPageCount() {
+        return changed.cardinality();
+    }
+
+    /**
+     * 变更记录不完整，下一次备份只能是全量备份
+     */
+    public synchronized boolean isFullBackupRequired() {
+        return fullBackupRequired;
+    }
+
+    /**
+     * 上一次成功备份的序号，还没有备份过时为0
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public DBFile getDBFile() {
+        return dbFile;
+    }
+
+    // ===== 备份 =====
+
+    /**
+     * 取得备份起点：在DBFile的writeLock内交换位图，之后的写入记到新位图，同时开始保存前像
+     */
+    BackupSession begin(boolean full, Path preImagePath) throws IOException {
+        return dbFile.runExclusive(() -> {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("变更页跟踪器已关闭");
+                }
+                if (session != null) {
+                    throw new IllegalStateException("已有备份在进行");
+                }
+                if (!full && fullBackupRequired) {
+                    throw new IllegalStateException("变更记录不完整，需要先做一次全量备份");
+                }
+                int filePageCount = dbFile.getFilePageCount();
+                BitSet pages = new BitSet();
+                if (full) {
+                    pages.set(0, filePageCount);
+                } else {
+                    pages.or(changed);
+                    // 位图页和元数据页很小，总是带上
+                    pages.set(0, PHYSICAL_OFFSET);
+                    pages.clear(filePageCount, Math.max(filePageCount, pages.length()));
+                }
+                session = new BackupSession(dbFile, full ? BackupFormat.FULL : BackupFormat.INCREMENTAL,
+                        lastSequence + 1, full ? 0 : lastSequence, dbFile.readVersion(),
+                        filePageCount, pages, preImagePath);
+                changed = new BitSet();
+                covered = new BitSet();
+                // 文件中仍包含这次要复制的页，不需要立即重写；之后的写入重新按组保存
+                return session;
+            }
+        });
+    }
+
+    /**
+     * 备份完成：更新序号并保存位图
+     */
+    void complete(BackupSession finished) throws IOException {
+        synchronized (this) {
+            checkSession(finished);
+            session = null;
+            lastSequence = finished.sequence;
+            fullBackupRequired = false;
+        }
+        persist(false);
+    }
+
+    /**
+     * 备份失败：把这次要复制的页并回位图（全量备份时就是所有页），下次备份重新复制
+     */
+    synchronized void abandon(BackupSession failed) {
+        checkSession(failed);
+        session = null;
+        changed.or(failed.pages);
+        // 备份进行时保存的文件都包含这些页
+        covered.or(failed.pages);
+    }
+
+    private void checkSession(BackupSession expected) {
+        if (session != expected) {
+            throw new IllegalStateException("不是当前进行中的备份");
+        }
+    }
+
+    /**
+     * 先写临时文件再改名；进行中的备份要复制的页也算作写过
+     * @param exact 只保存准确写过的页，不按组覆盖；用于关闭时，之后不会再有写入
+     */
+    private void persist(boolean exact) throws IOException {
+        synchronized (persistLock) {
+            long[] words;
+            boolean requireFull;
+            long sequence;
+            synchronized (this) {
+                BitSet toSave = (BitSet) changed.clone();
+                if (!exact) {
+                    toSave.or(covered);
+                }
+                if (session != null) {
+                    toSave.or(session.pages);
+                }
+                words = toSave.toLongArray();
+                requireFull = fullBackupRequired;
+                sequence = lastSequence;
+            }
+            write(words, requireFull, sequence);
+        }
+    }
+
+    private void write(long[] words, boolean requireFull, long sequence) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeBoolean(requireFull);
+            out.writeLong(sequence);
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 停止跟踪并保存位图
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (session != null) {
+                throw new IllegalStateException("备份还在进行，不能关闭跟踪器");
+            }
+            closed = true;
+        }
+        dbFile.removeWriteListener(this);
+        persist(true);
+    }
+}
@@ -0,0 +1,212 @@
+package org.shaotang.db.backup;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线备份：不停写入，得到与备份开始时刻一致的数据文件快照
+ *
+ * 全量备份复制文件中所有页；增量备份只复制 {@link ChangedPageTracker} 记录的上次备份以来写过的页。
+ * 备份开始时在DBFile的writeLock内取得起点，之后被覆盖的待复制页先保存前像（临时文件，与目标文件同目录），
+ * 所以备份内容与在起点崩溃后的数据文件相同，不会有写了一半的页。
+ *
+ * 要复制的页按页号排序，相邻或间隔很小的页合并成一次readPages大块顺序读；
+ * 可以限制每秒写出的字节数，避免备份占满磁盘带宽。
+ * 备份先写到临时文件，fsync后再改名，失败时不会留下不完整的备份，要复制的页并回跟踪器下次重新复制。
+ */
+public class OnlineBackup {
+    // 一次顺序读的最大页数
+    private static final int MAX_BATCH_PAGES = 256;
+    // 两个待复制页之间的空隙不超过这么多页时一起读
+    private static final int MAX_GAP_PAGES = 4;
+
+    private final ChangedPageTracker tracker;
+    private volatile long maxBytesPerSecond = 0;
+
+    public OnlineBackup(ChangedPageTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * 限制每秒写出的字节数，0表示不限制
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("限速不能为负数: " + maxBytesPerSecond);
+        }
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * 全量备份，之后的增量备份以它为基准
+     */
+    public BackupInfo full(Path target) throws IOException {
+        return run(target, true);
+    }
+
+    /**
+     * 增量备份上次备份以来写过的页
+     * @throws IllegalStateException 变更记录不完整（还没做过全量备份或跟踪文件丢失）
+     */
+    public BackupInfo incremental(Path target) throws IOException {
+        return run(target, false);
+    }
+
+    private BackupInfo run(Path target, boolean full) throws IOException {
+        long start = System.nanoTime();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Path preImages = target.resolveSibling(target.getFileName() + ".preimages");
+        BackupSession session = tracker.begin(full, preImages);
+        long bytes;
+        int preImageCount;
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+                BackupFormat.Header header = new BackupFormat.Header(session.type,
+                        tracker.getDBFile().getPageSize(), session.sequence, session.baseSequence,
+                        System.currentTimeMillis(), session.fileVersion, session.filePageCount,
+                        session.pages.cardinality());
+                header.writeTo(out);
+                copyPages(session, out, start);
+                out.writeInt(BackupFormat.MAGIC);
+                out.flush();
+                file.getFD().sync();
+                bytes = header.fileLength();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            preImageCount = session.getPreImageCount();
+        } catch (IOException | RuntimeException e) {
+            tracker.abandon(session);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+        tracker.complete(session);
+        return new BackupInfo(session.sequence, session.baseSequence, session.pages.cardinality(),
+                preImageCount, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void copyPages(BackupSession session, DataOutputStream out, long start) throws IOException {
+        DBFile dbFile = tracker.getDBFile();
+        int pageSize = dbFile.getPageSize();
+        BitSet pages = session.pages;
+        long written = 0;
+        int first = pages.nextSetBit(0);
+        while (first >= 0) {
+            // 向后合并，直到空隙太大或达到一次读取的上限
+            int last = first;
+            int next = pages.nextSetBit(last + 1);
+            while (next >= 0 && next - last <= MAX_GAP_PAGES + 1 && next - first < MAX_BATCH_PAGES) {
+                last = next;
+                next = pages.nextSetBit(last + 1);
+            }
+
+            byte[][] batch = dbFile.readPages(first + DBFile.FIRST_SYSTEM_PAGE_ID, last - first + 1);
+            for (int pageId = first; pageId <= last; pageId++) {
+                if (!pages.get(pageId)) {
+                    continue;
+                }
+                out.writeInt(pageId);
+                out.write(session.resolve(pageId, batch[pageId - first]));
+                written += 4 + pageSize;
+            }
+            throttle(written, start);
+            first = next;
+        }
+    }
+
+    // 写得比限速快时睡到应有的时间
+    private void throttle(long written, long start) throws IOException {
+        long limit = maxBytesPerSecond;
+        if (limit <= 0) {
+            return;
+        }
+        long expectedNanos = (long) (written * 1e9 / limit);
+        long aheadNanos = expectedNanos - (System.nanoTime() - start);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("备份被中断");
+            }
+        }
+    }
+
+    /**
+     * 一次备份的结果
+     */
+    public static final class BackupInfo {
+        private final long sequence;
+        private final long baseSequence;
+        private final int pageCount;
+        private final int preImageCount;
+        private final long bytes;
+        private final long elapsedMillis;
+
+        BackupInfo(long sequence, long baseSequence, int pageCount, int preImageCount,
+                   long bytes, long elapsedMillis) {
+            this.sequence = sequence;
+            this.baseSequence = baseSequence;
+            this.pageCount = pageCount;
+            this.preImageCount = preImageCount;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * 增量备份所基于的备份序号，全量备份为0
+         */
+        public long getBaseSequence() {
+            return baseSequence;
+        }
+
+        public boolean isFull() {
+            return baseSequence == 0;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * 备份期间被覆盖、从前像复制的页数
+         */
+        public int getPreImageCount() {
+            return preImageCount;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("备份#%d(%s) %d页, 前像%d页, %d字节, %dms", sequence,
+                    isFull() ? "全量" : "基于#" + baseSequence, pageCount, preImageCount, bytes, elapsedMillis);
+        }
+    }
+}
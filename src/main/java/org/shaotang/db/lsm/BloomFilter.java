@@ -0,0 +1,98 @@
+package org.shaotang.db.lsm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 布隆过滤器：判断键是否可能在一个有序段中，不在时省掉一次页读取
+ *
+ * 用一个64位哈希的高低两半做双重哈希，模拟k个独立的哈希函数。
+ * 每个键10位时误判率约1%。
+ */
+final class BloomFilter {
+    static final int DEFAULT_BITS_PER_KEY = 10;
+
+    private final long[] bits;
+    private final int hashCount;
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * 用已经算好的键哈希（见 {@link #hash(byte[])}）构建
+     */
+    static BloomFilter create(long[] keyHashes, int count, int bitsPerKey) {
+        long bitCount = Math.max(64, (long) count * bitsPerKey);
+        long[] bits = new long[(int) ((bitCount + 63) / 64)];
+        // k = 每键位数 * ln2 时误判率最低
+        int hashCount = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        BloomFilter filter = new BloomFilter(bits, hashCount);
+        for (int i = 0; i < count; i++) {
+            filter.add(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    private void add(long hash) {
+        long bitCount = (long) bits.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        long bitCount = (long) bits.length * 64;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 键的64位哈希：FNV-1a之后再做一次混合，让高低两半都分布均匀
+     */
+    static long hash(byte[] key) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // ===== 序列化：[哈希数int][long个数int][long...] =====
+
+    int serializedSize() {
+        return 8 + bits.length * Long.BYTES;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(hashCount).putInt(bits.length);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(ByteBuffer buffer) {
+        int hashCount = buffer.getInt();
+        long[] bits = new long[buffer.getInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+}
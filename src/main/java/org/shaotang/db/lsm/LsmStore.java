@@ -0,0 +1,678 @@
+package org.shaotang.db.lsm;
+
+import org.shaotang.db.storage.BufferRing;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 基于DBFile的嵌入式LSM树键值存储
+ *
+ * 写入先追加到预写日志，再写入内存表（并发跳表）。内存表写满后变为只读，由后台线程
+ * 按键顺序写成一个有序段：数据页攒成批用连续页顺序写出，每个段带稀疏索引和布隆过滤器。
+ * 新段进入第0层；第0层段数达到阈值时与第1层合并，第i层超过容量（基准 × 10^(i-1)）时并入第i+1层。
+ * 第1层及以下每层只有一个段，合并到最底层时丢弃墓碑。
+ *
+ * 读取依次查活跃内存表、只读内存表、第0层（从新到旧）、第1层……，遇到的第一个结果（值或墓碑）即为答案。
+ * 点查的数据页走缓冲池；范围扫描和合并通过缓冲环读取，不冲掉缓冲池中的热点页。
+ *
+ * 目录中的文件：data.db（所有段的页）、MANIFEST（段的清单）、wal-N.log（每个内存表一个预写日志）。
+ * 写入默认不fsync预写日志，内存表切换和 {@link #flush()} 时才落盘。
+ *
+ * 写入串行执行，读与写、后台落盘和合并并发。后台出错后写入会抛出该错误。
+ */
+public class LsmStore implements AutoCloseable {
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L << 20;
+    public static final int DEFAULT_L0_TRIGGER = 4;
+    public static final int DEFAULT_CACHE_PAGES = 1024;
+
+    // 相邻两层的容量比
+    static final int LEVEL_SIZE_RATIO = 10;
+    // 只读内存表达到这个数量时写入等待后台落盘
+    private static final int MAX_IMMUTABLES = 2;
+    private static final int SCAN_RING_PAGES = 8;
+    private static final int COMPACTION_RING_PAGES = 32;
+
+    private static final String DATA_FILE = "data.db";
+    private static final String MANIFEST_FILE = "MANIFEST";
+    private static final Pattern LOG_NAME = Pattern.compile("wal-(\\d+)\\.log");
+
+    /**
+     * 某一时刻的全部数据来源，不可变；读取时取一份快照，变更时整个替换
+     */
+    private static final class Version {
+        final MemTable active;
+        // 从新到旧
+        final List<MemTable> immutables;
+        final List<List<SortedRun>> levels;
+
+        Version(MemTable active, List<MemTable> immutables, List<List<SortedRun>> levels) {
+            this.active = active;
+            this.immutables = List.copyOf(immutables);
+            List<List<SortedRun>> copy = new ArrayList<>(levels.size());
+            for (List<SortedRun> level : levels) {
+                copy.add(List.copyOf(level));
+            }
+            this.levels = List.copyOf(copy);
+        }
+
+        List<SortedRun> level(int index) {
+            return index < levels.size() ? levels.get(index) : List.of();
+        }
+
+        List<List<SortedRun>> mutableLevels() {
+            List<List<SortedRun>> copy = new ArrayList<>();
+            for (List<SortedRun> level : levels) {
+                copy.add(new ArrayList<>(level));
+            }
+            return copy;
+        }
+    }
+
+    private final Path dir;
+    private final DBFile dbFile;
+    private final LRUBufferPool pool;
+    private final long memTableBytes;
+    private final int l0Trigger;
+    private final long levelBaseBytes;
+    private final SortedRun.PageSource poolPages;
+
+    private volatile Version version;
+    // 保护写入、内存表切换和清单，后台线程只在安装新版本时短暂持有
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Condition immutableFlushed = stateLock.newCondition();
+    private WriteAheadLog wal;
+    private long nextLogSequence;
+    private long flushedLogSequence;
+    private final AtomicLong nextRunId = new AtomicLong();
+
+    // 读段时持读锁；合并后释放旧段的页时持写锁，保证没有读者还在读这些页
+    private final ReentrantReadWriteLock runLock = new ReentrantReadWriteLock();
+
+    private final ExecutorService background;
+    private volatile Exception backgroundError;
+    private volatile boolean closed = false;
+
+    public LsmStore(Path dir) throws IOException {
+        this(dir, DEFAULT_MEMTABLE_BYTES, DEFAULT_L0_TRIGGER, DEFAULT_CACHE_PAGES);
+    }
+
+    /**
+     * @param memTableBytes 内存表的大小上限，写满后切换
+     * @param l0Trigger     第0层的段数达到该值时合并到第1层
+     * @param cachePages    缓冲池页数
+     */
+    public LsmStore(Path dir, long memTableBytes, int l0Trigger, int cachePages) throws IOException {
+        if (memTableBytes <= 0) {
+            throw new IllegalArgumentException("内存表大小必须大于0: " + memTableBytes);
+        }
+        if (l0Trigger < 2) {
+            throw new IllegalArgumentException("第0层合并阈值不能小于2: " + l0Trigger);
+        }
+        this.dir = dir;
+        this.memTableBytes = memTableBytes;
+        this.l0Trigger = l0Trigger;
+        this.levelBaseBytes = memTableBytes * l0Trigger;
+
+        Files.createDirectories(dir);
+        this.dbFile = new DBFile(dir.resolve(DATA_FILE).toString());
+        this.pool = new LRUBufferPool(dbFile, cachePages);
+        this.poolPages = pageId -> pool.getPage(pageId).getData();
+
+        Manifest manifest = Manifest.read(dir.resolve(MANIFEST_FILE), dbFile);
+        nextRunId.set(manifest.nextRunId);
+        flushedLogSequence = manifest.flushedLogSequence;
+        List<List<SortedRun>> levels = manifest.levels;
+        collectGarbage(levels);
+        recover(levels);
+
+        nextLogSequence = flushedLogSequence + 1;
+        wal = new WriteAheadLog(logPath(nextLogSequence));
+        version = new Version(new MemTable(nextLogSequence++), List.of(), levels);
+
+        background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (version.level(0).size() >= l0Trigger) {
+            background.execute(this::backgroundWork);
+        }
+    }
+
+    // ===== 打开 =====
+
+    // 释放清单没有引用的页：崩溃前写到一半的段，或合并后没来得及释放的旧段
+    private void collectGarbage(List<List<SortedRun>> levels) throws IOException {
+        BitSet referenced = new BitSet();
+        for (List<SortedRun> level : levels) {
+            for (SortedRun run : level) {
+                for (int[] extent : run.getAllExtents()) {
+                    referenced.set(extent[0], extent[0] + extent[1]);
+                }
+            }
+        }
+        int last = dbFile.getLastAllocatedPage();
+        int pageId = 0;
+        while (pageId <= last) {
+            if (!dbFile.isAllocated(pageId) || referenced.get(pageId)) {
+                pageId++;
+                continue;
+            }
+            int end = pageId + 1;
+            while (end <= last && dbFile.isAllocated(end) && !referenced.get(end)) {
+                end++;
+            }
+            dbFile.freePages(pageId, end - pageId);
+            pageId = end;
+        }
+    }
+
+    // 重放没有落盘的预写日志，写成第0层的一个段后删除日志
+    private void recover(List<List<SortedRun>> levels) throws IOException {
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = LOG_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    logs.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        MemTable recovered = new MemTable(0);
+        for (Map.Entry<Long, Path> log : logs.entrySet()) {
+            if (log.getKey() > flushedLogSequence) {
+                WriteAheadLog.replay(log.getValue(), recovered::put);
+            }
+        }
+        if (!recovered.isEmpty()) {
+            SortedRun run = writeRun(recovered.iterator(null), false);
+            if (levels.isEmpty()) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(0).add(0, run);
+        }
+        if (!logs.isEmpty()) {
+            flushedLogSequence = Math.max(flushedLogSequence, logs.lastKey());
+        }
+        new Manifest(nextRunId.get(), flushedLogSequence, levels).write(dir.resolve(MANIFEST_FILE));
+        for (Path log : logs.values()) {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    private Path logPath(long sequence) {
+        return dir.resolve("wal-" + sequence + ".log");
+    }
+
+    // ===== 写入 =====
+
+    public void put(byte[] key, byte[] value) throws IOException {
+        Objects.requireNonNull(value, "value");
+        checkKey(key);
+        checkEntrySize(key.length + value.length);
+        write(key, value);
+    }
+
+    public void delete(byte[] key) throws IOException {
+        checkKey(key);
+        // 墓碑也要写进有序段，键同样不能超过一页
+        checkEntrySize(key.length);
+        write(key, MemTable.TOMBSTONE);
+    }
+
+    private void write(byte[] key, byte[] value) throws IOException {
+        stateLock.lock();
+        try {
+            ensureWritable();
+            wal.append(key, value);
+            version.active.put(key, value);
+            if (version.active.approximateBytes() >= memTableBytes) {
+                rotate();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    // 进了预写日志就必须能刷成有序段，否则后台刷盘失败、重新打开时回放也会失败
+    private void checkEntrySize(int size) {
+        if (size > SortedRunWriter.maxEntrySize(dbFile.getPageSize())) {
+            throw new IllegalArgumentException("键值太大，一页放不下: " + size + "字节");
+        }
+    }
+
+    private static void checkKey(byte[] key) {
+        Objects.requireNonNull(key, "key");
+        if (key.length > 0xFFFF) {
+            throw new IllegalArgumentException("键不能超过65535字节: " + key.length);
+        }
+    }
+
+    // 活跃内存表变为只读，换上新的内存表和日志；调用方持有stateLock
+    private void rotate() throws IOException {
+        if (version.active.isEmpty()) {
+            return;
+        }
+        while (version.immutables.size() >= MAX_IMMUTABLES) {
+            awaitFlush();
+        }
+        wal.sync();
+        wal.close();
+        long sequence = nextLogSequence++;
+        wal = new WriteAheadLog(logPath(sequence));
+
+        Version current = version;
+        List<MemTable> immutables = new ArrayList<>();
+        immutables.add(current.active);
+        immutables.addAll(current.immutables);
+        version = new Version(new MemTable(sequence), immutables, current.levels);
+        background.execute(this::backgroundWork);
+    }
+
+    private void awaitFlush() throws IOException {
+        try {
+            immutableFlushed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待内存表落盘时被中断");
+        }
+        checkBackgroundError();
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("LsmStore已关闭");
+        }
+        checkBackgroundError();
+    }
+
+    private void checkBackgroundError() throws IOException {
+        Exception error = backgroundError;
+        if (error != null) {
+            throw new IOException("后台落盘或合并失败", error);
+        }
+    }
+
+    // ===== 读取 =====
+
+    /**
+     * 返回键的值，不存在或已删除时返回null
+     */
+    public byte[] get(byte[] key) throws IOException {
+        checkKey(key);
+        runLock.readLock().lock();
+        try {
+            Version current = version;
+            byte[] value = current.active.get(key);
+            for (int i = 0; value == null && i < current.immutables.size(); i++) {
+                value = current.immutables.get(i).get(key);
+            }
+            for (int level = 0; value == null && level < current.levels.size(); level++) {
+                for (SortedRun run : current.levels.get(level)) {
+                    value = run.get(key, poolPages);
+                    if (value != null) {
+                        break;
+                    }
+                }
+            }
+            return MemTable.isTombstone(value) ? null : value;
+        } finally {
+            runLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按键顺序返回 [start, end) 中最多limit条记录；start或end为null表示不限
+     */
+    public List<Map.Entry<byte[], byte[]>> scan(byte[] start, byte[] end, int limit) throws IOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit必须大于0: " + limit);
+        }
+        List<Map.Entry<byte[], byte[]>> result = new ArrayList<>();
+        List<BufferRing> rings = new ArrayList<>();
+        runLock.readLock().lock();
+        try {
+            Version current = version;
+            List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+            sources.add(current.active.iterator(start));
+            for (MemTable memTable : current.immutables) {
+                sources.add(memTable.iterator(start));
+            }
+            for (List<SortedRun> level : current.levels) {
+                for (SortedRun run : level) {
+                    if ((start != null && MemTable.KEY_ORDER.compare(run.getMaxKey(), start) < 0)
+                            || (end != null && MemTable.KEY_ORDER.compare(run.getMinKey(), end) >= 0)) {
+                        continue;
+                    }
+                    BufferRing ring = pool.newRing(SCAN_RING_PAGES);
+                    rings.add(ring);
+                    sources.add(run.iterator(start, pageId -> ring.getPage(pageId).getData()));
+                }
+            }
+
+            MergingIterator merged = new MergingIterator(sources);
+            while (merged.hasNext() && result.size() < limit) {
+                Map.Entry<byte[], byte[]> entry = merged.next();
+                if (end != null && MemTable.KEY_ORDER.compare(entry.getKey(), end) >= 0) {
+                    break;
+                }
+                if (!MemTable.isTombstone(entry.getValue())) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            runLock.readLock().unlock();
+            for (BufferRing ring : rings) {
+                ring.close();
+            }
+        }
+    }
+
+    // ===== 落盘与合并 =====
+
+    /**
+     * 把内存中的数据全部写成有序段，返回时预写日志中的数据都已持久化到段中
+     */
+    public void flush() throws IOException {
+        stateLock.lock();
+        try {
+            ensureWritable();
+            rotate();
+            while (!version.immutables.isEmpty()) {
+                awaitFlush();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * 落盘后把所有层合并到最底层的一个段，并丢弃墓碑
+     */
+    public void compact() throws IOException {
+        flush();
+        try {
+            background.submit(() -> {
+                while (compactOnce(true)) {
+                    // 一直合并到只剩最底层
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待合并时被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("合并失败", e.getCause());
+        }
+    }
+
+    // 后台任务：落盘所有只读内存表，再做需要的合并
+    private void backgroundWork() {
+        try {
+            flushImmutables();
+            while (compactOnce(false)) {
+                // 合并可能让下一层超出容量
+            }
+        } catch (IOException | RuntimeException e) {
+            backgroundError = e;
+            stateLock.lock();
+            try {
+                immutableFlushed.signalAll();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    private void flushImmutables() throws IOException {
+        while (true) {
+            List<MemTable> immutables = version.immutables;
+            if (immutables.isEmpty()) {
+                return;
+            }
+            MemTable oldest = immutables.get(immutables.size() - 1);
+            SortedRun run = oldest.isEmpty() ? null : writeRun(oldest.iterator(null), false);
+
+            stateLock.lock();
+            try {
+                Version current = version;
+                List<MemTable> remaining = new ArrayList<>(current.immutables);
+                remaining.remove(oldest);
+                List<List<SortedRun>> levels = current.mutableLevels();
+                if (run != null) {
+                    if (levels.isEmpty()) {
+                        levels.add(new ArrayList<>());
+                    }
+                    levels.get(0).add(0, run);
+                }
+                flushedLogSequence = oldest.getLogSequence();
+                new Manifest(nextRunId.get(), flushedLogSequence, levels).write(dir.resolve(MANIFEST_FILE));
+                version = new Version(current.active, remaining, levels);
+                Files.deleteIfExists(logPath(oldest.getLogSequence()));
+                immutableFlushed.signalAll();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 做一次合并，没有需要合并的层时返回false
+     * @param full 为true时不看容量，把每一层都往下合并，直到只剩最底层
+     */
+    private boolean compactOnce(boolean full) throws IOException {
+        Version current = version;
+        int deepest = current.levels.size() - 1;
+        while (deepest >= 0 && current.levels.get(deepest).isEmpty()) {
+            deepest--;
+        }
+
+        int source = -1;
+        if (current.level(0).size() >= l0Trigger || (full && !current.level(0).isEmpty())) {
+            source = 0;
+        } else {
+            for (int level = 1; level < deepest || (!full && level <= deepest); level++) {
+                if (current.level(level).isEmpty()) {
+                    continue;
+                }
+                if (full || levelBytes(current.level(level)) > levelCapacity(level)) {
+                    source = level;
+                    break;
+                }
+            }
+        }
+        if (source < 0) {
+            return false;
+        }
+        int target = source + 1;
+        List<SortedRun> inputs = new ArrayList<>(current.level(source));
+        List<SortedRun> targetRuns = current.level(target);
+
+        SortedRun output;
+        List<SortedRun> obsolete;
+        if (targetRuns.isEmpty() && inputs.size() == 1 && (!full || target < deepest)) {
+            // 下一层是空的，直接把段挪下去，不用重写（完全合并到最底层时要重写以丢弃墓碑）
+            output = inputs.get(0);
+            obsolete = List.of();
+        } else {
+            inputs.addAll(targetRuns);
+            output = mergeRuns(inputs, target >= deepest);
+            obsolete = inputs;
+        }
+
+        stateLock.lock();
+        try {
+            List<List<SortedRun>> levels = version.mutableLevels();
+            while (levels.size() <= target) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(source).clear();
+            levels.get(target).clear();
+            if (output != null) {
+                levels.get(target).add(output);
+            }
+            new Manifest(nextRunId.get(), flushedLogSequence, levels).write(dir.resolve(MANIFEST_FILE));
+            version = new Version(version.active, version.immutables, levels);
+        } finally {
+            stateLock.unlock();
+        }
+
+        // 新版本已经生效，等还在读旧段的读者结束后释放旧段的页
+        runLock.writeLock().lock();
+        try {
+            for (SortedRun run : obsolete) {
+                for (int[] extent : run.getAllExtents()) {
+                    dbFile.freePages(extent[0], extent[1]);
+                    for (int i = 0; i < extent[1]; i++) {
+                        pool.discard(extent[0] + i);
+                    }
+                }
+            }
+        } finally {
+            runLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    // 归并若干个段（从新到旧），写成一个新段；全是墓碑且被丢弃时返回null
+    private SortedRun mergeRuns(List<SortedRun> inputs, boolean dropTombstones) throws IOException {
+        List<BufferRing> rings = new ArrayList<>();
+        try {
+            List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+            for (SortedRun run : inputs) {
+                BufferRing ring = pool.newRing(COMPACTION_RING_PAGES);
+                rings.add(ring);
+                sources.add(run.iterator(null, pageId -> ring.getPage(pageId).getData()));
+            }
+            return writeRun(new MergingIterator(sources), dropTombstones);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (BufferRing ring : rings) {
+                ring.close();
+            }
+        }
+    }
+
+    private SortedRun writeRun(Iterator<Map.Entry<byte[], byte[]>> entries, boolean dropTombstones)
+            throws IOException {
+        SortedRunWriter writer = new SortedRunWriter(dbFile, BloomFilter.DEFAULT_BITS_PER_KEY);
+        SortedRun run;
+        try {
+            while (entries.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = entries.next();
+                if (dropTombstones && MemTable.isTombstone(entry.getValue())) {
+                    continue;
+                }
+                writer.add(entry.getKey(), entry.getValue());
+            }
+            run = writer.finish(nextRunId.getAndIncrement());
+        } catch (IOException | RuntimeException e) {
+            writer.abandon();
+            throw e;
+        }
+        if (run != null) {
+            // 这些页可能在释放前被缓存过，或被扫描的预读读到了写入前的内容
+            for (int[] extent : run.getAllExtents()) {
+                for (int i = 0; i < extent[1]; i++) {
+                    pool.discard(extent[0] + i);
+                }
+            }
+        }
+        return run;
+    }
+
+    private long levelBytes(List<SortedRun> level) {
+        long pages = 0;
+        for (SortedRun run : level) {
+            pages += run.getDataPageCount();
+        }
+        return pages * dbFile.getPageSize();
+    }
+
+    private long levelCapacity(int level) {
+        long capacity = levelBaseBytes;
+        for (int i = 1; i < level; i++) {
+            capacity *= LEVEL_SIZE_RATIO;
+        }
+        return capacity;
+    }
+
+    // ===== 信息 =====
+
+    /**
+     * 每一层的段数，第0层在前
+     */
+    public List<Integer> getRunCounts() {
+        List<Integer> counts = new ArrayList<>();
+        for (List<SortedRun> level : version.levels) {
+            counts.add(level.size());
+        }
+        return counts;
+    }
+
+    public LRUBufferPool getBufferPool() {
+        return pool;
+    }
+
+    /**
+     * 落盘内存中的数据，停止后台线程并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (backgroundError == null) {
+                flush();
+            }
+        } finally {
+            closed = true;
+            background.shutdown();
+            try {
+                background.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stateLock.lock();
+            try {
+                wal.close();
+            } finally {
+                stateLock.unlock();
+            }
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.shaotang.db.lsm;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 清单文件：记录每一层有哪些有序段、每个段的页在哪里，以及已经落盘的预写日志序号
+ *
+ * 格式：[魔数int][下一个段号long][已落盘日志序号long][层数int]
+ *       每层：[段数int] 每段：[段号long][extent数int]{[首页int][页数int]}[元数据首页int][元数据页数int][元数据长度int]
+ * 每次变更整个重写：先写临时文件并fsync，再原子改名，崩溃时要么是旧清单要么是新清单。
+ * 清单没有引用的已分配页都是崩溃留下的垃圾，打开时回收。
+ */
+final class Manifest {
+    private static final int MAGIC = 0x4C534D4D;  // "LSMM"
+
+    final long nextRunId;
+    final long flushedLogSequence;
+    // 第0层按从新到旧排列，其余每层最多一个段
+    final List<List<SortedRun>> levels;
+
+    Manifest(long nextRunId, long flushedLogSequence, List<List<SortedRun>> levels) {
+        this.nextRunId = nextRunId;
+        this.flushedLogSequence = flushedLogSequence;
+        this.levels = levels;
+    }
+
+    void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeLong(nextRunId);
+            out.writeLong(flushedLogSequence);
+            out.writeInt(levels.size());
+            for (List<SortedRun> level : levels) {
+                out.writeInt(level.size());
+                for (SortedRun run : level) {
+                    out.writeLong(run.getId());
+                    out.writeInt(run.getExtents().length);
+                    for (int[] extent : run.getExtents()) {
+                        out.writeInt(extent[0]);
+                        out.writeInt(extent[1]);
+                    }
+                    out.writeInt(run.getMetaFirstPage());
+                    out.writeInt(run.getMetaPageCount());
+                    out.writeInt(run.getMetaLength());
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取清单并加载所有段的元数据，清单不存在时返回空清单
+     */
+    static Manifest read(Path path, DBFile dbFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是LSM清单文件: " + path);
+            }
+            long nextRunId = in.readLong();
+            long flushedLogSequence = in.readLong();
+            int levelCount = in.readInt();
+            List<List<SortedRun>> levels = new ArrayList<>(levelCount);
+            for (int i = 0; i < levelCount; i++) {
+                int runCount = in.readInt();
+                List<SortedRun> level = new ArrayList<>(runCount);
+                for (int j = 0; j < runCount; j++) {
+                    long id = in.readLong();
+                    int[][] extents = new int[in.readInt()][];
+                    for (int k = 0; k < extents.length; k++) {
+                        extents[k] = new int[]{in.readInt(), in.readInt()};
+                    }
+                    int metaFirstPage = in.readInt();
+                    int metaPageCount = in.readInt();
+                    int metaLength = in.readInt();
+                    level.add(SortedRun.load(dbFile, id, extents, metaFirstPage, metaPageCount, metaLength));
+                }
+                levels.add(level);
+            }
+            return new Manifest(nextRunId, flushedLogSequence, levels);
+        } catch (NoSuchFileException e) {
+            return new Manifest(1, 0, new ArrayList<>());
+        }
+    }
+}
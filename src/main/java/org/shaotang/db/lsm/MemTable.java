@@ -0,0 +1,71 @@
+package org.shaotang.db.lsm;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存表：并发跳表，按键的无符号字节序排序
+ *
+ * 删除写入一个墓碑（{@link #TOMBSTONE}，按引用比较），读到墓碑说明键已删除，不用再查更旧的数据。
+ * 写入由LsmStore串行执行，读可以与写并发。
+ */
+final class MemTable {
+    /**
+     * 墓碑：只按引用比较，任何读出来的空值都不是墓碑
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    // 每条记录在跳表中的额外开销估算
+    private static final int ENTRY_OVERHEAD = 48;
+
+    private final ConcurrentSkipListMap<byte[], byte[]> entries = new ConcurrentSkipListMap<>(KEY_ORDER);
+    private final AtomicLong approximateBytes = new AtomicLong();
+
+    // 对应的预写日志序号，内存表落盘后删除该日志
+    private final long logSequence;
+
+    MemTable(long logSequence) {
+        this.logSequence = logSequence;
+    }
+
+    static boolean isTombstone(byte[] value) {
+        return value == TOMBSTONE;
+    }
+
+    void put(byte[] key, byte[] value) {
+        entries.put(key, value);
+        approximateBytes.addAndGet(key.length + value.length + ENTRY_OVERHEAD);
+    }
+
+    /**
+     * 返回值、墓碑或null（不在本表中）
+     */
+    byte[] get(byte[] key) {
+        return entries.get(key);
+    }
+
+    /**
+     * 从start开始（含）按键顺序遍历，start为null时从头开始
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] start) {
+        return (start == null ? entries : entries.tailMap(start, true)).entrySet().iterator();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    long approximateBytes() {
+        return approximateBytes.get();
+    }
+
+    long getLogSequence() {
+        return logSequence;
+    }
+}
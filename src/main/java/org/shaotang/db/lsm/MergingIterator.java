@@ -0,0 +1,66 @@
+package org.shaotang.db.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并：把若干个按键有序的来源合成一个有序序列
+ *
+ * 来源按从新到旧排列，同一个键只输出最新来源中的那一条（可能是墓碑），其余跳过。
+ */
+final class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+
+    private static final class Head {
+        final Map.Entry<byte[], byte[]> entry;
+        final int source;
+
+        Head(Map.Entry<byte[], byte[]> entry, int source) {
+            this.entry = entry;
+            this.source = source;
+        }
+    }
+
+    private final List<Iterator<Map.Entry<byte[], byte[]>>> sources;
+    // 键小的在前，键相同时新来源（下标小）在前
+    private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+        int cmp = MemTable.KEY_ORDER.compare(a.entry.getKey(), b.entry.getKey());
+        return cmp != 0 ? cmp : Integer.compare(a.source, b.source);
+    });
+
+    MergingIterator(List<Iterator<Map.Entry<byte[], byte[]>>> sources) {
+        this.sources = sources;
+        for (int i = 0; i < sources.size(); i++) {
+            advance(i);
+        }
+    }
+
+    private void advance(int source) {
+        Iterator<Map.Entry<byte[], byte[]>> iterator = sources.get(source);
+        if (iterator.hasNext()) {
+            heads.add(new Head(iterator.next(), source));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        advance(head.source);
+        // 跳过旧来源中的同一个键
+        while (!heads.isEmpty()
+                && MemTable.KEY_ORDER.compare(heads.peek().entry.getKey(), head.entry.getKey()) == 0) {
+            advance(heads.poll().source);
+        }
+        return head.entry;
+    }
+}
@@ -0,0 +1,279 @@
+package org.shaotang.db.lsm;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 有序段：一次落盘或合并写出的不可变有序键值，存放在DBFile的页中
+ *
+ * 数据页（小端）：[条数short][每条：键长short][值长int，-1表示墓碑][键][值]
+ * 数据页按键有序，分成若干段连续页（extent）写入。
+ * 元数据块：[魔数int][条数int][数据页数int]
+ *           每个数据页：[首键长short][首键][页号int]   —— 稀疏索引
+ *           [最小键长short][最小键][最大键长short][最大键]
+ *           布隆过滤器
+ * 元数据块写在一段连续页中，打开时整块读入内存；页的位置记录在清单文件中。
+ */
+final class SortedRun {
+    static final int META_MAGIC = 0x4C534D52;  // "LSMR"
+    static final int PAGE_HEADER_SIZE = 2;
+    static final int ENTRY_HEADER_SIZE = 6;
+
+    /**
+     * 读数据页的方式：点查走缓冲池，合并走缓冲环
+     */
+    interface PageSource {
+        byte[] read(int pageId) throws IOException;
+    }
+
+    private final long id;
+    private final int entryCount;
+    private final byte[][] firstKeys;
+    private final int[] pageIds;
+    private final byte[] minKey;
+    private final byte[] maxKey;
+    private final BloomFilter bloom;
+    // 数据页的连续段：{首页, 页数}
+    private final int[][] extents;
+    private final int metaFirstPage;
+    private final int metaPageCount;
+    private final int metaLength;
+
+    SortedRun(long id, int entryCount, byte[][] firstKeys, int[] pageIds, byte[] minKey, byte[] maxKey,
+              BloomFilter bloom, int[][] extents, int metaFirstPage, int metaPageCount, int metaLength) {
+        this.id = id;
+        this.entryCount = entryCount;
+        this.firstKeys = firstKeys;
+        this.pageIds = pageIds;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.bloom = bloom;
+        this.extents = extents;
+        this.metaFirstPage = metaFirstPage;
+        this.metaPageCount = metaPageCount;
+        this.metaLength = metaLength;
+    }
+
+    /**
+     * 从元数据块加载
+     */
+    static SortedRun load(DBFile dbFile, long id, int[][] extents,
+                          int metaFirstPage, int metaPageCount, int metaLength) throws IOException {
+        byte[][] pages = dbFile.readPages(metaFirstPage, metaPageCount);
+        ByteBuffer meta = ByteBuffer.allocate(metaPageCount * dbFile.getPageSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] page : pages) {
+            meta.put(page);
+        }
+        meta.flip().limit(metaLength);
+
+        if (meta.getInt() != META_MAGIC) {
+            throw new IOException("有序段" + id + "的元数据已损坏");
+        }
+        int entryCount = meta.getInt();
+        int dataPages = meta.getInt();
+        byte[][] firstKeys = new byte[dataPages][];
+        int[] pageIds = new int[dataPages];
+        for (int i = 0; i < dataPages; i++) {
+            firstKeys[i] = readKey(meta);
+            pageIds[i] = meta.getInt();
+        }
+        byte[] minKey = readKey(meta);
+        byte[] maxKey = readKey(meta);
+        BloomFilter bloom = BloomFilter.readFrom(meta);
+        return new SortedRun(id, entryCount, firstKeys, pageIds, minKey, maxKey, bloom,
+                extents, metaFirstPage, metaPageCount, metaLength);
+    }
+
+    static byte[] readKey(ByteBuffer buffer) {
+        byte[] key = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(key);
+        return key;
+    }
+
+    static void writeKey(ByteBuffer buffer, byte[] key) {
+        buffer.putShort((short) key.length).put(key);
+    }
+
+    // ===== 查询 =====
+
+    /**
+     * 返回值、墓碑，不在本段中返回null
+     */
+    byte[] get(byte[] key, PageSource source) throws IOException {
+        if (MemTable.KEY_ORDER.compare(key, minKey) < 0 || MemTable.KEY_ORDER.compare(key, maxKey) > 0
+                || !bloom.mightContain(key)) {
+            return null;
+        }
+        int index = floorPage(key);
+        ByteBuffer page = ByteBuffer.wrap(source.read(pageIds[index])).order(ByteOrder.LITTLE_ENDIAN);
+        int count = Short.toUnsignedInt(page.getShort());
+        for (int i = 0; i < count; i++) {
+            int keyLength = Short.toUnsignedInt(page.getShort());
+            int valueLength = page.getInt();
+            int cmp = compareAt(page, keyLength, key);
+            page.position(page.position() + keyLength);
+            if (cmp == 0) {
+                if (valueLength < 0) {
+                    return MemTable.TOMBSTONE;
+                }
+                byte[] value = new byte[valueLength];
+                page.get(value);
+                return value;
+            }
+            if (cmp > 0) {
+                return null;  // 页内有序，已经越过
+            }
+            page.position(page.position() + Math.max(valueLength, 0));
+        }
+        return null;
+    }
+
+    // 页中当前位置的键与key比较，不移动位置
+    private static int compareAt(ByteBuffer page, int keyLength, byte[] key) {
+        int offset = page.arrayOffset() + page.position();
+        return Arrays.compareUnsigned(page.array(), offset, offset + keyLength, key, 0, key.length);
+    }
+
+    // 最后一个首键不大于key的数据页，key小于所有首键时返回0
+    private int floorPage(byte[] key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (MemTable.KEY_ORDER.compare(firstKeys[mid], key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 从start（含）开始按键顺序遍历，包括墓碑；start为null时从头开始
+     * 读页失败时抛出UncheckedIOException
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator(byte[] start, PageSource source) {
+        int firstPage = start == null ? 0 : floorPage(start);
+        return new Iterator<>() {
+            private int nextPage = firstPage;
+            private Iterator<Map.Entry<byte[], byte[]>> current = Collections.emptyIterator();
+            private Map.Entry<byte[], byte[]> pending = advance();
+
+            private Map.Entry<byte[], byte[]> advance() {
+                while (true) {
+                    while (current.hasNext()) {
+                        Map.Entry<byte[], byte[]> entry = current.next();
+                        if (start == null || MemTable.KEY_ORDER.compare(entry.getKey(), start) >= 0) {
+                            return entry;
+                        }
+                    }
+                    if (nextPage >= pageIds.length) {
+                        return null;
+                    }
+                    try {
+                        current = decodePage(source.read(pageIds[nextPage++])).iterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return pending != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (pending == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<byte[], byte[]> result = pending;
+                pending = advance();
+                return result;
+            }
+        };
+    }
+
+    static List<Map.Entry<byte[], byte[]>> decodePage(byte[] data) {
+        ByteBuffer page = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int count = Short.toUnsignedInt(page.getShort());
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int keyLength = Short.toUnsignedInt(page.getShort());
+            int valueLength = page.getInt();
+            byte[] key = new byte[keyLength];
+            page.get(key);
+            byte[] value = MemTable.TOMBSTONE;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                page.get(value);
+            }
+            entries.add(Map.entry(key, value));
+        }
+        return entries;
+    }
+
+    // ===== 信息 =====
+
+    long getId() {
+        return id;
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    int getDataPageCount() {
+        return pageIds.length;
+    }
+
+    byte[] getMinKey() {
+        return minKey;
+    }
+
+    byte[] getMaxKey() {
+        return maxKey;
+    }
+
+    int[][] getExtents() {
+        return extents;
+    }
+
+    int getMetaFirstPage() {
+        return metaFirstPage;
+    }
+
+    int getMetaPageCount() {
+        return metaPageCount;
+    }
+
+    int getMetaLength() {
+        return metaLength;
+    }
+
+    /**
+     * 本段占用的所有页（数据页和元数据页），删除段时释放
+     */
+    List<int[]> getAllExtents() {
+        List<int[]> all = new ArrayList<>(List.of(extents));
+        all.add(new int[]{metaFirstPage, metaPageCount});
+        return all;
+    }
+
+    boolean mightContain(byte[] key) {
+        return bloom.mightContain(key);
+    }
+}
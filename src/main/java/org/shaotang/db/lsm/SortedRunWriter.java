@@ -0,0 +1,172 @@
+package org.shaotang.db.lsm;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 写出一个有序段：按键递增追加记录，页写满后攒成一批连续页顺序写入
+ *
+ * 每攒够 {@link #CHUNK_PAGES} 页分配一段连续页、用一次writePages写出，不fsync；
+ * {@link #finish} 写元数据块后fsync一次并提交位图。
+ */
+final class SortedRunWriter {
+    static final int CHUNK_PAGES = 64;
+
+    private final DBFile dbFile;
+    private final int pageSize;
+    private final int bitsPerKey;
+
+    private final ByteBuffer page;
+    private int pageEntries = 0;
+    private final List<byte[]> pendingPages = new ArrayList<>();
+
+    private final List<int[]> extents = new ArrayList<>();
+    private final List<byte[]> firstKeys = new ArrayList<>();
+    private int[] pageIds = new int[16];
+    private int writtenPages = 0;
+
+    private long[] keyHashes = new long[256];
+    private int entryCount = 0;
+    private byte[] minKey;
+    private byte[] lastKey;
+
+    SortedRunWriter(DBFile dbFile, int bitsPerKey) {
+        this.dbFile = dbFile;
+        this.pageSize = dbFile.getPageSize();
+        this.bitsPerKey = bitsPerKey;
+        this.page = ByteBuffer.allocate(pageSize).order(ByteOrder.LITTLE_ENDIAN);
+        page.position(SortedRun.PAGE_HEADER_SIZE);
+    }
+
+    /**
+     * 一页能放下的最大记录（键+值字节数）
+     */
+    static int maxEntrySize(int pageSize) {
+        return pageSize - SortedRun.PAGE_HEADER_SIZE - SortedRun.ENTRY_HEADER_SIZE;
+    }
+
+    /**
+     * 追加一条记录，键必须严格递增；value为墓碑时写入删除标记
+     */
+    void add(byte[] key, byte[] value) throws IOException {
+        if (lastKey != null && MemTable.KEY_ORDER.compare(key, lastKey) <= 0) {
+            throw new IllegalArgumentException("有序段的键必须严格递增");
+        }
+        boolean tombstone = MemTable.isTombstone(value);
+        int size = SortedRun.ENTRY_HEADER_SIZE + key.length + (tombstone ? 0 : value.length);
+        if (size - SortedRun.ENTRY_HEADER_SIZE > maxEntrySize(pageSize)) {
+            throw new IllegalArgumentException("记录太大，一页放不下: " + size + "字节");
+        }
+        if (page.remaining() < size) {
+            finishPage();
+        }
+        if (pageEntries == 0) {
+            firstKeys.add(key);
+        }
+        page.putShort((short) key.length).putInt(tombstone ? -1 : value.length).put(key);
+        if (!tombstone) {
+            page.put(value);
+        }
+        pageEntries++;
+
+        if (entryCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, entryCount * 2);
+        }
+        keyHashes[entryCount++] = BloomFilter.hash(key);
+        if (minKey == null) {
+            minKey = key;
+        }
+        lastKey = key;
+    }
+
+    private void finishPage() throws IOException {
+        page.putShort(0, (short) pageEntries);
+        pendingPages.add(page.array().clone());
+        Arrays.fill(page.array(), (byte) 0);
+        page.clear().position(SortedRun.PAGE_HEADER_SIZE);
+        pageEntries = 0;
+        if (pendingPages.size() == CHUNK_PAGES) {
+            writeChunk();
+        }
+    }
+
+    // 把攒下的页写到一段新分配的连续页
+    private void writeChunk() throws IOException {
+        if (pendingPages.isEmpty()) {
+            return;
+        }
+        int count = pendingPages.size();
+        int first = dbFile.allocateContiguousPages(count);
+        extents.add(new int[]{first, count});
+        ByteBuffer chunk = ByteBuffer.allocate(count * pageSize);
+        for (byte[] data : pendingPages) {
+            chunk.put(data);
+        }
+        chunk.flip();
+        dbFile.writePages(first, chunk, false);
+
+        if (writtenPages + count > pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, Math.max(pageIds.length * 2, writtenPages + count));
+        }
+        for (int i = 0; i < count; i++) {
+            pageIds[writtenPages++] = first + i;
+        }
+        pendingPages.clear();
+    }
+
+    /**
+     * 写完剩余数据和元数据块并落盘；没有任何记录时返回null
+     */
+    SortedRun finish(long id) throws IOException {
+        if (entryCount == 0) {
+            return null;
+        }
+        if (pageEntries > 0) {
+            finishPage();
+        }
+        writeChunk();
+
+        BloomFilter bloom = BloomFilter.create(keyHashes, entryCount, bitsPerKey);
+        int metaLength = 12;
+        for (byte[] key : firstKeys) {
+            metaLength += 2 + key.length + 4;
+        }
+        metaLength += 2 + minKey.length + 2 + lastKey.length + bloom.serializedSize();
+        int metaPageCount = (metaLength + pageSize - 1) / pageSize;
+
+        ByteBuffer meta = ByteBuffer.allocate(metaPageCount * pageSize).order(ByteOrder.LITTLE_ENDIAN);
+        meta.putInt(SortedRun.META_MAGIC).putInt(entryCount).putInt(writtenPages);
+        for (int i = 0; i < writtenPages; i++) {
+            SortedRun.writeKey(meta, firstKeys.get(i));
+            meta.putInt(pageIds[i]);
+        }
+        SortedRun.writeKey(meta, minKey);
+        SortedRun.writeKey(meta, lastKey);
+        bloom.writeTo(meta);
+        meta.clear();
+
+        int metaFirstPage = dbFile.allocateContiguousPages(metaPageCount);
+        dbFile.writePages(metaFirstPage, meta, false);
+        dbFile.sync();
+        dbFile.flushBitmap();
+
+        return new SortedRun(id, entryCount, firstKeys.toArray(new byte[0][]), Arrays.copyOf(pageIds, writtenPages),
+                minKey, lastKey, bloom, extents.toArray(new int[0][]), metaFirstPage, metaPageCount, metaLength);
+    }
+
+    /**
+     * 放弃写到一半的段，释放已分配的页
+     */
+    void abandon() throws IOException {
+        for (int[] extent : extents) {
+            dbFile.freePages(extent[0], extent[1]);
+        }
+        extents.clear();
+    }
+}
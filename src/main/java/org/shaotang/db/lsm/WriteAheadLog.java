@@ -0,0 +1,100 @@
+package org.shaotang.db.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志：内存表的每次写入先顺序追加到日志，崩溃后重放日志恢复内存表
+ *
+ * 记录格式（小端）：[长度int][CRC int][键长int][值长int，-1表示删除][键][值]
+ * 长度和CRC覆盖从键长开始的部分。重放时遇到不完整或校验失败的记录就停止，那是崩溃时没写完的尾部。
+ *
+ * 追加不fsync，由 {@link #sync()} 决定何时落盘（每次写入或批量）。
+ */
+final class WriteAheadLog implements AutoCloseable {
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+
+    WriteAheadLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    void append(byte[] key, byte[] value) throws IOException {
+        boolean tombstone = MemTable.isTombstone(value);
+        int bodyLength = 8 + key.length + (tombstone ? 0 : value.length);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(bodyLength).putInt(0);
+        buffer.putInt(key.length).putInt(tombstone ? -1 : value.length).put(key);
+        if (!tombstone) {
+            buffer.put(value);
+        }
+        buffer.putInt(4, crc(buffer.array(), RECORD_HEADER_SIZE, bodyLength));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 重放日志中的完整记录，日志不存在时什么也不做，返回重放的记录数
+     */
+    static int replay(Path path, BiConsumer<byte[], byte[]> consumer) throws IOException {
+        ByteBuffer all;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            all = ByteBuffer.allocate((int) in.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (all.hasRemaining() && in.read(all) != -1) {
+                // 读满为止
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        all.flip();
+
+        int records = 0;
+        while (all.remaining() >= RECORD_HEADER_SIZE) {
+            int start = all.position();
+            int bodyLength = all.getInt();
+            int expectedCrc = all.getInt();
+            if (bodyLength < 8 || bodyLength > all.remaining()
+                    || crc(all.array(), start + RECORD_HEADER_SIZE, bodyLength) != expectedCrc) {
+                break;  // 崩溃时没写完的记录
+            }
+            int keyLength = all.getInt();
+            int valueLength = all.getInt();
+            byte[] key = new byte[keyLength];
+            all.get(key);
+            byte[] value = MemTable.TOMBSTONE;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                all.get(value);
+            }
+            consumer.accept(key, value);
+            records++;
+        }
+        return records;
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,306 @@
+package org.shaotang.db.replication;
+
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 只读从库：从主库接收页写入，应用到自己的文件，用自己的缓冲池提供只读查询
+ *
+ * 收到的页先攒着，遇到主库的fsync（SYNC）、心跳或攒够一批时一起应用；
+ * 应用在写锁下进行，查询在读锁下进行，所以一次查询看到的是主库某个一致点（或一批写入之后）的状态。
+ * 应用时把页写进本地文件并从缓冲池中丢弃旧内容；收到位图页或元数据页时重新读取本地文件的分配信息，
+ * 所以从库DBFile的 isAllocated、getLastAllocatedPage 等与主库一致。
+ *
+ * 连接断开后自动重连并重新全量复制，期间 {@link #isReady()} 为false，查询会抛出IllegalStateException。
+ * 复制延迟按主库时钟计算：从库最后一次追平主库时主库的时间到现在，跨机器时受时钟偏差影响。
+ */
+public class ReplicaFollower implements AutoCloseable {
+    public static final int DEFAULT_CACHE_PAGES = 1024;
+    // 攒够这么多页即使没有一致点也应用，限制内存占用
+    private static final int MAX_PENDING_PAGES = 1024;
+    private static final long RECONNECT_DELAY_MILLIS = 200;
+
+    /**
+     * 在读锁下执行的只读查询，不要修改拿到的页
+     */
+    public interface ReadOperation<T> {
+        T apply(LRUBufferPool pool) throws IOException;
+    }
+
+    private final InetSocketAddress primary;
+    private final DBFile dbFile;
+    private final LRUBufferPool pool;
+    private final ReentrantReadWriteLock applyLock = new ReentrantReadWriteLock();
+
+    private volatile Socket socket;
+    private DataInputStream in;
+    private final Thread receiver;
+
+    private final List<ReplicationProtocol.Frame> pending = new ArrayList<>();
+    private final Object progress = new Object();
+    private volatile boolean ready = false;
+    private volatile long appliedLsn = 0;
+    private volatile long primaryLsn = 0;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    public ReplicaFollower(Path file, InetSocketAddress primary) throws IOException {
+        this(file, primary, DEFAULT_CACHE_PAGES);
+    }
+
+    /**
+     * 连接主库并打开本地文件（页大小与主库一致），初始全量复制在后台进行
+     */
+    public ReplicaFollower(Path file, InetSocketAddress primary, int cachePages) throws IOException {
+        this.primary = primary;
+        int pageSize = connect();
+        this.dbFile = new DBFile(file.toString(), pageSize);
+        this.pool = new LRUBufferPool(dbFile, cachePages);
+
+        receiver = new Thread(this::receiveLoop, "replication-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // 连接并读取握手，返回主库的页大小
+    private int connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(primary);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            if (input.readInt() != ReplicationProtocol.MAGIC) {
+                throw new IOException("对端不是复制主库: " + primary);
+            }
+            int pageSize = input.readInt();
+            if (dbFile != null && pageSize != dbFile.getPageSize()) {
+                throw new IOException("主库页大小变成了" + pageSize);
+            }
+            socket = s;
+            in = input;
+            return pageSize;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    // ===== 接收与应用 =====
+
+    private void receiveLoop() {
+        while (!closed) {
+            try {
+                DataInputStream input = in;
+                if (input == null) {
+                    connect();
+                    input = in;
+                }
+                if (input == null) {
+                    // 连接刚建立就被close断开
+                    return;
+                }
+                receive(input);
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                ready = false;
+                pending.clear();
+                closeSocket();
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void receive(DataInputStream input) throws IOException {
+        int pageSize = dbFile.getPageSize();
+        while (!closed) {
+            ReplicationProtocol.Frame frame = ReplicationProtocol.Frame.readFrom(input, pageSize);
+            switch (frame.type) {
+                case ReplicationProtocol.PAGE -> {
+                    pending.add(frame);
+                    if (pending.size() >= MAX_PENDING_PAGES) {
+                        apply(frame.lsn, false);
+                    }
+                }
+                case ReplicationProtocol.SYNC -> {
+                    apply(frame.lsn, true);
+                    markPosition(frame);
+                }
+                case ReplicationProtocol.HEARTBEAT -> {
+                    apply(appliedLsn, false);
+                    markPosition(frame);
+                }
+                case ReplicationProtocol.SNAPSHOT_END -> {
+                    apply(frame.lsn, true);
+                    synchronized (progress) {
+                        ready = true;
+                        progress.notifyAll();
+                    }
+                    markPosition(frame);
+                }
+                default -> throw new IOException("未知的复制帧类型: " + frame.type);
+            }
+        }
+    }
+
+    // 把攒下的页一起应用；lsn是应用之后的位置
+    private void apply(long lsn, boolean sync) throws IOException {
+        if (!pending.isEmpty()) {
+            long last = pending.get(pending.size() - 1).lsn;
+            applyLock.writeLock().lock();
+            try {
+                boolean systemPages = false;
+                for (ReplicationProtocol.Frame frame : pending) {
+                    dbFile.writePage(frame.pageId, frame.data, false);
+                    pool.discard(frame.pageId);
+                    systemPages |= frame.pageId < 0;
+                }
+                if (systemPages) {
+                    // 位图页被主库的内容覆盖了，内存中的分配信息跟着更新
+                    dbFile.reloadAllocation();
+                }
+            } finally {
+                applyLock.writeLock().unlock();
+            }
+            pending.clear();
+            lsn = Math.max(lsn, last);
+        }
+        if (sync) {
+            dbFile.sync();
+        }
+        if (lsn > appliedLsn) {
+            synchronized (progress) {
+                appliedLsn = lsn;
+                progress.notifyAll();
+            }
+        }
+    }
+
+    // 记录主库的位置，没有待应用的页且追平时更新追平时间
+    private void markPosition(ReplicationProtocol.Frame frame) {
+        primaryLsn = Math.max(primaryLsn, frame.lsn);
+        if (pending.isEmpty() && appliedLsn >= frame.lsn) {
+            caughtUpAt = frame.timestamp;
+        }
+    }
+
+    // ===== 查询 =====
+
+    /**
+     * 在读锁下执行只读查询
+     */
+    public <T> T read(ReadOperation<T> operation) throws IOException {
+        applyLock.readLock().lock();
+        try {
+            if (!ready) {
+                throw new IllegalStateException("从库正在全量复制，暂时不能读");
+            }
+            return operation.apply(pool);
+        } finally {
+            applyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取页内容的副本
+     */
+    public byte[] readPage(int pageId) throws IOException {
+        return read(p -> p.getPage(pageId).getData().clone());
+    }
+
+    /**
+     * 等待从库应用到主库的某个lsn
+     * @return 超时前是否已应用到
+     */
+    public boolean awaitLsn(long lsn, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (progress) {
+            while (!ready || appliedLsn < lsn) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    // ===== 状态 =====
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getAppliedLsn() {
+        return appliedLsn;
+    }
+
+    /**
+     * 最近一次从主库得知的主库lsn
+     */
+    public long getPrimaryLsn() {
+        return primaryLsn;
+    }
+
+    /**
+     * 落后主库的页写入数
+     */
+    public long getLagPages() {
+        return Math.max(0, primaryLsn - appliedLsn);
+    }
+
+    /**
+     * 复制延迟：已追平时为0，否则为从库数据的陈旧时间
+     */
+    public long getLagMillis() {
+        if (ready && appliedLsn >= primaryLsn) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    public LRUBufferPool getBufferPool() {
+        return pool;
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        in = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // 已经断开
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        closeSocket();
+        receiver.interrupt();
+        try {
+            receiver.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.close();
+    }
+}
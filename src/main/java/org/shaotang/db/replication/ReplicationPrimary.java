@@ -0,0 +1,321 @@
+package org.shaotang.db.replication;
+
+import org.shaotang.db.storage.DBFile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 复制主库：监听DBFile的页写入，通过TCP把页的新内容推送给从库
+ *
+ * 从库连上后先收到整个文件的全量复制，再收到之后的每一次页写入。
+ * 全量复制期间的写入不进发送队列，只在位图中记下页号：整个文件发完后把这些页重新读出来补发，
+ * 补发期间又写过的页再补一轮；剩下的页不多时，在DBFile的writeLock内补最后一轮并切换到发送队列，
+ * 之后的写入一定在队列里，所以从库最终与主库一致，队列也不会因为全量复制时间长而被写满。
+ * 每个从库一个发送线程和一个有界队列；从库跟不上、队列满时断开它，从库重连后重新全量复制。
+ *
+ * 创建后调用 {@link #start()} 开始监听写入和接受连接。
+ * 写入路径上只多了一次页复制和入队，没有从库时只有一次计数。
+ */
+public class ReplicationPrimary implements DBFile.WriteListener, AutoCloseable {
+    public static final int DEFAULT_QUEUE_PAGES = 16384;
+    static final long HEARTBEAT_MILLIS = 100;
+    // 全量复制每次顺序读取的页数
+    private static final int SNAPSHOT_CHUNK_PAGES = 64;
+    // 全量复制期间写过的页不超过这么多、或已经补了这么多轮时，在writeLock内补最后一轮
+    private static final int SNAPSHOT_FINAL_PAGES = 256;
+    private static final int SNAPSHOT_MAX_ROUNDS = 8;
+    // 发送线程一次最多取出多少帧再flush
+    private static final int SEND_BATCH = 256;
+
+    private final DBFile dbFile;
+    private final int queuePages;
+    private final ServerSocket server;
+    private Thread acceptor;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final AtomicLong lsn = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public ReplicationPrimary(DBFile dbFile, InetSocketAddress bindAddress) throws IOException {
+        this(dbFile, bindAddress, DEFAULT_QUEUE_PAGES);
+    }
+
+    /**
+     * 绑定监听地址，调用 {@link #start()} 之后才开始工作
+     * @param bindAddress 监听地址，端口为0时自动选择
+     * @param queuePages  每个从库的发送队列容量（页数）
+     */
+    public ReplicationPrimary(DBFile dbFile, InetSocketAddress bindAddress, int queuePages) throws IOException {
+        if (queuePages <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + queuePages);
+        }
+        this.dbFile = dbFile;
+        this.queuePages = queuePages;
+        this.server = new ServerSocket();
+        server.bind(bindAddress);
+    }
+
+    /**
+     * 注册为DBFile的写入监听器并开始接受从库连接
+     */
+    public synchronized void start() {
+        if (acceptor != null) {
+            throw new IllegalStateException("复制主库已启动");
+        }
+        if (closed) {
+            throw new IllegalStateException("复制主库已关闭");
+        }
+        dbFile.addWriteListener(this);
+        acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * 主库最新的lsn（已写入的页数）
+     */
+    public long getLastLsn() {
+        return lsn.get();
+    }
+
+    public int getFollowerCount() {
+        return sessions.size();
+    }
+
+    // ===== 写入监听 =====
+
+    @Override
+    public void pageWritten(int logicalPageId, ByteBuffer page) {
+        long current = lsn.incrementAndGet();
+        if (sessions.isEmpty()) {
+            return;
+        }
+        ReplicationProtocol.Frame frame = null;
+        for (Session session : sessions) {
+            if (session.markIfSnapshotting(logicalPageId)) {
+                continue;
+            }
+            if (frame == null) {
+                byte[] data = new byte[page.remaining()];
+                page.get(data);
+                frame = ReplicationProtocol.Frame.page(current, System.currentTimeMillis(), logicalPageId, data);
+            }
+            session.offer(frame);
+        }
+    }
+
+    @Override
+    public void synced() {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        ReplicationProtocol.Frame frame = ReplicationProtocol.Frame.marker(
+                ReplicationProtocol.SYNC, lsn.get(), System.currentTimeMillis());
+        for (Session session : sessions) {
+            // 全量复制期间的一致点由SNAPSHOT_END代替
+            if (!session.isSnapshotting()) {
+                session.offer(frame);
+            }
+        }
+    }
+
+    // ===== 连接 =====
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                Thread sender = new Thread(session, "replication-send-" + socket.getRemoteSocketAddress());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    // 单个连接失败不影响继续接受
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final BlockingQueue<ReplicationProtocol.Frame> queue = new ArrayBlockingQueue<>(queuePages);
+        // 全量复制期间写过的页（物理页号），切换到发送队列后为null
+        private BitSet snapshotDirty = new BitSet();
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        // 在DBFile的writeLock内调用：全量复制期间只记下页号
+        synchronized boolean markIfSnapshotting(int logicalPageId) {
+            if (snapshotDirty == null) {
+                return false;
+            }
+            snapshotDirty.set(logicalPageId - DBFile.FIRST_SYSTEM_PAGE_ID);
+            return true;
+        }
+
+        synchronized boolean isSnapshotting() {
+            return snapshotDirty != null;
+        }
+
+        // 取出记下的页号并重新开始记录；last为true时停止记录，之后的写入进入发送队列
+        private synchronized BitSet takeSnapshotDirty(boolean last) {
+            BitSet dirty = snapshotDirty;
+            snapshotDirty = last ? null : new BitSet();
+            return dirty;
+        }
+
+        void offer(ReplicationProtocol.Frame frame) {
+            if (!queue.offer(frame)) {
+                // 从库跟不上，断开后由它重新全量复制
+                close();
+            }
+        }
+
+        void close() {
+            sessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 已经断开
+            }
+        }
+
+        @Override
+        public void run() {
+            // 先登记再读全量：之后的写入要么记在位图里补发，要么在队列里
+            sessions.add(this);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), 64 * 1024))) {
+                out.writeInt(ReplicationProtocol.MAGIC);
+                out.writeInt(dbFile.getPageSize());
+                sendSnapshot(out);
+
+                List<ReplicationProtocol.Frame> batch = new ArrayList<>(SEND_BATCH);
+                while (!closed && !socket.isClosed()) {
+                    ReplicationProtocol.Frame frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        ReplicationProtocol.Frame.marker(ReplicationProtocol.HEARTBEAT,
+                                lsn.get(), System.currentTimeMillis()).writeTo(out);
+                    } else {
+                        frame.writeTo(out);
+                        queue.drainTo(batch, SEND_BATCH);
+                        for (ReplicationProtocol.Frame next : batch) {
+                            next.writeTo(out);
+                        }
+                        batch.clear();
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // 从库断开
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        // 用大块顺序读把整个文件（包括系统页）发过去，再补发期间写过的页
+        private void sendSnapshot(DataOutputStream out) throws IOException {
+            long startLsn = lsn.get();
+            int first = DBFile.FIRST_SYSTEM_PAGE_ID;
+            int end = first + dbFile.getFilePageCount();
+            for (int pageId = first; pageId < end; pageId += SNAPSHOT_CHUNK_PAGES) {
+                int count = Math.min(SNAPSHOT_CHUNK_PAGES, end - pageId);
+                byte[][] pages = dbFile.readPages(pageId, count);
+                for (int i = 0; i < count; i++) {
+                    ReplicationProtocol.Frame.page(startLsn, System.currentTimeMillis(), pageId + i, pages[i])
+                            .writeTo(out);
+                }
+            }
+
+            for (int round = 0; round < SNAPSHOT_MAX_ROUNDS; round++) {
+                BitSet dirty = takeSnapshotDirty(false);
+                if (dirty.cardinality() <= SNAPSHOT_FINAL_PAGES) {
+                    // 这一轮的页留到最后一轮一起补
+                    synchronized (this) {
+                        snapshotDirty.or(dirty);
+                    }
+                    break;
+                }
+                sendPages(dirty, lsn.get(), out);
+            }
+
+            // 最后一轮在writeLock内读，读完立即切换到发送队列，中间没有写入
+            List<ReplicationProtocol.Frame> last = new ArrayList<>();
+            long endLsn = dbFile.runExclusive(() -> {
+                long current = lsn.get();
+                BitSet dirty = takeSnapshotDirty(true);
+                for (int physical = dirty.nextSetBit(0); physical >= 0; physical = dirty.nextSetBit(physical + 1)) {
+                    int pageId = physical + DBFile.FIRST_SYSTEM_PAGE_ID;
+                    last.add(ReplicationProtocol.Frame.page(current, System.currentTimeMillis(),
+                            pageId, dbFile.readPage(pageId)));
+                }
+                return current;
+            });
+            for (ReplicationProtocol.Frame frame : last) {
+                frame.writeTo(out);
+            }
+            ReplicationProtocol.Frame.marker(ReplicationProtocol.SNAPSHOT_END,
+                    endLsn, System.currentTimeMillis()).writeTo(out);
+            out.flush();
+        }
+
+        private void sendPages(BitSet physicalPages, long frameLsn, DataOutputStream out) throws IOException {
+            for (int physical = physicalPages.nextSetBit(0); physical >= 0;
+                 physical = physicalPages.nextSetBit(physical + 1)) {
+                int pageId = physical + DBFile.FIRST_SYSTEM_PAGE_ID;
+                ReplicationProtocol.Frame.page(frameLsn, System.currentTimeMillis(), pageId, dbFile.readPage(pageId))
+                        .writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * 停止监听，断开所有从库
+     */
+    @Override
+    public void close() throws IOException {
+        Thread started;
+        synchronized (this) {
+            closed = true;
+            started = acceptor;
+        }
+        dbFile.removeWriteListener(this);
+        server.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+        if (started == null) {
+            return;
+        }
+        try {
+            started.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
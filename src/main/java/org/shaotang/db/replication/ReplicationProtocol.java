@@ -0,0 +1,81 @@
+package org.shaotang.db.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 主从之间的流格式（大端，DataOutputStream）
+ *
+ * 连接建立后主库先发：[魔数int][页大小int]
+ * 之后是一串帧，每帧以类型字节开头：
+ *   PAGE          [lsn long][主库时间ms long][页号int][页内容]
+ *   SYNC          [lsn long][主库时间ms long]          主库fsync了，之前的页构成一致点
+ *   HEARTBEAT     [lsn long][主库时间ms long]          主库空闲时定期发送，lsn为主库当前位置
+ *   SNAPSHOT_END  [lsn long][主库时间ms long]          初始全量复制结束
+ * lsn是主库上页写入的序号，每写一页加1；SYNC/HEARTBEAT/SNAPSHOT_END携带发送时主库的最新lsn。
+ */
+final class ReplicationProtocol {
+    static final int MAGIC = 0x52504C31;  // "RPL1"
+
+    static final byte PAGE = 1;
+    static final byte SYNC = 2;
+    static final byte HEARTBEAT = 3;
+    static final byte SNAPSHOT_END = 4;
+
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * 一帧；type为PAGE时pageId和data有效
+     */
+    static final class Frame {
+        final byte type;
+        final long lsn;
+        final long timestamp;
+        final int pageId;
+        final byte[] data;
+
+        Frame(byte type, long lsn, long timestamp, int pageId, byte[] data) {
+            this.type = type;
+            this.lsn = lsn;
+            this.timestamp = timestamp;
+            this.pageId = pageId;
+            this.data = data;
+        }
+
+        static Frame page(long lsn, long timestamp, int pageId, byte[] data) {
+            return new Frame(PAGE, lsn, timestamp, pageId, data);
+        }
+
+        static Frame marker(byte type, long lsn, long timestamp) {
+            return new Frame(type, lsn, timestamp, -1, null);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeLong(lsn);
+            out.writeLong(timestamp);
+            if (type == PAGE) {
+                out.writeInt(pageId);
+                out.write(data);
+            }
+        }
+
+        static Frame readFrom(DataInputStream in, int pageSize) throws IOException {
+            byte type = in.readByte();
+            long lsn = in.readLong();
+            long timestamp = in.readLong();
+            if (type == PAGE) {
+                int pageId = in.readInt();
+                byte[] data = new byte[pageSize];
+                in.readFully(data);
+                return page(lsn, timestamp, pageId, data);
+            }
+            if (type != SYNC && type != HEARTBEAT && type != SNAPSHOT_END) {
+                throw new IOException("未知的复制帧类型: " + type);
+            }
+            return marker(type, lsn, timestamp);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 页访问轨迹记录：缓冲池的每次访问追加一条二进制记录，离线交给 {@link CacheSimulator} 回放
+ *
+ * 文件格式（小端）：
+ *   [魔数int][页大小int][开始时间long，毫秒]
+ *   每次访问 [相对开始的纳秒long][页号int][操作byte]
+ *
+ * 记录先写进64KB的内存缓冲，满了才写文件，热路径上只有一次nanoTime和几次put。
+ * 写文件失败后停止记录（轨迹只用于分析，不影响缓冲池），错误在close时抛出。
+ */
+public class AccessTraceRecorder implements AutoCloseable {
+    public static final byte OP_READ = 0;
+    public static final byte OP_DIRTY = 1;
+    public static final byte OP_DISCARD = 2;
+
+    private static final int MAGIC = 0x54524331;  // "TRC1"
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 13;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final long startNanos = System.nanoTime();
+    private long recordCount = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    /**
+     * 新建轨迹文件，已存在时覆盖
+     */
+    public AccessTraceRecorder(Path file, int pageSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(pageSize).putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * 记录一次访问，不抛异常
+     */
+    public synchronized void record(int pageId, byte op) {
+        if (closed || failure != null) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            try {
+                writeBuffer();
+            } catch (IOException e) {
+                failure = e;
+                return;
+            }
+        }
+        buffer.putLong(System.nanoTime() - startNanos).putInt(pageId).put(op);
+        recordCount++;
+    }
+
+    /**
+     * 把缓冲中的记录写入文件
+     */
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!closed) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    // ===== 读取 =====
+
+    /**
+     * 读取轨迹中所有读操作的页号，按访问顺序排列；末尾不完整的记录忽略
+     */
+    public static int[] readPageAccesses(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (in.read(header) == -1) {
+                    throw new IOException("轨迹文件不完整: " + file);
+                }
+            }
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("不是页访问轨迹文件: " + file);
+            }
+
+            long records = (in.size() - HEADER_SIZE) / RECORD_SIZE;
+            if (records > Integer.MAX_VALUE) {
+                throw new IOException("轨迹太大: " + records + "条记录");
+            }
+            int[] pageIds = new int[(int) records];
+            int count = 0;
+            ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE / RECORD_SIZE * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long remaining = records * RECORD_SIZE;
+            while (remaining > 0) {
+                chunk.clear().limit((int) Math.min(chunk.capacity(), remaining));
+                while (chunk.hasRemaining()) {
+                    if (in.read(chunk) == -1) {
+                        throw new IOException("轨迹文件意外结束: " + file);
+                    }
+                }
+                chunk.flip();
+                remaining -= chunk.limit();
+                while (chunk.hasRemaining()) {
+                    chunk.getLong();
+                    int pageId = chunk.getInt();
+                    if (chunk.get() == OP_READ) {
+                        pageIds[count++] = pageId;
+                    }
+                }
+            }
+            return Arrays.copyOf(pageIds, count);
+        }
+    }
+}
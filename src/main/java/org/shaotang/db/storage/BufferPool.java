@@ -19,7 +19,15 @@ public class BufferPool {
     private final DBFile dbFile;
     
     public BufferPool(String filename) throws IOException {
-        this.dbFile = new DBFile(filename);
+        this(new DBFile(filename));
+    }
+
+    public BufferPool(String filename, int pageSize) throws IOException {
+        this(new DBFile(filename, pageSize));
+    }
+
+    private BufferPool(DBFile dbFile) {
+        this.dbFile = dbFile;
         this.cachedPage = null;
         this.cachedPageId = null;
         this.dirty = false;
@@ -35,19 +43,15 @@ public class BufferPool {
     public Page getPage(int pageId) throws IOException {
         // 检查缓存是否命中
         if (cachedPageId != null && cachedPageId == pageId) {
-            System.out.println("缓存命中！从内存返回页 " + pageId);
+            dbFile.getMetrics().recordCacheHit();
             return cachedPage;
         }
         
         // 缓存未命中，需要从磁盘读取
-        System.out.println("缓存未命中，从磁盘读取页 " + pageId);
+        dbFile.getMetrics().recordCacheMiss();
         
         // 如果当前有缓存页且是脏页，需要先写回磁盘
-        if (dirty && cachedPageId != null) {
-            System.out.println("将脏页 " + cachedPageId + " 写回磁盘");
-            // 这里需要实现将页写回磁盘的功能
-            // 由于Day 1的DBFile只支持版本号，我们需要扩展它
-        }
+        flush();
         
         // 从磁盘读取页（暂时简单实现）
         Page page = readPageFromDisk(pageId);
@@ -66,7 +70,6 @@ public class BufferPool {
     public void markDirty() {
         if (cachedPage != null) {
             this.dirty = true;
-            System.out.println("标记页 " + cachedPageId + " 为脏页");
         }
     }
 
@@ -79,29 +82,20 @@ public class BufferPool {
     // 更新flush方法
     public void flush() throws IOException {
         if (dirty && cachedPage != null && cachedPageId != null) {
-            System.out.println("将脏页 " + cachedPageId + " 写回磁盘");
             writePageToDisk(cachedPageId, cachedPage);
             dirty = false;
+            dbFile.getMetrics().recordDirtyWriteBack();
         }
     }
     
     /**
      * 从磁盘读取页（简化版）
-     * 页大小是4096字节
+     * 页大小由底层文件决定
      */
     private Page readPageFromDisk(int pageId) throws IOException {
+        // 新页还没有在磁盘上分配空间时，readPage返回全0
         byte[] data = dbFile.readPage(pageId);
-        Page page = new Page(data);
-
-        // 重要：如果这是新分配的页，我们需要知道！
-        // 因为它可能还没有在磁盘上分配空间
-        boolean isNewPage = (dbFile.getTotalPages() <= pageId);
-
-        if (isNewPage) {
-            System.out.println("页" + pageId + "是新页（还未分配磁盘空间）");
-        }
-
-        return page;
+        return new Page(data);
     }
     
     public void close() throws IOException {
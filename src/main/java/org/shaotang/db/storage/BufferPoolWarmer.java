@@ -0,0 +1,256 @@
+package org.shaotang.db.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓冲池预热：把缓存中的页号保存到文件，重启后在后台按文件偏移顺序批量读回
+ *
+ * 转储文件：[魔数int][页数int][页号int...]，页号按从最近使用到最久未用排列。
+ * 只保存页号不保存内容，恢复时从数据文件读，因此转储文件过期也不会读到错误数据。
+ *
+ * 恢复时取最近使用的前N页（N为缓冲池容量），从最近使用的开始每次取一段：段内排序后把相邻或间隔很小的页
+ * 合并成一次readPages，设置了IOScheduler时改为提交后台读，由调度器排序合并。
+ * 一段读完就按转储中的顺序装入再读下一段：每页都放在LRU尾部，先装最近使用的，恢复后的LRU顺序与转储时相同；
+ * 最热的页最先可用，同时在内存中的读取结果最多一段。
+ * 恢复与前台请求同时进行：恢复的页只放进空位，不挤掉前台的页；已被前台读过的页不会被旧数据覆盖。
+ * 定期转储失败时记日志并保留最近一次错误，可以通过 {@link #getLastDumpFailure()} 查看。
+ */
+public class BufferPoolWarmer {
+    private static final int DUMP_MAGIC = 0x42504457;  // "BPDW"
+
+    // 一次顺序读的最大页数
+    private static final int MAX_BATCH_PAGES = 64;
+    // 两个页之间的空隙不超过这么多页时一起读，多读几页比多一次I/O便宜
+    private static final int MAX_GAP_PAGES = 4;
+    // 每段的页数：越大合并读的机会越多，但要等更久才装入、占用更多内存
+    private static final int RESTORE_CHUNK_PAGES = 1024;
+    private static final System.Logger LOG = System.getLogger(BufferPoolWarmer.class.getName());
+
+    private final LRUBufferPool pool;
+    private final Path dumpFile;
+
+    private ScheduledExecutorService dumper;
+    private volatile IOException lastDumpFailure;
+
+    public BufferPoolWarmer(LRUBufferPool pool, Path dumpFile) {
+        this.pool = pool;
+        this.dumpFile = dumpFile;
+    }
+
+    // ===== 转储 =====
+
+    /**
+     * 把当前缓存的页号写入转储文件（先写临时文件再改名，不会留下写了一半的文件）
+     */
+    public synchronized void dump() throws IOException {
+        List<Integer> pageIds = pool.getResidentPageIds();
+        Path temp = dumpFile.resolveSibling(dumpFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(DUMP_MAGIC);
+            out.writeInt(pageIds.size());
+            for (int pageId : pageIds) {
+                out.writeInt(pageId);
+            }
+        }
+        Files.move(temp, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取转储文件中的页号，文件不存在时返回空列表
+     */
+    public static List<Integer> readDump(Path dumpFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(dumpFile)))) {
+            if (in.readInt() != DUMP_MAGIC) {
+                throw new IOException("不是缓冲池转储文件: " + dumpFile);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("转储文件已损坏: " + dumpFile);
+            }
+            List<Integer> pageIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                pageIds.add(in.readInt());
+            }
+            return pageIds;
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * 定期转储，崩溃重启时也能用上最近一次的结果
+     */
+    public synchronized void startPeriodicDump(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("转储间隔必须大于0: " + intervalMillis);
+        }
+        if (dumper != null) {
+            throw new IllegalStateException("定期转储已启动");
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "buffer-pool-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                dump();
+                lastDumpFailure = null;
+            } catch (IOException e) {
+                // 转储只是优化，失败了等下一次
+                lastDumpFailure = e;
+                LOG.log(System.Logger.Level.WARNING, "缓冲池定期转储失败: " + dumpFile, e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 最近一次定期转储失败的原因；之后又转储成功或从未失败时为null
+     */
+    public IOException getLastDumpFailure() {
+        return lastDumpFailure;
+    }
+
+    /**
+     * 停止定期转储并做最后一次转储，应在关闭缓冲池之前调用
+     */
+    public void close() throws IOException {
+        ScheduledExecutorService toStop;
+        synchronized (this) {
+            toStop = dumper;
+            dumper = null;
+        }
+        if (toStop != null) {
+            toStop.shutdown();
+            try {
+                toStop.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dump();
+    }
+
+    // ===== 恢复 =====
+
+    /**
+     * 在后台线程恢复转储文件中的页，返回实际装入缓存的页数
+     */
+    public CompletableFuture<Integer> restoreAsync() {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("buffer-pool-warmer").start(() -> {
+            try {
+                result.complete(restore());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 在当前线程恢复，返回实际装入缓存的页数
+     */
+    public int restore() throws IOException {
+        DBFile dbFile = pool.getDBFile();
+
+        // 只取最近使用的前N页，已经释放的页跳过
+        List<Integer> candidates = new ArrayList<>();
+        for (int pageId : readDump(dumpFile)) {
+            if (candidates.size() == pool.getMaxCacheSize()) {
+                break;
+            }
+            if (dbFile.isAllocated(pageId)) {
+                candidates.add(pageId);
+            }
+        }
+
+        List<Integer> toLoad = pool.beginWarming(candidates);
+        try {
+            IOScheduler scheduler = pool.getIOScheduler();
+            int installed = 0;
+            for (int from = 0; from < toLoad.size(); from += RESTORE_CHUNK_PAGES) {
+                List<Integer> chunk = toLoad.subList(from, Math.min(from + RESTORE_CHUNK_PAGES, toLoad.size()));
+                installed += scheduler != null
+                        ? restoreViaScheduler(scheduler, chunk)
+                        : restoreInBatches(dbFile, chunk);
+            }
+            return installed;
+        } finally {
+            pool.endWarming(toLoad);
+        }
+    }
+
+    private int restoreInBatches(DBFile dbFile, List<Integer> pageIds) throws IOException {
+        List<Integer> sorted = new ArrayList<>(pageIds);
+        sorted.sort(null);
+
+        Map<Integer, byte[]> loaded = new HashMap<>();
+        int i = 0;
+        while (i < sorted.size()) {
+            // 从第i页开始，尽量把后面的页并进同一次读
+            int first = sorted.get(i);
+            int j = i + 1;
+            while (j < sorted.size()
+                    && sorted.get(j) - sorted.get(j - 1) <= MAX_GAP_PAGES + 1
+                    && sorted.get(j) - first < MAX_BATCH_PAGES) {
+                j++;
+            }
+            int last = sorted.get(j - 1);
+
+            byte[][] pages = dbFile.readPages(first, last - first + 1);
+            for (int k = i; k < j; k++) {
+                int pageId = sorted.get(k);
+                loaded.put(pageId, pages[pageId - first]);
+            }
+            i = j;
+        }
+        return install(pageIds, loaded);
+    }
+
+    // 按转储中的顺序装入一段，保持原来的LRU顺序；装入后就不再持有读到的内容
+    private int install(List<Integer> pageIds, Map<Integer, byte[]> loaded) {
+        int installed = 0;
+        for (int pageId : pageIds) {
+            if (pool.installWarmPage(pageId, loaded.remove(pageId))) {
+                installed++;
+            }
+        }
+        return installed;
+    }
+
+    // 一段的读取全部提交给调度器，再按转储中的顺序等待，每读完一页就装入
+    private int restoreViaScheduler(IOScheduler scheduler, List<Integer> pageIds) throws IOException {
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>(pageIds.size());
+        for (int pageId : pageIds) {
+            reads.add(scheduler.readAhead(pageId));
+        }
+        int installed = 0;
+        for (int i = 0; i < pageIds.size(); i++) {
+            byte[] data = IOScheduler.await(reads.get(i));
+            reads.set(i, null);
+            if (pool.installWarmPage(pageIds.get(i), data)) {
+                installed++;
+            }
+        }
+        return installed;
+    }
+}
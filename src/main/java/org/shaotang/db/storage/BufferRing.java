@@ -0,0 +1,170 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 缓冲环：大范围扫描、批量写入专用的一小圈页框，由 {@link LRUBufferPool#newRing(int)} 创建
+ *
+ * 通过环读取的页不进入缓冲池的LRU链表，而是轮流占用环里的页框，环满后覆盖最早的一个（脏页先写回）。
+ * 写回时环中所有脏页按页号合并成顺序写入、不fsync，环关闭时写出剩下的脏页并只fsync一次；
+ * 使用I/O调度器或双写缓冲时按它们的方式写回。
+ * 扫描再大也只占用环的大小，缓冲池中点查询的热点页不受影响。
+ * 要读的页已经在缓冲池中时直接用缓冲池的页，不会出现两份。
+ *
+ * 检测到顺序访问时自动预读后面的页（最多环大小个），预读结果也只留在环里。
+ * 环的所有操作都在缓冲池的锁下进行；用完后调用 {@link #close()} 写回脏页并释放页框。
+ */
+public class BufferRing implements AutoCloseable {
+    private final LRUBufferPool pool;
+    private final int[] pageIds;
+    private final Page[] pages;
+    private int cursor = 0;
+
+    // 已发起、还没被读取的预读
+    private final Map<Integer, CompletableFuture<byte[]>> readAhead = new HashMap<>();
+    private int lastPageId = -2;
+    // 有写出到数据文件、还没fsync的页
+    private boolean unsynced = false;
+    private boolean closed = false;
+
+    BufferRing(LRUBufferPool pool, int size) {
+        this.pool = pool;
+        this.pageIds = new int[size];
+        this.pages = new Page[size];
+    }
+
+    /**
+     * 通过环获取页
+     */
+    public Page getPage(int pageId) throws IOException {
+        return pool.getPage(pageId, this);
+    }
+
+    /**
+     * 在环中放一个刚分配的页：内容全为0，不读磁盘，页框被复用或环关闭时写回
+     * 只能用于刚分配、还没有有用内容的页，原来缓存中的内容会被丢弃
+     */
+    public Page newPage(int pageId) throws IOException {
+        return pool.newPage(pageId, this);
+    }
+
+    /**
+     * 标记页为脏页，页框被复用或环关闭时写回
+     */
+    public void markDirty(int pageId) {
+        pool.markDirty(pageId);
+    }
+
+    /**
+     * 写回脏页并释放所有页框
+     */
+    @Override
+    public void close() throws IOException {
+        pool.releaseRing(this);
+    }
+
+    public int size() {
+        return pages.length;
+    }
+
+    // ===== 以下由缓冲池在持锁时调用 =====
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isUnsynced() {
+        return unsynced;
+    }
+
+    void markUnsynced() {
+        unsynced = true;
+    }
+
+    void markSynced() {
+        unsynced = false;
+    }
+
+    void markClosed() {
+        closed = true;
+        readAhead.clear();
+    }
+
+    Page find(int pageId) {
+        int slot = slotOf(pageId);
+        return slot < 0 ? null : pages[slot];
+    }
+
+    /**
+     * 下一个要使用的页框；其中原有的页（见 {@link #pageIdAt(int)}）由调用方先取出写回
+     */
+    int nextSlot() {
+        return cursor;
+    }
+
+    /**
+     * 页框中的页号，页框为空时返回-1
+     */
+    int pageIdAt(int slot) {
+        return pages[slot] == null ? -1 : pageIds[slot];
+    }
+
+    void install(int slot, int pageId, Page page) {
+        pageIds[slot] = pageId;
+        pages[slot] = page;
+        cursor = (slot + 1) % pages.length;
+    }
+
+    /**
+     * 把页移出环（被缓冲池接管或丢弃），返回页，不在环中返回null
+     */
+    Page remove(int pageId) {
+        int slot = slotOf(pageId);
+        if (slot < 0) {
+            return null;
+        }
+        Page page = pages[slot];
+        pages[slot] = null;
+        return page;
+    }
+
+    /**
+     * 记录这次访问，返回是否紧接着上一次访问的页（顺序扫描）
+     */
+    boolean recordAccess(int pageId) {
+        boolean sequential = pageId == lastPageId + 1;
+        lastPageId = pageId;
+        return sequential;
+    }
+
+    CompletableFuture<byte[]> takeReadAhead(int pageId) {
+        return readAhead.remove(pageId);
+    }
+
+    boolean hasReadAhead(int pageId) {
+        return readAhead.containsKey(pageId);
+    }
+
+    void addReadAhead(int pageId, CompletableFuture<byte[]> future) {
+        readAhead.put(pageId, future);
+    }
+
+    /**
+     * 页被写回或丢弃后，预读到的内容可能已经过期
+     */
+    void dropReadAhead(int pageId) {
+        readAhead.remove(pageId);
+    }
+
+    private int slotOf(int pageId) {
+        for (int slot = 0; slot < pages.length; slot++) {
+            if (pages[slot] != null && pageIds[slot] == pageId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
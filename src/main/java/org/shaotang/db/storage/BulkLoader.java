@@ -0,0 +1,261 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 批量导入器：绕过缓冲池，直接把记录流装进页并顺序写盘
+ *
+ * 页内格式：
+ *   偏移0：记录数（int）
+ *   偏移4起：[长度(int)][数据]... 依次排列
+ *
+ * 每攒够一批页（默认256页=1MB），一次分配连续的页区间、一次顺序写入、不fsync；
+ * 全部写完后fsync一次，再提交一次位图。
+ */
+public class BulkLoader {
+    public static final int DEFAULT_BATCH_PAGES = 256;
+
+    // 页头：记录数
+    private static final int PAGE_HEADER_SIZE = Integer.BYTES;
+    // 每条记录前的长度字段
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES;
+    // 默认页大小下单条记录允许的最大长度
+    public static final int MAX_RECORD_SIZE = DBFile.PAGE_SIZE - PAGE_HEADER_SIZE - RECORD_HEADER_SIZE;
+
+    private final DBFile dbFile;
+    private final int pageSize;
+    private final int maxRecordSize;
+    private final int batchPages;
+    private final int parallelism;
+
+    public BulkLoader(DBFile dbFile) {
+        this(dbFile, DEFAULT_BATCH_PAGES, 1);
+    }
+
+    /**
+     * @param batchPages  每次顺序写入的页数
+     * @param parallelism 并行组装页的线程数，1表示在调用线程里组装
+     */
+    public BulkLoader(DBFile dbFile, int batchPages, int parallelism) {
+        if (batchPages <= 0) {
+            throw new IllegalArgumentException("batchPages必须大于0: " + batchPages);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism必须大于0: " + parallelism);
+        }
+        this.dbFile = dbFile;
+        this.pageSize = dbFile.getPageSize();
+        this.maxRecordSize = pageSize - PAGE_HEADER_SIZE - RECORD_HEADER_SIZE;
+        this.batchPages = batchPages;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 当前文件页大小下单条记录允许的最大长度
+     */
+    public int getMaxRecordSize() {
+        return maxRecordSize;
+    }
+
+    /**
+     * 导入记录流，返回写入的页区间
+     */
+    public LoadResult load(Iterator<byte[]> records) throws IOException {
+        ExecutorService builders = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        // 单独的写线程：当前批在写盘时，下一批可以同时组装
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        LoadResult result = new LoadResult();
+
+        try {
+            Future<?> pendingWrite = null;
+            byte[][] carry = new byte[1][];
+            while (carry[0] != null || records.hasNext()) {
+                // 1. 顺序阶段：按大小把记录划分到各页（只计算，不拷贝）
+                List<List<byte[]>> batch = nextBatch(records, carry, result);
+
+                // 2. 组装阶段：把每页的记录编码到批缓冲区中对应的位置
+                ByteBuffer batchBuffer = ByteBuffer.allocate(batch.size() * pageSize);
+                buildPages(batch, batchBuffer, builders);
+
+                // 3. 写盘阶段：等上一批写完，再提交这一批
+                waitFor(pendingWrite);
+                int firstPageId = dbFile.allocateContiguousPages(batch.size());
+                result.addRange(firstPageId, batch.size());
+                pendingWrite = writer.submit(() -> {
+                    dbFile.writePages(firstPageId, batchBuffer, false);
+                    return null;
+                });
+            }
+            waitFor(pendingWrite);
+
+            // 数据先落盘，再提交位图，保证位图里不会出现没有数据的页
+            dbFile.sync();
+            dbFile.flushBitmap();
+        } finally {
+            writer.shutdown();
+            if (builders != null) {
+                builders.shutdown();
+            }
+        }
+        return result;
+    }
+
+    // 从记录流中取出最多batchPages页的记录
+    // carry[0] 是上一批放不下、留给本批的第一条记录
+    private List<List<byte[]>> nextBatch(Iterator<byte[]> records, byte[][] carry, LoadResult result) {
+        List<List<byte[]>> batch = new ArrayList<>();
+        List<byte[]> current = new ArrayList<>();
+        int used = PAGE_HEADER_SIZE;
+
+        while (carry[0] != null || records.hasNext()) {
+            byte[] record;
+            if (carry[0] != null) {
+                record = carry[0];
+                carry[0] = null;
+            } else {
+                record = records.next();
+                if (record.length > maxRecordSize) {
+                    throw new IllegalArgumentException(
+                            String.format("记录太大: %d字节，最大%d字节", record.length, maxRecordSize));
+                }
+                result.recordCount++;
+            }
+
+            int needed = RECORD_HEADER_SIZE + record.length;
+            if (used + needed > pageSize) {
+                batch.add(current);
+                if (batch.size() == batchPages) {
+                    // 本批已满，这条记录留给下一批
+                    carry[0] = record;
+                    return batch;
+                }
+                current = new ArrayList<>();
+                used = PAGE_HEADER_SIZE;
+            }
+            current.add(record);
+            used += needed;
+        }
+
+        if (!current.isEmpty()) {
+            batch.add(current);
+        }
+        return batch;
+    }
+
+    private void buildPages(List<List<byte[]>> batch, ByteBuffer batchBuffer, ExecutorService builders)
+            throws IOException {
+        if (builders == null) {
+            for (int i = 0; i < batch.size(); i++) {
+                encodePage(batch.get(i), slice(batchBuffer, i));
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            List<byte[]> pageRecords = batch.get(i);
+            ByteBuffer target = slice(batchBuffer, i);
+            futures.add(builders.submit(() -> encodePage(pageRecords, target)));
+        }
+        for (Future<?> future : futures) {
+            waitFor(future);
+        }
+    }
+
+    private ByteBuffer slice(ByteBuffer batchBuffer, int pageIndex) {
+        return batchBuffer.slice(pageIndex * pageSize, pageSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // 把一页的记录编码到目标缓冲区（不同页写的是不相交的区间，可以并行）
+    private static void encodePage(List<byte[]> pageRecords, ByteBuffer target) {
+        target.putInt(0, pageRecords.size());
+        int offset = PAGE_HEADER_SIZE;
+        for (byte[] record : pageRecords) {
+            target.putInt(offset, record.length);
+            target.put(offset + RECORD_HEADER_SIZE, record);
+            offset += RECORD_HEADER_SIZE + record.length;
+        }
+    }
+
+    private static void waitFor(Future<?> future) throws IOException {
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("批量导入被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("批量导入失败", e.getCause());
+        }
+    }
+
+    /**
+     * 解码BulkLoader写出的一页，按写入顺序返回其中的记录
+     */
+    public static List<byte[]> readRecords(byte[] pageData) {
+        Page page = new Page(pageData);
+        int count = page.getInt(0);
+        List<byte[]> records = new ArrayList<>(count);
+        int offset = PAGE_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int length = page.getInt(offset);
+            records.add(page.getBytes(offset + RECORD_HEADER_SIZE, length));
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * 导入结果：记录数和写入的连续页区间
+     */
+    public static class LoadResult {
+        private long recordCount;
+        private final List<int[]> ranges = new ArrayList<>();
+
+        private void addRange(int firstPageId, int pageCount) {
+            // 与上一段相邻时合并
+            if (!ranges.isEmpty()) {
+                int[] last = ranges.get(ranges.size() - 1);
+                if (last[0] + last[1] == firstPageId) {
+                    last[1] += pageCount;
+                    return;
+                }
+            }
+            ranges.add(new int[]{firstPageId, pageCount});
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public int getPageCount() {
+            int total = 0;
+            for (int[] range : ranges) {
+                total += range[1];
+            }
+            return total;
+        }
+
+        /**
+         * 每个元素是 {起始逻辑页号, 页数}
+         */
+        public List<int[]> getPageRanges() {
+            return ranges;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * 缓存策略离线模拟：回放 {@link AccessTraceRecorder} 记录的页访问序列，得到各策略在不同容量下的未命中率曲线
+ *
+ * LRU用Mattson栈距离算法一遍算出所有容量：一次访问的栈距离是距上次访问该页之间访问过的不同页数+1，
+ * 容量为C的LRU缓存命中当且仅当栈距离不超过C。用树状数组统计，O(n log n)。
+ * 其他策略没有栈性质，每个容量单独模拟，不同容量并行执行。
+ *
+ * 命令行：java ... CacheSimulator 轨迹文件 [容量1,容量2,...]
+ * 不指定容量时取1、2、4...直到不同页数。
+ */
+public final class CacheSimulator {
+    /**
+     * 可模拟的替换策略
+     */
+    public enum Policy {
+        LRU,
+        FIFO,
+        CLOCK,
+        // 与设置了TinyLfuAdmission的LRUBufferPool相同的窗口段+主段结构
+        TINY_LFU
+    }
+
+    private CacheSimulator() {
+    }
+
+    // ===== 未命中率 =====
+
+    /**
+     * 各策略在各容量下的未命中率，result.get(policy)[i]对应cacheSizes[i]
+     */
+    public static Map<Policy, double[]> missRatioCurves(int[] trace, int[] cacheSizes, Policy... policies) {
+        for (int cacheSize : cacheSizes) {
+            if (cacheSize <= 0) {
+                throw new IllegalArgumentException("缓存容量必须大于0: " + cacheSize);
+            }
+        }
+        Map<Policy, double[]> curves = new EnumMap<>(Policy.class);
+        for (Policy policy : policies) {
+            double[] curve;
+            if (policy == Policy.LRU) {
+                curve = lruMissRatios(trace, cacheSizes);
+            } else {
+                curve = IntStream.range(0, cacheSizes.length)
+                        .parallel()
+                        .mapToDouble(i -> missRatio(trace, policy, cacheSizes[i]))
+                        .toArray();
+            }
+            curves.put(policy, curve);
+        }
+        return curves;
+    }
+
+    /**
+     * 单个策略、单个容量的未命中率
+     */
+    public static double missRatio(int[] trace, Policy policy, int cacheSize) {
+        if (trace.length == 0) {
+            return 0;
+        }
+        long misses = switch (policy) {
+            case LRU -> Math.round(lruMissRatios(trace, new int[]{cacheSize})[0] * trace.length);
+            case FIFO -> simulateFifo(trace, cacheSize);
+            case CLOCK -> simulateClock(trace, cacheSize);
+            case TINY_LFU -> simulateTinyLfu(trace, cacheSize);
+        };
+        return (double) misses / trace.length;
+    }
+
+    /**
+     * 用栈距离一遍算出LRU在各容量下的未命中率
+     */
+    public static double[] lruMissRatios(int[] trace, int[] cacheSizes) {
+        double[] ratios = new double[cacheSizes.length];
+        if (trace.length == 0) {
+            return ratios;
+        }
+        long[] histogram = stackDistanceHistogram(trace);
+        // histogram[d]：栈距离为d的访问次数，histogram[0]为首次访问（距离无穷大）
+        long[] hitsAtMost = new long[histogram.length];
+        for (int d = 1; d < histogram.length; d++) {
+            hitsAtMost[d] = hitsAtMost[d - 1] + histogram[d];
+        }
+        for (int i = 0; i < cacheSizes.length; i++) {
+            int size = Math.min(cacheSizes[i], histogram.length - 1);
+            ratios[i] = 1.0 - (double) hitsAtMost[size] / trace.length;
+        }
+        return ratios;
+    }
+
+    /**
+     * 栈距离直方图，长度为不同页数+1，下标0计首次访问
+     */
+    static long[] stackDistanceHistogram(int[] trace) {
+        // 树状数组：位置t为1表示某页最近一次访问发生在时刻t
+        int[] tree = new int[trace.length + 1];
+        Map<Integer, Integer> lastAccess = new HashMap<>();
+        long[] histogram = new long[2];
+
+        for (int time = 1; time <= trace.length; time++) {
+            Integer last = lastAccess.put(trace[time - 1], time);
+            if (last == null) {
+                histogram[0]++;
+                if (lastAccess.size() >= histogram.length) {
+                    histogram = Arrays.copyOf(histogram, histogram.length * 2);
+                }
+            } else {
+                // 上次访问之后访问过的不同页数，再加上它自己
+                int distance = prefixSum(tree, time - 1) - prefixSum(tree, last) + 1;
+                histogram[distance]++;
+                add(tree, last, -1);
+            }
+            add(tree, time, 1);
+        }
+        return Arrays.copyOf(histogram, lastAccess.size() + 1);
+    }
+
+    private static void add(int[] tree, int index, int delta) {
+        for (; index < tree.length; index += index & -index) {
+            tree[index] += delta;
+        }
+    }
+
+    private static int prefixSum(int[] tree, int index) {
+        int sum = 0;
+        for (; index > 0; index -= index & -index) {
+            sum += tree[index];
+        }
+        return sum;
+    }
+
+    // ===== 各策略的模拟 =====
+
+    private static long simulateFifo(int[] trace, int cacheSize) {
+        Set<Integer> resident = new HashSet<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        long misses = 0;
+        for (int pageId : trace) {
+            if (resident.contains(pageId)) {
+                continue;
+            }
+            misses++;
+            if (resident.size() == cacheSize) {
+                resident.remove(queue.pollFirst());
+            }
+            resident.add(pageId);
+            queue.addLast(pageId);
+        }
+        return misses;
+    }
+
+    private static long simulateClock(int[] trace, int cacheSize) {
+        int[] frames = new int[cacheSize];
+        boolean[] referenced = new boolean[cacheSize];
+        Map<Integer, Integer> frameOf = new HashMap<>();
+        int hand = 0;
+        long misses = 0;
+        for (int pageId : trace) {
+            Integer frame = frameOf.get(pageId);
+            if (frame != null) {
+                referenced[frame] = true;
+                continue;
+            }
+            misses++;
+            if (frameOf.size() < cacheSize) {
+                frame = frameOf.size();
+            } else {
+                // 跳过被访问过的帧，顺便清掉它们的标记
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) % cacheSize;
+                }
+                frame = hand;
+                frameOf.remove(frames[frame]);
+                hand = (hand + 1) % cacheSize;
+            }
+            frames[frame] = pageId;
+            referenced[frame] = false;
+            frameOf.put(pageId, frame);
+        }
+        return misses;
+    }
+
+    private static long simulateTinyLfu(int[] trace, int cacheSize) {
+        TinyLfuAdmission admission = new TinyLfuAdmission(cacheSize);
+        int windowSize = admission.getWindowSize();
+        int mainCapacity = cacheSize - windowSize;
+        // 访问顺序的LinkedHashMap当作LRU链表用，迭代从最久未用开始
+        LinkedHashMap<Integer, Boolean> window = new LinkedHashMap<>(16, 0.75f, true);
+        LinkedHashMap<Integer, Boolean> main = new LinkedHashMap<>(16, 0.75f, true);
+        long misses = 0;
+        for (int pageId : trace) {
+            admission.record(pageId);
+            if (window.get(pageId) != null || main.get(pageId) != null) {
+                continue;
+            }
+            misses++;
+            window.put(pageId, Boolean.TRUE);
+            if (window.size() <= windowSize) {
+                continue;
+            }
+            int candidate = removeEldest(window);
+            if (main.size() < mainCapacity) {
+                main.put(candidate, Boolean.TRUE);
+            } else if (!main.isEmpty()) {
+                int victim = main.keySet().iterator().next();
+                if (admission.admit(candidate, victim)) {
+                    main.remove(victim);
+                    main.put(candidate, Boolean.TRUE);
+                }
+            }
+        }
+        return misses;
+    }
+
+    private static int removeEldest(LinkedHashMap<Integer, Boolean> map) {
+        Iterator<Integer> iterator = map.keySet().iterator();
+        int eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    // ===== 命令行 =====
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("用法: CacheSimulator 轨迹文件 [容量1,容量2,...]");
+            System.exit(1);
+        }
+        int[] trace = AccessTraceRecorder.readPageAccesses(Path.of(args[0]));
+        int distinct = (int) Arrays.stream(trace).distinct().count();
+        int[] cacheSizes = args.length > 1
+                ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                : IntStream.iterate(1, size -> size < distinct * 2, size -> size * 2).toArray();
+
+        System.out.printf("访问次数: %d，不同页数: %d%n", trace.length, distinct);
+        Map<Policy, double[]> curves = missRatioCurves(trace, cacheSizes, Policy.values());
+        System.out.printf("%10s", "容量");
+        for (Policy policy : curves.keySet()) {
+            System.out.printf("%10s", policy);
+        }
+        System.out.println();
+        for (int i = 0; i < cacheSizes.length; i++) {
+            System.out.printf("%10d", cacheSizes[i]);
+            for (double[] curve : curves.values()) {
+                System.out.printf("%9.2f%%", curve[i] * 100);
+            }
+            System.out.println();
+        }
+    }
+}
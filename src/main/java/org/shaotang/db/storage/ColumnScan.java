@@ -0,0 +1,270 @@
+package org.shaotang.db.storage;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 列式页的扫描内核：用Vector API一次处理一整个向量的值
+ *
+ * 列数据直接从页的字节数组按向量加载，再按小端重新解释成int/long，不逐个调用getInt，也没有逐值的边界检查。
+ * 凑不满一个向量的尾部用标量处理。
+ * 多页扫描先用每页的最小/最大值过滤：整页都不满足的直接跳过，整页都满足的计数直接用行数。
+ *
+ * 需要jdk.incubator.vector模块（编译和运行时加 --add-modules jdk.incubator.vector）。
+ */
+public final class ColumnScan {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    private ColumnScan() {
+    }
+
+    // ===== 单页 =====
+
+    /**
+     * 统计列值落在[low, high]内的行数
+     */
+    public static int countInRange(ColumnarPage page, int column, long low, long high) {
+        if (low > high) {
+            return 0;
+        }
+        return page.getColumnType(column) == ColumnarPage.ColumnType.INT
+                ? countIntsInRange(page, column, low, high)
+                : countLongsInRange(page, column, low, high);
+    }
+
+    /**
+     * 列值之和（int列也按long累加，不会溢出）
+     */
+    public static long sum(ColumnarPage page, int column) {
+        return page.getColumnType(column) == ColumnarPage.ColumnType.INT
+                ? sumInts(page, column)
+                : sumLongs(page, column);
+    }
+
+    /**
+     * 对filterColumn落在[low, high]内的行，求sumColumn之和
+     * 两列类型相同时走向量路径，否则逐行计算
+     */
+    public static long sumWhere(ColumnarPage page, int filterColumn, long low, long high, int sumColumn) {
+        if (low > high) {
+            return 0;
+        }
+        ColumnarPage.ColumnType filterType = page.getColumnType(filterColumn);
+        if (filterType != page.getColumnType(sumColumn)) {
+            return sumWhereScalar(page, filterColumn, low, high, sumColumn);
+        }
+        return filterType == ColumnarPage.ColumnType.INT
+                ? sumIntsWhere(page, filterColumn, low, high, sumColumn)
+                : sumLongsWhere(page, filterColumn, low, high, sumColumn);
+    }
+
+    // ===== 多页（按最小/最大值跳页） =====
+
+    public static long countInRange(Iterable<ColumnarPage> pages, int column, long low, long high) {
+        long count = 0;
+        for (ColumnarPage page : pages) {
+            if (!page.mayContain(column, low, high)) {
+                continue;
+            }
+            if (page.getMin(column) >= low && page.getMax(column) <= high) {
+                count += page.getRowCount();  // 整页都满足
+            } else {
+                count += countInRange(page, column, low, high);
+            }
+        }
+        return count;
+    }
+
+    public static long sumWhere(Iterable<ColumnarPage> pages, int filterColumn, long low, long high, int sumColumn) {
+        long sum = 0;
+        for (ColumnarPage page : pages) {
+            if (!page.mayContain(filterColumn, low, high)) {
+                continue;
+            }
+            if (page.getMin(filterColumn) >= low && page.getMax(filterColumn) <= high) {
+                sum += sum(page, sumColumn);
+            } else {
+                sum += sumWhere(page, filterColumn, low, high, sumColumn);
+            }
+        }
+        return sum;
+    }
+
+    // ===== 内核 =====
+
+    private static IntVector loadInts(byte[] data, int offset) {
+        return ByteVector.fromArray(BYTES, data, offset).reinterpretAsInts();
+    }
+
+    private static LongVector loadLongs(byte[] data, int offset) {
+        return ByteVector.fromArray(BYTES, data, offset).reinterpretAsLongs();
+    }
+
+    // int列的值都在int范围内，把查询区间收窄到int范围
+    private static int clampToInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private static int countIntsInRange(ColumnarPage page, int column, long low, long high) {
+        if (low > Integer.MAX_VALUE || high < Integer.MIN_VALUE) {
+            return 0;
+        }
+        int lo = clampToInt(low);
+        int hi = clampToInt(high);
+        byte[] data = page.getPage().getData();
+        int base = page.getColumnOffset(column);
+        int rows = page.getRowCount();
+
+        int count = 0;
+        int row = 0;
+        for (int bound = INTS.loopBound(rows); row < bound; row += INTS.length()) {
+            IntVector values = loadInts(data, base + row * Integer.BYTES);
+            count += values.compare(VectorOperators.GE, lo)
+                    .and(values.compare(VectorOperators.LE, hi))
+                    .trueCount();
+        }
+        for (; row < rows; row++) {
+            int value = page.getInt(column, row);
+            if (value >= lo && value <= hi) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countLongsInRange(ColumnarPage page, int column, long low, long high) {
+        byte[] data = page.getPage().getData();
+        int base = page.getColumnOffset(column);
+        int rows = page.getRowCount();
+
+        int count = 0;
+        int row = 0;
+        for (int bound = LONGS.loopBound(rows); row < bound; row += LONGS.length()) {
+            LongVector values = loadLongs(data, base + row * Long.BYTES);
+            count += values.compare(VectorOperators.GE, low)
+                    .and(values.compare(VectorOperators.LE, high))
+                    .trueCount();
+        }
+        for (; row < rows; row++) {
+            long value = page.getLong(column, row);
+            if (value >= low && value <= high) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // int向量拆成两半扩展为long再累加
+    private static LongVector addWidened(LongVector acc, IntVector values) {
+        return acc.add(values.convertShape(VectorOperators.I2L, LONGS, 0))
+                .add(values.convertShape(VectorOperators.I2L, LONGS, 1));
+    }
+
+    private static long sumInts(ColumnarPage page, int column) {
+        byte[] data = page.getPage().getData();
+        int base = page.getColumnOffset(column);
+        int rows = page.getRowCount();
+
+        LongVector acc = LongVector.zero(LONGS);
+        int row = 0;
+        for (int bound = INTS.loopBound(rows); row < bound; row += INTS.length()) {
+            acc = addWidened(acc, loadInts(data, base + row * Integer.BYTES));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; row < rows; row++) {
+            sum += page.getInt(column, row);
+        }
+        return sum;
+    }
+
+    private static long sumLongs(ColumnarPage page, int column) {
+        byte[] data = page.getPage().getData();
+        int base = page.getColumnOffset(column);
+        int rows = page.getRowCount();
+
+        LongVector acc = LongVector.zero(LONGS);
+        int row = 0;
+        for (int bound = LONGS.loopBound(rows); row < bound; row += LONGS.length()) {
+            acc = acc.add(loadLongs(data, base + row * Long.BYTES));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; row < rows; row++) {
+            sum += page.getLong(column, row);
+        }
+        return sum;
+    }
+
+    private static long sumIntsWhere(ColumnarPage page, int filterColumn, long low, long high, int sumColumn) {
+        if (low > Integer.MAX_VALUE || high < Integer.MIN_VALUE) {
+            return 0;
+        }
+        int lo = clampToInt(low);
+        int hi = clampToInt(high);
+        byte[] data = page.getPage().getData();
+        int filterBase = page.getColumnOffset(filterColumn);
+        int sumBase = page.getColumnOffset(sumColumn);
+        int rows = page.getRowCount();
+
+        IntVector zero = IntVector.zero(INTS);
+        LongVector acc = LongVector.zero(LONGS);
+        int row = 0;
+        for (int bound = INTS.loopBound(rows); row < bound; row += INTS.length()) {
+            IntVector filter = loadInts(data, filterBase + row * Integer.BYTES);
+            VectorMask<Integer> match = filter.compare(VectorOperators.GE, lo)
+                    .and(filter.compare(VectorOperators.LE, hi));
+            if (match.anyTrue()) {
+                // 不满足的行置0后再扩展累加
+                acc = addWidened(acc, zero.blend(loadInts(data, sumBase + row * Integer.BYTES), match));
+            }
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; row < rows; row++) {
+            int value = page.getInt(filterColumn, row);
+            if (value >= lo && value <= hi) {
+                sum += page.getInt(sumColumn, row);
+            }
+        }
+        return sum;
+    }
+
+    private static long sumLongsWhere(ColumnarPage page, int filterColumn, long low, long high, int sumColumn) {
+        byte[] data = page.getPage().getData();
+        int filterBase = page.getColumnOffset(filterColumn);
+        int sumBase = page.getColumnOffset(sumColumn);
+        int rows = page.getRowCount();
+
+        LongVector acc = LongVector.zero(LONGS);
+        int row = 0;
+        for (int bound = LONGS.loopBound(rows); row < bound; row += LONGS.length()) {
+            LongVector filter = loadLongs(data, filterBase + row * Long.BYTES);
+            VectorMask<Long> match = filter.compare(VectorOperators.GE, low)
+                    .and(filter.compare(VectorOperators.LE, high));
+            acc = acc.add(loadLongs(data, sumBase + row * Long.BYTES), match);
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; row < rows; row++) {
+            long value = page.getLong(filterColumn, row);
+            if (value >= low && value <= high) {
+                sum += page.getLong(sumColumn, row);
+            }
+        }
+        return sum;
+    }
+
+    private static long sumWhereScalar(ColumnarPage page, int filterColumn, long low, long high, int sumColumn) {
+        long sum = 0;
+        for (int row = 0; row < page.getRowCount(); row++) {
+            long value = page.getValue(filterColumn, row);
+            if (value >= low && value <= high) {
+                sum += page.getValue(sumColumn, row);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,257 @@
+package org.shaotang.db.storage;
+
+/**
+ * 列式页：在一个Page中按列存放定长的int/long值，供分析型扫描使用
+ *
+ * 布局（小端）：
+ *   [魔数int][行数int][列数int][容量int]
+ *   每列一个描述符：[类型int][数据偏移int][最小值long][最大值long]
+ *   各列数据：按列连续存放，每列预留 容量*列宽 字节，起始位置8字节对齐
+ *
+ * 每列的最小/最大值随写入维护，扫描时可以据此跳过整页（见 {@link ColumnScan}）。
+ * int列的最小/最大值也按long保存。
+ */
+public class ColumnarPage {
+    public static final int MAGIC = 0x434F4C50;  // "COLP"
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ROW_COUNT_OFFSET = 4;
+    private static final int COLUMN_COUNT_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+
+    private static final int DESCRIPTOR_SIZE = 24;
+    private static final int TYPE_OFFSET = 0;
+    private static final int DATA_OFFSET_OFFSET = 4;
+    private static final int MIN_OFFSET = 8;
+    private static final int MAX_OFFSET = 16;
+
+    /**
+     * 列类型
+     */
+    public enum ColumnType {
+        INT(Integer.BYTES),
+        LONG(Long.BYTES);
+
+        private final int width;
+
+        ColumnType(int width) {
+            this.width = width;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    private final Page page;
+    private final ColumnType[] types;
+    private final int[] dataOffsets;
+    private final int capacity;
+
+    private ColumnarPage(Page page, ColumnType[] types, int[] dataOffsets, int capacity) {
+        this.page = page;
+        this.types = types;
+        this.dataOffsets = dataOffsets;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 把页格式化为空的列式页，原有内容被覆盖
+     */
+    public static ColumnarPage format(Page page, ColumnType... types) {
+        if (types.length == 0) {
+            throw new IllegalArgumentException("至少需要一列");
+        }
+        int pageSize = page.getSize();
+        int headerEnd = align8(HEADER_SIZE + types.length * DESCRIPTOR_SIZE);
+        int rowWidth = 0;
+        for (ColumnType type : types) {
+            rowWidth += type.getWidth();
+        }
+        // 每列起始位置对齐会浪费最多7字节
+        int capacity = (pageSize - headerEnd - types.length * 7) / rowWidth;
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("%d列放不进%d字节的页", types.length, pageSize));
+        }
+
+        int[] dataOffsets = new int[types.length];
+        int offset = headerEnd;
+        for (int i = 0; i < types.length; i++) {
+            dataOffsets[i] = offset;
+            offset = align8(offset + capacity * types[i].getWidth());
+        }
+
+        page.clear();
+        page.setInt(0, MAGIC);
+        page.setInt(ROW_COUNT_OFFSET, 0);
+        page.setInt(COLUMN_COUNT_OFFSET, types.length);
+        page.setInt(CAPACITY_OFFSET, capacity);
+        for (int i = 0; i < types.length; i++) {
+            int descriptor = descriptorOffset(i);
+            page.setInt(descriptor + TYPE_OFFSET, types[i].ordinal());
+            page.setInt(descriptor + DATA_OFFSET_OFFSET, dataOffsets[i]);
+            page.setLong(descriptor + MIN_OFFSET, Long.MAX_VALUE);
+            page.setLong(descriptor + MAX_OFFSET, Long.MIN_VALUE);
+        }
+        page.setDirty(true);
+        return new ColumnarPage(page, types.clone(), dataOffsets, capacity);
+    }
+
+    /**
+     * 打开已格式化的列式页
+     */
+    public static ColumnarPage wrap(Page page) {
+        if (page.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("不是列式页");
+        }
+        int columnCount = page.getInt(COLUMN_COUNT_OFFSET);
+        ColumnType[] types = new ColumnType[columnCount];
+        int[] dataOffsets = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int descriptor = descriptorOffset(i);
+            types[i] = ColumnType.values()[page.getInt(descriptor + TYPE_OFFSET)];
+            dataOffsets[i] = page.getInt(descriptor + DATA_OFFSET_OFFSET);
+        }
+        return new ColumnarPage(page, types, dataOffsets, page.getInt(CAPACITY_OFFSET));
+    }
+
+    private static int descriptorOffset(int column) {
+        return HEADER_SIZE + column * DESCRIPTOR_SIZE;
+    }
+
+    private static int align8(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    // ===== 写入 =====
+
+    /**
+     * 追加一行，值的个数必须等于列数；int列的值必须在int范围内
+     * @return 行号，页已满时返回-1
+     */
+    public int appendRow(long... values) {
+        if (values.length != types.length) {
+            throw new IllegalArgumentException(
+                    String.format("需要%d个值，实际为%d个", types.length, values.length));
+        }
+        int row = getRowCount();
+        if (row >= capacity) {
+            return -1;
+        }
+        for (int column = 0; column < types.length; column++) {
+            long value = values[column];
+            if (types[column] == ColumnType.INT) {
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException(
+                            String.format("第%d列是int列，值超出范围: %d", column, value));
+                }
+                page.setInt(valueOffset(column, row), (int) value);
+            } else {
+                page.setLong(valueOffset(column, row), value);
+            }
+            int descriptor = descriptorOffset(column);
+            if (value < page.getLong(descriptor + MIN_OFFSET)) {
+                page.setLong(descriptor + MIN_OFFSET, value);
+            }
+            if (value > page.getLong(descriptor + MAX_OFFSET)) {
+                page.setLong(descriptor + MAX_OFFSET, value);
+            }
+        }
+        page.setInt(ROW_COUNT_OFFSET, row + 1);
+        page.setDirty(true);
+        return row;
+    }
+
+    // ===== 读取 =====
+
+    public int getInt(int column, int row) {
+        checkColumn(column, ColumnType.INT);
+        checkRow(row);
+        return page.getInt(valueOffset(column, row));
+    }
+
+    public long getLong(int column, int row) {
+        checkColumn(column, ColumnType.LONG);
+        checkRow(row);
+        return page.getLong(valueOffset(column, row));
+    }
+
+    /**
+     * 按long读取任意类型的列
+     */
+    public long getValue(int column, int row) {
+        return types[column] == ColumnType.INT ? getInt(column, row) : getLong(column, row);
+    }
+
+    /**
+     * 列的最小值，空页为Long.MAX_VALUE
+     */
+    public long getMin(int column) {
+        return page.getLong(descriptorOffset(column) + MIN_OFFSET);
+    }
+
+    /**
+     * 列的最大值，空页为Long.MIN_VALUE
+     */
+    public long getMax(int column) {
+        return page.getLong(descriptorOffset(column) + MAX_OFFSET);
+    }
+
+    /**
+     * 按最小/最大值判断页中是否可能有落在[low, high]内的值
+     */
+    public boolean mayContain(int column, long low, long high) {
+        return getRowCount() > 0 && getMin(column) <= high && getMax(column) >= low;
+    }
+
+    // ===== 信息 =====
+
+    public int getRowCount() {
+        return page.getInt(ROW_COUNT_OFFSET);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * 列数据在页内的起始偏移，扫描内核直接按偏移读取页数据
+     */
+    int getColumnOffset(int column) {
+        return dataOffsets[column];
+    }
+
+    private int valueOffset(int column, int row) {
+        return dataOffsets[column] + row * types[column].getWidth();
+    }
+
+    private void checkColumn(int column, ColumnType expected) {
+        if (column < 0 || column >= types.length) {
+            throw new IllegalArgumentException("列号超出范围: " + column);
+        }
+        if (types[column] != expected) {
+            throw new IllegalArgumentException(
+                    String.format("第%d列是%s列，不是%s列", column, types[column], expected));
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= getRowCount()) {
+            throw new IllegalArgumentException(
+                    String.format("行号超出范围: row=%d, rowCount=%d", row, getRowCount()));
+        }
+    }
+}
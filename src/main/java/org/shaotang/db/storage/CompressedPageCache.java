@@ -0,0 +1,167 @@
+package org.shaotang.db.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压缩页缓存：缓冲池之下的第二层缓存，在内存预算内保存被淘汰页的压缩副本
+ *
+ * 缓冲池淘汰页（脏页先写回）时把内容压缩后放进来；缓冲池未命中时先查这里，命中就解压，不用读磁盘。
+ * 两层是互斥的：命中的页取出后回到缓冲池，这里不再保留，同一页不会同时占两份内存。
+ *
+ * 预算按压缩后的字节数加每项固定开销计算，超出时按LRU淘汰。
+ * 压缩用 {@link PageCodec}，一页压缩/解压在微秒级，远低于一次磁盘读。
+ */
+public class CompressedPageCache {
+    // 每项的额外开销估算：哈希表节点、Integer、数组头
+    static final int ENTRY_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private final int pageSize;
+
+    // 访问顺序的LinkedHashMap，迭代从最久未用开始
+    private final LinkedHashMap<Integer, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long rejected = 0;
+    private long uncompressedBytes = 0;
+
+    /**
+     * @param maxBytes 内存预算（字节）
+     * @param pageSize 页大小，必须与缓冲池的文件一致
+     */
+    public CompressedPageCache(long maxBytes, int pageSize) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("内存预算必须大于0: " + maxBytes);
+        }
+        Page.checkPageSize(pageSize);
+        this.maxBytes = maxBytes;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * 放入页内容（调用方保证内容与磁盘一致），已有的旧副本被替换
+     * @return 是否放入；压缩后仍超过整个预算的页不放入
+     */
+    public synchronized boolean put(int pageId, byte[] data) {
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("页数据大小必须为 " + pageSize);
+        }
+        remove(pageId);
+
+        byte[] compressed = PageCodec.compress(data);
+        long cost = compressed.length + ENTRY_OVERHEAD;
+        if (cost > maxBytes) {
+            rejected++;
+            return false;
+        }
+
+        Iterator<Map.Entry<Integer, byte[]>> iterator = entries.entrySet().iterator();
+        while (usedBytes + cost > maxBytes && iterator.hasNext()) {
+            byte[] victim = iterator.next().getValue();
+            iterator.remove();
+            release(victim);
+            evictions++;
+        }
+
+        entries.put(pageId, compressed);
+        usedBytes += cost;
+        uncompressedBytes += pageSize;
+        return true;
+    }
+
+    /**
+     * 取出页：命中时解压并从本层移除，未命中返回null
+     */
+    public synchronized byte[] take(int pageId) {
+        byte[] compressed = entries.remove(pageId);
+        if (compressed == null) {
+            misses++;
+            return null;
+        }
+        release(compressed);
+        hits++;
+
+        byte[] data = new byte[pageSize];
+        PageCodec.decompress(compressed, data);
+        return data;
+    }
+
+    /**
+     * 丢弃页的副本（页被改写、搬走或释放时），不存在时什么也不做
+     */
+    public synchronized void remove(int pageId) {
+        byte[] compressed = entries.remove(pageId);
+        if (compressed != null) {
+            release(compressed);
+        }
+    }
+
+    public synchronized boolean contains(int pageId) {
+        return entries.containsKey(pageId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+        uncompressedBytes = 0;
+    }
+
+    private void release(byte[] compressed) {
+        usedBytes -= compressed.length + ENTRY_OVERHEAD;
+        uncompressedBytes -= pageSize;
+    }
+
+    // ===== 信息 =====
+
+    public synchronized int getPageCount() {
+        return entries.size();
+    }
+
+    /**
+     * 已占用的预算（字节）
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 压缩比：缓存页的原始大小 / 占用的预算，没有页时为0
+     */
+    public synchronized double getCompressionRatio() {
+        return usedBytes == 0 ? 0 : (double) uncompressedBytes / usedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * 压缩后仍放不进预算而被拒绝的页数
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CompressedPageCache[pages=%d, used=%d/%d, ratio=%.2f, hits=%d, misses=%d]",
+                entries.size(), usedBytes, maxBytes, getCompressionRatio(), hits, misses);
+    }
+}
@@ -2,25 +2,84 @@ package org.shaotang.db.storage;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 数据库文件管理器
  * 负责底层二进制文件的读写
+ *
+ * 页大小在创建文件时确定，记录在元数据页中，之后打开时自动识别
+ *
+ * 线程安全：
+ *   - 读：用FileChannel按位置读，不加锁，任意多个线程可以同时读
+ *   - 写：写页、扩展和截断文件都在writeLock下串行执行，fsync在锁外进行
+ *   - 分配：位图的读写在allocationLock下进行；需要写位图时再获取writeLock，顺序总是先allocationLock后writeLock
+ * 同一页的读写同时发生时可能读到写了一半的页，页级别的互斥由上层（缓冲池、页闩）负责。
+ *
+ * 写入监听器（{@link WriteListener}）在writeLock内按写入顺序收到每个页写入前的通知和写入后的新内容，用于复制、增量备份等。
  */
 public class DBFile {
     private final File file;
     private RandomAccessFile raf;
     private FileChannel channel;
     private BitSet allocatedPages;  // 位图记录页分配状态
+    private int pageSize;           // 本文件的页大小
+
+    // 保护allocatedPages
+    private final Object allocationLock = new Object();
+    // 串行化所有修改文件内容和长度的操作
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // 存储层指标，建立在该文件上的缓冲池共用
+    private final StorageMetrics metrics = new StorageMetrics();
+
+    private final List<WriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 页写入监听器
+     */
+    public interface WriteListener {
+        /**
+         * 页即将被覆盖：在writeLock内、写入文件之前调用，此时从文件读到的还是旧内容
+         * 不能阻止写入，出错时由监听器自己处理
+         */
+        default void beforePageWrite(int logicalPageId) {
+        }
+
+        /**
+         * 页已写入文件，在writeLock内调用，所有写入按顺序到达
+         * @param page 只读、恰好一页大小的内容，回调返回后可能失效，需要保留时自行复制
+         */
+        void pageWritten(int logicalPageId, ByteBuffer page);
+
+        /**
+         * 之前写入的页已经fsync
+         */
+        default void synced() {
+        }
+    }
+
+    /**
+     * 在writeLock内执行的操作
+     */
+    public interface ExclusiveAction<T> {
+        T run() throws IOException;
+    }
 
     // 位图页（页0）用于存储分配信息
     private static final int BITMAP_PAGE_ID = 0;
 
     // 文件头大小：8字节（版本号）
     public static final int HEADER_SIZE = 8;  // 版本号8字节
-    public static final int PAGE_SIZE = 4096;  // 与Page类一致
+    public static final int PAGE_SIZE = Page.PAGE_SIZE;  // 新建文件的默认页大小
+
+    // 元数据页中页大小字段的位置
+    private static final int META_PAGE_SIZE_OFFSET = 8;
 
     private static final int META_INFO_PAGE = 1;  // 元数据页
 
@@ -28,6 +87,11 @@ public class DBFile {
 
     private static final int SYSTEM_PAGES = 2; // 系统页数量：页0和页1
 
+    /**
+     * 系统页（位图页、元数据页）的逻辑页号为负，从这里开始
+     */
+    public static final int FIRST_SYSTEM_PAGE_ID = -SYSTEM_PAGES;
+
     /**
      * 将用户页号转换为实际页号（加上系统页偏移）
      */
@@ -42,17 +106,31 @@ public class DBFile {
         return physicalPageId - SYSTEM_PAGES;
     }
 
+    /**
+     * 打开已有文件（使用文件中记录的页大小），或以默认页大小创建新文件
+     */
     public DBFile(String filename) throws IOException {
         this.file = new File(filename);
-        initialize();
+        initialize(0);
     }
 
-    private void initialize() throws IOException {
+    /**
+     * 以指定页大小创建新文件；打开已有文件时页大小必须与文件一致
+     */
+    public DBFile(String filename, int pageSize) throws IOException {
+        Page.checkPageSize(pageSize);
+        this.file = new File(filename);
+        initialize(pageSize);
+    }
+
+    // requestedPageSize为0表示不指定
+    private void initialize(int requestedPageSize) throws IOException {
         // 如果文件不存在，创建并初始化文件头
         raf = new RandomAccessFile(file, "rw");
         channel = raf.getChannel();
         this.allocatedPages = new BitSet();
         if (!file.exists() || file.length() == 0) {
+            pageSize = requestedPageSize != 0 ? requestedPageSize : PAGE_SIZE;
             writeVersion(1);  // 默认版本号为1
             allocatedPages.set(BITMAP_PAGE_ID);  // 页0（位图页）已分配
             // 页1（版本信息页）已分配
@@ -62,34 +140,64 @@ public class DBFile {
             initializeMetaPage();
         } else {
             // 1. 读取版本号
-            long version = readVersion();
-            System.out.println("数据库版本: " + version);
+            readVersion();
+
+            // 2. 识别页大小
+            pageSize = detectPageSize();
+            if (requestedPageSize != 0 && requestedPageSize != pageSize) {
+                close();
+                throw new IOException(String.format("文件 %s 的页大小为%d字节，与指定的%d字节不一致",
+                        file, pageSize, requestedPageSize));
+            }
 
-            // 2. 读取位图
+            // 3. 读取位图
             readBitmap();
         }
     }
 
     private void initializeMetaPage() throws IOException {
         // 在页1中存储更多版本信息
-        Page versionPage = new Page();
+        Page versionPage = new Page(pageSize);
 
         // 写入数据库版本（详细）
         versionPage.setInt(0, 1);           // 主版本
         versionPage.setInt(4, 0);           // 次版本
-        versionPage.setInt(8, PAGE_SIZE);   // 页大小
+        versionPage.setInt(META_PAGE_SIZE_OFFSET, pageSize);   // 页大小
 
         // 写入创建时间（简化）
         long createTime = System.currentTimeMillis();
         versionPage.setLong(100, createTime);
 
         byte[] data = versionPage.getData();
-        writePage(META_INFO_PAGE, data);
+        writePage(toLogicalPageId(META_INFO_PAGE), data);
+    }
+
+    /**
+     * 元数据页的位置取决于页大小，只能逐个尝试：
+     * 页大小为s时元数据页从 HEADER_SIZE + s 开始，其中记录的页大小应该正好等于s
+     */
+    private int detectPageSize() throws IOException {
+        long fileSize = channel.size();
+        for (int candidate = Page.MIN_PAGE_SIZE; candidate <= Page.MAX_PAGE_SIZE; candidate <<= 1) {
+            long metaOffset = HEADER_SIZE + (long) candidate;
+            if (metaOffset + candidate > fileSize) {
+                break;  // 放不下系统页，更大的页也不可能
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(META_PAGE_SIZE_OFFSET + Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(buffer, metaOffset);
+            int majorVersion = buffer.getInt(0);
+            if (majorVersion > 0 && buffer.getInt(META_PAGE_SIZE_OFFSET) == candidate) {
+                return candidate;
+            }
+        }
+        throw new IOException("无法识别文件 " + file + " 的页大小，元数据页可能已损坏");
     }
 
     // 从位图页读取分配信息
     private void readBitmap() throws IOException {
-        byte[] bitmapData = readPage(BITMAP_PAGE_ID);
+        // 系统页按物理页号定位，不能直接用逻辑页号读写，否则会和用户页0、1重叠
+        byte[] bitmapData = readPage(toLogicalPageId(BITMAP_PAGE_ID));
         allocatedPages = BitSet.valueOf(bitmapData);
     }
 
@@ -97,84 +205,292 @@ public class DBFile {
     private void writeBitmap() throws IOException {
         byte[] bitmapData = allocatedPages.toByteArray();
         // 确保位图数据不超过一页
-        if (bitmapData.length > PAGE_SIZE) {
+        if (bitmapData.length > pageSize) {
             throw new IOException("位图太大，超过一页");
         }
-        byte[] pageData = new byte[PAGE_SIZE];
+        byte[] pageData = new byte[pageSize];
         System.arraycopy(bitmapData, 0, pageData, 0,
                 bitmapData.length);
-        System.out.println("准备写入的页数据长度: " + pageData.length);
-        writePage(BITMAP_PAGE_ID, pageData);
+        writePage(toLogicalPageId(BITMAP_PAGE_ID), pageData);
     }
 
     // 智能分配新页
     public int allocateNewPage() throws IOException {
-        // 从第一个用户页开始查找空闲页
-        int physicalPageId = allocatedPages.nextClearBit(FIRST_USER_PAGE);
+        synchronized (allocationLock) {
+            // 从第一个用户页开始查找空闲页
+            int physicalPageId = allocatedPages.nextClearBit(FIRST_USER_PAGE);
+
+            // 如果当前所有页都已分配，pageId会是当前size()或更大
+            // 这意味着我们需要分配一个新页
+            if (physicalPageId >= allocatedPages.size()) {
+                // 新页号就是pageId（可能等于size()或更大）
+                // BitSet的set()方法会自动扩展
+                //todo
+                physicalPageId = allocatedPages.size();
+            }
+
+            // 标记为已分配
+            allocatedPages.set(physicalPageId);
+
+            // 确保磁盘文件足够大
+            ensureFileSize(physicalPageId + 1);
+
+            // 更新位图到磁盘
+            writeBitmap();
+            metrics.recordPagesAllocated(1);
 
-        // 如果当前所有页都已分配，pageId会是当前size()或更大
-        // 这意味着我们需要分配一个新页
-        if (physicalPageId >= allocatedPages.size()) {
-            // 新页号就是pageId（可能等于size()或更大）
-            // BitSet的set()方法会自动扩展
-            //todo
-            physicalPageId = allocatedPages.size();
+            return toLogicalPageId(physicalPageId);
         }
+    }
 
-        // 标记为已分配
-        allocatedPages.set(physicalPageId);
+    /**
+     * 分配一段物理上连续的页，返回第一个逻辑页号
+     * 只修改内存中的位图，不写盘；批量操作结束后调用 {@link #flushBitmap()} 一次性提交
+     */
+    public int allocateContiguousPages(int count) throws IOException {
+        synchronized (allocationLock) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("分配页数必须大于0: " + count);
+            }
 
-        // 确保磁盘文件足够大
-        ensureFileSize(physicalPageId + 1);
+            // 从第一个用户页开始，找第一段长度足够的空闲区间
+            int start = allocatedPages.nextClearBit(FIRST_USER_PAGE);
+            while (true) {
+                int nextUsed = allocatedPages.nextSetBit(start);
+                if (nextUsed == -1 || nextUsed - start >= count) {
+                    break;
+                }
+                start = allocatedPages.nextClearBit(nextUsed);
+            }
 
-        // 更新位图到磁盘
-        writeBitmap();
+            allocatedPages.set(start, start + count);
+            ensureFileSize(start + count);  // 一次扩展到位
+            metrics.recordPagesAllocated(count);
 
-        return toLogicalPageId(physicalPageId);
+            return toLogicalPageId(start);
+        }
+    }
+
+    /**
+     * 将内存中的位图写回位图页（带fsync）
+     */
+    public void flushBitmap() throws IOException {
+        synchronized (allocationLock) {
+            writeBitmap();
+        }
+    }
+
+    /**
+     * 只在内存中释放页，不写位图（由调用方决定何时提交位图）
+     */
+    void releasePage(int logicalPageId) {
+        synchronized (allocationLock) {
+            int physicalPageId = toPhysicalPageId(logicalPageId);
+            if (physicalPageId < FIRST_USER_PAGE) {
+                throw new IllegalArgumentException("不能释放系统页: " + logicalPageId);
+            }
+            allocatedPages.clear(physicalPageId);
+            metrics.recordPageFreed();
+        }
+    }
+
+    /**
+     * 从位图页重新读取分配信息
+     * 供直接覆盖系统页的上层（如复制从库）在覆盖之后调用，否则内存中的分配信息还是旧的
+     */
+    public void reloadAllocation() throws IOException {
+        synchronized (allocationLock) {
+            readBitmap();
+        }
+    }
+
+    /**
+     * 用给定的逻辑页集合替换内存中的分配信息（系统页总是已分配）
+     * 供自己维护页引用关系的上层（如影子分页）在打开时重建分配状态
+     */
+    void resetAllocation(BitSet allocatedLogicalPages) {
+        synchronized (allocationLock) {
+            BitSet rebuilt = new BitSet();
+            rebuilt.set(BITMAP_PAGE_ID);
+            rebuilt.set(META_INFO_PAGE);
+            for (int id = allocatedLogicalPages.nextSetBit(0); id >= 0; id = allocatedLogicalPages.nextSetBit(id + 1)) {
+                rebuilt.set(toPhysicalPageId(id));
+            }
+            allocatedPages = rebuilt;
+        }
+    }
+
+    /**
+     * 读取元数据页（页1）
+     */
+    public byte[] readMetaPage() throws IOException {
+        return readPage(toLogicalPageId(META_INFO_PAGE));
+    }
+
+    /**
+     * 原地改写元数据页中的一小段并fsync
+     * 不超过一个扇区的对齐写入在掉电时要么完整要么不变
+     */
+    public void writeMetaBytes(int offsetInPage, byte[] bytes) throws IOException {
+        if (offsetInPage < 0 || offsetInPage + bytes.length > pageSize) {
+            throw new IllegalArgumentException(
+                    String.format("超出元数据页范围: offset=%d, length=%d", offsetInPage, bytes.length));
+        }
+        long position = getPageOffset(toLogicalPageId(META_INFO_PAGE)) + offsetInPage;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int metaPageId = toLogicalPageId(META_INFO_PAGE);
+        writeLock.lock();
+        try {
+            for (WriteListener listener : writeListeners) {
+                listener.beforePageWrite(metaPageId);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            if (!writeListeners.isEmpty()) {
+                ByteBuffer page = ByteBuffer.wrap(readPageData(metaPageId)).asReadOnlyBuffer();
+                for (WriteListener listener : writeListeners) {
+                    listener.pageWritten(metaPageId, page.duplicate());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        sync();
     }
 
     // 确保文件可以容纳指定数量的页
     private void ensureFileSize(int minPages) throws IOException {
-        long requiredSize = HEADER_SIZE + (long) minPages * PAGE_SIZE;
-        if (raf.length() < requiredSize) {
+        writeLock.lock();
+        try {
+            growTo(HEADER_SIZE + (long) minPages * pageSize);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // 只增不减：在writeLock下检查并扩展，避免两个线程先后setLength把文件改短
+    private void growTo(long requiredSize) throws IOException {
+        if (channel.size() < requiredSize) {
             raf.setLength(requiredSize);
-            System.out.println("扩展文件到 " + requiredSize + " 字节 (" + minPages + " 页)");
         }
     }
 
     // 批量分配多个页（更高效）
     public int[] allocatePages(int count) throws IOException {
-        int[] pageIds = new int[count];
+        synchronized (allocationLock) {
+            int[] pageIds = new int[count];
 
-        for (int i = 0; i < count; i++) {
-            pageIds[i] = allocateNewPage();
-        }
+            for (int i = 0; i < count; i++) {
+                pageIds[i] = allocateNewPage();
+            }
 
-        // 一次性更新位图
-        writeBitmap();
+            // 一次性更新位图
+            writeBitmap();
 
-        return pageIds;
+            return pageIds;
+        }
     }
 
     // 释放页
-    public void freePage(int pageId) throws IOException {
-        if (pageId < FIRST_USER_PAGE) {
-            throw new IllegalArgumentException("不能释放系统页: " + pageId);
+    public void freePage(int logicalPageId) throws IOException {
+        synchronized (allocationLock) {
+            // 与allocateNewPage一致，参数是逻辑页号
+            int physicalPageId = toPhysicalPageId(logicalPageId);
+            if (physicalPageId < FIRST_USER_PAGE) {
+                throw new IllegalArgumentException("不能释放系统页: " + logicalPageId);
+            }
+
+            if (!allocatedPages.get(physicalPageId)) {
+                throw new IllegalArgumentException("页 " + logicalPageId + " 未分配");
+            }
+
+            allocatedPages.clear(physicalPageId);
+            writeBitmap();
+            metrics.recordPageFreed();
         }
+    }
+
+    /**
+     * 释放一段连续页，位图只写一次
+     */
+    public void freePages(int firstLogicalPageId, int count) throws IOException {
+        synchronized (allocationLock) {
+            int first = toPhysicalPageId(firstLogicalPageId);
+            if (first < FIRST_USER_PAGE) {
+                throw new IllegalArgumentException("不能释放系统页: " + firstLogicalPageId);
+            }
+            for (int i = 0; i < count; i++) {
+                if (!allocatedPages.get(first + i)) {
+                    throw new IllegalArgumentException("页 " + (firstLogicalPageId + i) + " 未分配");
+                }
+            }
 
-        if (!allocatedPages.get(pageId)) {
-            throw new IllegalArgumentException("页 " + pageId + " 未分配");
+            allocatedPages.clear(first, first + count);
+            writeBitmap();
+            for (int i = 0; i < count; i++) {
+                metrics.recordPageFreed();
+            }
         }
+    }
 
-        allocatedPages.clear(pageId);
-        writeBitmap();
+    // 页是否已分配（逻辑页号）
+    public boolean isAllocated(int logicalPageId) {
+        synchronized (allocationLock) {
+            int physicalPageId = toPhysicalPageId(logicalPageId);
+            return physicalPageId >= FIRST_USER_PAGE && allocatedPages.get(physicalPageId);
+        }
+    }
+
+    // 最后一个已分配的用户页（逻辑页号），没有用户页时返回-1
+    public int getLastAllocatedPage() {
+        synchronized (allocationLock) {
+            int physicalPageId = allocatedPages.length() - 1;
+            return physicalPageId >= FIRST_USER_PAGE ? toLogicalPageId(physicalPageId) : -1;
+        }
+    }
+
+    // 第一个空闲的用户页（逻辑页号），即下一次allocateNewPage会返回的页
+    public int getFirstFreePage() {
+        synchronized (allocationLock) {
+            return toLogicalPageId(allocatedPages.nextClearBit(FIRST_USER_PAGE));
+        }
+    }
+
+    /**
+     * 截掉最后一个已分配页之后的文件尾部，返回释放的字节数
+     */
+    public long truncate() throws IOException {
+        long freed;
+        synchronized (allocationLock) {
+            int keepPages = Math.max(allocatedPages.length(), FIRST_USER_PAGE);
+            long requiredSize = HEADER_SIZE + (long) keepPages * pageSize;
+            writeLock.lock();
+            try {
+                long currentSize = channel.size();
+                if (currentSize <= requiredSize) {
+                    return 0;
+                }
+                channel.truncate(requiredSize);
+                freed = currentSize - requiredSize;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        sync();
+        return freed;
     }
 
     // 核心方法：计算页在文件中的偏移量
     public long getPageOffset(int logicalPageId) {
         // 注意：文件头占用前8字节，所以页从第8字节开始
         int physicalPageId = toPhysicalPageId(logicalPageId);
-        return HEADER_SIZE + (long) physicalPageId * PAGE_SIZE;
+        return HEADER_SIZE + (long) physicalPageId * pageSize;
+    }
+
+    // 本文件的页大小
+    public int getPageSize() {
+        return pageSize;
     }
 
     // 获取文件逻辑大小（包含空洞）
@@ -184,12 +500,16 @@ public class DBFile {
 
     // 获取总页数（包括已分配和未分配）
     public int getTotalPages() {
-        return Math.max(allocatedPages.size(), FIRST_USER_PAGE);
+        synchronized (allocationLock) {
+            return Math.max(allocatedPages.size(), FIRST_USER_PAGE);
+        }
     }
 
     // 获取已分配的页数
     public int getAllocatedPageCount() {
-        return allocatedPages.cardinality();
+        synchronized (allocationLock) {
+            return allocatedPages.cardinality();
+        }
     }
 
     // 获取空闲页数
@@ -209,8 +529,12 @@ public class DBFile {
         ByteBuffer buffer = ByteBuffer.allocate(8);
         buffer.putLong(version);
         buffer.flip();
-        int write = channel.write(buffer, 0);
-        System.out.println("✓ 写入版本号成功：" + write);
+        writeLock.lock();
+        try {
+            channel.write(buffer, 0);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -230,7 +554,7 @@ public class DBFile {
     // 检查页是否存在（是否有数据）
     public boolean pageExists(int logicalPageId) throws IOException {
         long pageOffset = getPageOffset(logicalPageId);
-        long pageEnd = pageOffset + PAGE_SIZE;
+        long pageEnd = pageOffset + pageSize;
 
         // 如果页的整个范围都在文件内，则存在
         return pageEnd <= file.length();
@@ -240,16 +564,31 @@ public class DBFile {
      * 读取指定页号的数据
      */
     public byte[] readPage(int logicalPageId) throws IOException {
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        byte[] data = readPageData(logicalPageId);
+
+        event.operation = PageIOEvent.READ;
+        event.pageId = logicalPageId;
+        event.bytes = pageSize;
+        event.commit();
+        metrics.recordRead(System.nanoTime() - start);
+        return data;
+    }
+
+    private byte[] readPageData(int logicalPageId) throws IOException {
         long offset = getPageOffset(logicalPageId);
 
         /**
          raf.seek(offset);
 
-         byte[] data = new byte[PAGE_SIZE];
+         byte[] data = new byte[pageSize];
          int bytesRead = raf.read(data);
          // 如果文件不够大（比如新页），返回全0的页
-         if (bytesRead < PAGE_SIZE) {
-         for (int i = bytesRead; i < PAGE_SIZE; i++) {
+         if (bytesRead < pageSize) {
+         for (int i = bytesRead; i < pageSize; i++) {
          data[i] = 0;
          }
          }
@@ -257,7 +596,7 @@ public class DBFile {
         long fileSize = channel.size();
 
         // 准备返回的数据
-        byte[] data = new byte[PAGE_SIZE]; // 默认全0
+        byte[] data = new byte[pageSize]; // 默认全0
 
         // 检查偏移量是否超出文件大小
         if (offset >= fileSize) {
@@ -265,7 +604,7 @@ public class DBFile {
         }
 
         // 计算可读取的最大字节数
-        long availableBytes = Math.min(PAGE_SIZE, fileSize - offset);
+        long availableBytes = Math.min(pageSize, fileSize - offset);
         if (availableBytes <= 0) {
             return data;
         }
@@ -287,41 +626,203 @@ public class DBFile {
         return data;
     }
 
+    /**
+     * 用一次顺序读取从指定逻辑页开始的多个连续页
+     * 超出文件末尾的部分返回全0
+     */
+    public byte[][] readPages(int firstLogicalPageId, int count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("读取页数必须大于0: " + count);
+        }
+        long offset = getPageOffset(firstLogicalPageId);
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        ByteBuffer buffer = ByteBuffer.allocate(count * pageSize);
+        long available = Math.max(0, Math.min(buffer.capacity(), channel.size() - offset));
+        buffer.limit((int) available);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                break;
+            }
+        }
+
+        byte[][] pages = new byte[count][];
+        byte[] all = buffer.array();
+        for (int i = 0; i < count; i++) {
+            pages[i] = new byte[pageSize];
+            System.arraycopy(all, i * pageSize, pages[i], 0, pageSize);
+        }
+
+        event.operation = PageIOEvent.READ;
+        event.pageId = firstLogicalPageId;
+        event.bytes = available;
+        event.commit();
+        metrics.recordRead(System.nanoTime() - start);
+        return pages;
+    }
+
     /**
      * 写入指定页号的数据
      */
     public void writePage(int logicalPageId, byte[] data) throws IOException {
-        if (data.length != PAGE_SIZE) {
-            throw new IllegalArgumentException("页数据大小必须为 " + PAGE_SIZE);
+        writePage(logicalPageId, data, true);
+    }
+
+    /**
+     * 写入指定页号的数据
+     * @param force 是否在写入后立即fsync
+     */
+    public void writePage(int logicalPageId, byte[] data, boolean force) throws IOException {
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("页数据大小必须为 " + pageSize);
         }
         long offset = getPageOffset(logicalPageId);
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
 
 //        raf.seek(offset);
 //        raf.write(data);
 
-        // 确保文件足够大
-        long requiredSize = offset + PAGE_SIZE;
-        if (channel.size() < requiredSize) {
-            raf.setLength(requiredSize); // 扩展文件大小
-        }
-
         // 使用ByteBuffer包装数据
         ByteBuffer buffer = ByteBuffer.wrap(data);
 
-        // 写入到指定位置
         int bytesWritten = 0;
-        while (bytesWritten < PAGE_SIZE) {
-            int written = channel.write(buffer, offset + bytesWritten);
-            if (written == -1) {
-                throw new IOException("写入失败：到达文件末尾");
+        writeLock.lock();
+        try {
+            // 确保文件足够大
+            growTo(offset + pageSize);
+            for (WriteListener listener : writeListeners) {
+                listener.beforePageWrite(logicalPageId);
+            }
+
+            // 写入到指定位置
+            while (bytesWritten < pageSize) {
+                int written = channel.write(buffer, offset + bytesWritten);
+                if (written == -1) {
+                    throw new IOException("写入失败：到达文件末尾");
+                }
+                bytesWritten += written;
             }
-            bytesWritten += written;
+            for (WriteListener listener : writeListeners) {
+                listener.pageWritten(logicalPageId, ByteBuffer.wrap(data).asReadOnlyBuffer());
+            }
+        } finally {
+            writeLock.unlock();
         }
 
+        event.operation = PageIOEvent.WRITE;
+        event.pageId = logicalPageId;
+        event.bytes = bytesWritten;
+        event.commit();
+        metrics.recordWrite(System.nanoTime() - start);
+
         // 可选：强制写入磁盘（确保数据持久化）
-        channel.force(false); // false表示不强制更新元数据
+        if (force) {
+            sync(); // 不强制更新元数据
+        }
+    }
+
+    /**
+     * 从指定逻辑页开始，用一次顺序写入多个连续页
+     * data中剩余字节数必须是页大小的整数倍
+     */
+    public void writePages(int firstLogicalPageId, ByteBuffer data, boolean force) throws IOException {
+        if (data.remaining() == 0 || data.remaining() % pageSize != 0) {
+            throw new IllegalArgumentException("批量写入的数据大小必须是 " + pageSize + " 的整数倍");
+        }
+        long offset = getPageOffset(firstLogicalPageId);
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        long position = offset;
+        ByteBuffer written = data.asReadOnlyBuffer();
+        writeLock.lock();
+        try {
+            growTo(offset + data.remaining());
+            for (WriteListener listener : writeListeners) {
+                for (int i = 0; i < written.remaining() / pageSize; i++) {
+                    listener.beforePageWrite(firstLogicalPageId + i);
+                }
+            }
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            for (WriteListener listener : writeListeners) {
+                for (int i = 0; i < written.remaining() / pageSize; i++) {
+                    listener.pageWritten(firstLogicalPageId + i,
+                            written.slice(written.position() + i * pageSize, pageSize));
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        event.operation = PageIOEvent.WRITE;
+        event.pageId = firstLogicalPageId;
+        event.bytes = position - offset;
+        event.commit();
+        metrics.recordWrite(System.nanoTime() - start);
+
+        if (force) {
+            sync();
+        }
+    }
+
+    /**
+     * 将已写入的数据强制刷到磁盘
+     */
+    public void sync() throws IOException {
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        channel.force(false);
+
+        event.operation = PageIOEvent.FSYNC;
+        event.pageId = -1;
+        event.commit();
+        metrics.recordFsync(System.nanoTime() - start);
+        for (WriteListener listener : writeListeners) {
+            listener.synced();
+        }
+    }
+
+    public void addWriteListener(WriteListener listener) {
+        writeListeners.add(listener);
+    }
 
-        System.out.println("写入逻辑页 " + logicalPageId + "，偏移量 " + offset + "，写入字节数: " + bytesWritten);
+    public void removeWriteListener(WriteListener listener) {
+        writeListeners.remove(listener);
+    }
+
+    /**
+     * 在writeLock内执行action：期间没有页写入在进行，用于取得与写入一致的时间点
+     */
+    public <T> T runExclusive(ExclusiveAction<T> action) throws IOException {
+        writeLock.lock();
+        try {
+            return action.run();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 文件中的页数（包括系统页），按文件长度计算
+     */
+    public int getFilePageCount() throws IOException {
+        return (int) ((channel.size() - HEADER_SIZE + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * 获取该文件的存储层指标
+     */
+    public StorageMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -336,15 +837,19 @@ public class DBFile {
     public void printInfo() throws IOException {
         System.out.println("=== 数据库信息 ===");
         System.out.println("版本: " + readVersion());
-        System.out.println("页大小: " + PAGE_SIZE + " 字节");
+        System.out.println("页大小: " + pageSize + " 字节");
         System.out.println("总页数: " + getTotalPages());
-        System.out.println("已分配页: " + allocatedPages.cardinality());
-        System.out.println("空闲页: " + (getTotalPages() - allocatedPages.cardinality()));
+        System.out.println("已分配页: " + getAllocatedPageCount());
+        System.out.println("空闲页: " + getFreePageCount());
 
         // 显示位图前16页的状态
+        BitSet snapshot;
+        synchronized (allocationLock) {
+            snapshot = (BitSet) allocatedPages.clone();
+        }
         System.out.print("前16页分配状态: ");
         for (int i = 0; i < 16; i++) {
-            System.out.print(allocatedPages.get(i) ? "■" : "□");
+            System.out.print(snapshot.get(i) ? "■" : "□");
             if ((i + 1) % 8 == 0) System.out.print(" ");
         }
         System.out.println(" (■=已分配, □=空闲)");
@@ -0,0 +1,286 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 双写缓冲：防止掉电时页只写了一半（torn page），同时不需要每页fsync
+ *
+ * 每批脏页：
+ *   1. 先顺序写进双写文件，fsync一次
+ *   2. 再按页号顺序原地写回数据文件，不fsync
+ * 下一批覆盖双写文件之前，先对数据文件fsync一次，保证上一批已经完整落盘。
+ * {@link #sync()} 和关闭时数据文件fsync之后清空双写文件，副本作废。
+ *
+ * 打开时检查双写文件：校验通过说明最后一批可能没写完，数据文件中与副本不一致的页用副本恢复；
+ * 校验不通过说明崩溃发生在第1步，这批还没开始原地写，数据文件不受影响。
+ *
+ * 双写文件格式（小端）：
+ *   [魔数int][页大小int][序号long][页数int][目录CRC int]
+ *   页数个 [页号int][页CRC int]
+ *   页数个 页数据
+ *
+ * 双写文件中有副本时（写入一批之后、sync之前），绕过双写缓冲直接写数据文件的页在崩溃恢复时可能被旧副本覆盖；
+ * 直接写数据文件（搬页、批量加载等）之前先调用 {@link #sync()}。
+ */
+public class DoubleWriteBuffer {
+    public static final int DEFAULT_MAX_BATCH_PAGES = 128;
+
+    private static final int MAGIC = 0x44574231;  // "DWB1"
+    private static final int HEADER_SIZE = 24;
+    private static final int DIRECTORY_ENTRY_SIZE = 8;
+
+    private final DBFile dbFile;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int maxBatchPages;
+    private final StorageMetrics metrics;
+
+    private long sequence = 0;
+    // 上一批原地写之后数据文件还没有fsync
+    private boolean inPlaceUnsynced = false;
+    private int recoveredPages;
+
+    public DoubleWriteBuffer(DBFile dbFile, Path bufferFile) throws IOException {
+        this(dbFile, bufferFile, DEFAULT_MAX_BATCH_PAGES);
+    }
+
+    /**
+     * 打开双写文件，如有需要先恢复数据文件
+     * @param maxBatchPages 一批最多的页数，更多的页会拆成多批
+     */
+    public DoubleWriteBuffer(DBFile dbFile, Path bufferFile, int maxBatchPages) throws IOException {
+        if (maxBatchPages <= 0) {
+            throw new IllegalArgumentException("maxBatchPages必须大于0: " + maxBatchPages);
+        }
+        this.dbFile = dbFile;
+        this.pageSize = dbFile.getPageSize();
+        this.maxBatchPages = maxBatchPages;
+        this.metrics = dbFile.getMetrics();
+        this.channel = FileChannel.open(bufferFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recoveredPages = recover();
+    }
+
+    // ===== 写入 =====
+
+    public synchronized void writePage(int pageId, byte[] data) throws IOException {
+        writePages(Map.of(pageId, data));
+    }
+
+    /**
+     * 写入一批页：页号 -> 数据
+     */
+    public synchronized void writePages(Map<Integer, byte[]> pages) throws IOException {
+        TreeMap<Integer, byte[]> sorted = new TreeMap<>(pages);
+        for (byte[] data : sorted.values()) {
+            if (data.length != pageSize) {
+                throw new IllegalArgumentException("页数据大小必须为 " + pageSize);
+            }
+        }
+        while (!sorted.isEmpty()) {
+            TreeMap<Integer, byte[]> batch = new TreeMap<>();
+            while (!sorted.isEmpty() && batch.size() < maxBatchPages) {
+                Map.Entry<Integer, byte[]> entry = sorted.pollFirstEntry();
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            stage(batch);
+            writeInPlace(batch);
+        }
+    }
+
+    /**
+     * 第1步：写双写文件并fsync
+     * 单独可见是为了测试能模拟"副本已落盘、原地写还没完成"时的崩溃
+     */
+    void stage(TreeMap<Integer, byte[]> batch) throws IOException {
+        // 要覆盖双写文件了，上一批必须已经完整落盘
+        if (inPlaceUnsynced) {
+            dbFile.sync();
+            inPlaceUnsynced = false;
+        }
+
+        int count = batch.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * (DIRECTORY_ENTRY_SIZE + pageSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(pageSize).putLong(++sequence).putInt(count).putInt(0);
+        for (Map.Entry<Integer, byte[]> entry : batch.entrySet()) {
+            buffer.putInt(entry.getKey()).putInt(crc(entry.getValue(), 0, pageSize));
+        }
+        for (byte[] data : batch.values()) {
+            buffer.put(data);
+        }
+        // 目录CRC覆盖头部（CRC字段本身除外）和目录
+        buffer.putInt(HEADER_SIZE - Integer.BYTES,
+                directoryCrc(buffer.array(), count));
+        buffer.flip();
+
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.force(false);
+
+        event.operation = PageIOEvent.FSYNC;
+        event.pageId = -1;
+        event.bytes = buffer.limit();
+        event.commit();
+        metrics.recordFsync(System.nanoTime() - start);
+    }
+
+    // 第2步：按页号顺序原地写，连续的页合并成一次写入
+    private void writeInPlace(TreeMap<Integer, byte[]> batch) throws IOException {
+        Integer[] pageIds = batch.keySet().toArray(new Integer[0]);
+        int i = 0;
+        while (i < pageIds.length) {
+            int j = i + 1;
+            while (j < pageIds.length && pageIds[j] == pageIds[j - 1] + 1) {
+                j++;
+            }
+            ByteBuffer run = ByteBuffer.allocate((j - i) * pageSize);
+            for (int k = i; k < j; k++) {
+                run.put(batch.get(pageIds[k]));
+            }
+            run.flip();
+            dbFile.writePages(pageIds[i], run, false);
+            i = j;
+        }
+        inPlaceUnsynced = true;
+    }
+
+    /**
+     * 把已经原地写入的页刷到磁盘，然后作废双写副本
+     */
+    public synchronized void sync() throws IOException {
+        if (inPlaceUnsynced) {
+            dbFile.sync();
+            inPlaceUnsynced = false;
+            invalidate();
+        }
+    }
+
+    // 副本对应的原地写已经落盘，清空双写文件：以后绕过双写缓冲的写入不会在恢复时被旧副本覆盖
+    private void invalidate() throws IOException {
+        long start = System.nanoTime();
+        channel.truncate(0);
+        channel.force(true);
+        metrics.recordFsync(System.nanoTime() - start);
+    }
+
+    /**
+     * 刷盘并关闭双写文件，不关闭数据文件
+     */
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    // ===== 恢复 =====
+
+    private int recover() throws IOException {
+        TreeMap<Integer, byte[]> batch = readBatch();
+        if (batch == null) {
+            return 0;
+        }
+
+        int restored = 0;
+        for (Map.Entry<Integer, byte[]> entry : batch.entrySet()) {
+            int pageId = entry.getKey();
+            if (!Arrays.equals(dbFile.readPage(pageId), entry.getValue())) {
+                dbFile.writePage(pageId, entry.getValue(), false);
+                restored++;
+            }
+        }
+        dbFile.sync();
+
+        // 已经恢复完，清掉副本，以后绕过双写缓冲的写入不会被旧副本覆盖
+        channel.truncate(0);
+        channel.force(true);
+        return restored;
+    }
+
+    // 读取双写文件中的一批，文件为空或校验失败返回null
+    private TreeMap<Integer, byte[]> readBatch() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != pageSize) {
+            return null;
+        }
+        long seq = header.getLong(8);
+        int count = header.getInt(16);
+        long expectedSize = HEADER_SIZE + (long) count * (DIRECTORY_ENTRY_SIZE + pageSize);
+        if (count <= 0 || size < expectedSize) {
+            return null;  // 副本没写完
+        }
+
+        ByteBuffer all = ByteBuffer.allocate((int) expectedSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(all, 0);
+        if (all.getInt(HEADER_SIZE - Integer.BYTES) != directoryCrc(all.array(), count)) {
+            return null;
+        }
+
+        TreeMap<Integer, byte[]> batch = new TreeMap<>();
+        int dataStart = HEADER_SIZE + count * DIRECTORY_ENTRY_SIZE;
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * DIRECTORY_ENTRY_SIZE;
+            int pageId = all.getInt(entry);
+            int pageCrc = all.getInt(entry + Integer.BYTES);
+            int offset = dataStart + i * pageSize;
+            if (crc(all.array(), offset, pageSize) != pageCrc) {
+                return null;
+            }
+            batch.put(pageId, Arrays.copyOfRange(all.array(), offset, offset + pageSize));
+        }
+        sequence = seq;
+        return batch;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("双写文件意外结束");
+            }
+        }
+    }
+
+    private static int directoryCrc(byte[] batch, int count) {
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, HEADER_SIZE - Integer.BYTES);
+        crc.update(batch, HEADER_SIZE, count * DIRECTORY_ENTRY_SIZE);
+        return (int) crc.getValue();
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    // ===== 信息 =====
+
+    /**
+     * 打开时从双写副本恢复的页数
+     */
+    public int getRecoveredPageCount() {
+        return recoveredPages;
+    }
+
+    public int getMaxBatchPages() {
+        return maxBatchPages;
+    }
+}
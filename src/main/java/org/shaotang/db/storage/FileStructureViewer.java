@@ -12,7 +12,7 @@ public class FileStructureViewer {
         System.out.println("=== 数据库文件结构分析 ===");
         System.out.printf("文件大小: %,d 字节 (%.2f MB)%n",
                 fileSize, fileSize / (1024.0 * 1024.0));
-        System.out.printf("页大小: %d 字节%n", DBFile.PAGE_SIZE);
+        System.out.printf("页大小: %d 字节%n", dbFile.getPageSize());
         System.out.printf("文件头: %d 字节%n", DBFile.HEADER_SIZE);
         System.out.printf("逻辑页数: %d 页%n", totalPages);
 
@@ -30,7 +30,7 @@ public class FileStructureViewer {
 
             for (int pageId = startPage; pageId < endPage; pageId++) {
                 long offset = dbFile.getPageOffset(pageId);
-                long pageEnd = offset + DBFile.PAGE_SIZE;
+                long pageEnd = offset + dbFile.getPageSize();
 
                 if (pageEnd <= fileSize) {
                     System.out.print("■");  // 有数据
@@ -59,7 +59,7 @@ public class FileStructureViewer {
 
         for (int pageId = 0; pageId < maxPages; pageId++) {
             long pageStart = dbFile.getPageOffset(pageId);
-            long pageEnd = pageStart + DBFile.PAGE_SIZE;
+            long pageEnd = pageStart + dbFile.getPageSize();
 
             if (pageEnd > fileSize) {
                 // 从pageStart到fileSize都是空洞
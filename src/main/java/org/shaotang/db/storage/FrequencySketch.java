@@ -0,0 +1,99 @@
+package org.shaotang.db.storage;
+
+/**
+ * 访问频率草图：4位计数器的Count-Min Sketch，带周期性衰减
+ *
+ * 每个long放16个4位计数器，分成4组，每组4个。一个键先按哈希选一组，
+ * 再用4个不同的哈希在4行中各选一个long，分别取组内第0~3个计数器；频率取4个计数器的最小值。
+ * 计数器最大15，对准入判断已经足够。
+ *
+ * 累计增加达到采样数（容量的10倍）时所有计数器减半，旧的热点会逐渐冷却，新的热点能追上来。
+ * 非线程安全，由调用方同步。
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    /**
+     * @param expectedEntries 预期跟踪的键数，一般取缓存容量
+     */
+    public FrequencySketch(int expectedEntries) {
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("预期键数必须大于0: " + expectedEntries);
+        }
+        int length = Integer.highestOneBit(Math.max(expectedEntries, 8) - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * expectedEntries;
+    }
+
+    /**
+     * 估计键的访问频率（0~15）
+     */
+    public int frequency(int key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void increment(int key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // 计数器未满时加1
+    private boolean incrementAt(int index, int counter) {
+        int shift = counter << 2;
+        long mask = 0xFL << shift;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << shift;
+            return true;
+        }
+        return false;
+    }
+
+    // 所有计数器减半
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    // 打散页号：相邻页号的哈希不相邻
+    private static int spread(int key) {
+        int x = key * 0x9E3779B9;
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        return x ^ (x >>> 13);
+    }
+}
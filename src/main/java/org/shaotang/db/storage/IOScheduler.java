@@ -0,0 +1,457 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * I/O调度器：位于缓冲池/预读和DBFile之间，对排队的页请求排序、合并
+ *
+ * 1. 电梯算法（C-SCAN）：请求按页号（即文件偏移）排序，从上次的位置向后扫，到头后回到最小页号
+ * 2. 合并：相邻页的请求合并成一次readPages/writePages
+ * 3. 优先级：前台读 > 写（排队超过maxWriteDelay时）> 后台预读 > 写
+ * 4. 写请求在落盘前后都能被读到（read-your-writes），同一页的多次写只落最后一次
+ *
+ * 由少量虚拟线程并发执行I/O，写入不带fsync，需要持久化时调用 {@link #flush()}。
+ * 写入失败时除了让对应的Future异常完成，还记下第一个错误，由下一次flush/close抛出，不会在fsync后被当成已落盘。
+ */
+public class IOScheduler {
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_MAX_MERGE_PAGES = 64;  // 一次最多256KB
+    public static final long DEFAULT_MAX_WRITE_DELAY_MILLIS = 50;
+
+    private final DBFile dbFile;
+    private final int maxMergePages;
+    private final long maxWriteDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition writesDrained = lock.newCondition();
+
+    // 排队中的请求：页号 -> 请求，TreeMap保持按偏移有序
+    private final TreeMap<Integer, ReadRequest> foregroundReads = new TreeMap<>();
+    private final TreeMap<Integer, ReadRequest> backgroundReads = new TreeMap<>();
+    private final TreeMap<Integer, WriteRequest> writes = new TreeMap<>();
+
+    // 正在执行的I/O：同一页的读写不能同时进行
+    private final Map<Integer, byte[]> inflightWrites = new HashMap<>();
+    private final Set<Integer> inflightReads = new HashSet<>();
+
+    // 电梯当前位置：下一次从这个页号开始向后找
+    private int headPosition = 0;
+    private boolean closed = false;
+
+    // 上次flush以来第一个写入错误
+    private IOException writeFailure;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private static class ReadRequest {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+    }
+
+    private static class WriteRequest {
+        byte[] data;
+        final long enqueuedAt = System.nanoTime();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    }
+
+    public IOScheduler(DBFile dbFile) {
+        this(dbFile, DEFAULT_WORKERS, DEFAULT_MAX_MERGE_PAGES, DEFAULT_MAX_WRITE_DELAY_MILLIS);
+    }
+
+    public IOScheduler(DBFile dbFile, int workers, int maxMergePages, long maxWriteDelayMillis) {
+        if (workers <= 0 || maxMergePages <= 0) {
+            throw new IllegalArgumentException("workers和maxMergePages必须大于0");
+        }
+        this.dbFile = dbFile;
+        this.maxMergePages = maxMergePages;
+        this.maxWriteDelayNanos = maxWriteDelayMillis * 1_000_000L;
+
+        for (int i = 0; i < workers; i++) {
+            this.workers.add(Thread.ofVirtual().name("io-scheduler-" + i).start(this::workerLoop));
+        }
+    }
+
+    // ===== 提交请求 =====
+
+    /**
+     * 前台读：调用方在等结果，优先调度
+     */
+    public CompletableFuture<byte[]> read(int pageId) {
+        return submitRead(pageId, true);
+    }
+
+    /**
+     * 后台读（预读）：只在没有前台读时调度
+     */
+    public CompletableFuture<byte[]> readAhead(int pageId) {
+        return submitRead(pageId, false);
+    }
+
+    private CompletableFuture<byte[]> submitRead(int pageId, boolean foreground) {
+        lock.lock();
+        try {
+            checkOpen();
+
+            // 还没落盘（或正在落盘）的写直接返回
+            byte[] pending = pendingWriteData(pageId);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(pending.clone());
+            }
+
+            ReadRequest request = foregroundReads.get(pageId);
+            if (request != null) {
+                return request.future;
+            }
+            request = backgroundReads.get(pageId);
+            if (request != null) {
+                if (foreground) {
+                    // 有人在等这一页了，提升为前台读
+                    backgroundReads.remove(pageId);
+                    foregroundReads.put(pageId, request);
+                }
+                return request.future;
+            }
+
+            request = new ReadRequest();
+            (foreground ? foregroundReads : backgroundReads).put(pageId, request);
+            workAvailable.signal();
+            return request.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 后台写：数据会被复制，调用方之后可以继续修改原数组
+     */
+    public CompletableFuture<Void> write(int pageId, byte[] data) {
+        if (data.length != dbFile.getPageSize()) {
+            throw new IllegalArgumentException("页数据大小必须为 " + dbFile.getPageSize());
+        }
+        byte[] copy = data.clone();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        lock.lock();
+        try {
+            checkOpen();
+
+            WriteRequest request = writes.get(pageId);
+            if (request == null) {
+                request = new WriteRequest();
+                writes.put(pageId, request);
+            }
+            // 同一页的多次写合并，只写最新的数据
+            request.data = copy;
+            request.futures.add(future);
+
+            // 排队中的读直接用新数据完成，避免读写同一页的顺序问题
+            completeQueuedRead(foregroundReads.remove(pageId), copy);
+            completeQueuedRead(backgroundReads.remove(pageId), copy);
+
+            workAvailable.signal();
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void completeQueuedRead(ReadRequest request, byte[] data) {
+        if (request != null) {
+            request.future.complete(data.clone());
+        }
+    }
+
+    private byte[] pendingWriteData(int pageId) {
+        WriteRequest queued = writes.get(pageId);
+        if (queued != null) {
+            return queued.data;
+        }
+        return inflightWrites.get(pageId);
+    }
+
+    /**
+     * 等待所有已提交的写落盘，然后fsync一次
+     * @throws IOException 上次flush以来有写入失败（报告一次后清除），或fsync失败
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            while (!writes.isEmpty() || !inflightWrites.isEmpty()) {
+                writesDrained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待写入完成时被中断");
+        } finally {
+            lock.unlock();
+        }
+        dbFile.sync();
+        throwWriteFailure();
+    }
+
+    private void throwWriteFailure() throws IOException {
+        IOException failure;
+        lock.lock();
+        try {
+            failure = writeFailure;
+            writeFailure = null;
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null) {
+            throw new IOException("后台写入失败", failure);
+        }
+    }
+
+    /**
+     * 执行完所有排队的请求后停止工作线程，不关闭底层DBFile
+     */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待I/O线程退出时被中断");
+            }
+        }
+        dbFile.sync();
+        throwWriteFailure();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("I/O调度器已关闭");
+        }
+    }
+
+    public int getQueuedRequestCount() {
+        lock.lock();
+        try {
+            return foregroundReads.size() + backgroundReads.size() + writes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===== 调度 =====
+
+    private void workerLoop() {
+        while (true) {
+            Runnable run;
+            lock.lock();
+            try {
+                while ((run = nextRun()) == null) {
+                    if (closed && foregroundReads.isEmpty() && backgroundReads.isEmpty() && writes.isEmpty()) {
+                        return;
+                    }
+                    workAvailable.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+            run.run();
+        }
+    }
+
+    // 在锁内选出下一批要执行的I/O，没有可执行的返回null
+    private Runnable nextRun() {
+        if (!foregroundReads.isEmpty()) {
+            return takeReadRun(foregroundReads);
+        }
+        if (!writes.isEmpty() && oldestWriteAge() > maxWriteDelayNanos) {
+            Runnable run = takeWriteRun();
+            if (run != null) {
+                return run;
+            }
+        }
+        if (!backgroundReads.isEmpty()) {
+            return takeReadRun(backgroundReads);
+        }
+        if (!writes.isEmpty()) {
+            return takeWriteRun();
+        }
+        return null;
+    }
+
+    // 写队列通常不长，直接遍历找最早的请求
+    private long oldestWriteAge() {
+        long now = System.nanoTime();
+        long oldest = 0;
+        for (WriteRequest request : writes.values()) {
+            oldest = Math.max(oldest, now - request.enqueuedAt);
+        }
+        return oldest;
+    }
+
+    // C-SCAN：从电梯当前位置向后找第一个可执行的页，找不到就从头找
+    private Integer elevatorStart(TreeMap<Integer, ?> queue, IntPredicate eligible) {
+        for (Integer pageId : queue.tailMap(headPosition, true).keySet()) {
+            if (eligible.test(pageId)) {
+                return pageId;
+            }
+        }
+        for (Integer pageId : queue.headMap(headPosition, false).keySet()) {
+            if (eligible.test(pageId)) {
+                return pageId;
+            }
+        }
+        return null;
+    }
+
+    private Runnable takeReadRun(TreeMap<Integer, ReadRequest> queue) {
+        // 排队中的读不会和排队中的写冲突（写入时已处理），只需避开正在写的页
+        Integer first = elevatorStart(queue, pageId -> !inflightWrites.containsKey(pageId));
+        if (first == null) {
+            return null;
+        }
+
+        List<ReadRequest> requests = new ArrayList<>();
+        int pageId = first;
+        while (requests.size() < maxMergePages && queue.containsKey(pageId)
+                && !inflightWrites.containsKey(pageId)) {
+            requests.add(queue.remove(pageId));
+            inflightReads.add(pageId);
+            pageId++;
+        }
+        headPosition = pageId;
+
+        int firstPageId = first;
+        return () -> executeRead(firstPageId, requests);
+    }
+
+    private Runnable takeWriteRun() {
+        // 同一页同时只能有一个I/O在执行
+        IntPredicate eligible = pageId -> !inflightWrites.containsKey(pageId) && !inflightReads.contains(pageId);
+        Integer first = elevatorStart(writes, eligible);
+        if (first == null) {
+            return null;
+        }
+
+        List<WriteRequest> requests = new ArrayList<>();
+        int pageId = first;
+        while (requests.size() < maxMergePages && writes.containsKey(pageId) && eligible.test(pageId)) {
+            WriteRequest request = writes.remove(pageId);
+            inflightWrites.put(pageId, request.data);
+            requests.add(request);
+            pageId++;
+        }
+        headPosition = pageId;
+
+        int firstPageId = first;
+        return () -> executeWrite(firstPageId, requests);
+    }
+
+    private void executeRead(int firstPageId, List<ReadRequest> requests) {
+        byte[][] pages = null;
+        IOException failure = null;
+        try {
+            pages = dbFile.readPages(firstPageId, requests.size());
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        lock.lock();
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                inflightReads.remove(firstPageId + i);
+            }
+            // 被挡住的写可能可以执行了
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            if (failure != null) {
+                requests.get(i).future.completeExceptionally(failure);
+            } else {
+                requests.get(i).future.complete(pages[i]);
+            }
+        }
+    }
+
+    private void executeWrite(int firstPageId, List<WriteRequest> requests) {
+        ByteBuffer buffer = ByteBuffer.allocate(requests.size() * dbFile.getPageSize());
+        for (WriteRequest request : requests) {
+            buffer.put(request.data);
+        }
+        buffer.flip();
+
+        IOException failure = null;
+        try {
+            dbFile.writePages(firstPageId, buffer, false);
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        // 先完成Future再移出inflightWrites：调用方看到写入失败之前，读到的一直是这次要写的数据
+        for (WriteRequest request : requests) {
+            for (CompletableFuture<Void> future : request.futures) {
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(null);
+                }
+            }
+        }
+
+        lock.lock();
+        try {
+            if (failure != null && writeFailure == null) {
+                writeFailure = failure;
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                inflightWrites.remove(firstPageId + i);
+            }
+            workAvailable.signalAll();
+            if (writes.isEmpty() && inflightWrites.isEmpty()) {
+                writesDrained.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待Future完成，把执行异常还原成IOException
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待I/O完成时被中断");
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("I/O请求失败", e.getCause());
+        }
+    }
+}
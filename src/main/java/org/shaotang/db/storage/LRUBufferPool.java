@@ -1,19 +1,60 @@
 package org.shaotang.db.storage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 实现LRU替换策略的缓冲池
- * 最大缓存3个页
+ * 默认最大缓存3个页，可以通过构造函数指定容量
+ * 公开方法都是同步的，可以被多个线程共享
+ * 设置 {@link TinyLfuAdmission} 后分为窗口段和主段，按访问频率决定新页能否挤掉主段的页
+ * 大范围扫描和批量写入可以通过 {@link BufferRing} 读写，只占用环的几个页框，不冲掉缓冲池
+ *
+ * 写回（淘汰、flush、释放缓冲环）时在页的共享闩下复制内容并清除脏标记，不会写出修改了一半的页；
+ * 闩释放之后的修改会重新标脏。持有页的排他闩时不要调用缓冲池的方法，否则可能因淘汰这个页而等待自己持有的闩。
  */
 public class LRUBufferPool {
+    // 默认最大缓存页数
+    public static final int DEFAULT_CACHE_SIZE = 3;
+
+    // 使用双写缓冲时，淘汰的脏页最多攒这么久就写出一批（由定时任务保证，即使之后没有新的淘汰）
+    static final long DOUBLE_WRITE_MAX_DELAY_MILLIS = 100;
+
     // 最大缓存页数
-    private static final int MAX_CACHE_SIZE = 3;
+    private final int maxCacheSize;
     
     // 底层文件
     private final DBFile dbFile;
+
+    // 指标与底层文件共用
+    private final StorageMetrics metrics;
+
+    // 可选的I/O调度器：设置后读页和写回都经过它排序合并
+    private IOScheduler ioScheduler;
+
+    // 可选的双写缓冲：设置后写回经过它，防止页写一半，且不需要每页fsync
+    private DoubleWriteBuffer doubleWriteBuffer;
+
+    // 可选的第二层压缩缓存：淘汰的页压缩后放进去，未命中时先查它再读磁盘
+    private CompressedPageCache secondTier;
+
+    // 可选的准入策略：设置后新页先进窗口段，再与主段比较频率
+    private TinyLfuAdmission admission;
+
+    // 可选的访问轨迹记录，供离线模拟不同策略和容量
+    private AccessTraceRecorder traceRecorder;
     
     // LRU数据结构：哈希表 + 双向链表
     private static class Node {
@@ -21,20 +62,238 @@ public class LRUBufferPool {
         Page page;
         Node prev;
         Node next;
+        Segment segment;
         
         Node(int pageId, Page page) {
             this.pageId = pageId;
             this.page = page;
         }
     }
+
+    // 一段LRU链表，头部最近使用，尾部最久未用
+    private static class Segment {
+        Node head;
+        Node tail;
+        int size = 0;
+
+        /**
+         * 将节点移到链表头部（最近使用）
+         */
+        void moveToHead(Node node) {
+            // 如果已经是头部，不需要移动
+            if (node == head) return;
+
+            // 从当前位置移除
+            remove(node);
+
+            // 添加到头部
+            addToHead(node);
+        }
+
+        /**
+         * 添加节点到链表头部
+         */
+        void addToHead(Node node) {
+            node.segment = this;
+            node.prev = null;
+            node.next = head;
+
+            if (head != null) {
+                head.prev = node;
+            }
+            head = node;
+
+            if (tail == null) {
+                tail = node;
+            }
+            size++;
+        }
+
+        /**
+         * 添加节点到链表尾部（最久未用）
+         */
+        void addToTail(Node node) {
+            node.segment = this;
+            node.next = null;
+            node.prev = tail;
+
+            if (tail != null) {
+                tail.next = node;
+            }
+            tail = node;
+
+            if (head == null) {
+                head = node;
+            }
+            size++;
+        }
+
+        /**
+         * 从链表中移除节点
+         */
+        void remove(Node node) {
+            // 更新前驱节点
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                // node是头部
+                head = node.next;
+            }
+
+            // 更新后继节点
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                // node是尾部
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+    }
     
     private final Map<Integer, Node> cacheMap = new HashMap<>();
-    private Node head;  // 最近使用
-    private Node tail;  // 最久未用
+    // 未设置准入策略时只用主段
+    private final Segment window = new Segment();
+    private final Segment main = new Segment();
     private int size = 0;
+
+    // 当前在各个缓冲环中的页：页号 -> 所在的环
+    private final Map<Integer, BufferRing> ringPages = new HashMap<>();
+    private final Set<BufferRing> rings = new HashSet<>();
+
+    // 正在后台预热、还没装入缓存的页；期间被前台访问过的页会移出，预热读到的旧数据就不再装入
+    private final Set<Integer> warmingPages = new HashSet<>();
+
+    // 交给I/O调度器、还没确认成功的写回：页号 -> 写回记录（同一页只保留最新的一次）
+    private final Map<Integer, PendingWriteBack> pendingWriteBacks = new HashMap<>();
+    // 异步写回失败、且页已不在缓存中的内容：再次读取时用它代替磁盘上的旧内容，flush时重写
+    private final Map<Integer, byte[]> failedWriteBacks = new HashMap<>();
+
+    // 使用双写缓冲时淘汰下来、还没写出的脏页：页号 -> 内容，攒够一批或等得太久时一起写
+    private final Map<Integer, byte[]> pendingDoubleWrites = new LinkedHashMap<>();
+    private long pendingDoubleWriteSince;
+    // 批次等待超时后写出的定时任务，设置双写缓冲时创建
+    private ScheduledExecutorService doubleWriteTimer;
+
+    private static class PendingWriteBack {
+        final byte[] data;
+        final CompletableFuture<Void> future;
+
+        PendingWriteBack(byte[] data, CompletableFuture<Void> future) {
+            this.data = data;
+            this.future = future;
+        }
+    }
     
     public LRUBufferPool(String filename) throws IOException {
-        this.dbFile = new DBFile(filename);
+        this(new DBFile(filename), DEFAULT_CACHE_SIZE);
+    }
+
+    public LRUBufferPool(String filename, int maxCacheSize) throws IOException {
+        this(new DBFile(filename), maxCacheSize);
+    }
+
+    /**
+     * @param pageSize 新建文件时使用的页大小，打开已有文件时必须与文件一致
+     */
+    public LRUBufferPool(String filename, int maxCacheSize, int pageSize) throws IOException {
+        this(new DBFile(filename, pageSize), maxCacheSize);
+    }
+
+    public LRUBufferPool(DBFile dbFile, int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("缓存容量必须大于0: " + maxCacheSize);
+        }
+        this.dbFile = dbFile;
+        this.maxCacheSize = maxCacheSize;
+        this.metrics = dbFile.getMetrics();
+    }
+
+    public DBFile getDBFile() {
+        return dbFile;
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置I/O调度器，之后脏页写回变为异步，由调度器合并后写入
+     * 调度器的生命周期由调用方管理，关闭缓冲池时只会等待写入完成
+     */
+    public synchronized void setIOScheduler(IOScheduler ioScheduler) {
+        if (ioScheduler != null && doubleWriteBuffer != null) {
+            throw new IllegalStateException("已设置双写缓冲，不能同时使用I/O调度器");
+        }
+        this.ioScheduler = ioScheduler;
+    }
+
+    /**
+     * 设置双写缓冲，之后写回都经过它；关闭缓冲池时只会刷盘，不会关闭它
+     * 淘汰的脏页先攒起来，达到双写缓冲一批的页数时立即写出，否则由后台定时任务在
+     * 第一页进入批次 {@value #DOUBLE_WRITE_MAX_DELAY_MILLIS} 毫秒后写出；flush时与其余脏页一起写出
+     */
+    public synchronized void setDoubleWriteBuffer(DoubleWriteBuffer doubleWriteBuffer) {
+        if (doubleWriteBuffer != null && ioScheduler != null) {
+            throw new IllegalStateException("已设置I/O调度器，不能同时使用双写缓冲");
+        }
+        if (!pendingDoubleWrites.isEmpty()) {
+            throw new IllegalStateException("还有没写出的双写批次，先调用flush");
+        }
+        this.doubleWriteBuffer = doubleWriteBuffer;
+        if (doubleWriteBuffer != null && doubleWriteTimer == null) {
+            doubleWriteTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "double-write-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else if (doubleWriteBuffer == null && doubleWriteTimer != null) {
+            doubleWriteTimer.shutdownNow();
+            doubleWriteTimer = null;
+        }
+    }
+
+    /**
+     * 设置第二层压缩缓存，页大小必须与文件一致；传null关闭
+     */
+    public synchronized void setSecondTierCache(CompressedPageCache secondTier) {
+        this.secondTier = secondTier;
+    }
+
+    public synchronized CompressedPageCache getSecondTierCache() {
+        return secondTier;
+    }
+
+    /**
+     * 设置W-TinyLFU准入策略，只能在缓冲池为空时设置；传null恢复纯LRU
+     */
+    public synchronized void setAdmissionPolicy(TinyLfuAdmission admission) {
+        if (size > 0) {
+            throw new IllegalStateException("缓冲池非空，不能更换准入策略");
+        }
+        this.admission = admission;
+    }
+
+    public synchronized TinyLfuAdmission getAdmissionPolicy() {
+        return admission;
+    }
+
+    /**
+     * 设置访问轨迹记录，之后的读取、标脏、丢弃都会记录下来；传null停止记录
+     * 记录器的生命周期由调用方管理
+     */
+    public synchronized void setTraceRecorder(AccessTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    public synchronized IOScheduler getIOScheduler() {
+        return ioScheduler;
     }
     
     /**
@@ -43,179 +302,714 @@ public class LRUBufferPool {
      * 2. 如果不在缓存中，从磁盘读取，加入缓存
      * 3. 如果缓存已满，淘汰最久未用的页
      */
-    public Page getPage(int pageId) throws IOException {
-        System.out.printf("请求页 %d: ", pageId);
-        
+    public synchronized Page getPage(int pageId) throws IOException {
+        if (traceRecorder != null) {
+            traceRecorder.record(pageId, AccessTraceRecorder.OP_READ);
+        }
         // 1. 检查缓存中是否存在
-        if (cacheMap.containsKey(pageId)) {
-            Node node = cacheMap.get(pageId);
-            moveToHead(node);
-            System.out.println("缓存命中");
-            return node.page;
+        if (admission != null) {
+            admission.record(pageId);
+        }
+        Node cached = cacheMap.get(pageId);
+        if (cached != null) {
+            cached.segment.moveToHead(cached);
+            metrics.recordCacheHit();
+            return cached.page;
         }
         
-        // 2. 缓存未命中，从磁盘读取
-        System.out.println("缓存未命中，从磁盘读取");
-        Page page = readFromDisk(pageId);
+        // 2. 缓存未命中：页在某个缓冲环中时接管过来，否则从磁盘读取
+        Page page = takeFromRing(pageId);
+        if (page != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+            warmingPages.remove(pageId);
+            page = readFromDisk(pageId);
+        }
         
         // 3. 创建新节点
         Node newNode = new Node(pageId, page);
+
+        if (admission != null) {
+            // 新页一律进窗口段，由窗口段淘汰出来的页参与准入
+            window.addToHead(newNode);
+            cacheMap.put(pageId, newNode);
+            size++;
+            if (window.size > admission.getWindowSize()) {
+                admitFromWindow();
+            }
+            while (size > maxCacheSize && main.tail != null) {
+                evict(main.tail);
+            }
+            return page;
+        }
         
         // 4. 如果缓存已满，淘汰最久未用的页
-        if (size >= MAX_CACHE_SIZE) {
-            evictOldest();
+        if (size >= maxCacheSize) {
+            evict(main.tail);
         }
         
         // 5. 添加新节点到缓存
-        addToHead(newNode);
+        main.addToHead(newNode);
         cacheMap.put(pageId, newNode);
         size++;
         
-        printCacheState();  // 打印当前缓存状态
         return page;
     }
+
+    // ===== 缓冲环 =====
+
+    /**
+     * 创建缓冲环，供大范围扫描或批量写入使用；环的页框不计入缓冲池容量
+     */
+    public synchronized BufferRing newRing(int ringSize) {
+        if (ringSize <= 0) {
+            throw new IllegalArgumentException("缓冲环大小必须大于0: " + ringSize);
+        }
+        BufferRing ring = new BufferRing(this, ringSize);
+        rings.add(ring);
+        return ring;
+    }
+
+    /**
+     * 通过缓冲环获取页；ring为null时等同于 {@link #getPage(int)}
+     * 页已在缓冲池中时直接返回（不调整LRU顺序），否则读入环中下一个页框
+     */
+    public synchronized Page getPage(int pageId, BufferRing ring) throws IOException {
+        if (ring == null) {
+            return getPage(pageId);
+        }
+        if (ring.isClosed()) {
+            throw new IllegalStateException("缓冲环已关闭");
+        }
+        if (traceRecorder != null) {
+            traceRecorder.record(pageId, AccessTraceRecorder.OP_READ);
+        }
+        boolean sequential = ring.recordAccess(pageId);
+
+        Node cached = cacheMap.get(pageId);
+        if (cached != null) {
+            metrics.recordCacheHit();
+            return cached.page;
+        }
+        BufferRing owner = ringPages.get(pageId);
+        if (owner != null) {
+            metrics.recordCacheHit();
+            return owner.find(pageId);
+        }
+
+        metrics.recordCacheMiss();
+        warmingPages.remove(pageId);
+        CompletableFuture<byte[]> pending = ring.takeReadAhead(pageId);
+        if (hasUnwrittenContent(pageId)) {
+            // 最新内容不在磁盘上，预读到的是旧数据，由readFromDisk取回
+            pending = null;
+        } else if (pending != null) {
+            metrics.recordPrefetchHit();
+        } else if (sequential) {
+            // 顺序扫描：这一页连同后面的页一起读
+            issueReadAhead(ring, pageId);
+            pending = ring.takeReadAhead(pageId);
+        }
+        Page page = pending != null ? new Page(IOScheduler.await(pending)) : readFromDisk(pageId);
+        installInRing(ring, pageId, page);
+        return page;
+    }
+
+    /**
+     * 在环中放一个刚分配的页：内容全为0并标脏，不从磁盘读取；页原来的内容（缓存中或还没写出的）都丢弃
+     */
+    synchronized Page newPage(int pageId, BufferRing ring) throws IOException {
+        if (ring.isClosed()) {
+            throw new IllegalStateException("缓冲环已关闭");
+        }
+        discard(pageId);
+        if (traceRecorder != null) {
+            traceRecorder.record(pageId, AccessTraceRecorder.OP_DIRTY);
+        }
+        Page page = new Page(dbFile.getPageSize());
+        page.setDirty(true);
+        installInRing(ring, pageId, page);
+        return page;
+    }
+
+    // 环满时覆盖最早的页框
+    private void installInRing(BufferRing ring, int pageId, Page page) throws IOException {
+        int slot = ring.nextSlot();
+        int oldPageId = ring.pageIdAt(slot);
+        if (oldPageId >= 0) {
+            if (ring.find(oldPageId).isDirty() && ioScheduler == null && doubleWriteBuffer == null) {
+                // 环中的脏页连同要覆盖的这页一起顺序写出
+                writeRingPages(ring);
+            }
+            Page old = ring.remove(oldPageId);
+            ringPages.remove(oldPageId);
+            if (old.isDirty()) {
+                writeToDisk(oldPageId, old);
+                metrics.recordDirtyWriteBack();
+            }
+            metrics.recordEviction();
+        }
+        ring.install(slot, pageId, page);
+        ringPages.put(pageId, ring);
+    }
+
+    /**
+     * 把环中所有脏页按页号排序，连续的页合并成一次写入，不fsync；环关闭时统一fsync一次
+     * 只用于没有I/O调度器和双写缓冲的情况，它们有自己的合并方式
+     */
+    private void writeRingPages(BufferRing ring) throws IOException {
+        List<Integer> dirty = new ArrayList<>();
+        for (int slot = 0; slot < ring.size(); slot++) {
+            int pageId = ring.pageIdAt(slot);
+            if (pageId >= 0 && ring.find(pageId).isDirty()) {
+                dirty.add(pageId);
+            }
+        }
+        dirty.sort(null);
+        int pageSize = dbFile.getPageSize();
+        int start = 0;
+        while (start < dirty.size()) {
+            int end = start + 1;
+            while (end < dirty.size() && dirty.get(end) == dirty.get(end - 1) + 1) {
+                end++;
+            }
+            ByteBuffer run = ByteBuffer.allocate((end - start) * pageSize);
+            for (int i = start; i < end; i++) {
+                int pageId = dirty.get(i);
+                if (secondTier != null) {
+                    secondTier.remove(pageId);
+                }
+                for (BufferRing other : rings) {
+                    other.dropReadAhead(pageId);
+                }
+                run.put(latchedCopy(ring.find(pageId), true));
+            }
+            run.flip();
+            try {
+                dbFile.writePages(dirty.get(start), run, false);
+            } catch (IOException e) {
+                for (int i = start; i < end; i++) {
+                    ring.find(dirty.get(i)).setDirty(true);
+                }
+                throw e;
+            }
+            for (int i = start; i < end; i++) {
+                metrics.recordDirtyWriteBack();
+            }
+            ring.markUnsynced();
+            start = end;
+        }
+    }
+
+    /**
+     * 从first开始预读最多环大小个页，已在内存中或最新内容还没写到磁盘的页跳过
+     * 有I/O调度器时第一页走前台读、其余走后台读；否则用一次readPages读完
+     */
+    private void issueReadAhead(BufferRing ring, int first) throws IOException {
+        int count = Math.min(ring.size(), dbFile.getLastAllocatedPage() - first + 1);
+        if (count <= 0) {
+            return;
+        }
+        byte[][] pages = ioScheduler == null ? dbFile.readPages(first, count) : null;
+        for (int i = 0; i < count; i++) {
+            int pageId = first + i;
+            if (cacheMap.containsKey(pageId) || ringPages.containsKey(pageId) || ring.hasReadAhead(pageId)
+                    || hasUnwrittenContent(pageId)) {
+                continue;
+            }
+            CompletableFuture<byte[]> future;
+            if (pages != null) {
+                future = CompletableFuture.completedFuture(pages[i]);
+            } else {
+                future = i == 0 ? ioScheduler.read(pageId) : ioScheduler.readAhead(pageId);
+            }
+            ring.addReadAhead(pageId, future);
+            if (i > 0) {
+                metrics.recordPrefetchIssued();
+            }
+        }
+    }
+
+    /**
+     * 写回环中的脏页并释放环，由 {@link BufferRing#close()} 调用
+     */
+    synchronized void releaseRing(BufferRing ring) throws IOException {
+        if (ring.isClosed()) {
+            return;
+        }
+        if (ioScheduler == null && doubleWriteBuffer == null) {
+            writeRingPages(ring);
+        }
+        for (int slot = 0; slot < ring.size(); slot++) {
+            int pageId = ring.pageIdAt(slot);
+            if (pageId < 0) {
+                continue;
+            }
+            Page page = ring.remove(pageId);
+            ringPages.remove(pageId);
+            if (page.isDirty()) {
+                writeToDisk(pageId, page);
+                metrics.recordDirtyWriteBack();
+            }
+        }
+        if (ring.isUnsynced()) {
+            // 环中陆续写出的页一起落盘
+            dbFile.sync();
+            ring.markSynced();
+        }
+        ring.markClosed();
+        rings.remove(ring);
+    }
+
+    // 页在某个缓冲环中时把它移出来，否则返回null
+    private Page takeFromRing(int pageId) {
+        BufferRing owner = ringPages.remove(pageId);
+        return owner == null ? null : owner.remove(pageId);
+    }
+
+    /**
+     * 窗口段最久未用的页移入主段：主段有空位直接进入，
+     * 否则与主段最久未用的页比较频率，输的一方被淘汰
+     */
+    private void admitFromWindow() throws IOException {
+        Node candidate = window.tail;
+        window.remove(candidate);
+        int mainCapacity = maxCacheSize - admission.getWindowSize();
+        if (main.size < mainCapacity) {
+            main.addToHead(candidate);
+            return;
+        }
+        Node victim = main.tail;
+        if (victim != null && admission.admit(candidate.pageId, victim.pageId)) {
+            evict(victim);
+            main.addToHead(candidate);
+        } else {
+            // 已移出窗口段，直接淘汰
+            evictDetached(candidate);
+        }
+    }
     
     /**
      * 标记页为脏页
      */
-    public void markDirty(int pageId) {
+    public synchronized void markDirty(int pageId) {
+        if (traceRecorder != null) {
+            traceRecorder.record(pageId, AccessTraceRecorder.OP_DIRTY);
+        }
         if (cacheMap.containsKey(pageId)) {
             Node node = cacheMap.get(pageId);
             node.page.setDirty(true);
-            System.out.println("标记页 " + pageId + " 为脏页");
+        } else if (ringPages.containsKey(pageId)) {
+            ringPages.get(pageId).find(pageId).setDirty(true);
         }
     }
     
     /**
-     * 淘汰最久未使用的页
+     * 把页直接移出缓存，即使是脏页也不写回；页不在缓存中时什么也不做
+     * 用于页被搬走或释放之后：旧位置的内容已经没用了，写回反而可能覆盖复用后的新内容
      */
-    private void evictOldest() throws IOException {
-        if (tail == null) return;
-        
-        Node toRemove = tail;
-        System.out.println("淘汰页 " + toRemove.pageId);
-        
+    public synchronized void discard(int pageId) {
+        if (traceRecorder != null) {
+            traceRecorder.record(pageId, AccessTraceRecorder.OP_DISCARD);
+        }
+        warmingPages.remove(pageId);
+        pendingWriteBacks.remove(pageId);
+        failedWriteBacks.remove(pageId);
+        pendingDoubleWrites.remove(pageId);
+        if (secondTier != null) {
+            secondTier.remove(pageId);
+        }
+        takeFromRing(pageId);
+        for (BufferRing ring : rings) {
+            ring.dropReadAhead(pageId);
+        }
+        Node node = cacheMap.remove(pageId);
+        if (node == null) {
+            return;
+        }
+        node.segment.remove(node);
+        size--;
+    }
+
+    // ===== 预热 =====
+
+    /**
+     * 登记即将在后台读取的页，返回没有在缓存中的那些
+     */
+    synchronized List<Integer> beginWarming(List<Integer> pageIds) {
+        List<Integer> toLoad = new ArrayList<>();
+        for (int pageId : pageIds) {
+            if (!cacheMap.containsKey(pageId) && !ringPages.containsKey(pageId) && warmingPages.add(pageId)) {
+                toLoad.add(pageId);
+            }
+        }
+        return toLoad;
+    }
+
+    /**
+     * 装入后台读到的页，放在LRU尾部，不挤掉任何已缓存的页
+     * 页已被前台加载过、或缓存已满时放弃，返回是否装入；
+     * 页的最新内容还没写到磁盘（等双写批次或异步写回失败）时用最新内容代替读到的数据
+     */
+    synchronized boolean installWarmPage(int pageId, byte[] data) {
+        if (!warmingPages.remove(pageId) || cacheMap.containsKey(pageId) || ringPages.containsKey(pageId)
+                || size >= maxCacheSize) {
+            return false;
+        }
+        if (secondTier != null) {
+            secondTier.remove(pageId);
+        }
+        byte[] unwritten = takeUnwrittenContent(pageId);
+        Page page = new Page(unwritten != null ? unwritten : data);
+        page.setDirty(unwritten != null);
+        Node node = new Node(pageId, page);
+        main.addToTail(node);
+        cacheMap.put(pageId, node);
+        size++;
+        return true;
+    }
+
+    /**
+     * 放弃没有装入的预热页
+     */
+    synchronized void endWarming(List<Integer> pageIds) {
+        warmingPages.removeAll(pageIds);
+    }
+
+    /**
+     * 当前缓存中的页号，从最近使用到最久未用
+     */
+    public synchronized List<Integer> getResidentPageIds() {
+        List<Integer> pageIds = new ArrayList<>(size);
+        for (Node current = window.head; current != null; current = current.next) {
+            pageIds.add(current.pageId);
+        }
+        for (Node current = main.head; current != null; current = current.next) {
+            pageIds.add(current.pageId);
+        }
+        return pageIds;
+    }
+
+    /**
+     * 淘汰页：从所在的段中移除后写回并丢弃
+     */
+    private void evict(Node node) throws IOException {
+        if (node == null) return;
+        node.segment.remove(node);
+        evictDetached(node);
+    }
+
+    /**
+     * 淘汰已经不在任何段中的页
+     */
+    private void evictDetached(Node toRemove) throws IOException {
         // 如果是脏页，写回磁盘
         if (toRemove.page.isDirty()) {
-            System.out.println("写回脏页 " + toRemove.pageId);
             writeToDisk(toRemove.pageId, toRemove.page);
+            metrics.recordDirtyWriteBack();
+        }
+
+        // 写回后内容与磁盘一致，压缩放入第二层
+        if (secondTier != null) {
+            secondTier.put(toRemove.pageId, latchedCopy(toRemove.page, false));
         }
         
         // 从缓存中移除
-        removeNode(toRemove);
         cacheMap.remove(toRemove.pageId);
         size--;
+        metrics.recordEviction();
     }
     
     /**
-     * 将节点移到链表头部（最近使用）
+     * 从磁盘读取页，第二层缓存命中时直接解压
      */
-    private void moveToHead(Node node) {
-        // 如果已经是头部，不需要移动
-        if (node == head) return;
-        
-        // 从当前位置移除
-        removeNode(node);
-        
-        // 添加到头部
-        addToHead(node);
+    private Page readFromDisk(int pageId) throws IOException {
+        byte[] failed = takeUnwrittenContent(pageId);
+        if (failed != null) {
+            // 上次写回失败或还在等双写批次，磁盘上是旧内容，重新作为脏页放回缓存
+            if (secondTier != null) {
+                secondTier.remove(pageId);
+            }
+            Page page = new Page(failed);
+            page.setDirty(true);
+            return page;
+        }
+        if (secondTier != null) {
+            byte[] data = secondTier.take(pageId);
+            if (data != null) {
+                return new Page(data);
+            }
+        }
+        byte[] data = ioScheduler != null
+                ? IOScheduler.await(ioScheduler.read(pageId))
+                : dbFile.readPage(pageId);
+        return new Page(data);
     }
     
     /**
-     * 添加节点到链表头部
+     * 页被淘汰后最新内容还没写到磁盘：异步写回失败，或者还在等双写批次
+     * 这时磁盘上（以及直接从文件读到的预读、预热数据）是旧内容
      */
-    private void addToHead(Node node) {
-        node.prev = null;
-        node.next = head;
-        
-        if (head != null) {
-            head.prev = node;
+    private boolean hasUnwrittenContent(int pageId) {
+        PendingWriteBack pending = pendingWriteBacks.get(pageId);
+        if (pending != null && pending.future.isDone()) {
+            pendingWriteBacks.remove(pageId);
+            reapWriteBack(pageId, pending);
         }
-        head = node;
-        
-        if (tail == null) {
-            tail = node;
+        return failedWriteBacks.containsKey(pageId) || pendingDoubleWrites.containsKey(pageId);
+    }
+
+    /**
+     * 取出还没写到磁盘的最新内容，交给调用方作为脏页放回缓存；没有时返回null
+     */
+    private byte[] takeUnwrittenContent(int pageId) {
+        if (!hasUnwrittenContent(pageId)) {
+            return null;
         }
+        byte[] data = failedWriteBacks.remove(pageId);
+        return data != null ? data : pendingDoubleWrites.remove(pageId);
     }
-    
+
     /**
-     * 从链表中移除节点
+     * 将页写回磁盘
      */
-    private void removeNode(Node node) {
-        // 更新前驱节点
-        if (node.prev != null) {
-            node.prev.next = node.next;
-        } else {
-            // node是头部
-            head = node.next;
+    private void writeToDisk(int pageId, Page page) throws IOException {
+        // 其他地方留着的旧内容都作废
+        if (secondTier != null) {
+            secondTier.remove(pageId);
         }
-        
-        // 更新后继节点
-        if (node.next != null) {
-            node.next.prev = node.prev;
-        } else {
-            // node是尾部
-            tail = node.prev;
+        for (BufferRing ring : rings) {
+            ring.dropReadAhead(pageId);
+        }
+        byte[] data = latchedCopy(page, true);
+        if (ioScheduler != null) {
+            // 异步写入；失败时由reapWriteBack把页重新标脏或保留内容，不会因为清了脏标记而丢失
+            failedWriteBacks.remove(pageId);
+            pendingWriteBacks.put(pageId, new PendingWriteBack(data, ioScheduler.write(pageId, data)));
+            if (pendingWriteBacks.size() > maxCacheSize) {
+                reapWriteBacks(false);
+            }
+            return;
+        }
+        if (doubleWriteBuffer != null) {
+            // 攒成一批再写，每批只需双写文件和数据文件各一次fsync
+            if (pendingDoubleWrites.isEmpty()) {
+                startDoubleWriteBatch();
+            }
+            pendingDoubleWrites.put(pageId, data);
+            if (pendingDoubleWrites.size() >= doubleWriteBuffer.getMaxBatchPages()) {
+                writeDoubleWriteBatch();
+            }
+            return;
+        }
+        try {
+            dbFile.writePage(pageId, data);
+        } catch (IOException e) {
+            page.setDirty(true);
+            throw e;
         }
     }
-    
+
+    // 批次的第一页：记下时间并安排超时后写出
+    private void startDoubleWriteBatch() {
+        pendingDoubleWriteSince = System.nanoTime();
+        if (doubleWriteTimer == null) {
+            return;  // 已关闭
+        }
+        doubleWriteTimer.schedule(this::writeOverdueDoubleWrites, DOUBLE_WRITE_MAX_DELAY_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // 写出攒着的批次；失败时内容还在批次里，读取时会用它，过一会儿重试，flush会抛出错误
+    private void writeDoubleWriteBatch() {
+        try {
+            doubleWriteBuffer.writePages(pendingDoubleWrites);
+            pendingDoubleWrites.clear();
+        } catch (IOException e) {
+            startDoubleWriteBatch();
+        }
+    }
+
+    // 定时任务：批次等待超时就写出；之前的批次已经写出、现在是新批次时由新批次自己的任务负责
+    private synchronized void writeOverdueDoubleWrites() {
+        if (doubleWriteBuffer == null || pendingDoubleWrites.isEmpty()
+                || System.nanoTime() - pendingDoubleWriteSince
+                < TimeUnit.MILLISECONDS.toNanos(DOUBLE_WRITE_MAX_DELAY_MILLIS)) {
+            return;
+        }
+        writeDoubleWriteBatch();
+    }
+
     /**
-     * 打印当前缓存状态
+     * 在页的共享闩下复制内容，需要时同时清除脏标记
+     * 清除在闩内进行：持排他闩的修改要么已经包含在副本中，要么在之后重新标脏
      */
-    private void printCacheState() {
-        System.out.print("当前缓存: [");
-        Node current = head;
-        while (current != null) {
-            System.out.print(current.pageId);
-            if (current.next != null) System.out.print(" ← ");
-            current = current.next;
+    private static byte[] latchedCopy(Page page, boolean clearDirty) {
+        long stamp = page.latchShared();
+        try {
+            byte[] data = page.getData().clone();
+            if (clearDirty) {
+                page.clearDirty();
+            }
+            return data;
+        } finally {
+            page.unlatchShared(stamp);
         }
-        System.out.println("] (最近使用 ← 最久未用)");
-        System.out.println("缓存大小: " + size + "/" + MAX_CACHE_SIZE);
     }
     
     /**
-     * 从磁盘读取页
+     * 收回已完成的异步写回
+     * @param wait 是否等待还没完成的写回
+     * @return 第一个写回错误，没有时返回null
      */
-    private Page readFromDisk(int pageId) throws IOException {
-        byte[] data = dbFile.readPage(pageId);
-        return new Page(data);
+    private IOException reapWriteBacks(boolean wait) {
+        IOException first = null;
+        Iterator<Map.Entry<Integer, PendingWriteBack>> it = pendingWriteBacks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, PendingWriteBack> entry = it.next();
+            if (!wait && !entry.getValue().future.isDone()) {
+                continue;
+            }
+            it.remove();
+            IOException failure = reapWriteBack(entry.getKey(), entry.getValue());
+            if (first == null) {
+                first = failure;
+            }
+        }
+        return first;
+    }
+
+    // 写回失败时：页还在内存中就重新标脏（内存中的内容不会比写失败的旧），否则保留写失败的内容
+    private IOException reapWriteBack(int pageId, PendingWriteBack pending) {
+        try {
+            IOScheduler.await(pending.future);
+            return null;
+        } catch (IOException e) {
+            Page resident = findResident(pageId);
+            if (resident != null) {
+                resident.setDirty(true);
+            } else {
+                failedWriteBacks.put(pageId, pending.data);
+            }
+            return e;
+        }
+    }
+
+    // 缓存或缓冲环中的页，不在内存中时返回null
+    private Page findResident(int pageId) {
+        Node node = cacheMap.get(pageId);
+        if (node != null) {
+            return node.page;
+        }
+        BufferRing owner = ringPages.get(pageId);
+        return owner == null ? null : owner.find(pageId);
     }
     
     /**
-     * 将页写回磁盘
+     * 关闭缓冲池，确保所有脏页写回；写回失败时仍会关闭文件并抛出异常
      */
-    private void writeToDisk(int pageId, Page page) throws IOException {
-        dbFile.writePage(pageId, page.getData());
-        page.clearDirty();  // 清除脏页标记
+    public synchronized void close() throws IOException {
+        warmingPages.clear();
+        try {
+            for (BufferRing ring : new ArrayList<>(rings)) {
+                releaseRing(ring);
+            }
+            flush();
+        } finally {
+            if (doubleWriteTimer != null) {
+                doubleWriteTimer.shutdownNow();
+                doubleWriteTimer = null;
+            }
+            dbFile.close();
+        }
     }
-    
+
     /**
-     * 关闭缓冲池，确保所有脏页写回
+     * 写回所有脏页（包括缓冲环中的）并刷盘，页仍留在缓存中
+     * 使用双写缓冲时所有脏页连同攒着的淘汰页作为一批写入
      */
-    public void close() throws IOException {
-        System.out.println("\n=== 关闭缓冲池，写回所有脏页 ===");
+    public synchronized void flush() throws IOException {
+        Map<Integer, Page> dirtyPages = new HashMap<>();
         for (Node node : cacheMap.values()) {
             if (node.page.isDirty()) {
-                System.out.println("写回脏页 " + node.pageId);
-                writeToDisk(node.pageId, node.page);
+                dirtyPages.put(node.pageId, node.page);
+            }
+        }
+        for (Map.Entry<Integer, BufferRing> entry : ringPages.entrySet()) {
+            Page page = entry.getValue().find(entry.getKey());
+            if (page.isDirty()) {
+                dirtyPages.put(entry.getKey(), page);
+            }
+        }
+
+        if (doubleWriteBuffer != null) {
+            // 攒着的淘汰页不在缓存中，与缓存中的脏页不会重复
+            Map<Integer, byte[]> batch = new HashMap<>(pendingDoubleWrites);
+            for (Map.Entry<Integer, Page> entry : dirtyPages.entrySet()) {
+                batch.put(entry.getKey(), latchedCopy(entry.getValue(), true));
+            }
+            try {
+                doubleWriteBuffer.writePages(batch);
+            } catch (IOException e) {
+                for (Page page : dirtyPages.values()) {
+                    page.setDirty(true);
+                }
+                throw e;
+            }
+            pendingDoubleWrites.clear();
+            for (int i = 0; i < dirtyPages.size(); i++) {
+                metrics.recordDirtyWriteBack();
+            }
+            doubleWriteBuffer.sync();
+            return;
+        }
+
+        for (Map.Entry<Integer, Page> entry : dirtyPages.entrySet()) {
+            writeToDisk(entry.getKey(), entry.getValue());
+            metrics.recordDirtyWriteBack();
+        }
+        if (ioScheduler != null) {
+            // 之前写回失败、已经不在缓存中的页重写一次
+            for (Map.Entry<Integer, byte[]> entry : new ArrayList<>(failedWriteBacks.entrySet())) {
+                writeToDisk(entry.getKey(), new Page(entry.getValue()));
+            }
+            IOException failure = null;
+            try {
+                ioScheduler.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+            IOException writeBackFailure = reapWriteBacks(true);
+            if (failure == null) {
+                failure = writeBackFailure;
+            }
+            if (failure != null) {
+                throw failure;
             }
         }
-        dbFile.close();
     }
     
     /**
-     * 获取当前缓存中的页ID列表（按LRU顺序）
+     * 获取当前缓存中的页ID列表（按LRU顺序，有准入策略时窗口段在前，用|分隔）
      */
-    public String getCacheState() {
+    public synchronized String getCacheState() {
         StringBuilder sb = new StringBuilder("[");
-        Node current = head;
+        if (admission != null) {
+            appendSegment(sb, window);
+            sb.append(" | ");
+        }
+        appendSegment(sb, main);
+        sb.append("]");
+        return sb.toString();
+    }
+
+    private static void appendSegment(StringBuilder sb, Segment segment) {
+        Node current = segment.head;
         while (current != null) {
             sb.append(current.pageId);
             if (current.next != null) sb.append(" ← ");
             current = current.next;
         }
-        sb.append("]");
-        return sb.toString();
     }
 }
\ No newline at end of file
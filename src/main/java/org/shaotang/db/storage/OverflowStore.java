@@ -0,0 +1,377 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 溢出页链：存放超过一页的大值（文档、BLOB），按页流式读写，整个值不会同时放在内存里
+ *
+ * 每个溢出页：
+ *   偏移0：下一页页号（int），-1表示链尾
+ *   偏移4：本页数据长度（int）
+ *   偏移8：值的总长度（long），只有首页有效
+ *   偏移16起：数据
+ * 值用首页页号引用。
+ *
+ * 写入时按批分配连续页（第一批4页，之后每批翻倍，最多256页），链上的页大多物理相邻；
+ * 读写都通过缓冲环，大值进出不会冲掉缓冲池中的热点页：读取时顺序预读；
+ * 写入时新页直接放进环、不读磁盘，写回按环合并成顺序写，关闭时只fsync一次。
+ * 流不是线程安全的；同一个值不能一边写一边读。
+ */
+public class OverflowStore {
+    public static final int DEFAULT_RING_PAGES = 16;
+
+    static final int HEADER_SIZE = 16;
+    private static final int NEXT_OFFSET = 0;
+    private static final int USED_OFFSET = 4;
+    private static final int TOTAL_OFFSET = 8;
+    private static final int END_OF_CHAIN = -1;
+
+    private static final int FIRST_BATCH_PAGES = 4;
+    private static final int MAX_BATCH_PAGES = 256;
+
+    private final LRUBufferPool pool;
+    private final DBFile dbFile;
+    private final int capacity;
+    private final int ringPages;
+
+    public OverflowStore(LRUBufferPool pool) {
+        this(pool, DEFAULT_RING_PAGES);
+    }
+
+    /**
+     * @param ringPages 每个流使用的缓冲环大小，也是顺序预读的最大页数
+     */
+    public OverflowStore(LRUBufferPool pool, int ringPages) {
+        if (ringPages <= 0) {
+            throw new IllegalArgumentException("ringPages必须大于0: " + ringPages);
+        }
+        this.pool = pool;
+        this.dbFile = pool.getDBFile();
+        this.capacity = dbFile.getPageSize() - HEADER_SIZE;
+        this.ringPages = ringPages;
+    }
+
+    /**
+     * 每个溢出页能存放的数据字节数
+     */
+    public int getPageCapacity() {
+        return capacity;
+    }
+
+    // ===== 写入 =====
+
+    /**
+     * 创建一个新值，写完后关闭输出流；首页页号在创建时就已确定
+     */
+    public ChainOutputStream create() throws IOException {
+        return new ChainOutputStream();
+    }
+
+    /**
+     * 把输入流的全部内容存为一个新值，返回首页页号
+     */
+    public int store(InputStream in) throws IOException {
+        try (ChainOutputStream out = create()) {
+            in.transferTo(out);
+            return out.getFirstPageId();
+        }
+    }
+
+    /**
+     * 写入溢出页链的输出流
+     */
+    public final class ChainOutputStream extends OutputStream {
+        private final BufferRing ring;
+        private final int firstPageId;
+        private int pageId;
+        private Page page;
+        private int used = 0;
+        private long total = 0;
+
+        // 当前批中还没用到的页
+        private int batchPages = FIRST_BATCH_PAGES;
+        private int nextFree;
+        private int batchEnd;
+        private boolean closed = false;
+
+        private ChainOutputStream() throws IOException {
+            this.ring = pool.newRing(ringPages);
+            this.nextFree = dbFile.allocateContiguousPages(batchPages);
+            this.batchEnd = nextFree + batchPages;
+            this.firstPageId = nextFree++;
+            this.pageId = firstPageId;
+            this.page = ring.newPage(pageId);
+        }
+
+        public int getFirstPageId() {
+            return firstPageId;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            ensureOpen();
+            while (len > 0) {
+                if (used == capacity) {
+                    nextPage();
+                }
+                int n = Math.min(len, capacity - used);
+                page.setBytes(HEADER_SIZE + used, b, off, n);
+                used += n;
+                total += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // 当前页写满，链到下一页
+        private void nextPage() throws IOException {
+            if (nextFree == batchEnd) {
+                batchPages = Math.min(batchPages * 2, MAX_BATCH_PAGES);
+                nextFree = dbFile.allocateContiguousPages(batchPages);
+                batchEnd = nextFree + batchPages;
+            }
+            int nextPageId = nextFree++;
+            finishPage(nextPageId);
+            pageId = nextPageId;
+            page = ring.newPage(pageId);
+            used = 0;
+        }
+
+        private void finishPage(int nextPageId) {
+            page.setInt(NEXT_OFFSET, nextPageId);
+            page.setInt(USED_OFFSET, used);
+            ring.markDirty(pageId);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("输出流已关闭");
+            }
+        }
+
+        /**
+         * 写入链尾和总长度，写回环中的页并提交位图；最后一批没用完的页归还
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finishPage(END_OF_CHAIN);
+                Page first = ring.getPage(firstPageId);
+                first.setLong(TOTAL_OFFSET, total);
+                ring.markDirty(firstPageId);
+            } finally {
+                ring.close();
+            }
+            if (nextFree < batchEnd) {
+                dbFile.freePages(nextFree, batchEnd - nextFree);
+            } else {
+                dbFile.flushBitmap();
+            }
+        }
+    }
+
+    // ===== 读取 =====
+
+    /**
+     * 以输入流读取值，支持skip（跳过的页只读页头不复制数据）
+     */
+    public InputStream openInputStream(int firstPageId) throws IOException {
+        ChainReader reader = new ChainReader(firstPageId);
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Objects.checkFromIndexSize(off, len, b.length);
+                return reader.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                return reader.skip(n);
+            }
+
+            @Override
+            public int available() {
+                return reader.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * 以通道读取值，可以直接读进堆外缓冲区
+     */
+    public ReadableByteChannel openChannel(int firstPageId) throws IOException {
+        ChainReader reader = new ChainReader(firstPageId);
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return reader.read(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return !reader.closed;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * 值的总长度，只读首页
+     */
+    public long length(int firstPageId) throws IOException {
+        try (BufferRing ring = pool.newRing(1)) {
+            return ring.getPage(firstPageId).getLong(TOTAL_OFFSET);
+        }
+    }
+
+    // 沿链逐页读取，每次只持有当前页
+    private final class ChainReader {
+        private final BufferRing ring;
+        private Page page;
+        private int pageId;
+        private int next;
+        private int used;
+        private int position = 0;
+        private long remaining;
+        private boolean closed = false;
+
+        ChainReader(int firstPageId) throws IOException {
+            this.ring = pool.newRing(ringPages);
+            try {
+                load(firstPageId);
+            } catch (IOException | RuntimeException e) {
+                ring.close();
+                throw e;
+            }
+            this.remaining = page.getLong(TOTAL_OFFSET);
+        }
+
+        private void load(int id) throws IOException {
+            if (id < 0) {
+                throw new IOException("溢出页链在页 " + pageId + " 之后提前结束");
+            }
+            pageId = id;
+            page = ring.getPage(id);
+            next = page.getInt(NEXT_OFFSET);
+            used = page.getInt(USED_OFFSET);
+            if (used < 0 || used > capacity) {
+                throw new IOException("溢出页 " + id + " 已损坏");
+            }
+            position = 0;
+        }
+
+        int read(ByteBuffer dst) throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (remaining == 0) {
+                return dst.hasRemaining() ? -1 : 0;
+            }
+            int read = 0;
+            while (dst.hasRemaining() && remaining > 0) {
+                if (position == used) {
+                    load(next);
+                    continue;
+                }
+                int n = (int) Math.min(Math.min(dst.remaining(), used - position), remaining);
+                dst.put(page.getData(), HEADER_SIZE + position, n);
+                position += n;
+                remaining -= n;
+                read += n;
+            }
+            return read;
+        }
+
+        long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && remaining > 0) {
+                if (position == used) {
+                    load(next);
+                    continue;
+                }
+                int step = (int) Math.min(Math.min(n - skipped, used - position), remaining);
+                position += step;
+                remaining -= step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        int available() {
+            return (int) Math.min(used - position, remaining);
+        }
+
+        void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                ring.close();
+            }
+        }
+    }
+
+    // ===== 删除 =====
+
+    /**
+     * 释放值占用的所有页，相邻的页合并成一次释放
+     */
+    public void delete(int firstPageId) throws IOException {
+        List<Integer> pageIds = new ArrayList<>();
+        try (BufferRing ring = pool.newRing(ringPages)) {
+            int limit = dbFile.getTotalPages();
+            for (int id = firstPageId; id != END_OF_CHAIN; id = ring.getPage(id).getInt(NEXT_OFFSET)) {
+                if (pageIds.size() > limit) {
+                    throw new IOException("溢出页链有环: " + firstPageId);
+                }
+                pageIds.add(id);
+            }
+        }
+
+        Collections.sort(pageIds);
+        int start = 0;
+        while (start < pageIds.size()) {
+            int end = start + 1;
+            while (end < pageIds.size() && pageIds.get(end) == pageIds.get(end - 1) + 1) {
+                end++;
+            }
+            for (int i = start; i < end; i++) {
+                pool.discard(pageIds.get(i));
+            }
+            dbFile.freePages(pageIds.get(start), end - start);
+            start = end;
+        }
+    }
+}
@@ -2,37 +2,89 @@ package org.shaotang.db.storage;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
+/**
+ * 页：磁盘和内存交换的最小单位
+ *
+ * 并发访问时由调用方通过页闩保护：
+ *   写：latchExclusive / unlatchExclusive
+ *   读：latchShared / unlatchShared，或者乐观读 readOptimistic
+ * 页本身的get/set方法不加锁。
+ *
+ * 页大小在创建数据库时确定（4KB~64KB，2的幂），同一个文件中所有页大小相同。
+ */
 public class Page {
-    public static final int PAGE_SIZE = 4096;  // 4KB
+    public static final int PAGE_SIZE = 4096;  // 默认页大小 4KB
+
+    // 支持的页大小范围
+    public static final int MIN_PAGE_SIZE = 4 * 1024;
+    public static final int MAX_PAGE_SIZE = 64 * 1024;
+
+    // 乐观读失败几次后退化为共享闩
+    private static final int OPTIMISTIC_RETRIES = 3;
 
     private final ByteBuffer buffer;
-    private boolean dirty = false;
+    private final int pageSize;
+    private volatile boolean dirty = false;
+
+    // 页闩，同时充当版本号：每次排他闩释放后戳都会变化
+    private final StampedLock latch = new StampedLock();
 
     public Page() {
-        this.buffer = ByteBuffer.allocate(PAGE_SIZE);
+        this(PAGE_SIZE);
+    }
+
+    public Page(int pageSize) {
+        checkPageSize(pageSize);
+        this.pageSize = pageSize;
+        this.buffer = ByteBuffer.allocate(pageSize);
         this.buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    /**
+     * 包装已有的页数据，页大小取数组长度
+     */
     public Page(byte[] data) {
-        if (data.length != PAGE_SIZE) {
-            throw new IllegalArgumentException(
-                    String.format("页大小必须为%d字节，实际为%d字节", PAGE_SIZE, data.length));
-        }
+        checkPageSize(data.length);
+        this.pageSize = data.length;
         this.buffer = ByteBuffer.wrap(data);
         this.buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    /**
+     * 是否是支持的页大小：MIN_PAGE_SIZE到MAX_PAGE_SIZE之间的2的幂
+     */
+    public static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE
+                && Integer.bitCount(pageSize) == 1;
+    }
+
+    public static void checkPageSize(int pageSize) {
+        if (!isValidPageSize(pageSize)) {
+            throw new IllegalArgumentException(
+                    String.format("页大小必须是%d到%d之间的2的幂，实际为%d字节",
+                            MIN_PAGE_SIZE, MAX_PAGE_SIZE, pageSize));
+        }
+    }
+
     // ===== 边界检查方法 =====
-    private void checkBounds(int offset, int size) {
+    private void checkBounds(int offset, long size) {
         if (offset < 0) {
             throw new IllegalArgumentException(
                     String.format("偏移量不能为负数: offset=%d", offset));
         }
-        if (offset + size > PAGE_SIZE) {
+        if (size < 0) {
+            throw new IllegalArgumentException(
+                    String.format("长度不能为负数: size=%d", size));
+        }
+        if (offset + size > pageSize) {
             throw new IllegalArgumentException(
                     String.format("偏移量超出页面范围: offset=%d, size=%d, pageSize=%d",
-                            offset, size, PAGE_SIZE));
+                            offset, size, pageSize));
         }
     }
 
@@ -84,21 +136,86 @@ public class Page {
     // ===== 字节数组操作 =====
     public void setBytes(int offset, byte[] data) {
         checkBounds(offset, data.length);
-        // 手动复制，因为ByteBuffer.put(offset, byte[])不存在
-        for (int i = 0; i < data.length; i++) {
-            buffer.put(offset + i, data[i]);
-        }
+        buffer.put(offset, data);
     }
 
     public byte[] getBytes(int offset, int length) {
         checkBounds(offset, length);
         byte[] result = new byte[length];
-        for (int i = 0; i < length; i++) {
-            result[i] = buffer.get(offset + i);
-        }
+        buffer.get(offset, result);
         return result;
     }
 
+    // ===== 批量操作 =====
+    // 每次调用只做一次边界检查，然后整段复制
+
+    public void getBytes(int offset, byte[] dst, int dstOffset, int length) {
+        checkBounds(offset, length);
+        buffer.get(offset, dst, dstOffset, length);
+    }
+
+    public void setBytes(int offset, byte[] src, int srcOffset, int length) {
+        checkBounds(offset, length);
+        buffer.put(offset, src, srcOffset, length);
+        dirty = true;
+    }
+
+    /**
+     * 从offset开始读取count个int到dst[dstOffset...]
+     */
+    public void getInts(int offset, int[] dst, int dstOffset, int count) {
+        Objects.checkFromIndexSize(dstOffset, count, dst.length);
+        checkBounds(offset, (long) count * Integer.BYTES);
+        view(offset, count * Integer.BYTES).asIntBuffer().get(dst, dstOffset, count);
+    }
+
+    /**
+     * 把src[srcOffset...]的count个int写到offset开始的位置
+     */
+    public void setInts(int offset, int[] src, int srcOffset, int count) {
+        Objects.checkFromIndexSize(srcOffset, count, src.length);
+        checkBounds(offset, (long) count * Integer.BYTES);
+        view(offset, count * Integer.BYTES).asIntBuffer().put(src, srcOffset, count);
+        dirty = true;
+    }
+
+    public void getLongs(int offset, long[] dst, int dstOffset, int count) {
+        Objects.checkFromIndexSize(dstOffset, count, dst.length);
+        checkBounds(offset, (long) count * Long.BYTES);
+        view(offset, count * Long.BYTES).asLongBuffer().get(dst, dstOffset, count);
+    }
+
+    public void setLongs(int offset, long[] src, int srcOffset, int count) {
+        Objects.checkFromIndexSize(srcOffset, count, src.length);
+        checkBounds(offset, (long) count * Long.BYTES);
+        view(offset, count * Long.BYTES).asLongBuffer().put(src, srcOffset, count);
+        dirty = true;
+    }
+
+    /**
+     * 把[offset, offset+length)全部置为value
+     */
+    public void fill(int offset, int length, byte value) {
+        checkBounds(offset, length);
+        Arrays.fill(buffer.array(), offset, offset + length, value);
+        dirty = true;
+    }
+
+    /**
+     * 从另一页复制一段内容，两页大小可以不同，源和目标可以是同一页
+     */
+    public void copyFrom(Page src, int srcOffset, int offset, int length) {
+        src.checkBounds(srcOffset, length);
+        checkBounds(offset, length);
+        System.arraycopy(src.buffer.array(), srcOffset, buffer.array(), offset, length);
+        dirty = true;
+    }
+
+    // 页中一段的小端视图，用于按int/long整段读写
+    private ByteBuffer view(int offset, int length) {
+        return buffer.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     // 新增：获取和设置脏页状态
     public boolean isDirty() {
         return dirty;
@@ -112,28 +229,99 @@ public class Page {
         this.dirty = false;
     }
 
+    // ===== 页闩 =====
+
+    /**
+     * 获取共享闩（读），返回的戳用于释放
+     */
+    public long latchShared() {
+        return latch.readLock();
+    }
+
+    public void unlatchShared(long stamp) {
+        latch.unlockRead(stamp);
+    }
+
+    /**
+     * 获取排他闩（写），返回的戳用于释放
+     */
+    public long latchExclusive() {
+        return latch.writeLock();
+    }
+
+    public void unlatchExclusive(long stamp) {
+        latch.unlockWrite(stamp);
+    }
+
+    /**
+     * 开始乐观读：记录当前版本，不写任何共享内存
+     * 页正被排他持有时返回0，此时validate一定失败
+     */
+    public long tryOptimisticRead() {
+        return latch.tryOptimisticRead();
+    }
+
+    /**
+     * 检查从tryOptimisticRead到现在，页是否没有被写过
+     */
+    public boolean validate(long stamp) {
+        return latch.validate(stamp);
+    }
+
+    /**
+     * 乐观读：不加闩执行reader，结束后校验版本，冲突则重试
+     * 重试OPTIMISTIC_RETRIES次仍失败时，在共享闩下再执行一次
+     * reader可能读到写了一半的数据，因此必须没有副作用；校验失败时它抛出的异常会被忽略
+     */
+    public <T> T readOptimistic(Supplier<T> reader) {
+        for (int i = 0; i < OPTIMISTIC_RETRIES; i++) {
+            long stamp = latch.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            T result;
+            try {
+                result = reader.get();
+            } catch (RuntimeException e) {
+                if (latch.validate(stamp)) {
+                    throw e;  // 数据是一致的，异常是真实的
+                }
+                continue;
+            }
+            if (latch.validate(stamp)) {
+                return result;
+            }
+        }
+
+        long stamp = latch.readLock();
+        try {
+            return reader.get();
+        } finally {
+            latch.unlockRead(stamp);
+        }
+    }
+
     // ===== 其他方法 =====
     public byte[] getData() {
         return buffer.array();
     }
 
     public int getSize() {
-        return PAGE_SIZE;
+        return pageSize;
     }
 
     // 清空页面（全部置0）
     public void clear() {
-        for (int i = 0; i < PAGE_SIZE; i++) {
-            buffer.put(i, (byte) 0);
-        }
+        Arrays.fill(buffer.array(), (byte) 0);
     }
 
     // 调试：查看页面内容
     public void dump(int bytesPerRow) {
         byte[] data = getData();
-        for (int i = 0; i < PAGE_SIZE; i += bytesPerRow) {
+        for (int i = 0; i < pageSize; i += bytesPerRow) {
             System.out.printf("%04X: ", i);
-            for (int j = 0; j < bytesPerRow && i + j < PAGE_SIZE; j++) {
+            for (int j = 0; j < bytesPerRow && i + j < pageSize; j++) {
                 System.out.printf("%02X ", data[i + j]);
             }
             System.out.println();
@@ -0,0 +1,170 @@
+package org.shaotang.db.storage;
+
+import java.util.Arrays;
+
+/**
+ * 页压缩编码：LZ4风格的字节级LZ77，追求速度而不是压缩率
+ *
+ * 压缩结果第一个字节是格式：RAW表示不压缩（压缩后更大时），LZ表示压缩。
+ * LZ格式是一串序列，每个序列：
+ *   [标记byte：高4位字面量长度，低4位匹配长度-4][扩展长度...][字面量...][偏移2字节小端][扩展长度...]
+ * 长度字段为15时后面跟扩展字节，每个字节累加，遇到不是255的字节结束。
+ * 最后一个序列只有字面量，没有偏移和匹配。
+ *
+ * 数据页中常见的大段0和重复结构可以压得很小，解压只是几次数组复制。
+ */
+public final class PageCodec {
+    private static final byte RAW = 0;
+    private static final byte LZ = 1;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private PageCodec() {
+    }
+
+    /**
+     * 压缩一页数据
+     */
+    public static byte[] compress(byte[] src) {
+        int length = src.length;
+        // 最坏情况：全是字面量，每255字节多一个扩展长度字节
+        byte[] out = new byte[1 + length + length / 255 + 16];
+        out[0] = LZ;
+        int op = 1;
+
+        // 4字节序列的哈希 -> 最近一次出现的位置+1（0表示没有）
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int ip = 0;
+        while (ip <= length - MIN_MATCH) {
+            int sequence = readInt(src, ip);
+            int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+            int ref = table[hash] - 1;
+            table[hash] = ip + 1;
+
+            if (ref >= 0 && ip - ref <= MAX_OFFSET && readInt(src, ref) == sequence) {
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < length && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(out, op, src, anchor, ip - anchor, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            } else {
+                ip++;
+            }
+        }
+        op = writeLastLiterals(out, op, src, anchor, length - anchor);
+
+        if (op >= length + 1) {
+            byte[] raw = new byte[length + 1];
+            raw[0] = RAW;
+            System.arraycopy(src, 0, raw, 1, length);
+            return raw;
+        }
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * 解压到dst，dst的长度必须等于原始数据长度
+     */
+    public static void decompress(byte[] compressed, byte[] dst) {
+        if (compressed[0] == RAW) {
+            if (compressed.length - 1 != dst.length) {
+                throw new IllegalArgumentException("压缩数据长度与目标不一致");
+            }
+            System.arraycopy(compressed, 1, dst, 0, dst.length);
+            return;
+        }
+
+        int ip = 1;
+        int op = 0;
+        while (true) {
+            int token = compressed[ip++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    b = compressed[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            System.arraycopy(compressed, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip >= compressed.length) {
+                break;  // 最后一个序列
+            }
+
+            int offset = (compressed[ip] & 0xFF) | (compressed[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = compressed[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                // 重叠匹配（比如一段重复的字节），只能逐字节复制
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op + i] = dst[ref + i];
+                }
+            }
+            op += matchLength;
+        }
+        if (op != dst.length) {
+            throw new IllegalArgumentException(
+                    String.format("压缩数据损坏：解压出%d字节，应为%d字节", op, dst.length));
+        }
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] src, int literalStart, int literalLength,
+                                     int offset, int matchLength) {
+        int matchCode = matchLength - MIN_MATCH;
+        out[op++] = (byte) (Math.min(literalLength, 15) << 4 | Math.min(matchCode, 15));
+        op = writeExtraLength(out, op, literalLength);
+        System.arraycopy(src, literalStart, out, op, literalLength);
+        op += literalLength;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        return writeExtraLength(out, op, matchCode);
+    }
+
+    private static int writeLastLiterals(byte[] out, int op, byte[] src, int literalStart, int literalLength) {
+        out[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeExtraLength(out, op, literalLength);
+        System.arraycopy(src, literalStart, out, op, literalLength);
+        return op + literalLength;
+    }
+
+    // 长度不小于15时写扩展字节
+    private static int writeExtraLength(byte[] out, int op, int length) {
+        if (length < 15) {
+            return op;
+        }
+        int remaining = length - 15;
+        while (remaining >= 255) {
+            out[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        out[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+}
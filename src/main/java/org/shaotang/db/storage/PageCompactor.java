@@ -0,0 +1,235 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在线压缩：把文件尾部的已分配页搬到前面的空闲页，再截断文件
+ *
+ * 每搬一页：
+ *   1. 分配最前面的空闲页，写入尾部页的内容（带fsync）
+ *   2. 调用RelocationHook，由上层更新指向该页的引用；hook可以拒绝（比如页正在使用）
+ *   3. 释放尾部页
+ * 任何一步之前崩溃，最多泄漏一个页，不会丢数据。
+ *
+ * 并发写入：有缓冲池时，读取、搬迁、丢弃旧页缓存整个过程持有缓冲池的锁，期间经缓冲池的读写都会等待；
+ * 没有缓冲池时，复制之后如果旧页又被直接写入，hook完成后在DBFile的writeLock内重新复制一次。
+ * 多次compact调用之间由压缩器自己串行，调用方不需要额外同步。
+ *
+ * 后台模式按每秒页数限速、分小批执行，出错时下一轮重试，最近一次错误可以通过 {@link #getLastFailure()} 查看。
+ */
+public class PageCompactor {
+    // 后台模式每秒执行的批次数
+    private static final int TICKS_PER_SECOND = 10;
+    private static final System.Logger LOG = System.getLogger(PageCompactor.class.getName());
+
+    /**
+     * 页搬迁回调
+     */
+    public interface RelocationHook {
+        /**
+         * 页内容已经复制到newPageId，更新所有指向oldPageId的引用；有缓冲池时在缓冲池的锁内调用
+         * @return false表示拒绝本次搬迁，新页会被释放，压缩停止到下一轮
+         */
+        boolean relocate(int oldPageId, int newPageId) throws IOException;
+    }
+
+    private final DBFile dbFile;
+    private final LRUBufferPool pool;
+    private final RelocationHook hook;
+    private final Object compactLock = new Object();
+
+    private final AtomicLong pagesMoved = new AtomicLong();
+    private final AtomicLong bytesTruncated = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile IOException lastFailure;
+
+    private ScheduledExecutorService scheduler;
+
+    public PageCompactor(DBFile dbFile, RelocationHook hook) {
+        this(dbFile, null, hook);
+    }
+
+    /**
+     * @param pool 可选，页的最新内容可能只在缓冲池中；搬迁时从缓冲池读取，完成后丢弃旧页的缓存
+     */
+    public PageCompactor(DBFile dbFile, LRUBufferPool pool, RelocationHook hook) {
+        this.dbFile = dbFile;
+        this.pool = pool;
+        this.hook = hook;
+    }
+
+    /**
+     * 最多搬迁maxPages页；没有可搬的页时截断文件
+     * @return 本次搬迁的页数
+     */
+    public int compact(int maxPages) throws IOException {
+        synchronized (compactLock) {
+            int moved = 0;
+            while (moved < maxPages) {
+                int last = dbFile.getLastAllocatedPage();
+                int free = dbFile.getFirstFreePage();
+                if (last < 0 || free > last) {
+                    break;  // 已经紧凑
+                }
+                if (!relocate(last)) {
+                    return moved;
+                }
+                moved++;
+            }
+
+            // 尾部的空闲页都可以截掉（包括本轮搬空的）
+            bytesTruncated.addAndGet(dbFile.truncate());
+            return moved;
+        }
+    }
+
+    private boolean relocate(int oldPageId) throws IOException {
+        if (pool == null) {
+            return relocateDirect(oldPageId);
+        }
+        // 持有缓冲池的锁：复制之后不会再有经缓冲池的写入落到旧页上
+        synchronized (pool) {
+            Page page = pool.getPage(oldPageId);
+            byte[] data;
+            long stamp = page.latchShared();
+            try {
+                data = page.getData().clone();
+            } finally {
+                page.unlatchShared(stamp);
+            }
+            if (copyAndRelocate(oldPageId, data) < 0) {
+                return false;
+            }
+            pool.discard(oldPageId);
+        }
+        dbFile.freePage(oldPageId);
+        pagesMoved.incrementAndGet();
+        return true;
+    }
+
+    // 没有缓冲池时上层直接写DBFile：监听复制之后对旧页的写入，hook完成后补上
+    private boolean relocateDirect(int oldPageId) throws IOException {
+        OverwriteWatcher watcher = new OverwriteWatcher(oldPageId);
+        dbFile.addWriteListener(watcher);
+        try {
+            int newPageId = copyAndRelocate(oldPageId, dbFile.readPage(oldPageId));
+            if (newPageId < 0) {
+                return false;
+            }
+            // hook已经把引用指向新页，之后不会再有写入落到旧页
+            dbFile.runExclusive(() -> {
+                if (watcher.overwritten) {
+                    dbFile.writePage(newPageId, dbFile.readPage(oldPageId));
+                }
+                return null;
+            });
+        } finally {
+            dbFile.removeWriteListener(watcher);
+        }
+        dbFile.freePage(oldPageId);
+        pagesMoved.incrementAndGet();
+        return true;
+    }
+
+    // 复制到新分配的页并调用hook，返回新页号；被拒绝时释放新页，返回-1
+    private int copyAndRelocate(int oldPageId, byte[] data) throws IOException {
+        int newPageId = dbFile.allocateNewPage();
+        dbFile.writePage(newPageId, data);
+        if (!hook.relocate(oldPageId, newPageId)) {
+            dbFile.freePage(newPageId);
+            return -1;
+        }
+        return newPageId;
+    }
+
+    // 记录搬迁期间旧页是否被直接写入
+    private static final class OverwriteWatcher implements DBFile.WriteListener {
+        private final int pageId;
+        private volatile boolean overwritten = false;
+
+        OverwriteWatcher(int pageId) {
+            this.pageId = pageId;
+        }
+
+        @Override
+        public void pageWritten(int logicalPageId, ByteBuffer page) {
+            if (logicalPageId == pageId) {
+                overwritten = true;
+            }
+        }
+    }
+
+    // ===== 后台模式 =====
+
+    /**
+     * 在后台按限速持续压缩
+     * @param pagesPerSecond 每秒最多搬迁的页数
+     */
+    public synchronized void start(int pagesPerSecond) {
+        if (pagesPerSecond <= 0) {
+            throw new IllegalArgumentException("pagesPerSecond必须大于0: " + pagesPerSecond);
+        }
+        if (scheduler != null) {
+            throw new IllegalStateException("压缩已在运行");
+        }
+        int perTick = Math.max(1, pagesPerSecond / TICKS_PER_SECOND);
+        long periodMillis = pagesPerSecond >= TICKS_PER_SECOND
+                ? 1000 / TICKS_PER_SECOND
+                : 1000 / pagesPerSecond;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "page-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                compact(perTick);
+            } catch (IOException e) {
+                // 下一轮重试，错误记下来供上层查看
+                lastFailure = e;
+                failures.incrementAndGet();
+                LOG.log(System.Logger.Level.WARNING, "后台压缩失败，下一轮重试", e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台压缩，等待正在执行的一批完成
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        scheduler = null;
+    }
+
+    public long getPagesMoved() {
+        return pagesMoved.get();
+    }
+
+    public long getBytesTruncated() {
+        return bytesTruncated.get();
+    }
+
+    /**
+     * 后台压缩失败的次数
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * 后台压缩最近一次失败的原因，没有失败过时为null
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+}
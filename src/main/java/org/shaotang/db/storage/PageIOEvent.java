@@ -0,0 +1,33 @@
+package org.shaotang.db.storage;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 页I/O的JFR事件，未开启录制时几乎没有开销
+ * 开启：java -XX:StartFlightRecording:settings=profile ...
+ */
+@Name("org.shaotang.db.PageIO")
+@Label("Page I/O")
+@Category({"SimpleDB", "Storage"})
+@Description("DBFile页读写和fsync")
+public class PageIOEvent extends Event {
+    public static final String READ = "read";
+    public static final String WRITE = "write";
+    public static final String FSYNC = "fsync";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Logical Page Id")
+    @Description("批量写时为起始页号，fsync时为-1")
+    public long pageId;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
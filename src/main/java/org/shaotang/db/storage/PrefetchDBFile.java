@@ -1,14 +1,19 @@
 package org.shaotang.db.storage;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class PrefetchDBFile extends DBFile {
+    // 预读缓存默认最多保留的页数
+    public static final int DEFAULT_MAX_PREFETCH_PAGES = 64;
+
     // 预读线程池
     private final ExecutorService prefetchExecutor =
             Executors.newSingleThreadExecutor();
@@ -17,8 +22,31 @@ public class PrefetchDBFile extends DBFile {
     private final Map<Integer, CompletableFuture<byte[]>> prefetchCache =
             new ConcurrentHashMap<>();
 
+    // 预读缓存是一个环：按放入顺序记录页号，超过上限时丢掉最早的，长扫描不会让它无限增长
+    private final ArrayDeque<Integer> prefetchOrder = new ArrayDeque<>();
+    private final int maxPrefetchPages;
+
+    // 已经被读取过的预读页，每页只计一次预读命中
+    private final Set<Integer> usedPrefetches = ConcurrentHashMap.newKeySet();
+
     public PrefetchDBFile(String filename) throws IOException {
         super(filename);
+        this.maxPrefetchPages = DEFAULT_MAX_PREFETCH_PAGES;
+    }
+
+    public PrefetchDBFile(String filename, int pageSize) throws IOException {
+        this(filename, pageSize, DEFAULT_MAX_PREFETCH_PAGES);
+    }
+
+    /**
+     * @param maxPrefetchPages 预读缓存最多保留的页数
+     */
+    public PrefetchDBFile(String filename, int pageSize, int maxPrefetchPages) throws IOException {
+        super(filename, pageSize);
+        if (maxPrefetchPages <= 0) {
+            throw new IllegalArgumentException("预读缓存页数必须大于0: " + maxPrefetchPages);
+        }
+        this.maxPrefetchPages = maxPrefetchPages;
     }
 
     // 带预读的读取
@@ -34,13 +62,19 @@ public class PrefetchDBFile extends DBFile {
                 // 2. 异步预读后续的页
                 for (int i = 1; i <= prefetchCount; i++) {
                     int nextPageId = pageId + i;
-                    prefetchCache.computeIfAbsent(nextPageId, pid -> CompletableFuture.supplyAsync(() -> {
-                        try {
-                            return readPage(pid);
-                        } catch (IOException e) {
-                            return null;
+                    synchronized (prefetchOrder) {
+                        if (prefetchCache.containsKey(nextPageId)) {
+                            continue;
                         }
-                    }, prefetchExecutor));
+                        getMetrics().recordPrefetchIssued();
+                        putPrefetch(nextPageId, CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return readPage(nextPageId);
+                            } catch (IOException e) {
+                                return null;
+                            }
+                        }, prefetchExecutor));
+                    }
                 }
             } catch (IOException e) {
                 result.completeExceptionally(e);
@@ -55,7 +89,11 @@ public class PrefetchDBFile extends DBFile {
         CompletableFuture<byte[]> future = prefetchCache.get(pageId);
         if (future != null && future.isDone()) {
             try {
-                return Optional.ofNullable(future.get());
+                byte[] data = future.get();
+                if (data != null && usedPrefetches.add(pageId)) {
+                    getMetrics().recordPrefetchHit();
+                }
+                return Optional.ofNullable(data);
             } catch (Exception e) {
                 return Optional.empty();
             }
@@ -70,6 +108,40 @@ public class PrefetchDBFile extends DBFile {
 
         // 或者更新为脏数据
         CompletableFuture<byte[]> future = CompletableFuture.completedFuture(dirtyData);
-        prefetchCache.put(pageId, future);
+        synchronized (prefetchOrder) {
+            putPrefetch(pageId, future);
+        }
+    }
+
+    // 放入预读缓存，超过上限时淘汰最早放入的页；调用方持有prefetchOrder的锁
+    private void putPrefetch(int pageId, CompletableFuture<byte[]> future) {
+        if (prefetchCache.put(pageId, future) != null) {
+            prefetchOrder.remove(pageId);
+        }
+        prefetchOrder.addLast(pageId);
+        while (prefetchOrder.size() > maxPrefetchPages) {
+            int oldest = prefetchOrder.pollFirst();
+            prefetchCache.remove(oldest);
+            usedPrefetches.remove(oldest);
+        }
+    }
+
+    /**
+     * 预读缓存当前的页数
+     */
+    public int getPrefetchCacheSize() {
+        return prefetchCache.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // 先停掉预读线程，否则非守护线程会让进程无法退出
+        prefetchExecutor.shutdownNow();
+        synchronized (prefetchOrder) {
+            prefetchCache.clear();
+            prefetchOrder.clear();
+        }
+        usedPrefetches.clear();
+        super.close();
     }
-}
\ No newline at end of file
+}
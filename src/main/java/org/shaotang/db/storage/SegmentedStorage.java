@@ -0,0 +1,251 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分段存储管理器：把页分散到多个固定大小的段文件中
+ *
+ * 页号是64位的，映射规则：
+ *   段号 = pageId / 每段页数
+ *   段内偏移 = (pageId % 每段页数) * 页大小
+ * 第n段放在 directories[n % directories.size()] 下，多个目录可以放在不同磁盘上分摊I/O。
+ * 段文件在第一次访问时才打开，每段一个FileChannel，不同段的I/O互不阻塞。
+ */
+public class SegmentedStorage {
+    public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;  // 1GB
+
+    private static final String SEGMENT_FILE_FORMAT = "segment-%06d.dat";
+
+    private final List<Path> directories;
+    private final long segmentSize;
+    private final long pagesPerSegment;
+    private final int pageSize;
+
+    // 已打开的段：段号 -> 文件通道
+    private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+
+    private final StorageMetrics metrics = new StorageMetrics();
+
+    private volatile boolean closed = false;
+
+    public SegmentedStorage(Path directory) throws IOException {
+        this(List.of(directory), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directories 段文件所在目录，按顺序轮流放置
+     * @param segmentSize 每个段文件的字节数，必须是页大小的整数倍
+     */
+    public SegmentedStorage(List<Path> directories, long segmentSize) throws IOException {
+        this(directories, segmentSize, DBFile.PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize 页大小，规则与 {@link Page} 相同；段文件不记录页大小，重新打开时必须传入相同的值
+     */
+    public SegmentedStorage(List<Path> directories, long segmentSize, int pageSize) throws IOException {
+        Page.checkPageSize(pageSize);
+        if (directories.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个目录");
+        }
+        if (segmentSize <= 0 || segmentSize % pageSize != 0) {
+            throw new IllegalArgumentException(
+                    String.format("段大小必须是页大小(%d)的正整数倍: %d", pageSize, segmentSize));
+        }
+        this.directories = new ArrayList<>(directories);
+        this.segmentSize = segmentSize;
+        this.pagesPerSegment = segmentSize / pageSize;
+        this.pageSize = pageSize;
+
+        for (Path directory : this.directories) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    // ===== 页号映射 =====
+    public int segmentOf(long pageId) {
+        checkPageId(pageId);
+        long segment = pageId / pagesPerSegment;
+        if (segment > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("页号超出范围: " + pageId);
+        }
+        return (int) segment;
+    }
+
+    public long offsetInSegment(long pageId) {
+        checkPageId(pageId);
+        return (pageId % pagesPerSegment) * pageSize;
+    }
+
+    /**
+     * 段文件所在路径（不论是否已创建）
+     */
+    public Path segmentPath(int segment) {
+        Path directory = directories.get(segment % directories.size());
+        return directory.resolve(String.format(SEGMENT_FILE_FORMAT, segment));
+    }
+
+    private void checkPageId(long pageId) {
+        if (pageId < 0) {
+            throw new IllegalArgumentException("页号不能为负数: " + pageId);
+        }
+    }
+
+    // ===== 读写 =====
+
+    /**
+     * 读取页，段文件不存在或页还没写过时返回全0
+     */
+    public byte[] readPage(long pageId) throws IOException {
+        int segment = segmentOf(pageId);
+        long offset = offsetInSegment(pageId);
+        byte[] data = new byte[pageSize];
+
+        if (!segments.containsKey(segment) && !Files.exists(segmentPath(segment))) {
+            // 没写过的段不创建文件
+            return data;
+        }
+        FileChannel channel = openSegment(segment);
+
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read == -1) {
+                break; // 段文件末尾之后都是0
+            }
+        }
+
+        event.operation = PageIOEvent.READ;
+        event.pageId = pageId;
+        event.bytes = pageSize;
+        event.commit();
+        metrics.recordRead(System.nanoTime() - start);
+        return data;
+    }
+
+    public void writePage(long pageId, byte[] data) throws IOException {
+        writePage(pageId, data, true);
+    }
+
+    public void writePage(long pageId, byte[] data, boolean force) throws IOException {
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("页数据大小必须为 " + pageSize);
+        }
+        int segment = segmentOf(pageId);
+        long offset = offsetInSegment(pageId);
+        FileChannel channel = openSegment(segment);
+
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+
+        event.operation = PageIOEvent.WRITE;
+        event.pageId = pageId;
+        event.bytes = pageSize;
+        event.commit();
+        metrics.recordWrite(System.nanoTime() - start);
+
+        if (force) {
+            force(channel);
+        }
+    }
+
+    /**
+     * 把所有已打开段的数据刷到磁盘
+     */
+    public void sync() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            force(channel);
+        }
+    }
+
+    private void force(FileChannel channel) throws IOException {
+        long start = System.nanoTime();
+        PageIOEvent event = new PageIOEvent();
+        event.begin();
+
+        channel.force(false);
+
+        event.operation = PageIOEvent.FSYNC;
+        event.pageId = -1;
+        event.commit();
+        metrics.recordFsync(System.nanoTime() - start);
+    }
+
+    // 懒加载段文件
+    private FileChannel openSegment(int segment) throws IOException {
+        if (closed) {
+            throw new IOException("存储已关闭");
+        }
+        try {
+            return segments.computeIfAbsent(segment, s -> {
+                try {
+                    return FileChannel.open(segmentPath(s),
+                            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // ===== 信息 =====
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getPagesPerSegment() {
+        return pagesPerSegment;
+    }
+
+    public int getOpenSegmentCount() {
+        return segments.size();
+    }
+
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        IOException first = null;
+        for (FileChannel channel : segments.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        segments.clear();
+        if (first != null) {
+            throw first;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 影子分页：单写者场景下的原子提交，不需要日志
+ *
+ * 对外提供虚拟页号，虚拟页 -> DBFile页 的映射表分两层保存：
+ * 叶子映射页存连续一段虚拟页的映射，目录页串成链表，记录每个叶子映射页所在的页。
+ * 修改先缓存在内存里，提交时：
+ *   1. 修改过的数据页、覆盖这些页的叶子映射页和新的目录一起写到新分配的连续页（一次顺序写 + 一次fsync）
+ *   2. 把根指针（第一个目录页）写进元数据页，这一次小的同步写就是提交点
+ *   3. 被替换的数据页、叶子映射页和旧目录释放，可以被下次提交复用
+ * 叶子映射页和数据页一样按影子方式写，没有改动的叶子沿用原来的页，
+ * 所以一次提交只写改动相关的页，目录每页可以指向上千个叶子，通常只有一页。
+ * 提交点之前崩溃，磁盘上仍是旧根指向的完整旧状态。
+ *
+ * 根指针在元数据页中有A/B两个槽，带校验和，轮流写入；打开时取校验通过且序号最大的槽。
+ * 这种模式下DBFile的全部用户页都归影子分页管理，打开时按映射表重建分配信息。
+ */
+public class ShadowPagingFile {
+    // 元数据页中两个根指针槽的位置，每槽：[序号long][根页号int][CRC int]
+    static final int ROOT_SLOT_A_OFFSET = 16;
+    static final int ROOT_SLOT_B_OFFSET = 32;
+    private static final int ROOT_SLOT_SIZE = 16;
+
+    // 目录页：[下一页int][叶子数int][叶子映射页号int...]；叶子映射页：[条目int...]，未映射为-1
+    private static final int DIRECTORY_HEADER_SIZE = 8;
+
+    private static final int UNMAPPED = -1;
+    private static final int NO_PAGE = -1;
+
+    private final DBFile dbFile;
+    private final int pageSize;
+    private final int entriesPerLeaf;
+    private final int leavesPerDirectoryPage;
+
+    // 已提交的映射：虚拟页号 -> DBFile逻辑页号，长度总是叶子容量的整数倍
+    private int[] mapping = new int[0];
+    // 已提交的第i个叶子映射页所在的页
+    private List<Integer> leafPages = new ArrayList<>();
+    // 已提交的目录页
+    private List<Integer> directoryPages = new ArrayList<>();
+    private long commitSeq = 0;
+
+    // 未提交的修改：虚拟页号 -> 新内容
+    private final TreeMap<Integer, byte[]> pendingWrites = new TreeMap<>();
+
+    public ShadowPagingFile(String filename) throws IOException {
+        this(new DBFile(filename));
+    }
+
+    public ShadowPagingFile(DBFile dbFile) throws IOException {
+        this.dbFile = dbFile;
+        this.pageSize = dbFile.getPageSize();
+        this.entriesPerLeaf = pageSize / Integer.BYTES;
+        this.leavesPerDirectoryPage = (pageSize - DIRECTORY_HEADER_SIZE) / Integer.BYTES;
+        loadRoot();
+    }
+
+    // ===== 打开 =====
+
+    private void loadRoot() throws IOException {
+        ByteBuffer meta = ByteBuffer.wrap(dbFile.readMetaPage()).order(ByteOrder.LITTLE_ENDIAN);
+        long bestSeq = -1;
+        int root = NO_PAGE;
+        for (int offset : new int[]{ROOT_SLOT_A_OFFSET, ROOT_SLOT_B_OFFSET}) {
+            long seq = meta.getLong(offset);
+            int rootPage = meta.getInt(offset + 8);
+            int crc = meta.getInt(offset + 12);
+            if (seq > 0 && crc == slotChecksum(seq, rootPage) && seq > bestSeq) {
+                bestSeq = seq;
+                root = rootPage;
+            }
+        }
+
+        commitSeq = Math.max(bestSeq, 0);
+        directoryPages = new ArrayList<>();
+        leafPages = new ArrayList<>();
+        for (int pageId = root; pageId != NO_PAGE; ) {
+            directoryPages.add(pageId);
+            ByteBuffer page = ByteBuffer.wrap(dbFile.readPage(pageId)).order(ByteOrder.LITTLE_ENDIAN);
+            int next = page.getInt(0);
+            int count = page.getInt(4);
+            for (int i = 0; i < count; i++) {
+                leafPages.add(page.getInt(DIRECTORY_HEADER_SIZE + i * Integer.BYTES));
+            }
+            pageId = next;
+        }
+        mapping = new int[leafPages.size() * entriesPerLeaf];
+        for (int leaf = 0; leaf < leafPages.size(); leaf++) {
+            ByteBuffer page = ByteBuffer.wrap(dbFile.readPage(leafPages.get(leaf))).order(ByteOrder.LITTLE_ENDIAN);
+            page.asIntBuffer().get(mapping, leaf * entriesPerLeaf, entriesPerLeaf);
+        }
+
+        // 磁盘上的位图可能落后于根指针，按映射表重建
+        dbFile.resetAllocation(referencedPages());
+    }
+
+    private BitSet referencedPages() {
+        BitSet used = new BitSet();
+        for (int pageId : mapping) {
+            if (pageId != UNMAPPED) {
+                used.set(pageId);
+            }
+        }
+        for (int pageId : leafPages) {
+            used.set(pageId);
+        }
+        for (int pageId : directoryPages) {
+            used.set(pageId);
+        }
+        return used;
+    }
+
+    private static int slotChecksum(long seq, int rootPage) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putLong(seq).putInt(rootPage).array());
+        return (int) crc.getValue();
+    }
+
+    // ===== 读写 =====
+
+    /**
+     * 读取虚拟页，能看到本写者尚未提交的修改；从未写过的页返回全0
+     */
+    public synchronized byte[] readPage(int virtualPageId) throws IOException {
+        checkPageId(virtualPageId);
+        byte[] pending = pendingWrites.get(virtualPageId);
+        if (pending != null) {
+            return pending.clone();
+        }
+        if (virtualPageId >= mapping.length || mapping[virtualPageId] == UNMAPPED) {
+            return new byte[pageSize];
+        }
+        return dbFile.readPage(mapping[virtualPageId]);
+    }
+
+    /**
+     * 写入虚拟页，提交前只在内存中
+     */
+    public synchronized void writePage(int virtualPageId, byte[] data) {
+        checkPageId(virtualPageId);
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("页数据大小必须为 " + pageSize);
+        }
+        pendingWrites.put(virtualPageId, data.clone());
+    }
+
+    private static void checkPageId(int virtualPageId) {
+        if (virtualPageId < 0) {
+            throw new IllegalArgumentException("页号不能为负数: " + virtualPageId);
+        }
+    }
+
+    /**
+     * 放弃未提交的修改
+     */
+    public synchronized void rollback() {
+        pendingWrites.clear();
+    }
+
+    /**
+     * 原子提交所有未提交的修改，返回提交序号
+     */
+    public synchronized long commit() throws IOException {
+        if (pendingWrites.isEmpty()) {
+            return commitSeq;
+        }
+
+        // 1. 新映射 = 旧映射 + 本次修改，按叶子容量补齐
+        int leafCount = Math.max(leafPages.size(), pendingWrites.lastKey() / entriesPerLeaf + 1);
+        int[] newMapping = Arrays.copyOf(mapping, leafCount * entriesPerLeaf);
+        Arrays.fill(newMapping, mapping.length, newMapping.length, UNMAPPED);
+
+        // 只有覆盖了修改页的叶子需要重写
+        BitSet dirtyLeaves = new BitSet(leafCount);
+        for (int virtualPageId : pendingWrites.keySet()) {
+            dirtyLeaves.set(virtualPageId / entriesPerLeaf);
+        }
+        int dataPages = pendingWrites.size();
+        int leafWrites = dirtyLeaves.cardinality();
+        int directoryPageCount = (leafCount + leavesPerDirectoryPage - 1) / leavesPerDirectoryPage;
+        int total = dataPages + leafWrites + directoryPageCount;
+
+        // 2. 数据页、叶子映射页和目录页一起分配一段连续空间，一次顺序写入
+        int first = dbFile.allocateContiguousPages(total);
+        ByteBuffer batch = ByteBuffer.allocate(total * pageSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        List<Integer> replaced = new ArrayList<>();
+        int next = first;
+        for (Map.Entry<Integer, byte[]> entry : pendingWrites.entrySet()) {
+            int virtualPageId = entry.getKey();
+            if (newMapping[virtualPageId] != UNMAPPED) {
+                replaced.add(newMapping[virtualPageId]);
+            }
+            newMapping[virtualPageId] = next++;
+            batch.put(entry.getValue());
+        }
+
+        List<Integer> newLeafPages = new ArrayList<>(leafPages);
+        for (int leaf = dirtyLeaves.nextSetBit(0); leaf >= 0; leaf = dirtyLeaves.nextSetBit(leaf + 1)) {
+            if (leaf < leafPages.size()) {
+                replaced.add(leafPages.get(leaf));
+                newLeafPages.set(leaf, next++);
+            } else {
+                newLeafPages.add(next++);
+            }
+            batch.asIntBuffer().put(newMapping, leaf * entriesPerLeaf, entriesPerLeaf);
+            batch.position(batch.position() + pageSize);
+        }
+
+        int directoryStart = next;
+        for (int i = 0; i < directoryPageCount; i++) {
+            int pageStart = batch.position();
+            int from = i * leavesPerDirectoryPage;
+            int count = Math.min(leavesPerDirectoryPage, leafCount - from);
+            batch.putInt(pageStart, i == directoryPageCount - 1 ? NO_PAGE : directoryStart + i + 1);
+            batch.putInt(pageStart + 4, count);
+            for (int j = 0; j < count; j++) {
+                batch.putInt(pageStart + DIRECTORY_HEADER_SIZE + j * Integer.BYTES, newLeafPages.get(from + j));
+            }
+            batch.position(pageStart + pageSize);
+        }
+        batch.position(0);
+
+        try {
+            dbFile.writePages(first, batch, true);  // 唯一一次大的fsync
+        } catch (IOException e) {
+            // 没到提交点，新分配的页直接还回去
+            for (int i = 0; i < total; i++) {
+                dbFile.releasePage(first + i);
+            }
+            throw e;
+        }
+
+        // 3. 提交点：写根指针槽（小的同步写）
+        long newSeq = commitSeq + 1;
+        ByteBuffer slot = ByteBuffer.allocate(ROOT_SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        slot.putLong(newSeq).putInt(directoryStart).putInt(slotChecksum(newSeq, directoryStart));
+        dbFile.writeMetaBytes(newSeq % 2 == 1 ? ROOT_SLOT_A_OFFSET : ROOT_SLOT_B_OFFSET, slot.array());
+
+        // 4. 旧版本不再被引用，释放以便复用
+        for (int pageId : replaced) {
+            dbFile.releasePage(pageId);
+        }
+        for (int pageId : directoryPages) {
+            dbFile.releasePage(pageId);
+        }
+
+        mapping = newMapping;
+        leafPages = newLeafPages;
+        directoryPages = new ArrayList<>();
+        for (int i = 0; i < directoryPageCount; i++) {
+            directoryPages.add(directoryStart + i);
+        }
+        commitSeq = newSeq;
+        pendingWrites.clear();
+        return commitSeq;
+    }
+
+    // ===== 信息 =====
+    public synchronized long getCommitSeq() {
+        return commitSeq;
+    }
+
+    public synchronized int getPendingPageCount() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * 虚拟页当前提交版本所在的DBFile页，未映射返回-1
+     */
+    public synchronized int getMappedPage(int virtualPageId) {
+        return virtualPageId < mapping.length ? mapping[virtualPageId] : UNMAPPED;
+    }
+
+    public DBFile getDBFile() {
+        return dbFile;
+    }
+
+    /**
+     * 关闭，未提交的修改会丢弃
+     */
+    public synchronized void close() throws IOException {
+        pendingWrites.clear();
+        // 位图只是为了让其他工具看到正确的分配情况，影子分页自己不依赖它
+        dbFile.flushBitmap();
+        dbFile.close();
+    }
+}
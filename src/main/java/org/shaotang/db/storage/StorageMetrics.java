@@ -0,0 +1,233 @@
+package org.shaotang.db.storage;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储层指标：缓冲池命中、淘汰、脏页写回、页分配、I/O延迟和预读命中
+ * 每个DBFile持有一份，建立在它之上的缓冲池共用同一份
+ * 所有计数都是LongAdder，可以在多线程的热路径上直接调用
+ */
+public class StorageMetrics implements StorageMetricsMXBean {
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder dirtyWriteBacks = new LongAdder();
+    private final LongAdder pagesAllocated = new LongAdder();
+    private final LongAdder pagesFreed = new LongAdder();
+    private final LongAdder prefetchIssued = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram fsyncLatency = new LatencyHistogram();
+
+    // ===== 记录 =====
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordDirtyWriteBack() {
+        dirtyWriteBacks.increment();
+    }
+
+    public void recordPagesAllocated(int count) {
+        pagesAllocated.add(count);
+    }
+
+    public void recordPageFreed() {
+        pagesFreed.increment();
+    }
+
+    public void recordPrefetchIssued() {
+        prefetchIssued.increment();
+    }
+
+    public void recordPrefetchHit() {
+        prefetchHits.increment();
+    }
+
+    public void recordRead(long nanos) {
+        readLatency.record(nanos);
+    }
+
+    public void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    public void recordFsync(long nanos) {
+        fsyncLatency.record(nanos);
+    }
+
+    // ===== 查询 =====
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getDirtyWriteBacks() {
+        return dirtyWriteBacks.sum();
+    }
+
+    @Override
+    public long getPagesAllocated() {
+        return pagesAllocated.sum();
+    }
+
+    @Override
+    public long getPagesFreed() {
+        return pagesFreed.sum();
+    }
+
+    @Override
+    public long getPageReads() {
+        return readLatency.getCount();
+    }
+
+    @Override
+    public long getPageWrites() {
+        return writeLatency.getCount();
+    }
+
+    @Override
+    public long getFsyncs() {
+        return fsyncLatency.getCount();
+    }
+
+    @Override
+    public double getReadLatencyMeanMicros() {
+        return readLatency.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public double getReadLatencyP99Micros() {
+        return readLatency.getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public double getWriteLatencyMeanMicros() {
+        return writeLatency.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public double getWriteLatencyP99Micros() {
+        return writeLatency.getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public double getFsyncLatencyMeanMicros() {
+        return fsyncLatency.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public double getFsyncLatencyP99Micros() {
+        return fsyncLatency.getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public long getPrefetchIssued() {
+        return prefetchIssued.sum();
+    }
+
+    @Override
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    /**
+     * 预读准确率：被用到的预读页 / 发起的预读页
+     */
+    @Override
+    public double getPrefetchAccuracy() {
+        long issued = prefetchIssued.sum();
+        return issued == 0 ? 0 : (double) prefetchHits.sum() / issued;
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram getFsyncLatency() {
+        return fsyncLatency;
+    }
+
+    @Override
+    public void reset() {
+        cacheHits.reset();
+        cacheMisses.reset();
+        evictions.reset();
+        dirtyWriteBacks.reset();
+        pagesAllocated.reset();
+        pagesFreed.reset();
+        prefetchIssued.reset();
+        prefetchHits.reset();
+        readLatency.reset();
+        writeLatency.reset();
+        fsyncLatency.reset();
+    }
+
+    // ===== JMX =====
+
+    /**
+     * 注册到平台MBeanServer，对象名为 org.shaotang.db:type=StorageMetrics,name=&lt;name&gt;
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = objectName(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // 同名文件重新打开时替换旧的
+            server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+        return objectName;
+    }
+
+    public void unregisterMBean(String name) throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (InstanceNotFoundException ignored) {
+            // 没有注册过
+        }
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("org.shaotang.db:type=StorageMetrics,name=" + ObjectName.quote(name));
+    }
+}
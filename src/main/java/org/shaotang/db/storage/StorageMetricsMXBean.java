@@ -0,0 +1,51 @@
+package org.shaotang.db.storage;
+
+/**
+ * 通过JMX暴露的存储层指标
+ * 延迟单位均为微秒，百分位是直方图桶的上界
+ */
+public interface StorageMetricsMXBean {
+    // ===== 缓冲池 =====
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getDirtyWriteBacks();
+
+    // ===== 页分配 =====
+    long getPagesAllocated();
+
+    long getPagesFreed();
+
+    // ===== 文件I/O =====
+    long getPageReads();
+
+    long getPageWrites();
+
+    long getFsyncs();
+
+    double getReadLatencyMeanMicros();
+
+    double getReadLatencyP99Micros();
+
+    double getWriteLatencyMeanMicros();
+
+    double getWriteLatencyP99Micros();
+
+    double getFsyncLatencyMeanMicros();
+
+    double getFsyncLatencyP99Micros();
+
+    // ===== 预读 =====
+    long getPrefetchIssued();
+
+    long getPrefetchHits();
+
+    double getPrefetchAccuracy();
+
+    void reset();
+}
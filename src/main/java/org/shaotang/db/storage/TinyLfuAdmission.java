@@ -0,0 +1,79 @@
+package org.shaotang.db.storage;
+
+/**
+ * W-TinyLFU准入策略：决定新读入的页是否值得挤掉缓冲池里的页
+ *
+ * 缓冲池分成两段：
+ *   窗口段（约1%）：新读入的页一律先放这里，纯LRU，让突发的新热点有机会积累频率
+ *   主段（其余）：窗口段淘汰出来的页要和主段的淘汰候选比访问频率，高的留下
+ * 只访问一次的页最多在窗口段停留一会儿，不会把主段里的热点页挤出去。
+ *
+ * 访问频率由 {@link FrequencySketch} 估计，命中和未命中都会记录。
+ * 非线程安全，由缓冲池的锁保护。
+ */
+public class TinyLfuAdmission {
+    public static final double DEFAULT_WINDOW_RATIO = 0.01;
+
+    private final FrequencySketch sketch;
+    private final int windowSize;
+
+    private long admitted = 0;
+    private long rejected = 0;
+
+    public TinyLfuAdmission(int cacheSize) {
+        this(cacheSize, DEFAULT_WINDOW_RATIO);
+    }
+
+    /**
+     * @param cacheSize   缓冲池容量
+     * @param windowRatio 窗口段占容量的比例，至少1页
+     */
+    public TinyLfuAdmission(int cacheSize, double windowRatio) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("缓存容量必须大于0: " + cacheSize);
+        }
+        if (windowRatio <= 0 || windowRatio >= 1) {
+            throw new IllegalArgumentException("窗口比例必须在(0, 1)之间: " + windowRatio);
+        }
+        this.sketch = new FrequencySketch(cacheSize);
+        this.windowSize = Math.max(1, (int) (cacheSize * windowRatio));
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(int pageId) {
+        sketch.increment(pageId);
+    }
+
+    /**
+     * 窗口段淘汰出的candidate能否替换主段的victim：频率更高才准入
+     */
+    public boolean admit(int candidate, int victim) {
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            admitted++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    public int frequency(int pageId) {
+        return sketch.frequency(pageId);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * 被拒绝准入（直接从窗口段淘汰）的页数
+     */
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,313 @@
+package org.shaotang.db.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多版本缓冲池：在LRUBufferPool之上提供写时复制的页版本
+ *
+ * - 写：在页的私有副本上修改，提交时整体生成新版本，打上同一个提交时间戳
+ * - 读：打开快照时记下当前时间戳，之后只看到不晚于它的最新版本，读写互不阻塞
+ * - 回收：没有快照需要的旧版本会被删除，只剩最新版本时整条版本链都删掉；
+ *   每页最后一次提交的时间戳单独保存、不会回收，版本链删掉后冲突检查仍然有效
+ *
+ * 已提交的版本是不可变的，读到的Page只能读不能改。
+ * 最新版本同时写回底层缓冲池并标脏，落盘仍由LRUBufferPool负责。
+ */
+public class VersionedBufferPool {
+    private final LRUBufferPool pool;
+
+    // 最后一次已发布的提交时间戳
+    private final AtomicLong clock = new AtomicLong();
+
+    // 提交串行化，保证时间戳按顺序发布
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    // 页号 -> 版本链（最新在前）
+    private final Map<Integer, Version> chains = new ConcurrentHashMap<>();
+
+    // 页号 -> 最后一次提交的时间戳，只在提交时更新
+    private final Map<Integer, Long> lastCommitTs = new ConcurrentHashMap<>();
+
+    // 活跃快照：时间戳 -> 引用数
+    private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+
+    private static class Version {
+        final long commitTs;
+        final Page page;
+        volatile Version older;
+
+        Version(long commitTs, Page page, Version older) {
+            this.commitTs = commitTs;
+            this.page = page;
+            this.older = older;
+        }
+    }
+
+    public VersionedBufferPool(LRUBufferPool pool) {
+        this.pool = pool;
+    }
+
+    public LRUBufferPool getBufferPool() {
+        return pool;
+    }
+
+    public long getLastCommitTs() {
+        return clock.get();
+    }
+
+    // ===== 读 =====
+
+    /**
+     * 打开快照，关闭前能一直读到此刻的一致视图
+     */
+    public Snapshot openSnapshot() {
+        synchronized (activeSnapshots) {
+            long ts = clock.get();
+            activeSnapshots.merge(ts, 1, Integer::sum);
+            return new Snapshot(ts);
+        }
+    }
+
+    /**
+     * 读取快照中可见的页版本（只读）
+     */
+    public Page read(int pageId, Snapshot snapshot) throws IOException {
+        if (snapshot.closed) {
+            throw new IllegalStateException("快照已关闭");
+        }
+        Version version = chain(pageId);
+        while (version != null && version.commitTs > snapshot.ts) {
+            version = version.older;
+        }
+        if (version == null) {
+            // 回收只会删除所有活跃快照都不需要的版本，走到这里说明快照没有被正确登记
+            throw new IllegalStateException("页 " + pageId + " 在快照 " + snapshot.ts + " 中没有可见版本");
+        }
+        return version.page;
+    }
+
+    // 取页的版本链，没有时用缓冲池中的当前内容建立一个基础版本
+    private Version chain(int pageId) throws IOException {
+        try {
+            return chains.computeIfAbsent(pageId, this::baseVersion);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // 基础版本的时间戳是该页最后一次提交的时间戳：版本链被回收后重建，内容就是那次提交的
+    private Version baseVersion(int pageId) {
+        return new Version(lastCommitTs.getOrDefault(pageId, 0L), copyFromPool(pageId), null);
+    }
+
+    private Page copyFromPool(int pageId) {
+        try {
+            Page current = pool.getPage(pageId);
+            long stamp = current.latchShared();
+            try {
+                return new Page(current.getData().clone());
+            } finally {
+                current.unlatchShared(stamp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ===== 写 =====
+
+    public Writer beginWrite() {
+        return new Writer();
+    }
+
+    /**
+     * 写事务：收集页的私有副本，提交时一起发布
+     * 提交时如果某页在读取副本之后已被别人提交过，则整体失败（先提交者胜）
+     */
+    public class Writer {
+        private final Map<Integer, Page> pages = new HashMap<>();
+        private final Map<Integer, Long> baseTs = new HashMap<>();
+        private boolean finished = false;
+
+        /**
+         * 取页的可写副本，同一个Writer多次获取同一页返回同一个副本
+         */
+        public Page getPageForWrite(int pageId) throws IOException {
+            checkActive();
+            Page copy = pages.get(pageId);
+            if (copy == null) {
+                Version newest = chain(pageId);
+                copy = new Page(newest.page.getData().clone());
+                pages.put(pageId, copy);
+                baseTs.put(pageId, newest.commitTs);
+            }
+            return copy;
+        }
+
+        /**
+         * 提交所有修改，返回提交时间戳
+         */
+        public long commit() throws IOException {
+            checkActive();
+            finished = true;
+            if (pages.isEmpty()) {
+                return clock.get();
+            }
+
+            commitLock.lock();
+            try {
+                // 1. 冲突检查：时间戳单调递增，比副本更晚的提交一定是别人的
+                // 按不回收的最后提交时间戳判断，版本链是否已被回收不影响结果
+                for (Map.Entry<Integer, Long> entry : baseTs.entrySet()) {
+                    if (lastCommitTs.getOrDefault(entry.getKey(), 0L) > entry.getValue()) {
+                        throw new ConcurrentModificationException(
+                                "页 " + entry.getKey() + " 已被其他写入提交");
+                    }
+                }
+
+                // 2. 安装新版本：时间戳还没发布，已打开的快照看不到它们
+                long commitTs = clock.get() + 1;
+                for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+                    int pageId = entry.getKey();
+                    Page page = entry.getValue();
+                    page.clearDirty();
+                    chains.compute(pageId, (id, older) -> new Version(commitTs,
+                            page, older != null ? older : baseVersion(id)));
+                    lastCommitTs.put(pageId, commitTs);
+                    writeThrough(pageId, page);
+                }
+
+                // 3. 发布：之后打开的快照能看到本次提交的所有页
+                clock.set(commitTs);
+                return commitTs;
+            } finally {
+                commitLock.unlock();
+            }
+        }
+
+        /**
+         * 放弃所有修改
+         */
+        public void abort() {
+            finished = true;
+            pages.clear();
+        }
+
+        private void checkActive() {
+            if (finished) {
+                throw new IllegalStateException("写事务已结束");
+            }
+        }
+    }
+
+    // 把最新版本复制到底层缓冲池的页中并标脏
+    private void writeThrough(int pageId, Page page) throws IOException {
+        synchronized (pool) {
+            Page frame = pool.getPage(pageId);
+            long stamp = frame.latchExclusive();
+            try {
+                frame.setBytes(0, page.getData());
+            } finally {
+                frame.unlatchExclusive(stamp);
+            }
+            pool.markDirty(pageId);
+        }
+    }
+
+    // ===== 回收 =====
+
+    /**
+     * 删除所有活跃快照都不再需要的旧版本，返回删除的版本数
+     */
+    public int gc() {
+        // 当前时间戳也算一个活跃快照：GC期间新打开的快照时间戳不会比它小
+        TreeSet<Long> needed;
+        synchronized (activeSnapshots) {
+            needed = new TreeSet<>(activeSnapshots.keySet());
+            needed.add(clock.get());
+        }
+
+        int[] removed = {0};
+        for (Integer pageId : chains.keySet()) {
+            chains.computeIfPresent(pageId, (id, newest) -> {
+                // 版本v对时间戳在 [v.commitTs, 更新一个版本的commitTs) 内的快照可见，
+                // 区间内没有活跃快照就不再需要它。最新版本总是保留
+                Version kept = newest;
+                Version newer = newest;
+                for (Version v = newest.older; v != null; v = v.older) {
+                    Long reader = needed.ceiling(v.commitTs);
+                    if (reader != null && reader < newer.commitTs) {
+                        kept.older = v;
+                        kept = v;
+                    } else {
+                        removed[0]++;
+                    }
+                    newer = v;
+                }
+                kept.older = null;
+
+                if (kept == newest) {
+                    // 只剩最新版本，内容与缓冲池一致，不需要版本链了
+                    removed[0]++;
+                    return null;
+                }
+                return newest;
+            });
+        }
+        return removed[0];
+    }
+
+    /**
+     * 当前内存中的版本总数
+     */
+    public int getVersionCount() {
+        int count = 0;
+        for (Version newest : chains.values()) {
+            for (Version v = newest; v != null; v = v.older) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 读快照，用完必须关闭以便回收旧版本
+     */
+    public class Snapshot implements AutoCloseable {
+        private final long ts;
+        private volatile boolean closed = false;
+
+        private Snapshot(long ts) {
+            this.ts = ts;
+        }
+
+        public long getTimestamp() {
+            return ts;
+        }
+
+        public Page read(int pageId) throws IOException {
+            return VersionedBufferPool.this.read(pageId, this);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synchronized (activeSnapshots) {
+                activeSnapshots.computeIfPresent(ts, (k, n) -> n == 1 ? null : n - 1);
+            }
+            gc();
+        }
+    }
+}
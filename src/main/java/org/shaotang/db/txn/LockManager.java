@@ -0,0 +1,401 @@
+package org.shaotang.db.txn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 锁管理器：共享/排他的页锁和记录锁，两阶段锁协议下由事务提交或中止时统一释放
+ *
+ * 锁表按加锁对象的哈希分成若干条带，每条带一把互斥锁，不同条带上的加锁放锁互不影响。
+ * 每个对象一个队列：已授予的锁和按到达顺序排队的请求；新请求在有人排队时也要排队，
+ * 避免共享锁源源不断时排他锁饿死。升级请求（持有共享锁再要排他锁）排在队首。
+ *
+ * 死锁检测：请求等待超过检测延迟（默认50ms）后，由等待者自己沿等待图做一次深度优先搜索，
+ * 每一步只锁住被等待对象所在的条带，不需要全局锁。发现环时中止环中最年轻（编号最大）的事务。
+ * 成环的最后一个等待者一定会做这次检测，所以每次等待只检测一次就够。
+ * 检测之外还有等锁超时（默认10秒）兜底。
+ */
+public class LockManager {
+    public static final int DEFAULT_STRIPES = 64;
+    public static final long DEFAULT_DEADLOCK_CHECK_MILLIS = 50;
+    public static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 10_000;
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<LockTarget, LockQueue> queues = new HashMap<>();
+    }
+
+    private static final class LockQueue {
+        final Map<Transaction, LockMode> granted = new HashMap<>();
+        final LinkedList<Request> waiting = new LinkedList<>();
+
+        boolean isEmpty() {
+            return granted.isEmpty() && waiting.isEmpty();
+        }
+    }
+
+    /**
+     * 一次等待中的加锁请求，等待者通过 {@link Transaction} 引用它，供死锁检测沿边查找
+     */
+    static final class Request {
+        final Transaction txn;
+        final LockTarget target;
+        final LockMode mode;
+        final Stripe stripe;
+        final LockQueue queue;
+        final Condition ready;
+        boolean granted = false;
+
+        Request(Transaction txn, LockTarget target, LockMode mode, Stripe stripe, LockQueue queue) {
+            this.txn = txn;
+            this.target = target;
+            this.mode = mode;
+            this.stripe = stripe;
+            this.queue = queue;
+            this.ready = stripe.lock.newCondition();
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final long deadlockCheckNanos;
+    private final long lockTimeoutNanos;
+
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public LockManager() {
+        this(DEFAULT_STRIPES, DEFAULT_DEADLOCK_CHECK_MILLIS, DEFAULT_LOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param stripeCount         锁表条带数，取整到2的幂
+     * @param deadlockCheckMillis 等待多久后做死锁检测
+     * @param lockTimeoutMillis   等锁超时，超时后中止请求的事务
+     */
+    public LockManager(int stripeCount, long deadlockCheckMillis, long lockTimeoutMillis) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("条带数必须大于0: " + stripeCount);
+        }
+        if (deadlockCheckMillis < 0 || lockTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("死锁检测延迟不能为负，等锁超时必须大于0");
+        }
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.deadlockCheckNanos = TimeUnit.MILLISECONDS.toNanos(deadlockCheckMillis);
+        this.lockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(lockTimeoutMillis);
+    }
+
+    private Stripe stripe(LockTarget target) {
+        int h = target.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        h ^= h >>> 16;
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    // ===== 加锁 =====
+
+    /**
+     * 为事务加锁，已持有足够强的锁时直接返回
+     * @throws TransactionAbortedException 被选为死锁牺牲者、等锁超时或被中断
+     */
+    public void acquire(Transaction txn, LockTarget target, LockMode mode) {
+        txn.checkActive();
+        Stripe stripe = stripe(target);
+        stripe.lock.lock();
+        try {
+            LockQueue queue = stripe.queues.computeIfAbsent(target, t -> new LockQueue());
+            LockMode held = queue.granted.get(txn);
+            if (held != null && held.covers(mode)) {
+                return;
+            }
+            boolean upgrade = held != null;
+            if ((upgrade || queue.waiting.isEmpty()) && compatible(queue, txn, mode)) {
+                queue.granted.put(txn, mode);
+                txn.locks.put(target, mode);
+                return;
+            }
+
+            Request request = new Request(txn, target, mode, stripe, queue);
+            if (upgrade) {
+                queue.waiting.addFirst(request);
+            } else {
+                queue.waiting.addLast(request);
+            }
+            waits.increment();
+            txn.waitingFor = request;
+            try {
+                await(request);
+            } finally {
+                txn.waitingFor = null;
+            }
+            txn.locks.put(target, mode);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // mode是否与除txn之外的所有已授予锁相容
+    private static boolean compatible(LockQueue queue, Transaction txn, LockMode mode) {
+        for (Map.Entry<Transaction, LockMode> entry : queue.granted.entrySet()) {
+            if (entry.getKey() != txn && !mode.compatibleWith(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 持有条带锁等待请求被授予
+    private void await(Request request) {
+        Transaction txn = request.txn;
+        long start = System.nanoTime();
+        long deadline = start + lockTimeoutNanos;
+        boolean checked = false;
+        while (!request.granted) {
+            if (txn.abortReason != null) {
+                cancel(request);
+                throw new TransactionAbortedException(txn.getId(), txn.abortReason);
+            }
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                cancel(request);
+                timeouts.increment();
+                txn.abortReason = "等待" + request.target + "超时";
+                throw new TransactionAbortedException(txn.getId(), txn.abortReason);
+            }
+            try {
+                if (!checked && now - start >= deadlockCheckNanos) {
+                    checked = true;
+                    // 检测时不持有本条带的锁，沿途逐个锁住别的条带
+                    request.stripe.lock.unlock();
+                    try {
+                        detectDeadlock(txn);
+                    } finally {
+                        request.stripe.lock.lock();
+                    }
+                } else if (!checked) {
+                    request.ready.awaitNanos(Math.min(deadline - now, start + deadlockCheckNanos - now));
+                } else {
+                    request.ready.awaitNanos(deadline - now);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(request);
+                txn.abortReason = "等待" + request.target + "时被中断";
+                throw new TransactionAbortedException(txn.getId(), txn.abortReason);
+            }
+        }
+    }
+
+    // 撤销等待中的请求；它可能挡着后面的请求，撤销后重新授予
+    private void cancel(Request request) {
+        request.queue.waiting.remove(request);
+        grantWaiters(request.queue);
+        removeIfEmpty(request);
+    }
+
+    private static void removeIfEmpty(Request request) {
+        if (request.queue.isEmpty()) {
+            request.stripe.queues.remove(request.target, request.queue);
+        }
+    }
+
+    // 按顺序授予队首相容的请求，遇到第一个不相容的就停
+    private static void grantWaiters(LockQueue queue) {
+        Iterator<Request> iterator = queue.waiting.iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (!compatible(queue, request.txn, request.mode)) {
+                break;
+            }
+            iterator.remove();
+            queue.granted.put(request.txn, request.mode);
+            request.granted = true;
+            request.ready.signal();
+        }
+    }
+
+    // ===== 释放 =====
+
+    /**
+     * 释放事务持有的全部锁，在提交或中止时调用
+     */
+    public void releaseAll(Transaction txn) {
+        for (LockTarget target : txn.locks.keySet()) {
+            Stripe stripe = stripe(target);
+            stripe.lock.lock();
+            try {
+                LockQueue queue = stripe.queues.get(target);
+                if (queue == null || queue.granted.remove(txn) == null) {
+                    continue;
+                }
+                grantWaiters(queue);
+                if (queue.isEmpty()) {
+                    stripe.queues.remove(target);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        txn.locks.clear();
+    }
+
+    // ===== 死锁检测 =====
+
+    // 等待者t正在等的事务：不相容的持有者，以及排在它前面的不相容请求
+    private List<Transaction> blockers(Transaction t) {
+        Request request = t.waitingFor;
+        if (request == null) {
+            return List.of();
+        }
+        List<Transaction> result = new ArrayList<>();
+        request.stripe.lock.lock();
+        try {
+            if (request.granted || t.waitingFor != request) {
+                return List.of();
+            }
+            for (Map.Entry<Transaction, LockMode> entry : request.queue.granted.entrySet()) {
+                if (entry.getKey() != t && !request.mode.compatibleWith(entry.getValue())) {
+                    result.add(entry.getKey());
+                }
+            }
+            for (Request ahead : request.queue.waiting) {
+                if (ahead == request) {
+                    break;
+                }
+                if (ahead.txn != t && !request.mode.compatibleWith(ahead.mode)) {
+                    result.add(ahead.txn);
+                }
+            }
+        } finally {
+            request.stripe.lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 从start出发沿等待图搜索环，找到时中止环中最年轻的事务
+     * @return 是否发现死锁
+     */
+    boolean detectDeadlock(Transaction start) {
+        Deque<Transaction> path = new ArrayDeque<>();
+        Deque<Iterator<Transaction>> edges = new ArrayDeque<>();
+        Set<Transaction> onPath = new HashSet<>();
+        Set<Transaction> finished = new HashSet<>();
+
+        path.push(start);
+        edges.push(blockers(start).iterator());
+        onPath.add(start);
+        while (!path.isEmpty()) {
+            Iterator<Transaction> next = edges.peek();
+            if (!next.hasNext()) {
+                Transaction done = path.pop();
+                edges.pop();
+                onPath.remove(done);
+                finished.add(done);
+                continue;
+            }
+            Transaction blocker = next.next();
+            if (onPath.contains(blocker)) {
+                abortVictim(path, blocker);
+                return true;
+            }
+            if (finished.contains(blocker) || blocker.abortReason != null) {
+                continue;  // 已中止的事务很快会释放锁，不算在环里
+            }
+            path.push(blocker);
+            edges.push(blockers(blocker).iterator());
+            onPath.add(blocker);
+        }
+        return false;
+    }
+
+    // path栈顶到cycleStart这一段构成环，中止其中编号最大的事务
+    private void abortVictim(Deque<Transaction> path, Transaction cycleStart) {
+        Transaction victim = null;
+        for (Transaction t : path) {
+            if (victim == null || t.getId() > victim.getId()) {
+                victim = t;
+            }
+            if (t == cycleStart) {
+                break;
+            }
+        }
+        victim.abortReason = "死锁牺牲者";
+        deadlocks.increment();
+
+        // 唤醒牺牲者，让它撤销请求并抛出异常
+        Request request = victim.waitingFor;
+        if (request != null) {
+            request.stripe.lock.lock();
+            try {
+                request.ready.signal();
+            } finally {
+                request.stripe.lock.unlock();
+            }
+        }
+    }
+
+    // ===== 统计 =====
+
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    public long getDeadlockCount() {
+        return deadlocks.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * 锁表中的对象数（有人持有或等待的）
+     */
+    public int getLockedObjectCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                count += stripe.queues.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 事务当前持有的锁模式，没有持有时返回null
+     */
+    public LockMode heldMode(Transaction txn, LockTarget target) {
+        Stripe stripe = stripe(target);
+        stripe.lock.lock();
+        try {
+            LockQueue queue = stripe.queues.get(target);
+            return queue == null ? null : queue.granted.get(txn);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+}
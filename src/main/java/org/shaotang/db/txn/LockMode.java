@@ -0,0 +1,20 @@
+package org.shaotang.db.txn;
+
+/**
+ * 锁模式：共享锁之间相容，排他锁与任何锁都不相容
+ */
+public enum LockMode {
+    SHARED,
+    EXCLUSIVE;
+
+    public boolean compatibleWith(LockMode other) {
+        return this == SHARED && other == SHARED;
+    }
+
+    /**
+     * 持有本模式时是否已经满足对other的请求
+     */
+    public boolean covers(LockMode other) {
+        return this == EXCLUSIVE || other == SHARED;
+    }
+}
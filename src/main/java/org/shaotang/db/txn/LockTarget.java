@@ -0,0 +1,65 @@
+package org.shaotang.db.txn;
+
+/**
+ * 加锁对象：整页，或者页中的一条记录（页号+槽号）
+ *
+ * 页锁和记录锁是互相独立的对象，不做意向锁；同一类数据应当统一用一种粒度加锁。
+ */
+public final class LockTarget {
+    private static final int WHOLE_PAGE = -1;
+
+    private final int pageId;
+    private final int slot;
+
+    private LockTarget(int pageId, int slot) {
+        this.pageId = pageId;
+        this.slot = slot;
+    }
+
+    public static LockTarget page(int pageId) {
+        return new LockTarget(pageId, WHOLE_PAGE);
+    }
+
+    public static LockTarget record(int pageId, int slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("槽号不能为负: " + slot);
+        }
+        return new LockTarget(pageId, slot);
+    }
+
+    public int getPageId() {
+        return pageId;
+    }
+
+    /**
+     * 记录的槽号，页锁返回-1
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isPage() {
+        return slot == WHOLE_PAGE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LockTarget other)) {
+            return false;
+        }
+        return pageId == other.pageId && slot == other.slot;
+    }
+
+    @Override
+    public int hashCode() {
+        return pageId * 31 + slot;
+    }
+
+    @Override
+    public String toString() {
+        return isPage() ? "页" + pageId : "记录" + pageId + ":" + slot;
+    }
+}
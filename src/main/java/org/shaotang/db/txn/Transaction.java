@@ -0,0 +1,104 @@
+package org.shaotang.db.txn;
+
+import org.shaotang.db.storage.Page;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 事务：严格两阶段锁，读页加共享锁、写页加排他锁，锁一直持有到提交或中止
+ *
+ * 第一次写某页时复制一份私有副本，之后本事务读写这个页都用副本，提交时装回缓冲池，中止时丢弃。
+ * 一个事务只能由一个线程使用。
+ */
+public class Transaction {
+    public enum State {
+        ACTIVE,
+        COMMITTED,
+        ABORTED
+    }
+
+    private final long id;
+    private final TransactionManager manager;
+    private volatile State state = State.ACTIVE;
+
+    // 被锁管理器中止的原因（死锁牺牲者、超时），非null后任何加锁都会失败
+    volatile String abortReason;
+    // 正在等待的加锁请求，死锁检测沿它找等待图的边
+    volatile LockManager.Request waitingFor;
+
+    // 以下只由事务自己的线程访问
+    final Map<LockTarget, LockMode> locks = new HashMap<>();
+    // 写过的页：页号 -> 私有副本
+    final Map<Integer, Page> writeSet = new HashMap<>();
+
+    Transaction(long id, TransactionManager manager) {
+        this.id = id;
+        this.manager = manager;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * 被锁管理器中止的原因，没有时返回null
+     */
+    public String getAbortReason() {
+        return abortReason;
+    }
+
+    void checkActive() {
+        if (state != State.ACTIVE) {
+            throw new IllegalStateException("事务" + id + "已结束: " + state);
+        }
+        if (abortReason != null) {
+            throw new TransactionAbortedException(id, abortReason);
+        }
+    }
+
+    // ===== 页访问 =====
+
+    /**
+     * 加共享锁后读取页
+     */
+    public Page readPage(int pageId) throws IOException {
+        return manager.readPage(this, pageId);
+    }
+
+    /**
+     * 加排他锁后取得页的私有副本用于修改，提交时才写进缓冲池
+     */
+    public Page writePage(int pageId) throws IOException {
+        return manager.writePage(this, pageId);
+    }
+
+    /**
+     * 给页中的一条记录加锁
+     */
+    public void lockRecord(int pageId, int slot, LockMode mode) {
+        manager.getLockManager().acquire(this, LockTarget.record(pageId, slot), mode);
+    }
+
+    public void commit() throws IOException {
+        manager.commit(this);
+    }
+
+    public void abort() throws IOException {
+        manager.abort(this);
+    }
+
+    @Override
+    public String toString() {
+        return "事务" + id;
+    }
+}
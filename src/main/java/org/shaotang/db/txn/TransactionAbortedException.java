@@ -0,0 +1,20 @@
+package org.shaotang.db.txn;
+
+/**
+ * 事务被中止：被选为死锁的牺牲者、等锁超时或等待时被中断
+ * 调用方应当调用 {@link Transaction#abort()} 回滚，然后按需重试整个事务
+ */
+public class TransactionAbortedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final long transactionId;
+
+    public TransactionAbortedException(long transactionId, String reason) {
+        super("事务" + transactionId + "已中止: " + reason);
+        this.transactionId = transactionId;
+    }
+
+    public long getTransactionId() {
+        return transactionId;
+    }
+}
@@ -0,0 +1,163 @@
+package org.shaotang.db.txn;
+
+import org.shaotang.db.storage.LRUBufferPool;
+import org.shaotang.db.storage.Page;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 事务管理器：在LRUBufferPool之上提供begin/commit/abort
+ *
+ * 隔离性靠锁管理器的严格两阶段锁保证。写页时事务拿到的是页的私有副本（后像），
+ * 修改只在副本上进行，提交时才装回缓冲池并标脏；中止时直接丢弃副本。
+ * 缓冲池没有固定页的机制，这样写集合比缓冲池大、页在提交前被淘汰时修改也不会丢，未提交的修改也不会被写回磁盘。
+ * 没有重做/撤销日志：已提交的修改何时落盘仍由缓冲池决定，崩溃时不保证原子性。
+ */
+public class TransactionManager {
+    private final LRUBufferPool pool;
+    private final LockManager lockManager;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Transaction> active = new ConcurrentHashMap<>();
+
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+
+    public TransactionManager(LRUBufferPool pool) {
+        this(pool, new LockManager());
+    }
+
+    public TransactionManager(LRUBufferPool pool, LockManager lockManager) {
+        this.pool = pool;
+        this.lockManager = lockManager;
+    }
+
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    public Transaction begin() {
+        Transaction txn = new Transaction(nextId.getAndIncrement(), this);
+        active.put(txn.getId(), txn);
+        return txn;
+    }
+
+    // ===== 页访问 =====
+
+    Page readPage(Transaction txn, int pageId) throws IOException {
+        lockManager.acquire(txn, LockTarget.page(pageId), LockMode.SHARED);
+        // 自己改过的页读私有副本
+        Page written = txn.writeSet.get(pageId);
+        return written != null ? written : pool.getPage(pageId);
+    }
+
+    Page writePage(Transaction txn, int pageId) throws IOException {
+        lockManager.acquire(txn, LockTarget.page(pageId), LockMode.EXCLUSIVE);
+        Page written = txn.writeSet.get(pageId);
+        if (written == null) {
+            Page page = pool.getPage(pageId);
+            long stamp = page.latchShared();
+            try {
+                written = new Page(page.getData().clone());
+            } finally {
+                page.unlatchShared(stamp);
+            }
+            txn.writeSet.put(pageId, written);
+        }
+        return written;
+    }
+
+    // ===== 提交与中止 =====
+
+    /**
+     * 提交：把修改过的页装回缓冲池并标脏，然后释放锁
+     * 事务已被选为死锁牺牲者时改为中止，并抛出TransactionAbortedException；
+     * 装回时读写磁盘失败，已装回的页恢复原样，事务中止并抛出IOException
+     */
+    void commit(Transaction txn) throws IOException {
+        if (txn.getState() != Transaction.State.ACTIVE) {
+            throw new IllegalStateException("事务" + txn.getId() + "已结束: " + txn.getState());
+        }
+        String reason = txn.getAbortReason();
+        if (reason != null) {
+            abort(txn);
+            throw new TransactionAbortedException(txn.getId(), reason);
+        }
+        // 装回前的内容，装回一半失败时用来恢复
+        Map<Integer, byte[]> replaced = new HashMap<>();
+        try {
+            for (Map.Entry<Integer, Page> entry : txn.writeSet.entrySet()) {
+                replaced.put(entry.getKey(), install(entry.getKey(), entry.getValue().getData()));
+            }
+        } catch (IOException e) {
+            try {
+                for (Map.Entry<Integer, byte[]> entry : replaced.entrySet()) {
+                    install(entry.getKey(), entry.getValue());
+                }
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            txn.writeSet.clear();
+            finish(txn, Transaction.State.ABORTED);
+            aborted.increment();
+            throw e;
+        }
+        txn.writeSet.clear();
+        finish(txn, Transaction.State.COMMITTED);
+        committed.increment();
+    }
+
+    // 在排他闩下替换缓冲池中页的内容并标脏，返回原来的内容
+    // 持有缓冲池的锁：取到页之后、标脏之前页不会被淘汰，写入不会落在已经移出缓存的页上
+    private byte[] install(int pageId, byte[] data) throws IOException {
+        synchronized (pool) {
+            Page page = pool.getPage(pageId);
+            long stamp = page.latchExclusive();
+            try {
+                byte[] old = page.getData().clone();
+                page.setBytes(0, data);
+                page.setDirty(true);
+                return old;
+            } finally {
+                page.unlatchExclusive(stamp);
+            }
+        }
+    }
+
+    /**
+     * 中止：丢弃修改过的页的私有副本并释放锁；已结束的事务什么也不做
+     */
+    void abort(Transaction txn) throws IOException {
+        if (txn.getState() != Transaction.State.ACTIVE) {
+            return;
+        }
+        txn.writeSet.clear();
+        finish(txn, Transaction.State.ABORTED);
+        aborted.increment();
+    }
+
+    private void finish(Transaction txn, Transaction.State state) {
+        txn.setState(state);
+        lockManager.releaseAll(txn);
+        active.remove(txn.getId());
+    }
+
+    // ===== 统计 =====
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public long getCommittedCount() {
+        return committed.sum();
+    }
+
+    public long getAbortedCount() {
+        return aborted.sum();
+    }
+}
@@ -0,0 +1,244 @@
+package org.shaotang.db.backup;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OnlineBackupTest {
+    private static final int PAGES = 300;
+
+    @TempDir
+    Path tempDir;
+
+    private DBFile dbFile;
+    private ChangedPageTracker tracker;
+    private int[] pages;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dbFile = new DBFile(tempDir.resolve("backup_test.db").toString());
+        tracker = new ChangedPageTracker(dbFile, tempDir.resolve("backup_test.cpt"));
+        tracker.start();
+        pages = dbFile.allocatePages(PAGES);
+        writeAll(1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        tracker.close();
+        dbFile.close();
+    }
+
+    private byte[] pageOf(int value) {
+        byte[] data = new byte[dbFile.getPageSize()];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private void writeAll(int value) throws IOException {
+        for (int pageId : pages) {
+            dbFile.writePage(pageId, pageOf(value), false);
+        }
+        dbFile.sync();
+    }
+
+    private void assertRestored(List<Path> backups, int[] expected) throws IOException {
+        Path restored = tempDir.resolve("restored-" + System.nanoTime() + ".db");
+        BackupRestore.restore(backups, restored);
+        DBFile copy = new DBFile(restored.toString());
+        try {
+            assertEquals(dbFile.getPageSize(), copy.getPageSize());
+            for (int i = 0; i < pages.length; i++) {
+                assertArrayEquals(pageOf(expected[i]), copy.readPage(pages[i]), "页 " + pages[i]);
+            }
+            for (int pageId : pages) {
+                assertTrue(copy.isAllocated(pageId));
+            }
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    void testIncrementalCopiesOnlyChangedPages() throws IOException {
+        OnlineBackup backup = new OnlineBackup(tracker);
+        assertThrows(IllegalStateException.class, () -> backup.incremental(tempDir.resolve("too-early.bak")));
+
+        Path full = tempDir.resolve("full.bak");
+        OnlineBackup.BackupInfo fullInfo = backup.full(full);
+        assertTrue(fullInfo.isFull());
+        assertEquals(dbFile.getFilePageCount(), fullInfo.getPageCount());
+        assertEquals(0, tracker.getChangedPageCount());
+
+        int[] expected = new int[PAGES];
+        Arrays.fill(expected, 1);
+        for (int i = 0; i < PAGES; i += 30) {
+            dbFile.writePage(pages[i], pageOf(7), false);
+            expected[i] = 7;
+        }
+        Path incremental = tempDir.resolve("inc1.bak");
+        OnlineBackup.BackupInfo incInfo = backup.incremental(incremental);
+        assertEquals(fullInfo.getSequence(), incInfo.getBaseSequence());
+        // 改写的10页加上两个系统页
+        assertEquals(PAGES / 30 + 2, incInfo.getPageCount());
+        assertTrue(incInfo.getBytes() < fullInfo.getBytes() / 10);
+
+        assertRestored(List.of(full, incremental), expected);
+        // 顺序不对或缺少全量备份时拒绝恢复
+        assertThrows(IllegalArgumentException.class,
+                () -> BackupRestore.restore(List.of(incremental), tempDir.resolve("bad.db")));
+    }
+
+    @Test
+    void testBackupIsConsistentUnderConcurrentWrites() throws Exception {
+        OnlineBackup backup = new OnlineBackup(tracker);
+        backup.full(tempDir.resolve("base.bak"));
+        writeAll(1);
+
+        // 限速让第一批页之后停顿约一秒，期间把所有页改成2
+        backup.setMaxBytesPerSecond(1 << 20);
+        Path snapshot = tempDir.resolve("snapshot.bak");
+        CompletableFuture<OnlineBackup.BackupInfo> running = CompletableFuture.supplyAsync(() -> {
+            try {
+                return backup.incremental(snapshot);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (tracker.getChangedPageCount() != 0) {
+            assertTrue(System.nanoTime() < deadline, "备份没有开始");
+            Thread.sleep(1);
+        }
+        for (int i = pages.length - 1; i >= 0; i--) {
+            dbFile.writePage(pages[i], pageOf(2), false);
+        }
+        OnlineBackup.BackupInfo info = running.get(30, TimeUnit.SECONDS);
+        assertTrue(info.getPreImageCount() > 0);
+
+        int[] ones = new int[PAGES];
+        Arrays.fill(ones, 1);
+        assertRestored(List.of(tempDir.resolve("base.bak"), snapshot), ones);
+
+        // 备份期间的写入留给下一次增量
+        assertEquals(PAGES, tracker.getChangedPageCount());
+        backup.setMaxBytesPerSecond(0);
+        Path next = tempDir.resolve("next.bak");
+        backup.incremental(next);
+        int[] twos = new int[PAGES];
+        Arrays.fill(twos, 2);
+        assertRestored(List.of(tempDir.resolve("base.bak"), snapshot, next), twos);
+    }
+
+    @Test
+    void testChangesSurviveUncleanShutdown() throws IOException {
+        Path trackerFile = tempDir.resolve("backup_test.cpt");
+        OnlineBackup backup = new OnlineBackup(tracker);
+        Path full = tempDir.resolve("full.bak");
+        backup.full(full);
+        dbFile.writePage(pages[0], pageOf(3), false);
+        dbFile.sync();
+        tracker.close();
+
+        // 正常关闭后重新打开，变更记录仍然有效
+        tracker = new ChangedPageTracker(dbFile, trackerFile);
+        tracker.start();
+        assertFalse(tracker.isFullBackupRequired());
+        assertEquals(1, tracker.getChangedPageCount());
+        assertEquals(1, tracker.getLastSequence());
+
+        // 不关闭就重新打开，相当于进程崩溃，写过的页仍在记录里（可能多出同组的页）
+        dbFile.writePage(pages[1], pageOf(4), false);
+        dbFile.sync();
+        dbFile.removeWriteListener(tracker);
+        tracker = new ChangedPageTracker(dbFile, trackerFile);
+        tracker.start();
+        assertFalse(tracker.isFullBackupRequired());
+        assertTrue(tracker.getChangedPageCount() >= 2);
+        Path incremental = tempDir.resolve("inc.bak");
+        assertEquals(2, new OnlineBackup(tracker).incremental(incremental).getSequence());
+
+        int[] expected = new int[PAGES];
+        Arrays.fill(expected, 1);
+        expected[0] = 3;
+        expected[1] = 4;
+        assertRestored(List.of(full, incremental), expected);
+    }
+
+    @Test
+    void testCrashDuringBackupKeepsPagesToCopy() throws IOException {
+        Path trackerFile = tempDir.resolve("backup_test.cpt");
+        new OnlineBackup(tracker).full(tempDir.resolve("full.bak"));
+        dbFile.writePage(pages[0], pageOf(5), false);
+
+        // 备份开始后崩溃：这次要复制的页和之后的写入都不能丢
+        BackupSession session = tracker.begin(false, tempDir.resolve("crashed.preimages"));
+        dbFile.writePage(pages[1], pageOf(6), false);
+        dbFile.sync();
+        session.close();
+        dbFile.removeWriteListener(tracker);
+
+        tracker = new ChangedPageTracker(dbFile, trackerFile);
+        tracker.start();
+        assertFalse(tracker.isFullBackupRequired());
+        // 两个用户页，加上begin时带上的两个系统页，可能多出同组的页
+        assertTrue(tracker.getChangedPageCount() >= 4);
+        assertEquals(1, tracker.getLastSequence());
+
+        Path incremental = tempDir.resolve("inc.bak");
+        new OnlineBackup(tracker).incremental(incremental);
+        int[] expected = new int[PAGES];
+        Arrays.fill(expected, 1);
+        expected[0] = 5;
+        expected[1] = 6;
+        assertRestored(List.of(tempDir.resolve("full.bak"), incremental), expected);
+    }
+
+    @Test
+    void testUnsyncedWriteSurvivesCrash() throws IOException {
+        Path trackerFile = tempDir.resolve("backup_test.cpt");
+        Path full = tempDir.resolve("full.bak");
+        new OnlineBackup(tracker).full(full);
+
+        // 写入没有fsync，进程崩溃后页缓存中的内容仍会落盘，记录里必须有这一页
+        dbFile.writePage(pages[PAGES / 2], pageOf(8), false);
+        dbFile.removeWriteListener(tracker);
+
+        tracker = new ChangedPageTracker(dbFile, trackerFile);
+        tracker.start();
+        assertFalse(tracker.isFullBackupRequired());
+        Path incremental = tempDir.resolve("inc.bak");
+        new OnlineBackup(tracker).incremental(incremental);
+        int[] expected = new int[PAGES];
+        Arrays.fill(expected, 1);
+        expected[PAGES / 2] = 8;
+        assertRestored(List.of(full, incremental), expected);
+    }
+
+    @Test
+    void testMissingTrackerFileRequiresFullBackup() throws IOException {
+        new OnlineBackup(tracker).full(tempDir.resolve("full.bak"));
+        tracker.close();
+        Files.delete(tempDir.resolve("backup_test.cpt"));
+
+        tracker = new ChangedPageTracker(dbFile, tempDir.resolve("backup_test.cpt"));
+        tracker.start();
+        assertTrue(tracker.isFullBackupRequired());
+        OnlineBackup backup = new OnlineBackup(tracker);
+        assertThrows(IllegalStateException.class, () -> backup.incremental(tempDir.resolve("inc.bak")));
+        backup.full(tempDir.resolve("full2.bak"));
+        assertFalse(tracker.isFullBackupRequired());
+    }
+}
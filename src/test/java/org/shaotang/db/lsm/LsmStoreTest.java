@@ -0,0 +1,199 @@
+package org.shaotang.db.lsm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LsmStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String key(int i) {
+        return String.format("key%06d", i);
+    }
+
+    @Test
+    void testPutGetDeleteScan() throws IOException {
+        try (LsmStore store = new LsmStore(tempDir)) {
+            store.put(bytes("b"), bytes("2"));
+            store.put(bytes("a"), bytes("1"));
+            store.put(bytes("c"), bytes("3"));
+            store.put(bytes("b"), bytes("22"));
+            store.delete(bytes("c"));
+
+            assertEquals("1", string(store.get(bytes("a"))));
+            assertEquals("22", string(store.get(bytes("b"))));
+            assertNull(store.get(bytes("c")));
+            assertNull(store.get(bytes("d")));
+
+            // 落盘后从段中读到同样的结果
+            store.flush();
+            assertEquals(List.of(1), store.getRunCounts());
+            assertEquals("22", string(store.get(bytes("b"))));
+            assertNull(store.get(bytes("c")));
+
+            store.put(bytes("d"), bytes("4"));
+            List<Map.Entry<byte[], byte[]>> all = store.scan(null, null, 10);
+            assertEquals(List.of("a", "b", "d"), all.stream().map(e -> string(e.getKey())).toList());
+            assertEquals(List.of("b"), store.scan(bytes("b"), bytes("d"), 10).stream()
+                    .map(e -> string(e.getKey())).toList());
+            assertEquals(2, store.scan(null, null, 2).size());
+        }
+    }
+
+    @Test
+    void testOversizedEntryRejected() throws IOException {
+        try (LsmStore store = new LsmStore(tempDir)) {
+            assertThrows(IllegalArgumentException.class, () -> store.put(bytes("k"), new byte[8192]));
+            assertThrows(IllegalArgumentException.class, () -> store.scan(null, null, 0));
+        }
+    }
+
+    @Test
+    void testOversizedDeleteRejected() throws IOException {
+        try (LsmStore store = new LsmStore(tempDir)) {
+            store.put(bytes("k"), bytes("v"));
+            assertThrows(IllegalArgumentException.class, () -> store.delete(new byte[8192]));
+            // 被拒绝的删除没有进日志，刷盘和重新打开都不受影响
+            store.flush();
+        }
+        try (LsmStore store = new LsmStore(tempDir)) {
+            assertEquals("v", string(store.get(bytes("k"))));
+        }
+    }
+
+    @Test
+    void testReopenReplaysLog() throws IOException {
+        LsmStore crashed = new LsmStore(tempDir);
+        crashed.put(bytes("persisted"), bytes("segment"));
+        crashed.flush();
+        crashed.put(bytes("logged"), bytes("wal"));
+        crashed.delete(bytes("persisted"));
+        // 不关闭，模拟崩溃：后两次写入只在预写日志里
+
+        try (LsmStore store = new LsmStore(tempDir)) {
+            assertEquals("wal", string(store.get(bytes("logged"))));
+            assertNull(store.get(bytes("persisted")));
+            assertEquals(List.of(2), store.getRunCounts());
+        }
+        try (LsmStore store = new LsmStore(tempDir)) {
+            assertEquals("wal", string(store.get(bytes("logged"))));
+            assertNull(store.get(bytes("persisted")));
+        }
+    }
+
+    @Test
+    void testCompactionMatchesModel() throws IOException {
+        TreeMap<String, String> model = new TreeMap<>();
+        Random random = new Random(46);
+        // 内存表很小，写入过程中会多次落盘和合并
+        try (LsmStore store = new LsmStore(tempDir, 16 * 1024, 2, 64)) {
+            for (int i = 0; i < 20000; i++) {
+                String key = key(random.nextInt(3000));
+                if (random.nextInt(5) == 0) {
+                    store.delete(bytes(key));
+                    model.remove(key);
+                } else {
+                    String value = "v" + i + "-" + "x".repeat(random.nextInt(40));
+                    store.put(bytes(key), bytes(value));
+                    model.put(key, value);
+                }
+            }
+            store.flush();
+            assertTrue(store.getRunCounts().size() > 1, "应当已经合并到第1层以下");
+            assertMatches(model, store);
+
+            store.compact();
+            List<Integer> counts = store.getRunCounts();
+            assertEquals(1, counts.stream().mapToInt(Integer::intValue).sum(), counts.toString());
+            assertMatches(model, store);
+        }
+
+        // 重新打开后数据不变，清单之外没有残留页
+        try (LsmStore store = new LsmStore(tempDir, 16 * 1024, 2, 64)) {
+            assertMatches(model, store);
+        }
+    }
+
+    private static void assertMatches(TreeMap<String, String> model, LsmStore store) throws IOException {
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(model.get(key(i)), string(store.get(bytes(key(i)))), key(i));
+        }
+        List<Map.Entry<byte[], byte[]>> scanned = store.scan(null, null, Integer.MAX_VALUE);
+        assertEquals(new ArrayList<>(model.keySet()), scanned.stream().map(e -> string(e.getKey())).toList());
+
+        List<Map.Entry<byte[], byte[]>> range = store.scan(bytes(key(1000)), bytes(key(1500)), 50);
+        List<String> expected = model.subMap(key(1000), key(1500)).keySet().stream().limit(50).toList();
+        assertEquals(expected, range.stream().map(e -> string(e.getKey())).toList());
+        for (Map.Entry<byte[], byte[]> entry : range) {
+            assertEquals(model.get(string(entry.getKey())), string(entry.getValue()));
+        }
+    }
+
+    @Test
+    void testConcurrentReadersDuringWrites() throws Exception {
+        try (LsmStore store = new LsmStore(tempDir, 8 * 1024, 2, 32)) {
+            // 预先写入的键值不再修改，读者随时都应读到
+            for (int i = 0; i < 500; i++) {
+                store.put(bytes(key(i)), bytes("stable" + i));
+            }
+
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService readers = Executors.newFixedThreadPool(3);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                int seed = t;
+                futures.add(readers.submit(() -> {
+                    Random random = new Random(seed);
+                    while (!done.get()) {
+                        int i = random.nextInt(500);
+                        assertEquals("stable" + i, string(store.get(bytes(key(i)))));
+                        List<Map.Entry<byte[], byte[]>> range = store.scan(bytes(key(i)), null, 5);
+                        assertArrayEquals(bytes(key(i)), range.get(0).getKey());
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 500; i < 8000; i++) {
+                store.put(bytes(key(i)), bytes("value" + i));
+            }
+            done.set(true);
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            readers.shutdown();
+
+            for (int i = 0; i < 8000; i += 97) {
+                assertNotNull(store.get(bytes(key(i))));
+            }
+            assertTrue(Arrays.stream(tempDir.toFile().list()).anyMatch(name -> name.startsWith("wal-")));
+            assertTrue(Files.exists(tempDir.resolve("MANIFEST")));
+        }
+    }
+}
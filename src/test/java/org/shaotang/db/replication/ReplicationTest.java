@@ -0,0 +1,167 @@
+package org.shaotang.db.replication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shaotang.db.storage.DBFile;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTest {
+    @TempDir
+    Path tempDir;
+
+    private DBFile primaryFile;
+    private ReplicationPrimary primary;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        primaryFile = new DBFile(tempDir.resolve("primary.db").toString());
+        primary = new ReplicationPrimary(primaryFile,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        primary.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        primary.close();
+        primaryFile.close();
+    }
+
+    private InetSocketAddress primaryAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort());
+    }
+
+    private byte[] pageOf(int value) {
+        byte[] data = new byte[primaryFile.getPageSize()];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    void testSnapshotThenLiveWrites() throws Exception {
+        int[] pages = primaryFile.allocatePages(100);
+        for (int i = 0; i < pages.length; i++) {
+            primaryFile.writePage(pages[i], pageOf(i), false);
+        }
+        primaryFile.sync();
+
+        try (ReplicaFollower follower = new ReplicaFollower(tempDir.resolve("replica.db"), primaryAddress())) {
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+            assertTrue(follower.isReady());
+            for (int i = 0; i < pages.length; i++) {
+                assertArrayEquals(pageOf(i), follower.readPage(pages[i]), "页 " + pages[i]);
+            }
+
+            // 先读进从库缓冲池，再在主库上改写，从库应用后不能读到旧内容
+            follower.readPage(pages[0]);
+            for (int round = 1; round <= 3; round++) {
+                for (int i = 0; i < pages.length; i += 7) {
+                    primaryFile.writePage(pages[i], pageOf(i + round * 10), false);
+                }
+                primaryFile.sync();
+            }
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+            for (int i = 0; i < pages.length; i++) {
+                byte[] expected = pageOf(i % 7 == 0 ? i + 30 : i);
+                assertArrayEquals(expected, follower.readPage(pages[i]), "页 " + pages[i]);
+            }
+
+            // 空闲时心跳带回主库位置，延迟归零
+            Thread.sleep(3 * ReplicationPrimary.HEARTBEAT_MILLIS);
+            assertEquals(0, follower.getLagPages());
+            assertEquals(0, follower.getLagMillis());
+            assertEquals(1, primary.getFollowerCount());
+        }
+    }
+
+    @Test
+    void testFollowerResyncsAfterReconnect() throws Exception {
+        int[] pages = primaryFile.allocatePages(10);
+        for (int i = 0; i < pages.length; i++) {
+            primaryFile.writePage(pages[i], pageOf(i), false);
+        }
+
+        Path replicaPath = tempDir.resolve("replica.db");
+        try (ReplicaFollower follower = new ReplicaFollower(replicaPath, primaryAddress())) {
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+        }
+
+        // 从库下线期间主库继续写，重新连上后全量复制补齐
+        for (int i = 0; i < pages.length; i++) {
+            primaryFile.writePage(pages[i], pageOf(i + 100), false);
+        }
+        primaryFile.sync();
+        try (ReplicaFollower follower = new ReplicaFollower(replicaPath, primaryAddress())) {
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+            for (int i = 0; i < pages.length; i++) {
+                assertArrayEquals(pageOf(i + 100), follower.readPage(pages[i]));
+            }
+            assertEquals(primaryFile.getPageSize(), (int) follower.read(pool -> pool.getDBFile().getPageSize()));
+        }
+    }
+
+    @Test
+    void testWritesDuringSnapshotDoNotOverflowQueue() throws Exception {
+        AtomicInteger round = new AtomicInteger();
+        int[][] pagesHolder = new int[1][];
+        // 每次全量复制读第一块时，把所有页改写一遍，远超发送队列的容量
+        DBFile busyFile = new DBFile(tempDir.resolve("busy.db").toString()) {
+            @Override
+            public byte[][] readPages(int firstLogicalPageId, int count) throws IOException {
+                byte[][] result = super.readPages(firstLogicalPageId, count);
+                if (firstLogicalPageId == FIRST_SYSTEM_PAGE_ID && round.get() < 100) {
+                    int value = round.incrementAndGet();
+                    for (int pageId : pagesHolder[0]) {
+                        writePage(pageId, pageOf(value), false);
+                    }
+                }
+                return result;
+            }
+        };
+        int[] pages = busyFile.allocatePages(200);
+        pagesHolder[0] = pages;
+        ReplicationPrimary busyPrimary = new ReplicationPrimary(busyFile,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        busyPrimary.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), busyPrimary.getPort());
+        try (ReplicaFollower follower = new ReplicaFollower(tempDir.resolve("replica.db"), address)) {
+            assertTrue(follower.awaitLsn(busyPrimary.getLastLsn(), 10_000));
+            // 一次全量复制就追上了，没有因为队列满被断开重来
+            assertEquals(1, round.get());
+            for (int pageId : pages) {
+                assertArrayEquals(pageOf(1), follower.readPage(pageId), "页 " + pageId);
+            }
+        } finally {
+            busyPrimary.close();
+            busyFile.close();
+        }
+    }
+
+    @Test
+    void testFollowerAllocationFollowsPrimary() throws Exception {
+        primaryFile.allocatePages(30);
+        try (ReplicaFollower follower = new ReplicaFollower(tempDir.resolve("replica.db"), primaryAddress())) {
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+            assertEquals(primaryFile.getLastAllocatedPage(),
+                    (int) follower.read(pool -> pool.getDBFile().getLastAllocatedPage()));
+
+            // 全量复制之后的分配随位图页一起过来
+            int[] more = primaryFile.allocatePages(5);
+            primaryFile.freePage(0);
+            primaryFile.sync();
+            assertTrue(follower.awaitLsn(primary.getLastLsn(), 10_000));
+            assertEquals(more[4], (int) follower.read(pool -> pool.getDBFile().getLastAllocatedPage()));
+            assertFalse((boolean) follower.read(pool -> pool.getDBFile().isAllocated(0)));
+            assertTrue((boolean) follower.read(pool -> pool.getDBFile().isAllocated(more[0])));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolWarmerTest {
+    @TempDir
+    Path tempDir;
+
+    private Path dataFile;
+    private Path dumpFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataFile = tempDir.resolve("warm_test.db");
+        dumpFile = tempDir.resolve("warm_test.dump");
+
+        DBFile dbFile = new DBFile(dataFile.toString());
+        for (int i = 0; i < 100; i++) {
+            int pageId = dbFile.allocateNewPage();
+            Page page = new Page();
+            page.setInt(0, pageId * 10);
+            dbFile.writePage(pageId, page.getData(), false);
+        }
+        dbFile.close();
+    }
+
+    @Test
+    void testDumpKeepsRecencyOrder() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 4);
+        for (int pageId : new int[]{7, 3, 50, 9, 3}) {
+            pool.getPage(pageId);
+        }
+        BufferPoolWarmer warmer = new BufferPoolWarmer(pool, dumpFile);
+        warmer.close();
+        pool.close();
+
+        assertEquals(List.of(3, 9, 50, 7), BufferPoolWarmer.readDump(dumpFile));
+    }
+
+    @Test
+    void testRestoreLoadsPagesWithBatchedReads() throws Exception {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 32);
+        for (int pageId = 40; pageId < 72; pageId++) {
+            pool.getPage(pageId);
+        }
+        new BufferPoolWarmer(pool, dumpFile).close();
+        pool.close();
+
+        // 重启
+        pool = new LRUBufferPool(dataFile.toString(), 32);
+        StorageMetrics metrics = pool.getMetrics();
+        long readsBefore = metrics.getPageReads();
+
+        int restored = new BufferPoolWarmer(pool, dumpFile).restoreAsync().get();
+
+        assertEquals(32, restored);
+        // 32个连续页只需一次顺序读
+        assertEquals(1, metrics.getPageReads() - readsBefore);
+        long missesBefore = metrics.getCacheMisses();
+        for (int pageId = 40; pageId < 72; pageId++) {
+            assertEquals(pageId * 10, pool.getPage(pageId).getInt(0));
+        }
+        assertEquals(missesBefore, metrics.getCacheMisses());
+        pool.close();
+    }
+
+    @Test
+    void testRestoreKeepsRecencyOrder() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 4);
+        for (int pageId : new int[]{7, 3, 50, 9, 3}) {
+            pool.getPage(pageId);
+        }
+        new BufferPoolWarmer(pool, dumpFile).close();
+        pool.close();
+
+        pool = new LRUBufferPool(dataFile.toString(), 4);
+        assertEquals(4, new BufferPoolWarmer(pool, dumpFile).restore());
+        // 不是按文件偏移排列，而是与转储时一样从最近使用到最久未用
+        assertEquals(List.of(3, 9, 50, 7), pool.getResidentPageIds());
+        pool.close();
+    }
+
+    @Test
+    void testRestoreInChunksKeepsRecencyOrder() throws IOException {
+        // 超过一段的页数，页号打乱后访问，每段读完就装入
+        Path bigFile = tempDir.resolve("warm_big.db");
+        DBFile dbFile = new DBFile(bigFile.toString());
+        dbFile.allocatePages(2500);
+        dbFile.close();
+        List<Integer> order = new ArrayList<>();
+        for (int pageId = 0; pageId < 2500; pageId++) {
+            order.add(pageId);
+        }
+        Collections.shuffle(order, new Random(36));
+
+        LRUBufferPool pool = new LRUBufferPool(bigFile.toString(), 2500);
+        for (int pageId : order) {
+            pool.getPage(pageId);
+        }
+        List<Integer> dumped = pool.getResidentPageIds();
+        new BufferPoolWarmer(pool, dumpFile).close();
+        pool.close();
+
+        pool = new LRUBufferPool(bigFile.toString(), 2500);
+        assertEquals(2500, new BufferPoolWarmer(pool, dumpFile).restore());
+        assertEquals(dumped, pool.getResidentPageIds());
+        pool.close();
+    }
+
+    @Test
+    void testPeriodicDumpFailureIsExposed() throws Exception {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 4);
+        pool.getPage(1);
+        // 转储文件所在的目录不存在，每次转储都会失败
+        BufferPoolWarmer warmer = new BufferPoolWarmer(pool, tempDir.resolve("missing").resolve("warm.dump"));
+        assertNull(warmer.getLastDumpFailure());
+        warmer.startPeriodicDump(10);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (warmer.getLastDumpFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(warmer.getLastDumpFailure());
+        assertThrows(IOException.class, warmer::close);
+        pool.close();
+    }
+
+    @Test
+    void testRestoreDoesNotOverrideForegroundPages() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 4);
+        for (int pageId : new int[]{1, 2, 3, 4}) {
+            pool.getPage(pageId);
+        }
+        new BufferPoolWarmer(pool, dumpFile).close();
+        pool.close();
+
+        pool = new LRUBufferPool(dataFile.toString(), 4);
+        // 恢复开始前前台已经修改了页2，并占用了一些位置
+        pool.getPage(2).setInt(0, -1);
+        pool.markDirty(2);
+        pool.getPage(90);
+
+        int restored = new BufferPoolWarmer(pool, dumpFile).restore();
+
+        assertEquals(2, restored);  // 只剩两个空位
+        assertEquals(-1, pool.getPage(2).getInt(0));
+        assertTrue(pool.getResidentPageIds().contains(90));
+        pool.close();
+    }
+
+    @Test
+    void testMissingDumpIsIgnored() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 4);
+        assertEquals(0, new BufferPoolWarmer(pool, dumpFile).restore());
+        pool.close();
+    }
+
+    @Test
+    void testRestoreThroughScheduler() throws Exception {
+        LRUBufferPool pool = new LRUBufferPool(dataFile.toString(), 8);
+        for (int pageId = 10; pageId < 18; pageId++) {
+            pool.getPage(pageId);
+        }
+        new BufferPoolWarmer(pool, dumpFile).close();
+        pool.close();
+
+        pool = new LRUBufferPool(dataFile.toString(), 8);
+        IOScheduler scheduler = new IOScheduler(pool.getDBFile());
+        pool.setIOScheduler(scheduler);
+
+        assertEquals(8, new BufferPoolWarmer(pool, dumpFile).restoreAsync().get());
+        assertEquals(15 * 10, pool.getPage(15).getInt(0));
+        scheduler.close();
+        pool.close();
+    }
+}
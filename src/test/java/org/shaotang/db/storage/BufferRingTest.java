@@ -0,0 +1,117 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferRingTest {
+    @TempDir
+    Path tempDir;
+
+    private Path dataFile;
+    private LRUBufferPool pool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataFile = tempDir.resolve("ring_test.db");
+        DBFile dbFile = new DBFile(dataFile.toString());
+        dbFile.allocatePages(600);
+        for (int pageId = 0; pageId < 600; pageId++) {
+            Page page = new Page();
+            page.setInt(0, pageId);
+            dbFile.writePage(pageId, page.getData(), false);
+        }
+        pool = new LRUBufferPool(dbFile, 8);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+    }
+
+    @Test
+    void testScanDoesNotTouchPool() throws IOException {
+        for (int pageId = 0; pageId < 8; pageId++) {
+            pool.getPage(pageId);
+        }
+        List<Integer> hotPages = pool.getResidentPageIds();
+
+        try (BufferRing ring = pool.newRing(4)) {
+            for (int pageId = 100; pageId < 500; pageId++) {
+                assertEquals(pageId, ring.getPage(pageId).getInt(0));
+            }
+            // 已在缓冲池中的页直接使用，不改变LRU顺序
+            assertSame(pool.getPage(3), ring.getPage(3));
+        }
+
+        Set<Integer> resident = new HashSet<>(pool.getResidentPageIds());
+        assertEquals(new HashSet<>(hotPages), resident);
+    }
+
+    @Test
+    void testSequentialScanReadsAhead() throws IOException {
+        StorageMetrics metrics = pool.getMetrics();
+        long readsBefore = metrics.getPageReads();
+        try (BufferRing ring = pool.newRing(16)) {
+            for (int pageId = 200; pageId < 456; pageId++) {
+                assertEquals(pageId, ring.getPage(pageId).getInt(0));
+            }
+        }
+        // 第一页单独读，之后每次读16页
+        assertEquals(1 + 255 / 16 + 1, metrics.getPageReads() - readsBefore);
+        assertTrue(metrics.getPrefetchHits() > 200);
+    }
+
+    @Test
+    void testBulkWriteThroughRing() throws IOException {
+        try (BufferRing ring = pool.newRing(4)) {
+            for (int pageId = 300; pageId < 340; pageId++) {
+                ring.getPage(pageId).setInt(4, -pageId);
+                ring.markDirty(pageId);
+            }
+        }
+        // 复用页框时和关闭时都会写回
+        for (int pageId = 300; pageId < 340; pageId++) {
+            assertEquals(-pageId, new Page(pool.getDBFile().readPage(pageId)).getInt(4));
+        }
+    }
+
+    @Test
+    void testPoolTakesOverRingPage() throws IOException {
+        BufferRing ring = pool.newRing(4);
+        ring.getPage(50).setInt(4, 77);
+        ring.markDirty(50);
+
+        // 普通读取接管环中的脏页，修改不会丢
+        Page page = pool.getPage(50);
+        assertEquals(77, page.getInt(4));
+        assertTrue(page.isDirty());
+        ring.close();
+        assertThrows(IllegalStateException.class, () -> ring.getPage(51));
+
+        pool.flush();
+        assertEquals(77, new Page(pool.getDBFile().readPage(50)).getInt(4));
+    }
+
+    @Test
+    void testPrefetchCacheIsBounded() throws Exception {
+        PrefetchDBFile prefetch = new PrefetchDBFile(tempDir.resolve("prefetch.db").toString(),
+                Page.PAGE_SIZE, 16);
+        prefetch.allocatePages(200);
+        prefetch.readPageWithPrefetch(0, 100).get();
+        // 单线程执行器：下一次读完成时上一次的预读都已提交
+        prefetch.readPageWithPrefetch(150, 0).get();
+        assertEquals(16, prefetch.getPrefetchCacheSize());
+        assertFalse(prefetch.getFromPrefetchCache(1).isPresent());  // 最早的已被淘汰
+        prefetch.close();
+    }
+}
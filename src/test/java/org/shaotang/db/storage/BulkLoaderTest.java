@@ -0,0 +1,102 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkLoaderTest {
+    private static final String TEST_FILE = "bulk_test.db";
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        dbFile = new DBFile(TEST_FILE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+        new File(TEST_FILE).delete();
+    }
+
+    private static List<byte[]> makeRecords(int count) {
+        Random random = new Random(42);
+        List<byte[]> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String value = "record-" + i + "-" + "x".repeat(random.nextInt(200));
+            records.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+
+    private List<byte[]> readBack(BulkLoader.LoadResult result) throws IOException {
+        List<byte[]> loaded = new ArrayList<>();
+        for (int[] range : result.getPageRanges()) {
+            for (int pageId = range[0]; pageId < range[0] + range[1]; pageId++) {
+                loaded.addAll(BulkLoader.readRecords(dbFile.readPage(pageId)));
+            }
+        }
+        return loaded;
+    }
+
+    @Test
+    void testSequentialLoad() throws IOException {
+        List<byte[]> records = makeRecords(5000);
+
+        BulkLoader.LoadResult result = new BulkLoader(dbFile, 16, 1).load(records.iterator());
+
+        assertEquals(5000, result.getRecordCount());
+        // 新文件上的多批分配应该首尾相接，合并成一段
+        assertEquals(1, result.getPageRanges().size());
+        assertEquals(result.getPageCount() + 2, dbFile.getAllocatedPageCount());
+
+        List<byte[]> loaded = readBack(result);
+        assertEquals(records.size(), loaded.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(records.get(i), loaded.get(i));
+        }
+    }
+
+    @Test
+    void testParallelLoadKeepsOrder() throws IOException {
+        List<byte[]> records = makeRecords(20000);
+
+        BulkLoader.LoadResult result = new BulkLoader(dbFile, 8, 4).load(records.iterator());
+
+        List<byte[]> loaded = readBack(result);
+        assertEquals(records.size(), loaded.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(records.get(i), loaded.get(i));
+        }
+    }
+
+    @Test
+    void testBitmapCommittedOnce() throws IOException {
+        BulkLoader.LoadResult result = new BulkLoader(dbFile).load(makeRecords(3000).iterator());
+        dbFile.close();
+
+        // 重新打开后位图应包含所有导入的页
+        dbFile = new DBFile(TEST_FILE);
+        assertEquals(result.getPageCount() + 2, dbFile.getAllocatedPageCount());
+        int next = dbFile.allocateNewPage();
+        int[] range = result.getPageRanges().get(0);
+        assertEquals(range[0] + range[1], next);
+    }
+
+    @Test
+    void testRecordTooLarge() {
+        byte[] huge = new byte[BulkLoader.MAX_RECORD_SIZE + 1];
+        assertThrows(IllegalArgumentException.class,
+                () -> new BulkLoader(dbFile).load(List.of(huge).iterator()));
+    }
+}
@@ -0,0 +1,111 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheSimulatorTest {
+    @TempDir
+    Path tempDir;
+
+    // 热点页和一次性扫描交替，与TinyLfuAdmissionTest中的访问模式相同
+    private static int[] hotAndScanTrace(int rounds) {
+        int[] trace = new int[rounds * 100];
+        int scanPage = 100;
+        int i = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int pageId = 0; pageId < 50; pageId++) {
+                trace[i++] = pageId;
+                trace[i++] = scanPage++;
+            }
+        }
+        return trace;
+    }
+
+    // 直接模拟LRU，用来核对栈距离算法
+    private static double naiveLruMissRatio(int[] trace, int cacheSize) {
+        LinkedHashMap<Integer, Boolean> cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        long misses = 0;
+        for (int pageId : trace) {
+            if (cache.get(pageId) == null) {
+                misses++;
+                cache.put(pageId, Boolean.TRUE);
+            }
+        }
+        return (double) misses / trace.length;
+    }
+
+    @Test
+    void testStackDistanceMatchesLruSimulation() {
+        Random random = new Random(3);
+        int[] trace = new int[20000];
+        for (int i = 0; i < trace.length; i++) {
+            // 偏斜分布：小页号更常被访问
+            trace[i] = (int) Math.floor(Math.pow(random.nextDouble(), 3) * 500);
+        }
+        int[] sizes = {1, 2, 5, 10, 50, 100, 300, 600};
+        double[] ratios = CacheSimulator.lruMissRatios(trace, sizes);
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(naiveLruMissRatio(trace, sizes[i]), ratios[i], 1e-12, "容量 " + sizes[i]);
+        }
+        // 未命中率随容量单调不增
+        for (int i = 1; i < ratios.length; i++) {
+            assertTrue(ratios[i] <= ratios[i - 1]);
+        }
+    }
+
+    @Test
+    void testSmallTraces() {
+        int[] trace = {1, 2, 3, 1, 4, 1};
+        assertArrayEquals(new long[]{4, 0, 1, 1, 0}, CacheSimulator.stackDistanceHistogram(trace));
+        assertEquals(4.0 / 6, CacheSimulator.missRatio(trace, CacheSimulator.Policy.LRU, 3), 1e-12);
+        assertEquals(5.0 / 6, CacheSimulator.missRatio(trace, CacheSimulator.Policy.FIFO, 3), 1e-12);
+        assertEquals(5.0 / 6, CacheSimulator.missRatio(trace, CacheSimulator.Policy.CLOCK, 2), 1e-12);
+    }
+
+    @Test
+    void testRecordedTraceReplaysLikeThePool() throws IOException {
+        Path dataFile = tempDir.resolve("trace_test.db");
+        Path traceFile = tempDir.resolve("trace.bin");
+        DBFile dbFile = new DBFile(dataFile.toString());
+        dbFile.allocatePages(2100);
+
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 64);
+        pool.setAdmissionPolicy(new TinyLfuAdmission(64));
+        AccessTraceRecorder recorder = new AccessTraceRecorder(traceFile, dbFile.getPageSize());
+        pool.setTraceRecorder(recorder);
+
+        int[] expected = hotAndScanTrace(40);
+        for (int pageId : expected) {
+            pool.getPage(pageId);
+            if (pageId == 7) {
+                pool.markDirty(pageId);  // 标脏不算读访问
+            }
+        }
+        recorder.close();
+        long poolMisses = pool.getMetrics().getCacheMisses();
+        pool.close();
+
+        int[] trace = AccessTraceRecorder.readPageAccesses(traceFile);
+        assertArrayEquals(expected, trace);
+        assertEquals(expected.length + 40, recorder.getRecordCount());
+
+        // 模拟器中的W-TinyLFU与缓冲池的结果完全一致
+        Map<CacheSimulator.Policy, double[]> curves = CacheSimulator.missRatioCurves(trace, new int[]{64},
+                CacheSimulator.Policy.LRU, CacheSimulator.Policy.TINY_LFU);
+        assertEquals((double) poolMisses / trace.length, curves.get(CacheSimulator.Policy.TINY_LFU)[0], 1e-12);
+        assertEquals(1.0, curves.get(CacheSimulator.Policy.LRU)[0], 1e-12);
+    }
+}
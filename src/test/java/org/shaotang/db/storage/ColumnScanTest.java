@@ -0,0 +1,126 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnScanTest {
+    private static final ColumnarPage.ColumnType INT = ColumnarPage.ColumnType.INT;
+    private static final ColumnarPage.ColumnType LONG = ColumnarPage.ColumnType.LONG;
+
+    // 三列：int键、int值、long值；行数故意不是向量长度的整数倍
+    private static ColumnarPage randomPage(Random random, int rows, int keyBase) {
+        ColumnarPage page = ColumnarPage.format(new Page(), INT, INT, LONG);
+        for (int row = 0; row < rows; row++) {
+            page.appendRow(keyBase + random.nextInt(1000),
+                    random.nextInt(),
+                    random.nextLong() >> 8);
+        }
+        return page;
+    }
+
+    @Test
+    void testLayoutAndMinMax() {
+        Page raw = new Page();
+        ColumnarPage page = ColumnarPage.format(raw, INT, LONG);
+        assertEquals(0, page.getRowCount());
+        assertFalse(page.mayContain(0, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        page.appendRow(5, 100L);
+        page.appendRow(-3, Long.MAX_VALUE);
+        assertEquals(-3, page.getMin(0));
+        assertEquals(5, page.getMax(0));
+        assertEquals(Long.MAX_VALUE, page.getLong(1, 1));
+
+        // 重新打开后布局不变
+        ColumnarPage reopened = ColumnarPage.wrap(new Page(raw.getData().clone()));
+        assertEquals(2, reopened.getRowCount());
+        assertEquals(page.getCapacity(), reopened.getCapacity());
+        assertEquals(-3, reopened.getInt(0, 1));
+        assertEquals(100L, reopened.getLong(1, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> page.appendRow(1L << 40, 0));
+        assertThrows(IllegalArgumentException.class, () -> page.getLong(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> ColumnarPage.wrap(new Page()));
+    }
+
+    @Test
+    void testFillToCapacity() {
+        ColumnarPage page = ColumnarPage.format(new Page(), INT, INT, LONG);
+        int rows = 0;
+        while (page.appendRow(rows, rows, rows) >= 0) {
+            rows++;
+        }
+        assertEquals(page.getCapacity(), rows);
+        assertEquals(rows - 1, page.getLong(2, rows - 1));
+        assertEquals((long) rows * (rows - 1) / 2, ColumnScan.sum(page, 1));
+    }
+
+    @Test
+    void testKernelsMatchScalar() {
+        Random random = new Random(7);
+        for (int rows : new int[]{0, 1, 7, 100, 247}) {
+            ColumnarPage page = randomPage(random, rows, 0);
+            for (int trial = 0; trial < 20; trial++) {
+                long low = random.nextInt(1000);
+                long high = low + random.nextInt(500);
+
+                long expectedCount = 0;
+                long expectedIntSum = 0;
+                long expectedLongSum = 0;
+                long expectedTotal = 0;
+                for (int row = 0; row < rows; row++) {
+                    int key = page.getInt(0, row);
+                    expectedTotal += page.getInt(1, row);
+                    if (key >= low && key <= high) {
+                        expectedCount++;
+                        expectedIntSum += page.getInt(1, row);
+                        expectedLongSum += page.getLong(2, row);
+                    }
+                }
+                assertEquals(expectedCount, ColumnScan.countInRange(page, 0, low, high));
+                assertEquals(expectedIntSum, ColumnScan.sumWhere(page, 0, low, high, 1));
+                assertEquals(expectedLongSum, ColumnScan.sumWhere(page, 0, low, high, 2));
+                assertEquals(expectedTotal, ColumnScan.sum(page, 1));
+            }
+        }
+    }
+
+    @Test
+    void testLongKernelsAndWideRange() {
+        ColumnarPage page = ColumnarPage.format(new Page(), LONG, LONG);
+        for (int row = 0; row < 250; row++) {
+            page.appendRow(row * 1_000_000_000L, row);
+        }
+        assertEquals(250, ColumnScan.countInRange(page, 0, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(11, ColumnScan.countInRange(page, 0, 10_000_000_000L, 20_000_000_000L));
+        assertEquals(10 + 11 + 12 + 13 + 14 + 15 + 16 + 17 + 18 + 19 + 20,
+                ColumnScan.sumWhere(page, 0, 10_000_000_000L, 20_000_000_000L, 1));
+        assertEquals(249L * 250 / 2, ColumnScan.sum(page, 1));
+    }
+
+    @Test
+    void testMultiPageScanSkipsPages() {
+        Random random = new Random(11);
+        List<ColumnarPage> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(randomPage(random, 200, i * 1000));  // 每页的键在 [i*1000, i*1000+999]
+        }
+
+        long expected = 0;
+        for (ColumnarPage page : pages) {
+            expected += ColumnScan.countInRange(page, 0, 2500, 4200);
+        }
+        assertEquals(expected, ColumnScan.countInRange(pages, 0, 2500, 4200));
+
+        // 整页落在区间内时直接用行数，求和用整列
+        assertEquals(400, ColumnScan.countInRange(pages, 0, 3000, 4999));
+        assertEquals(ColumnScan.sum(pages.get(3), 2) + ColumnScan.sum(pages.get(4), 2),
+                ColumnScan.sumWhere(pages, 0, 3000, 4999, 2));
+        assertEquals(0, ColumnScan.countInRange(pages, 0, 20000, 30000));
+    }
+}
@@ -0,0 +1,140 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedPageCacheTest {
+    @TempDir
+    Path tempDir;
+
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dbFile = new DBFile(tempDir.resolve("tier2_test.db").toString());
+        dbFile.allocatePages(10);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+    }
+
+    // 类似记录页：前半部分是有规律的记录，后半部分是0
+    private static byte[] recordPage(int seed) {
+        Page page = new Page();
+        for (int i = 0; i < 100; i++) {
+            page.setInt(i * 16, seed + i);
+            page.setLong(i * 16 + 4, 1_000_000L * seed);
+            page.setInt(i * 16 + 12, 0x41424344);
+        }
+        return page.getData();
+    }
+
+    @Test
+    void testCodecRoundTrip() {
+        Random random = new Random(42);
+        byte[] randomPage = new byte[Page.PAGE_SIZE];
+        random.nextBytes(randomPage);
+        byte[] largePage = new byte[Page.MAX_PAGE_SIZE];
+        for (int i = 0; i < largePage.length; i++) {
+            largePage[i] = (byte) (i % 251 < 200 ? i % 7 : random.nextInt());
+        }
+
+        for (byte[] original : new byte[][]{new byte[Page.PAGE_SIZE], recordPage(7), randomPage, largePage}) {
+            byte[] compressed = PageCodec.compress(original);
+            byte[] restored = new byte[original.length];
+            PageCodec.decompress(compressed, restored);
+            assertArrayEquals(original, restored);
+        }
+
+        // 全0页压得很小，随机数据不会比原来大多少
+        assertTrue(PageCodec.compress(new byte[Page.PAGE_SIZE]).length < 64);
+        assertTrue(PageCodec.compress(recordPage(7)).length < Page.PAGE_SIZE / 4);
+        assertEquals(Page.PAGE_SIZE + 1, PageCodec.compress(randomPage).length);
+    }
+
+    @Test
+    void testTakeRemovesEntry() {
+        CompressedPageCache cache = new CompressedPageCache(1 << 20, Page.PAGE_SIZE);
+        assertTrue(cache.put(3, recordPage(3)));
+        assertTrue(cache.getCompressionRatio() > 4);
+
+        assertArrayEquals(recordPage(3), cache.take(3));
+        assertNull(cache.take(3));  // 取出后不再保留
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    void testBudgetEvictsLeastRecentlyUsed() {
+        // 内容相同，每项占用一样
+        byte[] data = recordPage(5);
+        long entryCost = PageCodec.compress(data).length + CompressedPageCache.ENTRY_OVERHEAD;
+        CompressedPageCache cache = new CompressedPageCache(entryCost * 3, Page.PAGE_SIZE);
+
+        cache.put(0, data);
+        cache.put(1, data);
+        cache.put(2, data);
+        cache.put(3, data);
+
+        assertFalse(cache.contains(0));
+        assertTrue(cache.contains(1) && cache.contains(2) && cache.contains(3));
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getUsedBytes() <= cache.getMaxBytes());
+
+        // 预算放不下一页随机数据
+        byte[] randomPage = new byte[Page.PAGE_SIZE];
+        new Random(1).nextBytes(randomPage);
+        assertFalse(cache.put(9, randomPage));
+        assertEquals(1, cache.getRejected());
+    }
+
+    @Test
+    void testPoolMissServedFromSecondTier() throws IOException {
+        for (int pageId = 0; pageId < 6; pageId++) {
+            dbFile.writePage(pageId, recordPage(pageId));
+        }
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 2);
+        pool.setSecondTierCache(new CompressedPageCache(1 << 20, Page.PAGE_SIZE));
+
+        // 改一页让它淘汰时先写回
+        pool.getPage(0).setInt(0, -1);
+        pool.markDirty(0);
+        for (int pageId = 1; pageId < 6; pageId++) {
+            pool.getPage(pageId);
+        }
+
+        long readsBefore = dbFile.getMetrics().getPageReads();
+        assertEquals(-1, pool.getPage(0).getInt(0));
+        for (int pageId = 1; pageId < 4; pageId++) {
+            assertArrayEquals(recordPage(pageId), pool.getPage(pageId).getData());
+        }
+        assertEquals(0, dbFile.getMetrics().getPageReads() - readsBefore);
+        assertEquals(4, pool.getSecondTierCache().getHits());
+        pool.flush();
+    }
+
+    @Test
+    void testDiscardDropsSecondTierCopy() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 1);
+        CompressedPageCache cache = new CompressedPageCache(1 << 20, Page.PAGE_SIZE);
+        pool.setSecondTierCache(cache);
+
+        pool.getPage(0);
+        pool.getPage(1);  // 0被淘汰进第二层
+        assertTrue(cache.contains(0));
+
+        pool.discard(0);
+        assertFalse(cache.contains(0));
+    }
+}
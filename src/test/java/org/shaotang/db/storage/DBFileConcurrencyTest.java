@@ -0,0 +1,207 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DBFileConcurrencyTest {
+    private static final int READERS = 16;
+
+    @TempDir
+    Path tempDir;
+
+    private Path dataFile;
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataFile = tempDir.resolve("concurrent_test.db");
+        dbFile = new DBFile(dataFile.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+    }
+
+    // 每个int都是页号，读到的页只要有一个int不对就说明读错了位置或读到了别的页的内容
+    private static byte[] stamped(int pageId) {
+        Page page = new Page();
+        int[] values = new int[Page.PAGE_SIZE / Integer.BYTES];
+        Arrays.fill(values, pageId);
+        page.setInts(0, values, 0, values.length);
+        return page.getData();
+    }
+
+    private static void assertStamped(int pageId, byte[] data) {
+        int[] values = new int[data.length / Integer.BYTES];
+        new Page(data).getInts(0, values, 0, values.length);
+        for (int value : values) {
+            assertEquals(pageId, value, "页" + pageId + "内容错误");
+        }
+    }
+
+    private static void runAll(List<Runnable> tasks, ConcurrentLinkedQueue<Throwable> errors)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (Runnable task : tasks) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    void testReadersWithConcurrentWriterGrowingFile() throws Exception {
+        int initialPages = 200;
+        for (int i = 0; i < initialPages; i++) {
+            int pageId = dbFile.allocateNewPage();
+            dbFile.writePage(pageId, stamped(pageId), false);
+        }
+
+        // 已完整写入的页数，读线程只读这个范围内的页
+        AtomicInteger published = new AtomicInteger(initialPages);
+        AtomicBoolean writerDone = new AtomicBoolean(false);
+        AtomicLong reads = new AtomicLong();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        List<Runnable> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    int pageId = dbFile.allocateNewPage();
+                    dbFile.writePage(pageId, stamped(pageId), false);
+                    published.incrementAndGet();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                writerDone.set(true);
+            }
+        });
+        for (int r = 0; r < READERS; r++) {
+            tasks.add(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (!writerDone.get() || reads.get() < 20_000) {
+                        int pageId = random.nextInt(published.get());
+                        if (random.nextInt(8) == 0) {
+                            int count = Math.min(8, published.get() - pageId);
+                            byte[][] pages = dbFile.readPages(pageId, count);
+                            for (int i = 0; i < count; i++) {
+                                assertStamped(pageId + i, pages[i]);
+                            }
+                        } else {
+                            assertStamped(pageId, dbFile.readPage(pageId));
+                        }
+                        reads.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        runAll(tasks, errors);
+        assertTrue(errors.isEmpty(), () -> "并发读写出错: " + errors.peek());
+        assertEquals(300 + 2, dbFile.getAllocatedPageCount());
+    }
+
+    @Test
+    void testConcurrentAllocationsAreUnique() throws Exception {
+        int threads = 8;
+        int perThread = 40;
+        ConcurrentLinkedQueue<Integer> allocated = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean contiguous = t % 2 == 0;
+            tasks.add(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        if (contiguous) {
+                            int first = dbFile.allocateContiguousPages(2);
+                            allocated.add(first);
+                            allocated.add(first + 1);
+                            i++;
+                        } else {
+                            allocated.add(dbFile.allocateNewPage());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        runAll(tasks, errors);
+        assertTrue(errors.isEmpty(), () -> "并发分配出错: " + errors.peek());
+
+        Set<Integer> unique = new HashSet<>(allocated);
+        assertEquals(threads * perThread, allocated.size());
+        assertEquals(allocated.size(), unique.size(), "同一页被分配了两次");
+        dbFile.flushBitmap();
+        dbFile.close();
+
+        dbFile = new DBFile(dataFile.toString());
+        for (int pageId : unique) {
+            assertTrue(dbFile.isAllocated(pageId));
+        }
+    }
+
+    @Test
+    void testConcurrentWritesNeverShrinkFile() throws Exception {
+        int writers = 8;
+        int pages = 400;
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        // 每个线程从不同位置写，各自都会扩展文件；扩展不加锁时后一次setLength可能把文件改短
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            int offset = t;
+            tasks.add(() -> {
+                try {
+                    for (int pageId = pages - 1 - offset; pageId >= 0; pageId -= writers) {
+                        dbFile.writePage(pageId, stamped(pageId), false);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        runAll(tasks, errors);
+        assertTrue(errors.isEmpty(), () -> "并发写出错: " + errors.peek());
+
+        dbFile.sync();
+        for (int pageId = 0; pageId < pages; pageId++) {
+            assertStamped(pageId, dbFile.readPage(pageId));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DoubleWriteBufferTest {
+    @TempDir
+    Path tempDir;
+
+    private Path dataFile;
+    private Path bufferFile;
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dataFile = tempDir.resolve("dwb_test.db");
+        bufferFile = tempDir.resolve("dwb_test.dwb");
+        dbFile = new DBFile(dataFile.toString());
+        dbFile.allocatePages(20);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+    }
+
+    private static byte[] pageOf(int value) {
+        Page page = new Page();
+        page.fill(0, Page.PAGE_SIZE, (byte) value);
+        return page.getData();
+    }
+
+    @Test
+    void testBatchNeedsOnlyOneFsync() throws IOException {
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile);
+        Map<Integer, byte[]> pages = new HashMap<>();
+        for (int pageId = 0; pageId < 20; pageId++) {
+            pages.put(pageId, pageOf(pageId));
+        }
+
+        long fsyncsBefore = dbFile.getMetrics().getFsyncs();
+        buffer.writePages(pages);
+        assertEquals(1, dbFile.getMetrics().getFsyncs() - fsyncsBefore);
+
+        buffer.close();  // 数据文件再fsync一次，然后清空双写文件
+        assertEquals(3, dbFile.getMetrics().getFsyncs() - fsyncsBefore);
+        for (int pageId = 0; pageId < 20; pageId++) {
+            assertArrayEquals(pageOf(pageId), dbFile.readPage(pageId));
+        }
+    }
+
+    @Test
+    void testTornPageRestoredOnOpen() throws IOException {
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile);
+        dbFile.writePage(5, pageOf(1));
+
+        // 模拟崩溃：副本已经落盘，原地写只写了半页
+        TreeMap<Integer, byte[]> batch = new TreeMap<>(Map.of(5, pageOf(2), 6, pageOf(3)));
+        buffer.stage(batch);
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile.toFile(), "rw")) {
+            raf.seek(dbFile.getPageOffset(5));
+            raf.write(pageOf(2), 0, Page.PAGE_SIZE / 2);
+        }
+        dbFile.close();
+
+        dbFile = new DBFile(dataFile.toString());
+        DoubleWriteBuffer reopened = new DoubleWriteBuffer(dbFile, bufferFile);
+        assertEquals(2, reopened.getRecoveredPageCount());
+        assertArrayEquals(pageOf(2), dbFile.readPage(5));
+        assertArrayEquals(pageOf(3), dbFile.readPage(6));
+        reopened.close();
+
+        // 恢复后副本已清空，再次打开不会重复恢复
+        DoubleWriteBuffer again = new DoubleWriteBuffer(dbFile, bufferFile);
+        assertEquals(0, again.getRecoveredPageCount());
+        again.close();
+    }
+
+    @Test
+    void testTornBufferIsIgnored() throws IOException {
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile);
+        dbFile.writePage(7, pageOf(1));
+        buffer.stage(new TreeMap<>(Map.of(7, pageOf(9))));
+
+        // 模拟崩溃发生在写副本时：副本损坏，数据文件还没动
+        try (RandomAccessFile raf = new RandomAccessFile(bufferFile.toFile(), "rw")) {
+            raf.seek(raf.length() - 100);
+            raf.write(new byte[]{1, 2, 3});
+        }
+
+        DoubleWriteBuffer reopened = new DoubleWriteBuffer(dbFile, bufferFile);
+        assertEquals(0, reopened.getRecoveredPageCount());
+        assertArrayEquals(pageOf(1), dbFile.readPage(7));
+        reopened.close();
+    }
+
+    @Test
+    void testDirectWriteAfterCloseSurvivesReopen() throws IOException {
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile);
+        buffer.writePage(3, pageOf(1));
+        buffer.close();
+
+        // 关闭之后绕过双写缓冲直接写，重新打开时不能被旧副本覆盖
+        dbFile.writePage(3, pageOf(2));
+        DoubleWriteBuffer reopened = new DoubleWriteBuffer(dbFile, bufferFile);
+        assertEquals(0, reopened.getRecoveredPageCount());
+        assertArrayEquals(pageOf(2), dbFile.readPage(3));
+        reopened.close();
+    }
+
+    @Test
+    void testLargeWriteSplitIntoBatches() throws IOException {
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile, 8);
+        Map<Integer, byte[]> pages = new HashMap<>();
+        for (int pageId = 0; pageId < 20; pageId++) {
+            pages.put(pageId, pageOf(pageId + 1));
+        }
+        long fsyncsBefore = dbFile.getMetrics().getFsyncs();
+        buffer.writePages(pages);
+        // 3批副本 + 覆盖副本前的2次数据文件fsync
+        assertEquals(5, dbFile.getMetrics().getFsyncs() - fsyncsBefore);
+        buffer.close();
+        assertArrayEquals(pageOf(20), dbFile.readPage(19));
+    }
+
+    @Test
+    void testBufferPoolFlushesThroughDoubleWrite() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 16);
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile);
+        pool.setDoubleWriteBuffer(buffer);
+        for (int pageId = 0; pageId < 10; pageId++) {
+            pool.getPage(pageId).setInt(0, pageId * 100);
+            pool.markDirty(pageId);
+        }
+
+        long fsyncsBefore = dbFile.getMetrics().getFsyncs();
+        pool.flush();
+        // 副本、数据文件、清空副本各一次
+        assertEquals(3, dbFile.getMetrics().getFsyncs() - fsyncsBefore);
+        for (int pageId = 0; pageId < 10; pageId++) {
+            assertEquals(pageId * 100, new Page(dbFile.readPage(pageId)).getInt(0));
+        }
+        buffer.close();
+    }
+
+    @Test
+    void testEvictionsAreBatched() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile, 8);
+        pool.setDoubleWriteBuffer(buffer);
+
+        long fsyncsBefore = dbFile.getMetrics().getFsyncs();
+        for (int pageId = 0; pageId < 12; pageId++) {
+            pool.getPage(pageId).setInt(0, pageId * 100);
+            pool.markDirty(pageId);
+        }
+        // 淘汰了8个脏页，攒成一批只写一次副本
+        assertEquals(1, dbFile.getMetrics().getFsyncs() - fsyncsBefore);
+        assertEquals(700, new Page(dbFile.readPage(7)).getInt(0));
+
+        // 攒着还没写出的淘汰页重新读回来时是最新内容
+        pool.getPage(0);
+        pool.getPage(1);
+        pool.getPage(2);
+        pool.getPage(3);
+        pool.getPage(8);
+        assertEquals(800, pool.getPage(8).getInt(0));
+
+        pool.flush();
+        for (int pageId = 0; pageId < 12; pageId++) {
+            assertEquals(pageId * 100, new Page(dbFile.readPage(pageId)).getInt(0));
+        }
+        buffer.close();
+    }
+
+    @Test
+    void testPendingEvictionsWrittenAfterDelay() throws Exception {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile, 8);
+        pool.setDoubleWriteBuffer(buffer);
+        pool.getPage(0).setInt(0, 77);
+        pool.markDirty(0);
+        for (int pageId = 1; pageId < 5; pageId++) {
+            pool.getPage(pageId);
+        }
+
+        // 批次没满、之后也没有淘汰，超时后仍会写出
+        long deadline = System.currentTimeMillis() + 5000;
+        while (new Page(dbFile.readPage(0)).getInt(0) != 77 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(77, new Page(dbFile.readPage(0)).getInt(0));
+        pool.flush();
+        buffer.close();
+    }
+
+    @Test
+    void testPendingEvictionsAreNotReadStale() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        DoubleWriteBuffer buffer = new DoubleWriteBuffer(dbFile, bufferFile, 8);
+        pool.setDoubleWriteBuffer(buffer);
+        pool.getPage(5).setInt(0, 42);
+        pool.markDirty(5);
+        BufferPoolWarmer warmer = new BufferPoolWarmer(pool, tempDir.resolve("dwb_test.dump"));
+        warmer.dump();
+        for (int pageId = 10; pageId < 14; pageId++) {
+            pool.getPage(pageId);
+        }
+
+        // 页5在双写批次里，顺序扫描的预读不能用磁盘上的旧内容
+        try (BufferRing ring = pool.newRing(4)) {
+            ring.getPage(3);
+            ring.getPage(4);
+            assertEquals(42, ring.getPage(5).getInt(0));
+        }
+
+        // 预热时也用批次里的内容
+        pool.discard(13);
+        assertEquals(1, warmer.restore());
+        assertEquals(42, pool.getPage(5).getInt(0));
+
+        pool.flush();
+        assertEquals(42, new Page(dbFile.readPage(5)).getInt(0));
+        buffer.close();
+    }
+}
@@ -0,0 +1,159 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IOSchedulerTest {
+    private static final String TEST_FILE = "scheduler_test.db";
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        dbFile = new DBFile(TEST_FILE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+        new File(TEST_FILE).delete();
+    }
+
+    private static byte[] pageOf(int value) {
+        Page page = new Page();
+        page.setInt(0, value);
+        return page.getData();
+    }
+
+    @Test
+    void testAdjacentWritesAreMerged() throws IOException {
+        // 只有1个工作线程，它执行一次写的时间里后面的写都会排队，然后被合并
+        IOScheduler scheduler = new IOScheduler(dbFile, 1, 64, 0);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // 倒序提交，调度器按页号排序后合并
+        for (int pageId = 31; pageId >= 0; pageId--) {
+            futures.add(scheduler.write(pageId, pageOf(pageId)));
+        }
+        scheduler.flush();
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+
+        long writes = dbFile.getMetrics().getPageWrites();
+        // 32次写请求合并后的实际I/O次数应远小于32
+        assertTrue(writes < 32, "实际写I/O次数: " + writes);
+
+        for (int pageId = 0; pageId < 32; pageId++) {
+            assertEquals(pageId, new Page(dbFile.readPage(pageId)).getInt(0));
+        }
+        scheduler.close();
+    }
+
+    @Test
+    void testReadYourWrites() throws IOException {
+        IOScheduler scheduler = new IOScheduler(dbFile);
+        scheduler.write(5, pageOf(1));
+        scheduler.write(5, pageOf(2));  // 覆盖前一次
+
+        byte[] data = IOScheduler.await(scheduler.read(5));
+        assertEquals(2, new Page(data).getInt(0));
+
+        scheduler.flush();
+        assertEquals(2, new Page(dbFile.readPage(5)).getInt(0));
+        scheduler.close();
+    }
+
+    @Test
+    void testConcurrentReads() throws IOException {
+        for (int pageId = 0; pageId < 100; pageId++) {
+            dbFile.writePage(pageId, pageOf(pageId * 10), false);
+        }
+        IOScheduler scheduler = new IOScheduler(dbFile);
+
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        for (int pageId = 0; pageId < 100; pageId++) {
+            reads.add(pageId % 2 == 0 ? scheduler.read(pageId) : scheduler.readAhead(pageId));
+        }
+        for (int pageId = 0; pageId < 100; pageId++) {
+            assertEquals(pageId * 10, new Page(IOScheduler.await(reads.get(pageId))).getInt(0));
+        }
+        scheduler.close();
+        assertThrows(IllegalStateException.class, () -> scheduler.read(0));
+    }
+
+    @Test
+    void testBufferPoolThroughScheduler() throws IOException {
+        IOScheduler scheduler = new IOScheduler(dbFile);
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 2);
+        pool.setIOScheduler(scheduler);
+
+        pool.getPage(1).setInt(0, 11);
+        pool.markDirty(1);
+        pool.getPage(2);
+        pool.getPage(3);  // 淘汰脏页1，异步写回
+        // 再读页1，不管写回是否完成都能读到新值
+        assertEquals(11, pool.getPage(1).getInt(0));
+
+        scheduler.close();
+        pool.close();
+        dbFile = new DBFile(TEST_FILE);
+        assertEquals(11, new Page(dbFile.readPage(1)).getInt(0));
+    }
+
+    @Test
+    void testFailedWriteBackIsReportedAndRetried() throws IOException {
+        dbFile.close();
+        AtomicBoolean failWrites = new AtomicBoolean(true);
+        dbFile = new DBFile(TEST_FILE) {
+            @Override
+            public void writePages(int firstLogicalPageId, ByteBuffer data, boolean force) throws IOException {
+                if (failWrites.get()) {
+                    throw new IOException("模拟磁盘写入失败");
+                }
+                super.writePages(firstLogicalPageId, data, force);
+            }
+        };
+        IOScheduler scheduler = new IOScheduler(dbFile);
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 2);
+        pool.setIOScheduler(scheduler);
+
+        pool.getPage(1).setInt(0, 11);
+        pool.markDirty(1);
+        pool.getPage(2).setInt(0, 22);
+        pool.markDirty(2);
+        pool.getPage(3);  // 淘汰脏页1，异步写回失败
+
+        // 失败不会被fsync掩盖；已淘汰的页1和还在缓存中的页2都没有丢
+        assertThrows(IOException.class, pool::flush);
+        assertEquals(0, new Page(dbFile.readPage(1)).getInt(0));
+
+        failWrites.set(false);
+        // 再读页1得到的是写失败的内容，并重新作为脏页
+        assertEquals(11, pool.getPage(1).getInt(0));
+        assertTrue(pool.getPage(1).isDirty());
+        pool.flush();
+        assertEquals(11, new Page(dbFile.readPage(1)).getInt(0));
+        assertEquals(22, new Page(dbFile.readPage(2)).getInt(0));
+
+        // 调度器单独使用时同样报告一次
+        failWrites.set(true);
+        scheduler.write(7, pageOf(7));
+        assertThrows(IOException.class, scheduler::flush);
+        failWrites.set(false);
+        scheduler.flush();
+
+        scheduler.close();
+        pool.close();
+    }
+}
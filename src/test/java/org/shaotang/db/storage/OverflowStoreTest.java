@@ -0,0 +1,177 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OverflowStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private DBFile dbFile;
+    private LRUBufferPool pool;
+    private OverflowStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dbFile = new DBFile(tempDir.resolve("overflow_test.db").toString());
+        pool = new LRUBufferPool(dbFile, 8);
+        store = new OverflowStore(pool);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    void testStreamRoundTrip() throws IOException {
+        byte[] value = randomBytes(3 * 1024 * 1024 + 123, 47);
+        int firstPageId;
+        try (OverflowStore.ChainOutputStream out = store.create()) {
+            // 不规则的写入大小，跨页边界
+            Random random = new Random(1);
+            int offset = 0;
+            while (offset < value.length) {
+                int n = Math.min(value.length - offset, 1 + random.nextInt(10000));
+                out.write(value, offset, n);
+                offset += n;
+            }
+            firstPageId = out.getFirstPageId();
+        }
+        assertEquals(value.length, store.length(firstPageId));
+
+        try (InputStream in = store.openInputStream(firstPageId)) {
+            assertArrayEquals(value, in.readAllBytes());
+            assertEquals(-1, in.read());
+        }
+
+        try (ReadableByteChannel channel = store.openChannel(firstPageId)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(7000);
+            byte[] read = new byte[value.length];
+            int offset = 0;
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                buffer.flip();
+                buffer.get(read, offset, n);
+                offset += n;
+                buffer.clear();
+            }
+            assertEquals(value.length, offset);
+            assertArrayEquals(value, read);
+        }
+    }
+
+    @Test
+    void testSmallAndEmptyValues() throws IOException {
+        int empty = store.store(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, store.length(empty));
+        try (InputStream in = store.openInputStream(empty)) {
+            assertEquals(-1, in.read());
+        }
+
+        byte[] exact = randomBytes(store.getPageCapacity(), 2);
+        int oneByte = store.store(new ByteArrayInputStream(new byte[]{42}));
+        int onePage = store.store(new ByteArrayInputStream(exact));
+        try (InputStream in = store.openInputStream(oneByte)) {
+            assertEquals(42, in.read());
+            assertEquals(-1, in.read());
+        }
+        try (InputStream in = store.openInputStream(onePage)) {
+            assertArrayEquals(exact, in.readAllBytes());
+        }
+
+        // 小值只占用一页，多分配的页已经归还
+        assertEquals(3, dbFile.getAllocatedPageCount() - 2);
+    }
+
+    @Test
+    void testSkip() throws IOException {
+        byte[] value = randomBytes(100_000, 3);
+        int firstPageId = store.store(new ByteArrayInputStream(value));
+        try (InputStream in = store.openInputStream(firstPageId)) {
+            assertEquals(50_000, in.skip(50_000));
+            byte[] chunk = in.readNBytes(10);
+            assertArrayEquals(Arrays.copyOfRange(value, 50_000, 50_010), chunk);
+            assertEquals(value.length - 50_010, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testDeleteFreesPages() throws IOException {
+        int before = dbFile.getAllocatedPageCount();
+        int first = store.store(new ByteArrayInputStream(randomBytes(500_000, 4)));
+        int second = store.store(new ByteArrayInputStream(randomBytes(200_000, 5)));
+        assertTrue(dbFile.getAllocatedPageCount() > before + 100);
+
+        store.delete(first);
+        store.delete(second);
+        assertEquals(before, dbFile.getAllocatedPageCount());
+
+        // 释放的页可以被新值复用
+        byte[] value = randomBytes(300_000, 6);
+        int third = store.store(new ByteArrayInputStream(value));
+        try (InputStream in = store.openInputStream(third)) {
+            assertArrayEquals(value, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testLargeValuesDoNotFlushPool() throws IOException {
+        int[] hot = dbFile.allocatePages(8);
+        for (int pageId : hot) {
+            pool.getPage(pageId);
+        }
+        List<Integer> resident = pool.getResidentPageIds();
+
+        byte[] value = randomBytes(1024 * 1024, 7);
+        int firstPageId;
+        try (OutputStream out = store.create()) {
+            out.write(value);
+            firstPageId = ((OverflowStore.ChainOutputStream) out).getFirstPageId();
+        }
+        try (InputStream in = store.openInputStream(firstPageId)) {
+            assertArrayEquals(value, in.readAllBytes());
+        }
+        assertEquals(new HashSet<>(resident), new HashSet<>(pool.getResidentPageIds()));
+    }
+
+    @Test
+    void testWriteDoesNotReadNewPagesAndSyncsOnce() throws IOException {
+        byte[] value = randomBytes(200 * store.getPageCapacity(), 9);
+        StorageMetrics metrics = dbFile.getMetrics();
+        long readsBefore = metrics.getPageReads();
+        long fsyncsBefore = metrics.getFsyncs();
+        int firstPageId = store.store(new ByteArrayInputStream(value));
+        // 新页不读磁盘，只有关闭时写总长度可能要读回已经写出的首页
+        assertTrue(metrics.getPageReads() - readsBefore <= 1);
+        // 数据页关闭环时fsync一次，位图一次
+        assertEquals(2, metrics.getFsyncs() - fsyncsBefore);
+
+        try (InputStream in = store.openInputStream(firstPageId)) {
+            assertArrayEquals(value, in.readAllBytes());
+        }
+    }
+}
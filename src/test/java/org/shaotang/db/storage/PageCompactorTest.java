@@ -0,0 +1,174 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageCompactorTest {
+    private static final String TEST_FILE = "compact_test.db";
+    private DBFile dbFile;
+
+    // 模拟上层的引用：值 -> 所在页
+    private final Map<Integer, Integer> locations = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        dbFile = new DBFile(TEST_FILE);
+
+        for (int i = 0; i < 20; i++) {
+            int pageId = dbFile.allocateNewPage();
+            Page page = new Page();
+            page.setInt(0, i);
+            dbFile.writePage(pageId, page.getData());
+            locations.put(i, pageId);
+        }
+        // 释放前一半，留下空洞
+        for (int i = 0; i < 10; i++) {
+            dbFile.freePage(locations.remove(i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+        new File(TEST_FILE).delete();
+    }
+
+    private PageCompactor.RelocationHook trackingHook() {
+        return (oldPageId, newPageId) -> {
+            for (Map.Entry<Integer, Integer> entry : locations.entrySet()) {
+                if (entry.getValue() == oldPageId) {
+                    entry.setValue(newPageId);
+                }
+            }
+            return true;
+        };
+    }
+
+    private void assertContentFollowsReferences() throws IOException {
+        for (Map.Entry<Integer, Integer> entry : locations.entrySet()) {
+            assertEquals(entry.getKey(), new Page(dbFile.readPage(entry.getValue())).getInt(0));
+        }
+    }
+
+    @Test
+    void testFreePageUsesLogicalIds() throws IOException {
+        int pageId = dbFile.allocateNewPage();
+        assertTrue(dbFile.isAllocated(pageId));
+        dbFile.freePage(pageId);
+        assertFalse(dbFile.isAllocated(pageId));
+        assertThrows(IllegalArgumentException.class, () -> dbFile.freePage(pageId));
+    }
+
+    @Test
+    void testCompactAndTruncate() throws IOException {
+        long sizeBefore = dbFile.getLogicalFileSize();
+        PageCompactor compactor = new PageCompactor(dbFile, trackingHook());
+
+        assertEquals(10, compactor.compact(100));
+
+        // 剩下的10页都搬到了最前面
+        for (int pageId : locations.values()) {
+            assertTrue(pageId < 10, "页" + pageId + "应被搬到前面");
+        }
+        assertContentFollowsReferences();
+        assertEquals(9, dbFile.getLastAllocatedPage());
+        assertEquals(10 * DBFile.PAGE_SIZE, sizeBefore - dbFile.getLogicalFileSize());
+        assertEquals(10 * DBFile.PAGE_SIZE, compactor.getBytesTruncated());
+
+        // 已经紧凑，再跑不会有动作
+        assertEquals(0, compactor.compact(100));
+    }
+
+    @Test
+    void testIncrementalSteps() throws IOException {
+        PageCompactor compactor = new PageCompactor(dbFile, trackingHook());
+        assertEquals(3, compactor.compact(3));
+        assertEquals(3, compactor.compact(3));
+        assertContentFollowsReferences();
+        assertEquals(6, compactor.getPagesMoved());
+    }
+
+    @Test
+    void testHookCanVeto() throws IOException {
+        int last = dbFile.getLastAllocatedPage();
+        PageCompactor compactor = new PageCompactor(dbFile, (oldPageId, newPageId) -> false);
+
+        assertEquals(0, compactor.compact(100));
+        assertTrue(dbFile.isAllocated(last));
+        assertFalse(dbFile.isAllocated(0));
+    }
+
+    @Test
+    void testDirtyPageInBufferPoolIsRelocated() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        int last = dbFile.getLastAllocatedPage();
+        pool.getPage(last).setInt(4, 777);
+        pool.markDirty(last);
+
+        PageCompactor compactor = new PageCompactor(dbFile, pool, trackingHook());
+        compactor.compact(1);
+
+        int newPageId = locations.get(19);
+        assertEquals(777, new Page(dbFile.readPage(newPageId)).getInt(4));
+    }
+
+    @Test
+    void testBackgroundCompaction() throws Exception {
+        PageCompactor compactor = new PageCompactor(dbFile, trackingHook());
+        compactor.start(1000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (compactor.getPagesMoved() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        compactor.stop();
+
+        assertEquals(10, compactor.getPagesMoved());
+        assertContentFollowsReferences();
+        assertEquals(0, compactor.getFailureCount());
+        assertNull(compactor.getLastFailure());
+    }
+
+    @Test
+    void testWriteDuringRelocationIsNotLost() throws IOException {
+        PageCompactor.RelocationHook tracking = trackingHook();
+        // 复制之后、引用切换之前，上层又直接写了旧页
+        PageCompactor compactor = new PageCompactor(dbFile, (oldPageId, newPageId) -> {
+            Page page = new Page(dbFile.readPage(oldPageId));
+            page.setInt(4, 555);
+            dbFile.writePage(oldPageId, page.getData());
+            return tracking.relocate(oldPageId, newPageId);
+        });
+        compactor.compact(1);
+
+        Page moved = new Page(dbFile.readPage(locations.get(19)));
+        assertEquals(19, moved.getInt(0));
+        assertEquals(555, moved.getInt(4));
+    }
+
+    @Test
+    void testBackgroundFailureIsReported() throws Exception {
+        IOException failure = new IOException("hook失败");
+        PageCompactor compactor = new PageCompactor(dbFile, (oldPageId, newPageId) -> {
+            throw failure;
+        });
+        compactor.start(100);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (compactor.getFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        compactor.stop();
+
+        assertTrue(compactor.getFailureCount() > 0);
+        assertSame(failure, compactor.getLastFailure());
+        assertEquals(0, compactor.getPagesMoved());
+    }
+}
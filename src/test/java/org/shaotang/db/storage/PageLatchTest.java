@@ -0,0 +1,123 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageLatchTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testOptimisticReadInvalidatedByWriter() {
+        Page page = new Page();
+        long stamp = page.tryOptimisticRead();
+        assertTrue(page.validate(stamp));
+
+        long writeStamp = page.latchExclusive();
+        // 排他闩持有期间无法开始乐观读
+        assertEquals(0, page.tryOptimisticRead());
+        page.setInt(0, 1);
+        page.unlatchExclusive(writeStamp);
+
+        assertFalse(page.validate(stamp));
+    }
+
+    @Test
+    void testSharedLatchesDoNotBlockEachOther() {
+        Page page = new Page();
+        long s1 = page.latchShared();
+        long s2 = page.latchShared();
+        page.unlatchShared(s1);
+        page.unlatchShared(s2);
+        assertNotEquals(0, page.tryOptimisticRead());
+    }
+
+    @Test
+    void testOptimisticReadersSeeConsistentPage() throws InterruptedException {
+        // 写线程在排他闩下维护不变式：偏移0和偏移4的值之和恒为0
+        Page page = new Page();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger violations = new AtomicInteger();
+
+        Thread writer = new Thread(() -> {
+            int value = 0;
+            while (!stop.get()) {
+                long stamp = page.latchExclusive();
+                try {
+                    value++;
+                    page.setInt(0, value);
+                    page.setInt(4, -value);
+                } finally {
+                    page.unlatchExclusive(stamp);
+                }
+            }
+        });
+
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                for (int n = 0; n < 200_000; n++) {
+                    int sum = page.readOptimistic(() -> page.getInt(0) + page.getInt(4));
+                    if (sum != 0) {
+                        violations.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        stop.set(true);
+        writer.join();
+
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    void testRealExceptionIsRethrown() {
+        Page page = new Page();
+        assertThrows(IllegalArgumentException.class,
+                () -> page.readOptimistic(() -> page.getInt(Page.PAGE_SIZE)));
+    }
+
+    @Test
+    void testWriteBackWaitsForExclusiveLatch() throws Exception {
+        LRUBufferPool pool = new LRUBufferPool(tempDir.resolve("latch_test.db").toString(), 4);
+        Page page = pool.getPage(1);
+
+        // 修改到一半时另一个线程flush，必须等修改完成才复制页内容
+        long stamp = page.latchExclusive();
+        page.setInt(0, 1);
+        Thread flusher = new Thread(() -> {
+            try {
+                pool.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        flusher.start();
+        flusher.join(200);
+        assertTrue(flusher.isAlive());
+        page.setInt(4, 2);
+        page.unlatchExclusive(stamp);
+        flusher.join();
+
+        Page onDisk = new Page(pool.getDBFile().readPage(1));
+        assertEquals(1, onDisk.getInt(0));
+        assertEquals(2, onDisk.getInt(4));
+        assertFalse(page.isDirty());
+        pool.close();
+    }
+}
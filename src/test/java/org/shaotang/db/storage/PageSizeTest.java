@@ -0,0 +1,89 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageSizeTest {
+    private static final String TEST_FILE = "page_size_test.db";
+
+    @AfterEach
+    void tearDown() {
+        new File(TEST_FILE).delete();
+    }
+
+    @Test
+    void testPageSizePersistedAndDetected() throws IOException {
+        new File(TEST_FILE).delete();
+        int pageSize = 16 * 1024;
+
+        DBFile dbFile = new DBFile(TEST_FILE, pageSize);
+        int pageId = dbFile.allocateNewPage();
+        Page page = new Page(pageSize);
+        page.setInt(pageSize - Integer.BYTES, 12345);
+        dbFile.writePage(pageId, page.getData());
+        dbFile.close();
+
+        // 不指定页大小打开，应从元数据页识别
+        dbFile = new DBFile(TEST_FILE);
+        assertEquals(pageSize, dbFile.getPageSize());
+        assertEquals(3, dbFile.getAllocatedPageCount());
+        assertEquals(headerAndPages(pageSize, 3), dbFile.getLogicalFileSize());
+        assertEquals(12345, new Page(dbFile.readPage(pageId)).getInt(pageSize - Integer.BYTES));
+        dbFile.close();
+    }
+
+    private static long headerAndPages(int pageSize, int pages) {
+        return DBFile.HEADER_SIZE + (long) pageSize * pages;
+    }
+
+    @Test
+    void testEverySupportedSize() throws IOException {
+        for (int pageSize = Page.MIN_PAGE_SIZE; pageSize <= Page.MAX_PAGE_SIZE; pageSize <<= 1) {
+            new File(TEST_FILE).delete();
+            new DBFile(TEST_FILE, pageSize).close();
+
+            DBFile reopened = new DBFile(TEST_FILE);
+            assertEquals(pageSize, reopened.getPageSize());
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testMismatchAndInvalidSize() throws IOException {
+        new File(TEST_FILE).delete();
+        new DBFile(TEST_FILE, 8 * 1024).close();
+
+        assertThrows(IOException.class, () -> new DBFile(TEST_FILE, 32 * 1024));
+        assertThrows(IllegalArgumentException.class, () -> new DBFile(TEST_FILE, 6000));
+        assertThrows(IllegalArgumentException.class, () -> new Page(128 * 1024));
+        assertThrows(IllegalArgumentException.class, () -> new Page(new byte[1000]));
+    }
+
+    @Test
+    void testBufferPoolWithLargePages() throws IOException {
+        new File(TEST_FILE).delete();
+        int pageSize = Page.MAX_PAGE_SIZE;
+
+        LRUBufferPool pool = new LRUBufferPool(TEST_FILE, 2, pageSize);
+        DBFile dbFile = pool.getDBFile();
+        int[] pageIds = dbFile.allocatePages(3);
+        for (int pageId : pageIds) {
+            Page page = pool.getPage(pageId);
+            assertEquals(pageSize, page.getSize());
+            page.setInt(pageSize - Integer.BYTES, pageId + 100);
+            pool.markDirty(pageId);
+        }
+        pool.close();
+
+        dbFile = new DBFile(TEST_FILE);
+        for (int pageId : pageIds) {
+            assertEquals(pageId + 100, new Page(dbFile.readPage(pageId)).getInt(pageSize - Integer.BYTES));
+        }
+        dbFile.close();
+    }
+}
@@ -44,4 +44,65 @@ public class PageTest {
         assertEquals(123, page2.getInt(0));
         assertEquals(456, page2.getInt(100));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBulkIntsAndLongs() {
+        Page page = new Page();
+        int[] ints = new int[Page.PAGE_SIZE / Integer.BYTES];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 31 - 7;
+        }
+        page.setInts(0, ints, 0, ints.length);
+        assertTrue(page.isDirty());
+
+        // 和逐个读取的结果一致（小端）
+        assertEquals(ints[10], page.getInt(40));
+        int[] back = new int[ints.length];
+        page.getInts(0, back, 0, back.length);
+        assertArrayEquals(ints, back);
+
+        // 非对齐偏移、目标数组中间位置
+        long[] longs = {Long.MIN_VALUE, -1, 0, 42, Long.MAX_VALUE};
+        page.setLongs(3, longs, 1, 3);
+        assertEquals(-1L, page.getLong(3));
+        assertEquals(42L, page.getLong(3 + 2 * Long.BYTES));
+        long[] longsBack = new long[5];
+        page.getLongs(3, longsBack, 2, 3);
+        assertArrayEquals(new long[]{0, 0, -1, 0, 42}, longsBack);
+    }
+
+    @Test
+    public void testBulkBoundsCheckedOnce() {
+        Page page = new Page();
+        int[] ints = new int[2];
+        assertThrows(IllegalArgumentException.class, () -> page.getInts(4090, ints, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> page.setLongs(-1, new long[1], 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> page.getInts(0, ints, 1, 2));
+        // 超大的count不会因为乘法溢出而通过检查
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> page.getInts(0, ints, 0, Integer.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void testFillCopyAndClear() {
+        Page src = new Page();
+        src.fill(100, 50, (byte) 0x7F);
+        assertEquals(0, src.getByte(99));
+        assertEquals(0x7F, src.getByte(100));
+        assertEquals(0x7F, src.getByte(149));
+        assertEquals(0, src.getByte(150));
+
+        Page dst = new Page(8192);
+        dst.copyFrom(src, 100, 8000, 50);
+        assertArrayEquals(src.getBytes(100, 50), dst.getBytes(8000, 50));
+        assertThrows(IllegalArgumentException.class, () -> src.copyFrom(dst, 8000, 4090, 50));
+
+        // 同一页内重叠复制
+        src.setInt(0, 0x01020304);
+        src.copyFrom(src, 0, 2, 4);
+        assertEquals(0x0304, src.getShort(2));
+
+        src.clear();
+        assertArrayEquals(new byte[Page.PAGE_SIZE], src.getData());
+    }
+}
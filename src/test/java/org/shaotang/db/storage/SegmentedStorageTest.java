@@ -0,0 +1,105 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedStorageTest {
+    // 每段4页，方便测试跨段
+    private static final long SEGMENT_SIZE = 4L * DBFile.PAGE_SIZE;
+
+    @TempDir
+    Path disk1;
+
+    @TempDir
+    Path disk2;
+
+    private static byte[] pageOf(long pageId) {
+        byte[] data = new byte[DBFile.PAGE_SIZE];
+        Arrays.fill(data, (byte) pageId);
+        new Page(data).setLong(0, pageId);
+        return data;
+    }
+
+    @Test
+    void testPageIdMapping() throws IOException {
+        SegmentedStorage storage = new SegmentedStorage(List.of(disk1), SEGMENT_SIZE);
+
+        assertEquals(0, storage.segmentOf(3));
+        assertEquals(1, storage.segmentOf(4));
+        assertEquals(DBFile.PAGE_SIZE, storage.offsetInSegment(5));
+
+        // 64位页号：远超int范围
+        long bigPageId = 10_000_000_000L;
+        assertEquals(2_500_000_000L, bigPageId / 4);
+        assertThrows(IllegalArgumentException.class, () -> storage.segmentOf(bigPageId));
+        assertThrows(IllegalArgumentException.class, () -> storage.segmentOf(-1));
+        storage.close();
+
+        // 默认1GB一段时，同样的页号可以映射
+        SegmentedStorage large = new SegmentedStorage(disk1);
+        assertEquals(bigPageId / large.getPagesPerSegment(), large.segmentOf(bigPageId));
+        large.close();
+    }
+
+    @Test
+    void testStripingAndLazyOpen() throws IOException {
+        SegmentedStorage storage = new SegmentedStorage(List.of(disk1, disk2), SEGMENT_SIZE);
+
+        // 没写过的段读出全0，且不创建文件
+        assertArrayEquals(new byte[DBFile.PAGE_SIZE], storage.readPage(100));
+        assertEquals(0, storage.getOpenSegmentCount());
+
+        for (long pageId = 0; pageId < 12; pageId++) {
+            storage.writePage(pageId, pageOf(pageId), false);
+        }
+        storage.sync();
+        assertEquals(3, storage.getOpenSegmentCount());
+
+        // 段0、2在disk1，段1在disk2
+        assertTrue(Files.exists(disk1.resolve("segment-000000.dat")));
+        assertTrue(Files.exists(disk2.resolve("segment-000001.dat")));
+        assertTrue(Files.exists(disk1.resolve("segment-000002.dat")));
+        assertEquals(SEGMENT_SIZE, Files.size(disk1.resolve("segment-000000.dat")));
+        storage.close();
+
+        // 重新打开后数据还在
+        SegmentedStorage reopened = new SegmentedStorage(List.of(disk1, disk2), SEGMENT_SIZE);
+        for (long pageId = 0; pageId < 12; pageId++) {
+            assertArrayEquals(pageOf(pageId), reopened.readPage(pageId));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void testCustomPageSize() throws IOException {
+        int pageSize = 16 * 1024;
+        SegmentedStorage storage = new SegmentedStorage(List.of(disk1), 4L * pageSize, pageSize);
+        assertEquals(pageSize, storage.getPageSize());
+        assertEquals(4, storage.getPagesPerSegment());
+
+        byte[] data = new byte[pageSize];
+        Arrays.fill(data, (byte) 9);
+        storage.writePage(5, data);
+        assertArrayEquals(data, storage.readPage(5));
+        assertEquals(1, storage.segmentOf(5));
+        assertThrows(IllegalArgumentException.class, () -> storage.writePage(6, new byte[DBFile.PAGE_SIZE]));
+        storage.close();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SegmentedStorage(List.of(disk1), 4L * 1000, 1000));
+    }
+
+    @Test
+    void testInvalidSegmentSize() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new SegmentedStorage(List.of(disk1), DBFile.PAGE_SIZE + 1));
+    }
+}
@@ -0,0 +1,165 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShadowPagingFileTest {
+    private static final String TEST_FILE = "shadow_test.db";
+    private ShadowPagingFile shadow;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        shadow = new ShadowPagingFile(TEST_FILE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        shadow.close();
+        new File(TEST_FILE).delete();
+    }
+
+    private static byte[] pageOf(int value) {
+        Page page = new Page();
+        page.setInt(0, value);
+        return page.getData();
+    }
+
+    private static int valueOf(byte[] data) {
+        return new Page(data).getInt(0);
+    }
+
+    private void reopen() throws IOException {
+        shadow.close();
+        shadow = new ShadowPagingFile(TEST_FILE);
+    }
+
+    @Test
+    void testCommitIsDurable() throws IOException {
+        shadow.writePage(0, pageOf(100));
+        shadow.writePage(5, pageOf(105));
+        assertEquals(1, shadow.commit());
+
+        reopen();
+        assertEquals(1, shadow.getCommitSeq());
+        assertEquals(100, valueOf(shadow.readPage(0)));
+        assertEquals(105, valueOf(shadow.readPage(5)));
+        assertEquals(0, valueOf(shadow.readPage(3)));
+    }
+
+    @Test
+    void testUncommittedChangesAreLost() throws IOException {
+        shadow.writePage(0, pageOf(1));
+        shadow.commit();
+
+        shadow.writePage(0, pageOf(2));
+        shadow.writePage(1, pageOf(3));
+        // 写者自己能看到未提交的修改
+        assertEquals(2, valueOf(shadow.readPage(0)));
+
+        reopen();  // 相当于提交前崩溃
+        assertEquals(1, valueOf(shadow.readPage(0)));
+        assertEquals(0, valueOf(shadow.readPage(1)));
+    }
+
+    @Test
+    void testRollback() throws IOException {
+        shadow.writePage(2, pageOf(7));
+        shadow.commit();
+        shadow.writePage(2, pageOf(8));
+        shadow.rollback();
+        assertEquals(7, valueOf(shadow.readPage(2)));
+    }
+
+    @Test
+    void testPagesAreWrittenOutOfPlace() throws IOException {
+        shadow.writePage(0, pageOf(1));
+        shadow.commit();
+        int before = shadow.getMappedPage(0);
+
+        shadow.writePage(0, pageOf(2));
+        shadow.commit();
+        int after = shadow.getMappedPage(0);
+        assertNotEquals(before, after);
+
+        // 旧页内容没有被覆盖，直到被后续提交复用
+        assertEquals(1, valueOf(shadow.getDBFile().readPage(before)));
+    }
+
+    @Test
+    void testOldPagesAreReused() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            shadow.writePage(0, pageOf(i));
+            shadow.commit();
+        }
+        // 每次提交1个数据页+1个叶子映射页+1个目录页，旧的都被释放复用，文件不会一直增长
+        assertTrue(shadow.getDBFile().getAllocatedPageCount() <= 3 + 3);
+        reopen();
+        assertEquals(49, valueOf(shadow.readPage(0)));
+    }
+
+    @Test
+    void testTornRootSlotFallsBackToPreviousCommit() throws IOException {
+        shadow.writePage(0, pageOf(1));
+        shadow.commit();                 // 序号1，写A槽
+        shadow.writePage(0, pageOf(2));
+        shadow.commit();                 // 序号2，写B槽
+        shadow.close();
+
+        // 模拟B槽写了一半：破坏其中的根页号，校验和不再匹配
+        long slotB = DBFile.HEADER_SIZE + DBFile.PAGE_SIZE + ShadowPagingFile.ROOT_SLOT_B_OFFSET;
+        try (RandomAccessFile raf = new RandomAccessFile(TEST_FILE, "rw")) {
+            raf.seek(slotB + 8);
+            raf.write(new byte[]{0x7F, 0x7F});
+        }
+
+        shadow = new ShadowPagingFile(TEST_FILE);
+        assertEquals(1, shadow.getCommitSeq());
+        // 序号1的映射页和数据页在提交2之后被释放，但还没有被复用，内容仍完整
+        assertEquals(1, valueOf(shadow.readPage(0)));
+    }
+
+    @Test
+    void testLargeMappingSpansSeveralPages() throws IOException {
+        for (int i = 0; i < 3000; i += 7) {
+            shadow.writePage(i, pageOf(i));
+        }
+        shadow.commit();
+        reopen();
+        for (int i = 0; i < 3000; i += 7) {
+            assertEquals(i, valueOf(shadow.readPage(i)));
+        }
+    }
+
+    @Test
+    void testCommitWritesOnlyAffectedMappingPages() throws IOException {
+        for (int i = 0; i < 3000; i++) {
+            shadow.writePage(i, pageOf(i));
+        }
+        shadow.commit();
+
+        AtomicInteger written = new AtomicInteger();
+        shadow.getDBFile().addWriteListener((pageId, page) -> {
+            if (pageId >= 0) {
+                written.incrementAndGet();
+            }
+        });
+        shadow.writePage(1500, pageOf(-1));
+        shadow.commit();
+        // 数据页、覆盖它的叶子映射页和目录页，其他叶子不动
+        assertEquals(3, written.get());
+
+        reopen();
+        assertEquals(-1, valueOf(shadow.readPage(1500)));
+        assertEquals(0, valueOf(shadow.readPage(0)));
+        assertEquals(2999, valueOf(shadow.readPage(2999)));
+    }
+}
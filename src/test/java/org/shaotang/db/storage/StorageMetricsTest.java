@@ -0,0 +1,95 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageMetricsTest {
+    private static final String TEST_FILE = "metrics_test.db";
+    private LRUBufferPool pool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        pool = new LRUBufferPool(TEST_FILE, 2);
+        pool.getMetrics().reset();  // 不统计建文件时的写入
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+        new File(TEST_FILE).delete();
+    }
+
+    @Test
+    void testBufferPoolCounters() throws IOException {
+        StorageMetrics metrics = pool.getMetrics();
+
+        pool.getPage(1);                 // 未命中
+        pool.getPage(1);                 // 命中
+        pool.getPage(2);                 // 未命中
+        pool.getPage(1).setInt(0, 7);
+        pool.markDirty(1);               // 命中
+        pool.getPage(3);                 // 未命中，淘汰页2
+        pool.getPage(4);                 // 未命中，淘汰脏页1
+
+        assertEquals(2, metrics.getCacheHits());
+        assertEquals(4, metrics.getCacheMisses());
+        assertEquals(2.0 / 6, metrics.getHitRatio(), 1e-9);
+        assertEquals(2, metrics.getEvictions());
+        assertEquals(1, metrics.getDirtyWriteBacks());
+        assertEquals(4, metrics.getPageReads());
+        assertEquals(1, metrics.getPageWrites());
+        assertEquals(1, metrics.getFsyncs());
+    }
+
+    @Test
+    void testAllocationCounters() throws IOException {
+        DBFile dbFile = pool.getDBFile();
+        StorageMetrics metrics = pool.getMetrics();
+
+        dbFile.allocateNewPage();
+        dbFile.allocateContiguousPages(5);
+
+        assertEquals(6, metrics.getPagesAllocated());
+    }
+
+    @Test
+    void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);     // 桶上界1024
+        }
+        histogram.record(1_000_000);    // 桶上界1048576
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1024, histogram.getPercentileNanos(50));
+        assertEquals(1024, histogram.getPercentileNanos(99));
+        assertEquals(1 << 20, histogram.getPercentileNanos(100));
+        assertEquals((99 * 1000 + 1_000_000) / 100.0, histogram.getMeanNanos(), 1e-9);
+    }
+
+    @Test
+    void testJmxRegistration() throws Exception {
+        StorageMetrics metrics = pool.getMetrics();
+        pool.getPage(1);
+        pool.getPage(1);
+
+        ObjectName name = metrics.registerMBean(TEST_FILE);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "CacheHits"));
+            assertEquals(0.5, (Double) server.getAttribute(name, "HitRatio"), 1e-9);
+        } finally {
+            metrics.unregisterMBean(TEST_FILE);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuAdmissionTest {
+    @TempDir
+    Path tempDir;
+
+    private DBFile dbFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dbFile = new DBFile(tempDir.resolve("tinylfu_test.db").toString());
+        dbFile.allocatePages(2100);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        dbFile.close();
+    }
+
+    @Test
+    void testSketchCountsAndAges() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(7);
+        }
+        sketch.increment(8);
+        assertEquals(15, sketch.frequency(7));  // 4位计数器封顶
+        assertEquals(1, sketch.frequency(8));
+        assertEquals(0, sketch.frequency(9));
+
+        // 累计增加达到采样数后减半
+        for (int key = 100; sketch.frequency(7) == 15; key++) {
+            sketch.increment(key);
+        }
+        assertEquals(7, sketch.frequency(7));
+    }
+
+    // 50个热点页反复访问，中间夹着一次性的顺序扫描，返回热点页的命中次数
+    private long hotHits(LRUBufferPool pool) throws IOException {
+        StorageMetrics metrics = pool.getMetrics();
+        int scanPage = 100;
+        long hits = 0;
+        for (int round = 0; round < 40; round++) {
+            for (int pageId = 0; pageId < 50; pageId++) {
+                long before = metrics.getCacheHits();
+                pool.getPage(pageId);
+                hits += metrics.getCacheHits() - before;
+                pool.getPage(scanPage++);
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    void testScanDoesNotFlushHotPages() throws IOException {
+        LRUBufferPool lru = new LRUBufferPool(dbFile, 64);
+        long lruHits = hotHits(lru);
+        lru.flush();
+
+        LRUBufferPool tinyLfu = new LRUBufferPool(dbFile, 64);
+        tinyLfu.setAdmissionPolicy(new TinyLfuAdmission(64));
+        long tinyLfuHits = hotHits(tinyLfu);
+
+        // 纯LRU中每轮的扫描页正好把热点页挤出去；准入策略下热点页留在主段
+        assertEquals(0, lruHits);
+        assertTrue(tinyLfuHits > 40 * 50 * 9 / 10, "命中次数: " + tinyLfuHits);
+        assertTrue(tinyLfu.getAdmissionPolicy().getRejected() > 1000);
+        assertEquals(64, tinyLfu.getResidentPageIds().size());
+    }
+
+    @Test
+    void testRejectedDirtyPageIsWrittenBack() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        pool.setAdmissionPolicy(new TinyLfuAdmission(4, 0.25));
+        for (int round = 0; round < 5; round++) {
+            for (int pageId = 0; pageId < 3; pageId++) {
+                pool.getPage(pageId);
+            }
+        }
+
+        // 只访问一次的页会被拒绝准入，修改不能丢
+        pool.getPage(10).setInt(0, 42);
+        pool.markDirty(10);
+        pool.getPage(11);
+        assertEquals(1, pool.getAdmissionPolicy().getRejected());
+        assertFalse(pool.getResidentPageIds().contains(10));
+        assertEquals(42, new Page(dbFile.readPage(10)).getInt(0));
+        assertEquals(42, pool.getPage(10).getInt(0));
+    }
+
+    @Test
+    void testPolicyOnlyOnEmptyPool() throws IOException {
+        LRUBufferPool pool = new LRUBufferPool(dbFile, 4);
+        pool.getPage(0);
+        assertThrows(IllegalStateException.class, () -> pool.setAdmissionPolicy(new TinyLfuAdmission(4)));
+    }
+}
@@ -0,0 +1,143 @@
+package org.shaotang.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VersionedBufferPoolTest {
+    private static final String TEST_FILE = "mvcc_test.db";
+    private LRUBufferPool pool;
+    private VersionedBufferPool versioned;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new File(TEST_FILE).delete();
+        pool = new LRUBufferPool(TEST_FILE, 8);
+        versioned = new VersionedBufferPool(pool);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+        new File(TEST_FILE).delete();
+    }
+
+    private long write(int pageId, int value) throws IOException {
+        VersionedBufferPool.Writer writer = versioned.beginWrite();
+        writer.getPageForWrite(pageId).setInt(0, value);
+        return writer.commit();
+    }
+
+    @Test
+    void testSnapshotSeesPointInTimeView() throws IOException {
+        write(1, 10);
+        write(2, 20);
+
+        VersionedBufferPool.Snapshot snapshot = versioned.openSnapshot();
+
+        // 快照之后的多页提交对快照不可见
+        VersionedBufferPool.Writer writer = versioned.beginWrite();
+        writer.getPageForWrite(1).setInt(0, 11);
+        writer.getPageForWrite(2).setInt(0, 21);
+        writer.commit();
+
+        assertEquals(10, snapshot.read(1).getInt(0));
+        assertEquals(20, snapshot.read(2).getInt(0));
+
+        try (VersionedBufferPool.Snapshot latest = versioned.openSnapshot()) {
+            assertEquals(11, latest.read(1).getInt(0));
+            assertEquals(21, latest.read(2).getInt(0));
+        }
+        snapshot.close();
+    }
+
+    @Test
+    void testWriteThroughToBufferPool() throws IOException {
+        write(3, 33);
+        assertEquals(33, pool.getPage(3).getInt(0));
+        assertTrue(pool.getPage(3).isDirty());
+    }
+
+    @Test
+    void testFirstCommitterWins() throws IOException {
+        VersionedBufferPool.Writer first = versioned.beginWrite();
+        VersionedBufferPool.Writer second = versioned.beginWrite();
+        first.getPageForWrite(4).setInt(0, 1);
+        second.getPageForWrite(4).setInt(0, 2);
+
+        first.commit();
+        assertThrows(ConcurrentModificationException.class, second::commit);
+
+        try (VersionedBufferPool.Snapshot snapshot = versioned.openSnapshot()) {
+            assertEquals(1, snapshot.read(4).getInt(0));
+        }
+    }
+
+    @Test
+    void testConflictDetectedAfterChainCollected() throws IOException {
+        VersionedBufferPool.Writer slow = versioned.beginWrite();
+        slow.getPageForWrite(5).setInt(0, 1);
+        write(5, 2);
+
+        // 只剩最新版本，版本链被回收
+        versioned.gc();
+        assertEquals(0, versioned.getVersionCount());
+        assertThrows(ConcurrentModificationException.class, slow::commit);
+
+        // 回收后开始的写基于最后一次提交，可以正常提交
+        write(5, 3);
+        try (VersionedBufferPool.Snapshot snapshot = versioned.openSnapshot()) {
+            assertEquals(3, snapshot.read(5).getInt(0));
+        }
+    }
+
+    @Test
+    void testGarbageCollection() throws IOException {
+        write(5, 1);
+        VersionedBufferPool.Snapshot old = versioned.openSnapshot();
+        write(5, 2);
+        write(5, 3);
+
+        // 旧快照仍需要值为1的版本；值为2的版本没人需要了
+        versioned.gc();
+        assertEquals(1, old.read(5).getInt(0));
+        assertEquals(2, versioned.getVersionCount());
+
+        old.close();  // 关闭时触发回收，只剩最新版本，版本链被删除
+        assertEquals(0, versioned.getVersionCount());
+
+        try (VersionedBufferPool.Snapshot snapshot = versioned.openSnapshot()) {
+            assertEquals(3, snapshot.read(5).getInt(0));
+        }
+        // 版本链重建后，基于最新内容的写入不算冲突
+        write(5, 4);
+    }
+
+    @Test
+    void testReadersNotBlockedByWriters() throws Exception {
+        write(6, 0);
+        VersionedBufferPool.Snapshot snapshot = versioned.openSnapshot();
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 1000; i++) {
+                    write(6, i);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(0, snapshot.read(6).getInt(0));
+        }
+        writer.join();
+        snapshot.close();
+    }
+}
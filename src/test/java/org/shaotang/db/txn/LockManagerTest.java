@@ -0,0 +1,174 @@
+package org.shaotang.db.txn;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LockManagerTest {
+    @TempDir
+    Path tempDir;
+
+    private LRUBufferPool pool;
+    private LockManager locks;
+    private TransactionManager manager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        pool = new LRUBufferPool(new DBFile(tempDir.resolve("lock_test.db").toString()), 16);
+        locks = new LockManager(16, 20, 5_000);
+        manager = new TransactionManager(pool, locks);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+    }
+
+    private static final LockTarget A = LockTarget.page(1);
+    private static final LockTarget B = LockTarget.page(2);
+
+    // 在另一个线程里加锁，返回加锁完成的future
+    private static CompletableFuture<Void> acquireAsync(LockManager locks, Transaction txn,
+                                                        LockTarget target, LockMode mode) {
+        return CompletableFuture.runAsync(() -> locks.acquire(txn, target, mode));
+    }
+
+    private static void assertStillWaiting(CompletableFuture<?> future) {
+        assertThrows(TimeoutException.class, () -> future.get(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testSharedCompatibleExclusiveBlocks() throws Exception {
+        Transaction t1 = manager.begin();
+        Transaction t2 = manager.begin();
+        Transaction t3 = manager.begin();
+        locks.acquire(t1, A, LockMode.SHARED);
+        locks.acquire(t2, A, LockMode.SHARED);
+
+        CompletableFuture<Void> writer = acquireAsync(locks, t3, A, LockMode.EXCLUSIVE);
+        assertStillWaiting(writer);
+        t1.commit();
+        assertStillWaiting(writer);
+        t2.commit();
+        writer.get(5, TimeUnit.SECONDS);
+        assertEquals(LockMode.EXCLUSIVE, locks.heldMode(t3, A));
+
+        t3.commit();
+        assertEquals(0, locks.getLockedObjectCount());
+    }
+
+    @Test
+    void testQueuedWriterBlocksLaterReaders() throws Exception {
+        Transaction reader = manager.begin();
+        Transaction writer = manager.begin();
+        Transaction lateReader = manager.begin();
+        locks.acquire(reader, A, LockMode.SHARED);
+        CompletableFuture<Void> write = acquireAsync(locks, writer, A, LockMode.EXCLUSIVE);
+        assertStillWaiting(write);
+
+        // 排他锁在排队，后来的共享锁不能插队
+        CompletableFuture<Void> read = acquireAsync(locks, lateReader, A, LockMode.SHARED);
+        assertStillWaiting(read);
+
+        reader.commit();
+        write.get(5, TimeUnit.SECONDS);
+        assertStillWaiting(read);
+        writer.commit();
+        read.get(5, TimeUnit.SECONDS);
+        lateReader.commit();
+    }
+
+    @Test
+    void testDeadlockAbortsYoungest() throws Exception {
+        Transaction older = manager.begin();
+        Transaction younger = manager.begin();
+        locks.acquire(older, A, LockMode.EXCLUSIVE);
+        locks.acquire(younger, B, LockMode.EXCLUSIVE);
+
+        CompletableFuture<Void> olderWaits = acquireAsync(locks, older, B, LockMode.EXCLUSIVE);
+        assertStillWaiting(olderWaits);
+        TransactionAbortedException e = assertThrows(TransactionAbortedException.class,
+                () -> locks.acquire(younger, A, LockMode.EXCLUSIVE));
+        assertEquals(younger.getId(), e.getTransactionId());
+        assertEquals(1, locks.getDeadlockCount());
+
+        younger.abort();
+        olderWaits.get(5, TimeUnit.SECONDS);
+        older.commit();
+    }
+
+    @Test
+    void testUpgradeDeadlock() throws Exception {
+        Transaction t1 = manager.begin();
+        locks.acquire(t1, A, LockMode.SHARED);
+        // 唯一的持有者直接升级
+        locks.acquire(t1, A, LockMode.EXCLUSIVE);
+        assertEquals(LockMode.EXCLUSIVE, locks.heldMode(t1, A));
+        t1.commit();
+
+        Transaction t2 = manager.begin();
+        Transaction t3 = manager.begin();
+        locks.acquire(t2, A, LockMode.SHARED);
+        locks.acquire(t3, A, LockMode.SHARED);
+        CompletableFuture<Void> upgrade = acquireAsync(locks, t2, A, LockMode.EXCLUSIVE);
+        assertStillWaiting(upgrade);
+        // 两个共享锁持有者同时升级，互相等待
+        assertThrows(TransactionAbortedException.class, () -> locks.acquire(t3, A, LockMode.EXCLUSIVE));
+        t3.abort();
+        upgrade.get(5, TimeUnit.SECONDS);
+        t2.commit();
+    }
+
+    @Test
+    void testTimeoutAbortsWaiter() throws Exception {
+        LockManager shortTimeout = new LockManager(4, 1_000, 100);
+        TransactionManager txns = new TransactionManager(pool, shortTimeout);
+        Transaction holder = txns.begin();
+        Transaction waiter = txns.begin();
+        shortTimeout.acquire(holder, A, LockMode.EXCLUSIVE);
+
+        assertThrows(TransactionAbortedException.class, () -> shortTimeout.acquire(waiter, A, LockMode.SHARED));
+        assertEquals(1, shortTimeout.getTimeoutCount());
+        // 被中止的事务不能再加锁，提交会抛出异常并回滚
+        assertThrows(TransactionAbortedException.class, () -> shortTimeout.acquire(waiter, B, LockMode.SHARED));
+        assertThrows(TransactionAbortedException.class, waiter::commit);
+        assertEquals(Transaction.State.ABORTED, waiter.getState());
+
+        holder.commit();
+        assertEquals(0, shortTimeout.getLockedObjectCount());
+    }
+
+    @Test
+    void testManyConcurrentSharedHolders() throws IOException, ExecutionException, InterruptedException {
+        Transaction[] txns = new Transaction[5000];
+        for (int i = 0; i < txns.length; i++) {
+            txns[i] = manager.begin();
+            locks.acquire(txns[i], LockTarget.record(i % 100, i), LockMode.EXCLUSIVE);
+            locks.acquire(txns[i], A, LockMode.SHARED);
+        }
+        assertEquals(5001, locks.getLockedObjectCount());
+        assertEquals(5000, manager.getActiveCount());
+
+        Transaction writer = manager.begin();
+        CompletableFuture<Void> write = acquireAsync(locks, writer, A, LockMode.EXCLUSIVE);
+        for (Transaction txn : txns) {
+            txn.commit();
+        }
+        write.get();
+        writer.commit();
+        assertEquals(0, locks.getLockedObjectCount());
+        assertEquals(0, locks.getDeadlockCount());
+    }
+}
@@ -0,0 +1,163 @@
+package org.shaotang.db.txn;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shaotang.db.storage.DBFile;
+import org.shaotang.db.storage.LRUBufferPool;
+import org.shaotang.db.storage.Page;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionManagerTest {
+    private static final int ACCOUNTS = 8;
+    private static final int INITIAL_BALANCE = 1000;
+
+    @TempDir
+    Path tempDir;
+
+    private LRUBufferPool pool;
+    private TransactionManager manager;
+    private int[] accountPages;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DBFile dbFile = new DBFile(tempDir.resolve("txn_test.db").toString());
+        accountPages = dbFile.allocatePages(ACCOUNTS);
+        pool = new LRUBufferPool(dbFile, 16);
+        manager = new TransactionManager(pool, new LockManager(16, 10, 5_000));
+
+        Transaction init = manager.begin();
+        for (int pageId : accountPages) {
+            init.writePage(pageId).setInt(0, INITIAL_BALANCE);
+        }
+        init.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        pool.close();
+    }
+
+    @Test
+    void testCommitAndAbort() throws IOException {
+        int pageId = accountPages[0];
+        Transaction committed = manager.begin();
+        committed.writePage(pageId).setInt(0, 1);
+        committed.commit();
+        assertEquals(Transaction.State.COMMITTED, committed.getState());
+
+        Transaction aborted = manager.begin();
+        Page page = aborted.writePage(pageId);
+        page.setInt(0, 2);
+        page.setInt(100, 3);
+        aborted.abort();
+        assertEquals(Transaction.State.ABORTED, aborted.getState());
+        assertThrows(IllegalStateException.class, () -> aborted.readPage(pageId));
+
+        Transaction reader = manager.begin();
+        assertEquals(1, reader.readPage(pageId).getInt(0));
+        assertEquals(0, reader.readPage(pageId).getInt(100));
+        reader.commit();
+
+        assertEquals(0, manager.getActiveCount());
+        assertEquals(3, manager.getCommittedCount());
+        assertEquals(1, manager.getAbortedCount());
+    }
+
+    @Test
+    void testWriteSetLargerThanPool() throws IOException {
+        DBFile dbFile = new DBFile(tempDir.resolve("small_pool.db").toString());
+        int[] pages = dbFile.allocatePages(3);
+        LRUBufferPool small = new LRUBufferPool(dbFile, 2);
+        TransactionManager smallManager = new TransactionManager(small);
+        try {
+            // 写第三页时第一页已经被淘汰，修改仍然要在提交时生效
+            Transaction txn = smallManager.begin();
+            Page first = txn.writePage(pages[0]);
+            txn.writePage(pages[1]);
+            txn.writePage(pages[2]);
+            first.setInt(0, 42);
+            assertEquals(42, txn.readPage(pages[0]).getInt(0));
+            txn.commit();
+            small.flush();
+            assertEquals(42, new Page(dbFile.readPage(pages[0])).getInt(0));
+
+            // 中止的修改不会因为淘汰而写到磁盘上
+            Transaction aborted = smallManager.begin();
+            for (int pageId : pages) {
+                aborted.writePage(pageId).setInt(0, -1);
+            }
+            aborted.abort();
+            small.flush();
+            assertEquals(42, new Page(dbFile.readPage(pages[0])).getInt(0));
+            assertEquals(0, new Page(dbFile.readPage(pages[2])).getInt(0));
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    void testConcurrentTransfersPreserveTotal() throws Exception {
+        int threads = 8;
+        int transfersPerThread = 300;
+        AtomicInteger retries = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int from = accountPages[random.nextInt(ACCOUNTS)];
+                    int to = accountPages[random.nextInt(ACCOUNTS)];
+                    // 先读后写、加锁顺序随机，会出现升级死锁和交叉死锁
+                    while (true) {
+                        Transaction txn = manager.begin();
+                        try {
+                            int balance = txn.readPage(from).getInt(0);
+                            int amount = balance > 0 ? 1 + random.nextInt(Math.min(balance, 10)) : 0;
+                            txn.writePage(from).setInt(0, balance - amount);
+                            Page target = txn.writePage(to);
+                            target.setInt(0, target.getInt(0) + amount);
+                            txn.commit();
+                            break;
+                        } catch (TransactionAbortedException e) {
+                            txn.abort();
+                            retries.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        Transaction audit = manager.begin();
+        int total = 0;
+        for (int pageId : accountPages) {
+            int balance = audit.readPage(pageId).getInt(0);
+            assertTrue(balance >= 0);
+            total += balance;
+        }
+        audit.commit();
+        assertEquals(ACCOUNTS * INITIAL_BALANCE, total);
+        assertEquals(retries.get(), manager.getAbortedCount());
+        assertEquals(0, manager.getLockManager().getLockedObjectCount());
+    }
+}